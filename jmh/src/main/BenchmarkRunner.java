@@ -0,0 +1,153 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and saves their results as CSV under {@code jmh/results/}, named by version and time, or compares
+ * two saved results.
+ * <p>
+ * Any usual JMH arguments are passed through, such as a benchmark pattern or {@code -p chunkSize=1MB}. With
+ * {@code compare old.csv new.csv}, every benchmark both files share is listed with its old and new score and the
+ * change between them.
+ * @author UFFR
+ *
+ */
+public class BenchmarkRunner
+{
+	private static final Path RESULTS = Paths.get("jmh", "results");
+	
+	public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException
+	{
+		if (args.length == 3 && "compare".equals(args[0]))
+		{
+			compare(Paths.get(args[1]), Paths.get(args[2]));
+			return;
+		}
+		
+		Files.createDirectories(RESULTS);
+		final Path result = RESULTS.resolve(Main.VERSION + '-' + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv");
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).resultFormat(ResultFormatType.CSV).result(result.toString()).build()).run();
+		System.out.println("Results saved to: " + result);
+	}
+	
+	/**
+	 * Print the scores of every benchmark found in both result files, by the same parameters.
+	 * @param oldPath The earlier results.
+	 * @param newPath The later results.
+	 * @throws IOException If either file could not be read.
+	 */
+	private static void compare(Path oldPath, Path newPath) throws IOException
+	{
+		final Map<String, String[]> oldScores = readScores(oldPath), newScores = readScores(newPath);
+		System.out.printf("%-70s %14s %14s %-8s %9s%n", "Benchmark", "Old", "New", "Unit", "Change");
+		for (Map.Entry<String, String[]> entry : newScores.entrySet())
+		{
+			final String[] oldScore = oldScores.get(entry.getKey()), newScore = entry.getValue();
+			if (oldScore == null)
+				continue;
+			final double before = Double.parseDouble(oldScore[1]), after = Double.parseDouble(newScore[1]);
+			// Time per operation is better lower, throughput higher
+			final boolean lowerIsBetter = !"thrpt".equals(newScore[0]);
+			final double change = (after - before) / before * 100;
+			System.out.printf("%-70s %14.3f %14.3f %-8s %+8.1f%% %s%n", entry.getKey(), before, after, newScore[2], change,
+					change == 0 ? "" : (change < 0) == lowerIsBetter ? "better" : "worse");
+		}
+	}
+	
+	/**
+	 * Read a JMH CSV result file.
+	 * @param path The file to read.
+	 * @return The mode, score and unit of every benchmark, by its name followed by its parameters.
+	 * @throws IOException If the file could not be read.
+	 */
+	private static Map<String, String[]> readScores(Path path) throws IOException
+	{
+		final List<String> lines = Files.readAllLines(path);
+		if (lines.isEmpty())
+			throw new IOException("No results in " + path + '!');
+		final List<String> header = splitCsv(lines.get(0));
+		final int mode = header.indexOf("Mode"), score = header.indexOf("Score"), unit = header.indexOf("Unit");
+		if (mode < 0 || score < 0 || unit < 0)
+			throw new IOException(path + " is not a JMH CSV result file!");
+		
+		final Map<String, String[]> scores = new LinkedHashMap<>();
+		for (String line : lines.subList(1, lines.size()))
+		{
+			final List<String> values = splitCsv(line);
+			final StringBuilder key = new StringBuilder(values.get(0));
+			for (int i = unit + 1; i < values.size(); i++)
+				if (!values.get(i).isEmpty())
+					key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(values.get(i));
+			scores.put(key.toString(), new String[] {values.get(mode), values.get(score), values.get(unit)});
+		}
+		return scores;
+	}
+	
+	/**
+	 * Split a line of CSV, removing the quotes around values.
+	 * @param line The line to split.
+	 * @return The values of the line.
+	 */
+	private static List<String> splitCsv(String line)
+	{
+		final List<String> values = new ArrayList<>();
+		final StringBuilder builder = new StringBuilder();
+		boolean quoted = false;
+		for (char c : line.toCharArray())
+		{
+			if (c == '"')
+				quoted = !quoted;
+			else if (c == ',' && !quoted)
+			{
+				values.add(builder.toString());
+				builder.setLength(0);
+			}
+			else
+				builder.append(c);
+		}
+		values.add(builder.toString());
+		return values;
+	}
+	
+	/**
+	 * Parse a size parameter, such as {@code 64KB}.
+	 * @param size The amount followed by a unit, as in {@link Main#magnitudeFromName(String)}.
+	 * @return The size in bytes.
+	 */
+	static long parseSize(String size)
+	{
+		return Long.parseLong(size.substring(0, size.length() - 2)) * Main.magnitudeFromName(size.substring(size.length() - 2));
+	}
+	
+	/**
+	 * Delete every file directly in a directory, the directory itself is kept.
+	 * @param directory The directory to empty.
+	 * @throws IOException If a file could not be deleted.
+	 */
+	static void clear(Path directory) throws IOException
+	{
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+		{
+			for (Path path : stream)
+				if (!Files.isDirectory(path))
+					Files.delete(path);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures every checksum algorithm through {@link Main#digestSupplier(ChecksumAlgorithm)}, over heap and direct buffers
+ * of typical I/O buffer sizes, and the cost of creating a digest, which happens once per chunk.
+ * @author UFFR
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark
+{
+	@Param({"sha-256", "crc32c", "xxhash64", "blake3"})
+	public String algorithm;
+	@Param({"4KB", "1MB", "8MB"})
+	public String size;
+	
+	private ChecksumAlgorithm checksumAlgorithm;
+	private MessageDigest digest;
+	private ByteBuffer heapBuffer, directBuffer;
+	
+	@Setup
+	public void createBuffers()
+	{
+		checksumAlgorithm = ChecksumAlgorithm.fromName(algorithm);
+		digest = Main.digestSupplier(checksumAlgorithm);
+		final byte[] data = new byte[(int) BenchmarkRunner.parseSize(size)];
+		new Random(0x5EED).nextBytes(data);
+		heapBuffer = ByteBuffer.wrap(data);
+		directBuffer = ByteBuffer.allocateDirect(data.length).put(data);
+	}
+	
+	@Benchmark
+	public byte[] heap()
+	{
+		heapBuffer.rewind();
+		digest.update(heapBuffer);
+		return digest.digest();
+	}
+	
+	@Benchmark
+	public byte[] direct()
+	{
+		directBuffer.rewind();
+		digest.update(directBuffer);
+		return digest.digest();
+	}
+	
+	@Benchmark
+	public MessageDigest supplier()
+	{
+		return Main.digestSupplier(checksumAlgorithm);
+	}
+}
@@ -0,0 +1,48 @@
+package main;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Main#bytesToHex(byte[])} for the checksum lengths of every algorithm and a larger array.
+ * @author UFFR
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark
+{
+	@Param({"4", "8", "32", "1024"})
+	public int length;
+	
+	private byte[] bytes;
+	
+	@Setup
+	public void createBytes()
+	{
+		bytes = new byte[length];
+		new Random(0x5EED).nextBytes(bytes);
+	}
+	
+	@Benchmark
+	public String bytesToHex()
+	{
+		return Main.bytesToHex(bytes);
+	}
+}
@@ -0,0 +1,110 @@
+package main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures whole splits and merges of a file across file sizes, chunk sizes, buffer sizes and I/O modes.
+ * <p>
+ * The source is written once per trial and split once for the merges to read. Chunks and merged files are deleted
+ * between invocations, outside of the measured time. The source usually stays in the page cache, so this measures the
+ * program's own overhead more than the disk's.
+ * @author UFFR
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SplitMergeBenchmark
+{
+	@Param({"16MB", "256MB"})
+	public String fileSize;
+	@Param({"1KB", "64KB", "1MB", "64MB", "1GB"})
+	public String chunkSize;
+	// 8MB is Main.BUFFER, the default for chunks at least that large
+	@Param({"64KB", "1MB", "8MB"})
+	public String bufferSize;
+	@Param({"stream", "zero-copy", "mapped", "pipelined"})
+	public String mode;
+	
+	private Path directory, source, chunkPath, splitPath, mergePath;
+	private JobOptions options;
+	
+	@Setup(Level.Trial)
+	public void createSource() throws IOException
+	{
+		directory = Files.createTempDirectory("filesplitter-bench");
+		source = directory.resolve("source.bin");
+		chunkPath = Files.createDirectory(directory.resolve("chunks"));
+		splitPath = Files.createDirectory(directory.resolve("split"));
+		mergePath = Files.createDirectory(directory.resolve("merge"));
+		
+		// Same content every run, random so compression and hashing see no patterns
+		final Random random = new Random(0x5EED);
+		final byte[] block = new byte[Main.MB];
+		try (final OutputStream outputStream = Files.newOutputStream(source))
+		{
+			for (long written = 0, size = BenchmarkRunner.parseSize(fileSize); written < size; written += block.length)
+			{
+				random.nextBytes(block);
+				outputStream.write(block, 0, (int) Math.min(block.length, size - written));
+			}
+		}
+		
+		options = new JobOptions().setChunkSize(BenchmarkRunner.parseSize(chunkSize)).setBufferSize(BenchmarkRunner.parseSize(bufferSize))
+				.setMode(TransferMode.fromName(mode)).setThreads(1);
+		FileSplitter.split(source, chunkPath, options);
+	}
+	
+	@Setup(Level.Invocation)
+	public void clearOutput() throws IOException
+	{
+		BenchmarkRunner.clear(splitPath);
+		BenchmarkRunner.clear(mergePath);
+	}
+	
+	@TearDown(Level.Trial)
+	public void deleteSource() throws IOException
+	{
+		for (Path path : new Path[] {chunkPath, splitPath, mergePath})
+		{
+			BenchmarkRunner.clear(path);
+			Files.delete(path);
+		}
+		BenchmarkRunner.clear(directory);
+		Files.delete(directory);
+	}
+	
+	@Benchmark
+	public SplitSummary split() throws IOException
+	{
+		return FileSplitter.split(source, splitPath, options).getSummary();
+	}
+	
+	@Benchmark
+	public boolean merge() throws IOException
+	{
+		return FileSplitter.merge(chunkPath.resolve("source.bin.sum"), mergePath, options).isIntact();
+	}
+}
@@ -0,0 +1,98 @@
+package main;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing and reading summaries in the binary format, and reading the legacy serialized format, by chunk amount.
+ * Writing includes deleting the previous file, since summaries are never overwritten in place.
+ * @author UFFR
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SummaryBenchmark
+{
+	@Param({"10", "10000", "1000000"})
+	public int chunks;
+	@Param({"sha-256", "crc32c"})
+	public String algorithm;
+	
+	private Path directory, binaryPath, legacyPath, writePath;
+	private SplitSummary summary;
+	
+	@Setup
+	public void createSummary() throws IOException
+	{
+		final ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.fromName(algorithm);
+		summary = new SplitSummary(chunks * (long) Main.MB, Main.MB, "source.bin", checksumAlgorithm);
+		final Random random = new Random(0x5EED);
+		for (int index = 1; index <= chunks; index++)
+		{
+			final byte[] checksum = new byte[checksumAlgorithm.getDigestLength()];
+			random.nextBytes(checksum);
+			summary.setChecksum(index, checksum);
+		}
+		final byte[] totalFileChecksum = new byte[checksumAlgorithm.getDigestLength()];
+		random.nextBytes(totalFileChecksum);
+		summary.setTotalFileChecksum(totalFileChecksum);
+		
+		directory = Files.createTempDirectory("filesplitter-bench");
+		binaryPath = directory.resolve("binary.sum");
+		legacyPath = directory.resolve("legacy.sum");
+		writePath = directory.resolve("write.sum");
+		SummaryFormat.write(summary, binaryPath);
+		try (final ObjectOutputStream outputStream = new ObjectOutputStream(Files.newOutputStream(legacyPath)))
+		{
+			outputStream.writeObject(summary);
+		}
+	}
+	
+	@TearDown
+	public void deleteSummaries() throws IOException
+	{
+		BenchmarkRunner.clear(directory);
+		Files.delete(directory);
+	}
+	
+	@Benchmark
+	public Path write() throws IOException
+	{
+		Files.deleteIfExists(writePath);
+		SummaryFormat.write(summary, writePath);
+		return writePath;
+	}
+	
+	@Benchmark
+	public SplitSummary read() throws IOException
+	{
+		return SummaryFormat.read(binaryPath);
+	}
+	
+	@Benchmark
+	public SplitSummary readLegacy() throws IOException
+	{
+		return SummaryFormat.read(legacyPath);
+	}
+}
@@ -0,0 +1,437 @@
+package main;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import me.tongfei.progressbar.ProgressBarBuilder;
+
+/**
+ * Class to split or merge many files in one run, sharing one pool of workers between them.
+ * <p>
+ * Every file is its own single threaded job, and up to the thread count of them run at once, largest first so the longest
+ * jobs do not start last. A job only starts once the open files and buffer memory it needs fit under the batch's limits,
+ * so thousands of files never exhaust file handles or memory. A file that fails is noted and the rest carry on.
+ * @author UFFR
+ *
+ */
+public class BatchHelper
+{
+	private final List<Path> inputs;
+	private final Path outputPath;
+	private final boolean merge;
+	private final JobOptions options;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int maxOpenFiles = 256;
+	private long maxInFlight = 256L * Main.MB;
+	private Result[] results;
+	/**
+	 * Construct a helper.
+	 * @param inputs The files to split, or the summaries to merge.
+	 * @param outputPath Path to write every file's chunks and summary, or every merged file, into.
+	 * @param merge True to merge, false to split.
+	 * @param options The options every job runs with, except that each runs on a single thread and draws no bar of its own.
+	 */
+	public BatchHelper(List<Path> inputs, Path outputPath, boolean merge, JobOptions options)
+	{
+		if (options.getChunker() != null)
+			throw new IllegalArgumentException("Content-defined chunks share one store, so they cannot be split in a batch!");
+		this.inputs = inputs;
+		this.outputPath = outputPath;
+		this.merge = merge;
+		this.options = options;
+	}
+	
+	/**
+	 * Set the amount of files processed at once.
+	 * @param threads The amount of threads.
+	 * @return This helper.
+	 */
+	public BatchHelper setThreads(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be positive!");
+		this.threads = threads;
+		return this;
+	}
+	
+	/**
+	 * Set how many files all running jobs may have open at once.
+	 * @param maxOpenFiles The amount of files.
+	 * @return This helper.
+	 */
+	public BatchHelper setMaxOpenFiles(int maxOpenFiles)
+	{
+		if (maxOpenFiles < 1)
+			throw new IllegalArgumentException("Open file limit must be positive!");
+		this.maxOpenFiles = maxOpenFiles;
+		return this;
+	}
+	
+	/**
+	 * Set how much buffer memory all running jobs may hold at once. A job needing more than it runs alone.
+	 * @param maxInFlight The size in bytes.
+	 * @return This helper.
+	 */
+	public BatchHelper setMaxInFlight(long maxInFlight)
+	{
+		if (maxInFlight < Main.KB)
+			throw new IllegalArgumentException("In-flight limit must be at least 1 KB!");
+		this.maxInFlight = maxInFlight;
+		return this;
+	}
+	
+	/**
+	 * The outcome of every file, once executed.
+	 * @return The results, in the order of the inputs.
+	 */
+	public List<Result> getResults()
+	{
+		return results == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(results));
+	}
+	
+	/**
+	 * Begin processing every input.
+	 * @throws IOException If interrupted, individual files that fail are noted in their result instead.
+	 * @throws IllegalArgumentException If two inputs would write files of the same name.
+	 */
+	public void execute() throws IOException
+	{
+		final JobOptions jobOptions = new JobOptions(options).setThreads(1).setShowProgress(false);
+		final int count = inputs.size();
+		results = new Result[count];
+		final SplitSummary[] summaries = new SplitSummary[count];
+		final String[] names = new String[count];
+		final long[] sizes = new long[count];
+		final Set<String> seen = new HashSet<String>();
+		long totalSize = 0;
+		for (int i = 0; i < count; i++)
+		{
+			final Path input = inputs.get(i);
+			names[i] = input.getFileName().toString();
+			try
+			{
+				if (merge)
+				{
+					summaries[i] = SummaryFormat.read(input);
+					summaries[i].checkForErrors();
+					names[i] = summaries[i].getFilename();
+					sizes[i] = summaries[i].getTotalSize();
+				} else
+					sizes[i] = Files.size(input);
+			} catch (IOException | RuntimeException e)
+			{
+				results[i] = new Result(input, names[i], 0, 0, false, null, e);
+				continue;
+			}
+			// Jobs writing the same names into one place would overwrite each other
+			if (!seen.add(names[i]))
+				throw new IllegalArgumentException("More than one input is named " + names[i] + ", they would overwrite each other!");
+			totalSize += sizes[i];
+		}
+		
+		// Merges expect their destination to exist, splits create it themselves
+		Files.createDirectories(outputPath);
+		final Semaphore openFiles = new Semaphore(maxOpenFiles, true);
+		// Counted in kilobytes to fit a permit count
+		final int memoryPermits = (int) Math.min(Integer.MAX_VALUE, maxInFlight / Main.KB);
+		final Semaphore memory = new Semaphore(memoryPermits, true);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (final Progress progress = new Progress(!options.isShowProgress() ? null : new ProgressBarBuilder()
+				.setUnit("MB", Main.MB)
+				.showSpeed()
+				.setInitialMax(totalSize)
+				.setTaskName(merge ? "Merging..." : "Splitting..."), options.getListener()))
+		{
+			// Largest first, so a long job is never the last to start
+			final List<Integer> order = new ArrayList<Integer>(count);
+			for (int i = 0; i < count; i++)
+				if (results[i] == null)
+					order.add(i);
+			order.sort(Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+			
+			final List<Future<?>> futures = new ArrayList<Future<?>>(order.size());
+			for (int index : order)
+			{
+				final Codec codec = merge ? summaries[index].getCodec() : jobOptions.getCodec();
+				final long chunkSize = merge ? summaries[index].getChunkSize() : jobOptions.getChunkSize();
+				// The source or merged file and a chunk, plus a whole-file checksum reader when not sequential and the journal
+				final int handles = Math.min(2 + (jobOptions.getMode() != TransferMode.STREAM || codec != Codec.NONE ? 1 : 0) + (jobOptions.isResume() ? 1 : 0), maxOpenFiles);
+				final int kilobytes = (int) Math.min((FileSplitter.bufferBytes(jobOptions, chunkSize, 1) + Main.KB - 1) / Main.KB, memoryPermits);
+				final JobOptions fileOptions = new JobOptions(jobOptions).setListener(fileListener(names[index], progress));
+				futures.add(executor.submit(() ->
+				{
+					acquire(openFiles, handles, memory, kilobytes);
+					try
+					{
+						results[index] = process(inputs.get(index), names[index], summaries[index], sizes[index], fileOptions);
+					} finally
+					{
+						memory.release(kilobytes);
+						openFiles.release(handles);
+					}
+					return null;
+				}));
+			}
+			Main.awaitAll(futures);
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Split or merge one file, noting any failure in its result instead of throwing.
+	 * @param input The file to split or the summary to merge.
+	 * @param name The name of the file.
+	 * @param summary The summary to merge, or null when splitting.
+	 * @param size The size of the file.
+	 * @param fileOptions The options of this file's job.
+	 * @return The result.
+	 */
+	private Result process(Path input, String name, SplitSummary summary, long size, JobOptions fileOptions)
+	{
+		final long startTime = System.currentTimeMillis();
+		try
+		{
+			boolean intact = true;
+			final TransferMode mode;
+			if (merge)
+			{
+				final MergeHelper helper = FileSplitter.merge(input, summary, outputPath, null, fileOptions);
+				intact = helper.isIntact();
+				mode = helper.getMode();
+			} else
+				mode = FileSplitter.split(input, outputPath, fileOptions).getMode();
+			return new Result(input, name, size, System.currentTimeMillis() - startTime, intact, mode, null);
+		} catch (IOException | RuntimeException e)
+		{
+			return new Result(input, name, size, System.currentTimeMillis() - startTime, false, null, e);
+		}
+	}
+	
+	/**
+	 * Reserve the open files and memory of a job, waiting until they fit.
+	 * Every job reserves in the same order, so jobs waiting on each other cannot deadlock.
+	 * @param openFiles The open file limit.
+	 * @param handles The amount of files the job opens.
+	 * @param memory The memory limit.
+	 * @param kilobytes The job's buffer memory in kilobytes.
+	 * @throws InterruptedIOException If interrupted while waiting.
+	 */
+	private static void acquire(Semaphore openFiles, int handles, Semaphore memory, int kilobytes) throws InterruptedIOException
+	{
+		try
+		{
+			openFiles.acquire(handles);
+			try
+			{
+				memory.acquire(kilobytes);
+			} catch (InterruptedException e)
+			{
+				openFiles.release(handles);
+				throw e;
+			}
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to start a job!");
+		}
+	}
+	
+	/**
+	 * A listener for one file's job, noting its progress to the batch's and naming the file in its messages.
+	 * @param name The name of the file.
+	 * @param progress The batch's progress.
+	 * @return The listener.
+	 */
+	private JobListener fileListener(String name, Progress progress)
+	{
+		final JobListener listener = options.getListener();
+		return new JobListener()
+		{
+			@Override
+			public void progressed(long bytes)
+			{
+				progress.stepBy(bytes);
+			}
+			
+			@Override
+			public void notice(String message)
+			{
+				listener.notice(name + ": " + message);
+			}
+			
+			@Override
+			public void warning(String message)
+			{
+				listener.warning(name + ": " + message);
+			}
+			
+			@Override
+			public ErrorPolicy chunkFailed(int index, String message, ErrorPolicy policy)
+			{
+				return listener.chunkFailed(index, name + ": " + message, policy);
+			}
+		};
+	}
+	
+	/**
+	 * Find the inputs of a batch.
+	 * A directory or pattern skips the files splits write, so a batch can be run again over its own output.
+	 * @param input A directory, whose files are taken, a glob pattern such as {@code logs/**.txt}, or a manifest file
+	 * prefixed with {@code @}, listing one path per line relative to itself.
+	 * @param merge True to take the summaries in a directory or pattern, false for every other file.
+	 * @return The inputs, sorted unless listed by a manifest.
+	 * @throws IOException If the directory or manifest could not be read.
+	 * @throws IllegalArgumentException If nothing was found.
+	 */
+	public static List<Path> findInputs(String input, boolean merge) throws IOException
+	{
+		final List<Path> inputs;
+		if (input.startsWith("@"))
+		{
+			final Path manifest = Paths.get(input.substring(1)).toAbsolutePath();
+			// Blank lines and comments are skipped
+			inputs = Files.readAllLines(manifest).stream().map(String::trim).filter(line -> !line.isEmpty() && !line.startsWith("#"))
+					.map(line -> manifest.getParent().resolve(line)).collect(Collectors.toList());
+		} else if (Files.isDirectory(Paths.get(input)))
+		{
+			try (final Stream<Path> files = Files.list(Paths.get(input)))
+			{
+				inputs = files.filter(path -> Files.isRegularFile(path) && isInput(path, merge)).sorted().collect(Collectors.toList());
+			}
+		} else if (input.matches(".*[*?\\[{].*"))
+		{
+			// Walk from the deepest directory before the first wildcard
+			final int wildcard = input.replaceAll("[*?\\[{].*", "").length();
+			final int separator = Math.max(input.lastIndexOf('/', wildcard), input.lastIndexOf(FileSystems.getDefault().getSeparator(), wildcard));
+			final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+			try (final Stream<Path> files = Files.walk(Paths.get(separator < 0 ? "" : input.substring(0, separator + 1))))
+			{
+				inputs = files.filter(path -> matcher.matches(path) && Files.isRegularFile(path) && isInput(path, merge)).sorted().collect(Collectors.toList());
+			}
+		} else
+			inputs = Collections.singletonList(Paths.get(input));
+		if (inputs.isEmpty())
+			throw new IllegalArgumentException("No inputs found in " + input + '!');
+		return inputs;
+	}
+	
+	/**
+	 * Checks if a file found in a directory or by a pattern belongs in a batch.
+	 * @param path The file.
+	 * @param merge True if merging.
+	 * @return True for summaries when merging, and anything not written by a split otherwise.
+	 */
+	private static boolean isInput(Path path, boolean merge)
+	{
+		final String name = path.getFileName().toString();
+		if (merge)
+			return name.endsWith(".sum");
+		return !(name.endsWith(".sum") || name.endsWith(".part") || name.endsWith(".chunk") || name.endsWith(".journal") || name.endsWith(".tmp"));
+	}
+	
+	/**
+	 * The outcome of one file of a batch.
+	 */
+	public static class Result
+	{
+		private final Path input;
+		private final String name;
+		private final long size, millis;
+		private final boolean intact;
+		private final TransferMode mode;
+		private final Exception error;
+		Result(Path input, String name, long size, long millis, boolean intact, TransferMode mode, Exception error)
+		{
+			this.input = input;
+			this.name = name;
+			this.size = size;
+			this.millis = millis;
+			this.intact = intact;
+			this.mode = mode;
+			this.error = error;
+		}
+		
+		/**
+		 * The file split or the summary merged.
+		 * @return The input's path.
+		 */
+		public Path getInput()
+		{
+			return input;
+		}
+		
+		/**
+		 * The name of the file.
+		 * @return The name.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+		
+		/**
+		 * The size of the file.
+		 * @return Size in bytes, 0 if it could not be found.
+		 */
+		public long getSize()
+		{
+			return size;
+		}
+		
+		/**
+		 * How long the file's job ran, not counting the time it waited to start.
+		 * @return Time in milliseconds.
+		 */
+		public long getMillis()
+		{
+			return millis;
+		}
+		
+		/**
+		 * Checks if the file's job completed and merged no damaged chunks.
+		 * @return True if complete and intact.
+		 */
+		public boolean isIntact()
+		{
+			return intact;
+		}
+		
+		/**
+		 * The I/O mode the file's job was planned to use.
+		 * @return The mode, or null if the job failed.
+		 */
+		public TransferMode getMode()
+		{
+			return mode;
+		}
+		
+		/**
+		 * The reason the file's job failed.
+		 * @return The exception, or null if it completed.
+		 */
+		public Exception getError()
+		{
+			return error;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package main;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Streaming BLAKE3 with a 32 byte output, following the reference implementation's tree of 1 KB chunks.
+ * @author UFFR
+ *
+ */
+class Blake3Digest extends MessageDigest
+{
+	private static final int[] IV = {0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19};
+	private static final int[] PERMUTATION = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+	// Message word order of each round, so the message never has to be permuted in place
+	private static final int[][] SCHEDULE = new int[7][16];
+	private static final int BLOCK_LENGTH = 64, CHUNK_LENGTH = 1024;
+	private static final int CHUNK_START = 1, CHUNK_END = 2, PARENT = 4, ROOT = 8;
+	static
+	{
+		for (int i = 0; i < 16; i++)
+			SCHEDULE[0][i] = i;
+		for (int round = 1; round < 7; round++)
+			for (int i = 0; i < 16; i++)
+				SCHEDULE[round][i] = SCHEDULE[round - 1][PERMUTATION[i]];
+	}
+	// Chaining values of completed subtrees, one per level at most
+	private final int[][] stack = new int[54][];
+	private int stackSize;
+	// Current chunk's state
+	private final int[] chainingValue = new int[8], blockWords = new int[16];
+	private final byte[] block = new byte[BLOCK_LENGTH];
+	private int blockLength, blocksCompressed;
+	private long chunkCounter;
+	Blake3Digest()
+	{
+		super("BLAKE3");
+		engineReset();
+	}
+	
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return 32;
+	}
+	
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		engineUpdate(new byte[] {input}, 0, 1);
+	}
+	
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		int position = offset;
+		final int end = offset + len;
+		while (position < end)
+		{
+			// Only finish a chunk once more input arrives, the last one is finalized differently
+			if (chunkLength() == CHUNK_LENGTH)
+			{
+				pushChunk(chunkChainingValue(), chunkCounter + 1);
+				startChunk(chunkCounter + 1);
+			}
+			// Likewise only compress a full block once more input arrives
+			if (blockLength == BLOCK_LENGTH)
+			{
+				words(block, blockWords);
+				final int[] state = compress(chainingValue, blockWords, chunkCounter, BLOCK_LENGTH, startFlag());
+				System.arraycopy(state, 0, chainingValue, 0, 8);
+				blocksCompressed++;
+				blockLength = 0;
+			}
+			final int take = Math.min(Math.min(BLOCK_LENGTH - blockLength, CHUNK_LENGTH - chunkLength()), end - position);
+			System.arraycopy(input, position, block, blockLength, take);
+			blockLength += take;
+			position += take;
+		}
+	}
+	
+	@Override
+	protected byte[] engineDigest()
+	{
+		// Final chunk's output node
+		int[] inputChainingValue = chainingValue.clone();
+		int[] outputWords = words(zeroPadded(), new int[16]);
+		long counter = chunkCounter;
+		int length = blockLength, flags = startFlag() | CHUNK_END;
+		// Fold in every pending subtree from the right
+		for (int i = stackSize - 1; i >= 0; i--)
+		{
+			final int[] right = Arrays.copyOf(compress(inputChainingValue, outputWords, counter, length, flags), 8);
+			outputWords = parentWords(stack[i], right);
+			inputChainingValue = IV.clone();
+			counter = 0;
+			length = BLOCK_LENGTH;
+			flags = PARENT;
+		}
+		final int[] state = compress(inputChainingValue, outputWords, counter, length, flags | ROOT);
+		final byte[] result = new byte[32];
+		for (int i = 0; i < 8; i++)
+			for (int j = 0; j < 4; j++)
+				result[i * 4 + j] = (byte) (state[i] >>> (j * 8));
+		engineReset();
+		return result;
+	}
+	
+	@Override
+	protected void engineReset()
+	{
+		stackSize = 0;
+		startChunk(0);
+	}
+	
+	private void startChunk(long counter)
+	{
+		System.arraycopy(IV, 0, chainingValue, 0, 8);
+		chunkCounter = counter;
+		blockLength = 0;
+		blocksCompressed = 0;
+	}
+	
+	private int chunkLength()
+	{
+		return blocksCompressed * BLOCK_LENGTH + blockLength;
+	}
+	
+	private int startFlag()
+	{
+		return blocksCompressed == 0 ? CHUNK_START : 0;
+	}
+	
+	private byte[] zeroPadded()
+	{
+		final byte[] padded = new byte[BLOCK_LENGTH];
+		System.arraycopy(block, 0, padded, 0, blockLength);
+		return padded;
+	}
+	
+	/**
+	 * The chaining value of the current, full, non-root chunk.
+	 * @return The chunk's chaining value.
+	 */
+	private int[] chunkChainingValue()
+	{
+		return Arrays.copyOf(compress(chainingValue, words(zeroPadded(), new int[16]), chunkCounter, blockLength, startFlag() | CHUNK_END), 8);
+	}
+	
+	/**
+	 * Merge a completed chunk into the stack of subtrees, combining every pair it completes.
+	 * @param chunkChainingValue The chunk's chaining value.
+	 * @param totalChunks The amount of chunks completed so far, including this one.
+	 */
+	private void pushChunk(int[] chunkChainingValue, long totalChunks)
+	{
+		int[] value = chunkChainingValue;
+		long chunks = totalChunks;
+		while ((chunks & 1) == 0)
+		{
+			value = Arrays.copyOf(compress(IV, parentWords(stack[--stackSize], value), 0, BLOCK_LENGTH, PARENT), 8);
+			chunks >>= 1;
+		}
+		stack[stackSize++] = value;
+	}
+	
+	private static int[] parentWords(int[] left, int[] right)
+	{
+		final int[] words = new int[16];
+		System.arraycopy(left, 0, words, 0, 8);
+		System.arraycopy(right, 0, words, 8, 8);
+		return words;
+	}
+	
+	private static int[] words(byte[] bytes, int[] words)
+	{
+		for (int i = 0; i < 16; i++)
+			words[i] = (bytes[i * 4] & 0xFF) | (bytes[i * 4 + 1] & 0xFF) << 8 | (bytes[i * 4 + 2] & 0xFF) << 16 | (bytes[i * 4 + 3] & 0xFF) << 24;
+		return words;
+	}
+	
+	private static int[] compress(int[] chainingValue, int[] blockWords, long counter, int blockLength, int flags)
+	{
+		final int[] state = {
+				chainingValue[0], chainingValue[1], chainingValue[2], chainingValue[3],
+				chainingValue[4], chainingValue[5], chainingValue[6], chainingValue[7],
+				IV[0], IV[1], IV[2], IV[3],
+				(int) counter, (int) (counter >>> 32), blockLength, flags};
+		for (int[] order : SCHEDULE)
+		{
+			g(state, 0, 4, 8, 12, blockWords[order[0]], blockWords[order[1]]);
+			g(state, 1, 5, 9, 13, blockWords[order[2]], blockWords[order[3]]);
+			g(state, 2, 6, 10, 14, blockWords[order[4]], blockWords[order[5]]);
+			g(state, 3, 7, 11, 15, blockWords[order[6]], blockWords[order[7]]);
+			g(state, 0, 5, 10, 15, blockWords[order[8]], blockWords[order[9]]);
+			g(state, 1, 6, 11, 12, blockWords[order[10]], blockWords[order[11]]);
+			g(state, 2, 7, 8, 13, blockWords[order[12]], blockWords[order[13]]);
+			g(state, 3, 4, 9, 14, blockWords[order[14]], blockWords[order[15]]);
+		}
+		for (int i = 0; i < 8; i++)
+		{
+			state[i] ^= state[i + 8];
+			state[i + 8] ^= chainingValue[i];
+		}
+		return state;
+	}
+	
+	private static void g(int[] state, int a, int b, int c, int d, int x, int y)
+	{
+		state[a] += state[b] + x;
+		state[d] = Integer.rotateRight(state[d] ^ state[a], 16);
+		state[c] += state[d];
+		state[b] = Integer.rotateRight(state[b] ^ state[c], 12);
+		state[a] += state[b] + y;
+		state[d] = Integer.rotateRight(state[d] ^ state[a], 8);
+		state[c] += state[d];
+		state[b] = Integer.rotateRight(state[b] ^ state[c], 7);
+	}
+}
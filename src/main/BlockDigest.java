@@ -0,0 +1,172 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Digest of a chunk that also keeps the checksum of every fixed size block within it, so damage can be narrowed down to
+ * the blocks it is in. It can stand in for the plain chunk digest in any copy loop, and the block checksums of the last
+ * digested chunk are available from {@link #getBlockChecksums()}.
+ * @author UFFR
+ *
+ */
+public class BlockDigest extends MessageDigest
+{
+	private final MessageDigest chunkDigest, blockDigest;
+	private final long blockSize;
+	// Bytes of the current block digested so far
+	private long filled;
+	private final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+	private byte[] lastBlocks = new byte[0];
+	/**
+	 * Construct a digest.
+	 * @param algorithm The algorithm of the chunk and block checksums.
+	 * @param blockSize The size of every block but a chunk's last.
+	 */
+	public BlockDigest(ChecksumAlgorithm algorithm, long blockSize)
+	{
+		super(algorithm.getName());
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("Block size must be positive!");
+		this.blockSize = blockSize;
+		chunkDigest = Main.digestSupplier(algorithm);
+		blockDigest = Main.digestSupplier(algorithm);
+	}
+	
+	/**
+	 * Creates the digest for a summary's chunks.
+	 * @param summary The summary of the split.
+	 * @return A block digest if the summary keeps block checksums, otherwise a plain digest of its algorithm.
+	 */
+	public static MessageDigest forChunks(SplitSummary summary)
+	{
+		return summary.hasBlocks() ? new BlockDigest(summary.getAlgorithm(), summary.getBlockSize()) : Main.digestSupplier(summary.getAlgorithm());
+	}
+	
+	/**
+	 * The block checksums of the chunk digested last, back to back in block order.
+	 * @return The checksums, empty if nothing was digested yet.
+	 */
+	public byte[] getBlockChecksums()
+	{
+		return lastBlocks.clone();
+	}
+	
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		chunkDigest.update(input);
+		blockDigest.update(input);
+		if (++filled == blockSize)
+			finishBlock();
+	}
+	
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int length)
+	{
+		engineUpdate(ByteBuffer.wrap(input, offset, length));
+	}
+	
+	@Override
+	protected void engineUpdate(ByteBuffer input)
+	{
+		chunkDigest.update(input.duplicate());
+		// Cut the input at block boundaries
+		while (input.hasRemaining())
+		{
+			final int step = (int) Math.min(input.remaining(), blockSize - filled);
+			final ByteBuffer slice = input.duplicate();
+			slice.limit(slice.position() + step);
+			blockDigest.update(slice);
+			input.position(input.position() + step);
+			filled += step;
+			if (filled == blockSize)
+				finishBlock();
+		}
+	}
+	
+	@Override
+	protected byte[] engineDigest()
+	{
+		// A short last block still counts
+		if (filled > 0)
+			finishBlock();
+		lastBlocks = blocks.toByteArray();
+		blocks.reset();
+		return chunkDigest.digest();
+	}
+	
+	@Override
+	protected void engineReset()
+	{
+		chunkDigest.reset();
+		blockDigest.reset();
+		blocks.reset();
+		filled = 0;
+	}
+	
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return chunkDigest.getDigestLength();
+	}
+	
+	private void finishBlock()
+	{
+		final byte[] checksum = blockDigest.digest();
+		blocks.write(checksum, 0, checksum.length);
+		filled = 0;
+	}
+	
+	/**
+	 * Compares a chunk's block checksums against its summary's, finding the byte ranges that are damaged.
+	 * Blocks the checksums do not cover, such as past the end of a short chunk, count as damaged.
+	 * @param summary The summary of the split, keeping block checksums.
+	 * @param index The chunk's index.
+	 * @param blockChecksums The block checksums of the chunk's actual data, back to back in block order.
+	 * @return The damaged ranges within the chunk, each its first byte and the byte after its last, adjacent blocks joined.
+	 */
+	public static List<long[]> damagedRanges(SplitSummary summary, int index, byte[] blockChecksums)
+	{
+		final int length = summary.getAlgorithm().getDigestLength();
+		final long blockSize = summary.getBlockSize(), chunkLength = summary.getChunkLength(index);
+		final List<long[]> ranges = new ArrayList<long[]>();
+		for (int block = 0; block < summary.getBlockAmount(index); block++)
+		{
+			final byte[] expected = summary.getBlockChecksum(index, block);
+			final boolean intact = (block + 1) * length <= blockChecksums.length
+					&& MessageDigest.isEqual(expected, Arrays.copyOfRange(blockChecksums, block * length, (block + 1) * length));
+			if (intact)
+				continue;
+			final long start = block * blockSize, end = Math.min(start + blockSize, chunkLength);
+			final long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+			if (last != null && last[1] == start)
+				last[1] = end;
+			else
+				ranges.add(new long[] {start, end});
+		}
+		return ranges;
+	}
+	
+	/**
+	 * Describe damaged ranges in the form {@link RangePatch#parseRanges(String)} reads, with inclusive ends.
+	 * @param index The chunk's index.
+	 * @param ranges The damaged ranges, as from {@link #damagedRanges(SplitSummary, int, byte[])}.
+	 * @return The description, such as {@code 7:0-1048575,7:4194304-5242879}, empty if there are none.
+	 */
+	public static String formatRanges(int index, List<long[]> ranges)
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (long[] range : ranges)
+		{
+			if (builder.length() > 0)
+				builder.append(',');
+			builder.append(index).append(':').append(range[0]).append('-').append(range[1] - 1);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,130 @@
+package main;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of reusable buffers shared by every copy loop, so steady-state copying allocates nothing.
+ * Buffers are allocated lazily up to the capacity, after which callers wait for one to be released.
+ * @author UFFR
+ *
+ */
+public class BufferPool
+{
+	private final BlockingQueue<ByteBuffer> available = new LinkedBlockingQueue<ByteBuffer>();
+	private final AtomicInteger allocated = new AtomicInteger(), peakInUse = new AtomicInteger();
+	private final int bufferSize, capacity;
+	private final boolean direct;
+	/**
+	 * Construct a pool.
+	 * @param bufferSize The size of each buffer in bytes.
+	 * @param capacity The maximum amount of buffers to allocate.
+	 * @param direct Whether to allocate buffers outside of the heap.
+	 */
+	public BufferPool(int bufferSize, int capacity, boolean direct)
+	{
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Buffer size must be positive!");
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Buffer count must be positive!");
+		this.bufferSize = bufferSize;
+		this.capacity = capacity;
+		this.direct = direct;
+	}
+	
+	/**
+	 * Take a cleared buffer from the pool, waiting for one to be released if all are in use.
+	 * @return A buffer of {@link #getBufferSize()} bytes.
+	 * @throws InterruptedIOException If interrupted while waiting.
+	 */
+	public ByteBuffer acquire() throws InterruptedIOException
+	{
+		final ByteBuffer buffer = available.poll();
+		if (buffer != null)
+			return lend(buffer);
+		// Allocate a new one if still under capacity
+		if (allocated.incrementAndGet() <= capacity)
+			return lend(direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize));
+		allocated.decrementAndGet();
+		try
+		{
+			return lend(available.take());
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a buffer!");
+		}
+	}
+	
+	/**
+	 * Note the amount of buffers in use once one is lent out.
+	 * @param buffer The buffer being lent out.
+	 * @return The same buffer.
+	 */
+	private ByteBuffer lend(ByteBuffer buffer)
+	{
+		peakInUse.accumulateAndGet(getInUse(), Math::max);
+		return buffer;
+	}
+	
+	/**
+	 * Return a buffer to the pool.
+	 * @param buffer The buffer previously acquired from this pool.
+	 */
+	public void release(ByteBuffer buffer)
+	{
+		buffer.clear();
+		available.offer(buffer);
+	}
+	
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+	
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	public boolean isDirect()
+	{
+		return direct;
+	}
+	
+	/**
+	 * The amount of buffers allocated so far.
+	 * @return Amount of buffers, never more than the capacity.
+	 */
+	public int getAllocated()
+	{
+		return Math.min(allocated.get(), capacity);
+	}
+	
+	/**
+	 * The amount of buffers currently lent out.
+	 * @return Amount of buffers in use.
+	 */
+	public int getInUse()
+	{
+		return Math.max(getAllocated() - available.size(), 0);
+	}
+	
+	/**
+	 * The most buffers that were lent out at once so far.
+	 * @return Amount of buffers.
+	 */
+	public int getPeakInUse()
+	{
+		return peakInUse.get();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return getAllocated() + " of " + capacity + (direct ? " direct" : " heap") + " buffers of " + Main.roundBin(bufferSize) + " allocated";
+	}
+}
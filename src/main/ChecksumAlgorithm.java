@@ -0,0 +1,117 @@
+package main;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The algorithms available to checksum chunks and the whole file with.
+ * @author UFFR
+ *
+ */
+public enum ChecksumAlgorithm
+{
+	/** Cryptographic, the original and default algorithm. */
+	SHA_256("sha-256", 0, 32),
+	/** Hardware accelerated CRC, fastest but only guards against accidental corruption. */
+	CRC32C("crc32c", 1, 4),
+	/** Fast non-cryptographic 64 bit hash. */
+	XXHASH64("xxhash64", 2, 8),
+	/** Cryptographic tree hash, faster than SHA-256 in software. */
+	BLAKE3("blake3", 3, 32);
+	
+	private final String name;
+	private final int id, digestLength;
+	private ChecksumAlgorithm(String name, int id, int digestLength)
+	{
+		this.name = name;
+		this.id = id;
+		this.digestLength = digestLength;
+	}
+	
+	/**
+	 * The name of the algorithm as used on the command line.
+	 * @return The algorithm's name.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * The stable identifier of the algorithm in binary summaries.
+	 * @return The algorithm's identifier.
+	 */
+	public int getId()
+	{
+		return id;
+	}
+	
+	/**
+	 * The length of the checksums produced.
+	 * @return The length in bytes.
+	 */
+	public int getDigestLength()
+	{
+		return digestLength;
+	}
+	
+	/**
+	 * Checks if checksums are collision resistant enough to identify data by, as content-defined chunks are.
+	 * @return True if cryptographic, false if not.
+	 */
+	public boolean isCryptographic()
+	{
+		return this == SHA_256 || this == BLAKE3;
+	}
+	
+	/**
+	 * Create a new digest for the algorithm.
+	 * @return A freshly reset digest.
+	 * @throws NoSuchAlgorithmException If the platform does not provide the algorithm.
+	 */
+	public MessageDigest newDigest() throws NoSuchAlgorithmException
+	{
+		switch (this)
+		{
+			case CRC32C: return new Crc32cDigest();
+			case XXHASH64: return new XXHash64Digest();
+			case BLAKE3: return new Blake3Digest();
+			case SHA_256:
+			default: return MessageDigest.getInstance("SHA-256");
+		}
+	}
+	
+	/**
+	 * Get an algorithm from its command line name.
+	 * @param name The algorithm's name, case insensitive.
+	 * @return The matching algorithm.
+	 * @throws IllegalArgumentException If no algorithm has the name.
+	 */
+	public static ChecksumAlgorithm fromName(String name)
+	{
+		for (ChecksumAlgorithm algorithm : values())
+			if (algorithm.name.equalsIgnoreCase(name))
+				return algorithm;
+		throw new IllegalArgumentException("Unknown checksum algorithm: " + name);
+	}
+	
+	/**
+	 * Get an algorithm from its binary summary identifier.
+	 * @param id The algorithm's identifier.
+	 * @return The matching algorithm.
+	 * @throws IllegalArgumentException If no algorithm has the identifier.
+	 */
+	public static ChecksumAlgorithm fromId(int id)
+	{
+		for (ChecksumAlgorithm algorithm : values())
+			if (algorithm.id == id)
+				return algorithm;
+		throw new IllegalArgumentException("Unknown checksum algorithm ID: " + id);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
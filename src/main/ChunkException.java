@@ -0,0 +1,38 @@
+package main;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a chunk is damaged or unreadable and the job's error policy stops the job.
+ * @author UFFR
+ *
+ */
+public class ChunkException extends IOException
+{
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2638516487301263573L;
+	
+	private final int index;
+	/**
+	 * Construct an exception.
+	 * @param index The chunk's index.
+	 * @param message Description of the problem.
+	 * @param cause The exception that damaged the chunk, or null if it was found damaged.
+	 */
+	public ChunkException(int index, String message, Throwable cause)
+	{
+		super(message, cause);
+		this.index = index;
+	}
+	
+	/**
+	 * The chunk that stopped the job.
+	 * @return The chunk's index, starting from 1.
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+}
@@ -0,0 +1,18 @@
+package main;
+
+/**
+ * The outcome of verifying a single chunk against its summary.
+ * @author UFFR
+ *
+ */
+public enum ChunkStatus
+{
+	/** Present, of the expected size and matching its checksum. */
+	GOOD,
+	/** No file exists for the chunk. */
+	MISSING,
+	/** The chunk's file is not the size the summary expects, so it was not hashed. */
+	WRONG_SIZE,
+	/** The chunk's checksum does not match the summary's. */
+	CORRUPT;
+}
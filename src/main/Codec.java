@@ -0,0 +1,176 @@
+package main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The codecs each chunk can be compressed with independently.
+ * @author UFFR
+ *
+ */
+public enum Codec
+{
+	/** Chunks are exact byte ranges of the source, the default. */
+	NONE("none", 0),
+	/** The JDK's zlib, slower but compressing better. */
+	DEFLATE("deflate", 1),
+	/** Pure Java LZ4 blocks, much faster but compressing less. */
+	LZ4("lz4", 2);
+	
+	private static final int STREAM_BUFFER = Main.KB * 64;
+	
+	private final String name;
+	private final int id;
+	private Codec(String name, int id)
+	{
+		this.name = name;
+		this.id = id;
+	}
+	
+	/**
+	 * The name of the codec as used on the command line.
+	 * @return The codec's name.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * The stable identifier of the codec in binary summaries.
+	 * @return The codec's identifier.
+	 */
+	public int getId()
+	{
+		return id;
+	}
+	
+	/**
+	 * Wrap a channel so everything written through the wrapper is compressed.
+	 * Closing the wrapper finishes the compressed data but leaves the channel open, so it can still be forced to disk.
+	 * @param channel The channel to write the compressed data to.
+	 * @return The compressing channel.
+	 */
+	public WritableByteChannel compress(WritableByteChannel channel)
+	{
+		final OutputStream shielded = Channels.newOutputStream(new WritableByteChannel()
+		{
+			private boolean open = true;
+			
+			@Override
+			public int write(ByteBuffer src) throws IOException
+			{
+				return channel.write(src);
+			}
+			
+			@Override
+			public boolean isOpen()
+			{
+				return open;
+			}
+			
+			@Override
+			public void close()
+			{
+				open = false;
+			}
+		});
+		switch (this)
+		{
+			case DEFLATE:
+				final Deflater deflater = new Deflater();
+				return Channels.newChannel(new DeflaterOutputStream(shielded, deflater, STREAM_BUFFER)
+				{
+					@Override
+					public void close() throws IOException
+					{
+						// Only the default deflater is released by the stream itself
+						try
+						{
+							super.close();
+						} finally
+						{
+							deflater.end();
+						}
+					}
+				});
+			case LZ4: return Channels.newChannel(new Lz4OutputStream(shielded));
+			case NONE:
+			default: return Channels.newChannel(shielded);
+		}
+	}
+	
+	/**
+	 * Wrap a channel so everything read through the wrapper is decompressed.
+	 * Closing the wrapper closes the channel.
+	 * @param channel The channel to read the compressed data from.
+	 * @return The decompressing channel, or the channel itself if not compressed.
+	 */
+	public ReadableByteChannel decompress(ReadableByteChannel channel)
+	{
+		if (this == NONE)
+			return channel;
+		final InputStream inputStream = Channels.newInputStream(channel);
+		if (this == LZ4)
+			return Channels.newChannel(new Lz4InputStream(inputStream));
+		final Inflater inflater = new Inflater();
+		return Channels.newChannel(new InflaterInputStream(inputStream, inflater, STREAM_BUFFER)
+		{
+			@Override
+			public void close() throws IOException
+			{
+				// Only the default inflater is released by the stream itself
+				try
+				{
+					super.close();
+				} finally
+				{
+					inflater.end();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Get a codec from its command line name.
+	 * @param name The codec's name, case insensitive.
+	 * @return The matching codec.
+	 * @throws IllegalArgumentException If no codec has the name.
+	 */
+	public static Codec fromName(String name)
+	{
+		for (Codec codec : values())
+			if (codec.name.equalsIgnoreCase(name))
+				return codec;
+		throw new IllegalArgumentException("Unknown codec: " + name);
+	}
+	
+	/**
+	 * Get a codec from its binary summary identifier.
+	 * @param id The codec's identifier.
+	 * @return The matching codec.
+	 * @throws IllegalArgumentException If no codec has the identifier.
+	 */
+	public static Codec fromId(int id)
+	{
+		for (Codec codec : values())
+			if (codec.id == id)
+				return codec;
+		throw new IllegalArgumentException("Unknown codec ID: " + id);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
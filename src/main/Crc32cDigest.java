@@ -0,0 +1,57 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.zip.CRC32C;
+
+/**
+ * Adapts the JDK's hardware accelerated {@link CRC32C} to a {@link MessageDigest}.
+ * @author UFFR
+ *
+ */
+class Crc32cDigest extends MessageDigest
+{
+	private final CRC32C crc = new CRC32C();
+	Crc32cDigest()
+	{
+		super("CRC32C");
+	}
+	
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return 4;
+	}
+	
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		crc.update(input);
+	}
+	
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		crc.update(input, offset, len);
+	}
+	
+	@Override
+	protected void engineUpdate(ByteBuffer input)
+	{
+		crc.update(input);
+	}
+	
+	@Override
+	protected byte[] engineDigest()
+	{
+		final int value = (int) crc.getValue();
+		crc.reset();
+		return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+	}
+	
+	@Override
+	protected void engineReset()
+	{
+		crc.reset();
+	}
+}
@@ -0,0 +1,281 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.tongfei.progressbar.ProgressBarBuilder;
+
+/**
+ * Class to split a file or stream into content-defined chunks, kept in a chunk store shared between splits.
+ * <p>
+ * Boundaries are found with {@link FastCdc}, so data that was already split before, in this file or any other split into
+ * the same store, is cut into the same chunks again. Each chunk is named by its checksum and only written if the store
+ * does not hold it yet, otherwise the stored copy is reused.
+ * @author UFFR
+ *
+ */
+public class DedupSplitHelper
+{
+	private final ReadableByteChannel source;
+	private final Path storePath;
+	private final String filename;
+	private final FastCdc chunker;
+	private final ChecksumAlgorithm algorithm;
+	private Codec codec = Codec.NONE;
+	private boolean merkle;
+	private JobListener listener = JobListener.NONE;
+	private JobMetrics metrics;
+	private boolean showProgress = true;
+	private SplitSummary summary;
+	private int reusedAmount;
+	private long reusedSize;
+	/**
+	 * Construct a helper.
+	 * @param source The file or stream to split, read until its end.
+	 * @param storePath Path of the chunk store, where the summary is also written.
+	 * @param filename Name to store in the summary.
+	 * @param chunker The chunker to find boundaries with.
+	 * @param algorithm The algorithm to checksum with, must be cryptographic since chunks are identified by it.
+	 * @throws IllegalArgumentException If the algorithm is not cryptographic.
+	 */
+	public DedupSplitHelper(ReadableByteChannel source, Path storePath, String filename, FastCdc chunker, ChecksumAlgorithm algorithm)
+	{
+		if (!algorithm.isCryptographic())
+			throw new IllegalArgumentException("Content-defined chunks are identified by their checksum, which " + algorithm + " is too weak for!");
+		this.source = source;
+		this.storePath = storePath;
+		this.filename = filename;
+		this.chunker = chunker;
+		this.algorithm = algorithm;
+		metrics = new JobMetrics(filename);
+	}
+	
+	/**
+	 * Set the codec every chunk is compressed with.
+	 * @param codec The codec to use.
+	 * @return This helper.
+	 */
+	public DedupSplitHelper setCodec(Codec codec)
+	{
+		this.codec = codec;
+		return this;
+	}
+	
+	/**
+	 * Set whether the whole file is verified through a Merkle root of the chunk checksums instead of a sequential checksum.
+	 * @param merkle True to store a Merkle root.
+	 * @return This helper.
+	 */
+	public DedupSplitHelper setMerkle(boolean merkle)
+	{
+		this.merkle = merkle;
+		return this;
+	}
+	
+	/**
+	 * Set the listener to report progress to.
+	 * @param listener The listener to use.
+	 * @return This helper.
+	 */
+	public DedupSplitHelper setListener(JobListener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+	
+	/**
+	 * Set the metrics to record timings and counters to, instead of the helper's own.
+	 * @param metrics The metrics to record to, may be shared with other jobs.
+	 * @return This helper.
+	 */
+	public DedupSplitHelper setMetrics(JobMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+	
+	public JobMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Set whether progress is drawn on the console.
+	 * @param showProgress True to draw a progress bar.
+	 * @return This helper.
+	 */
+	public DedupSplitHelper setShowProgress(boolean showProgress)
+	{
+		this.showProgress = showProgress;
+		return this;
+	}
+	
+	/**
+	 * The amount of chunks the store already held, including repeats within the source.
+	 * @return Amount of chunks.
+	 */
+	public int getReusedAmount()
+	{
+		return reusedAmount;
+	}
+	
+	/**
+	 * The amount of source bytes that were not written because the store already held their chunk.
+	 * @return Size in bytes.
+	 */
+	public long getReusedSize()
+	{
+		return reusedSize;
+	}
+	
+	/**
+	 * The summary of the split, once executed.
+	 * @return The summary, or null if not executed yet.
+	 */
+	public SplitSummary getSummary()
+	{
+		return summary;
+	}
+	
+	/**
+	 * Begin the split process, reading the source until its end.
+	 * @return The finished summary.
+	 * @throws IOException If any I/O exception occurs during the process, or the source is empty.
+	 */
+	public SplitSummary execute() throws IOException
+	{
+		Files.createDirectories(storePath);
+		
+		final MessageDigest totalDigest = Main.digestSupplier(algorithm), chunkDigest = Main.digestSupplier(algorithm);
+		final List<byte[]> checksums = new ArrayList<byte[]>();
+		final List<Long> lengths = new ArrayList<Long>(), compressedSizes = new ArrayList<Long>();
+		// A chunk must fit in the buffer whole, since its name is only known once it has been hashed
+		final ByteBuffer buffer = ByteBuffer.allocate(chunker.getMaxSize());
+		boolean ended = false;
+		try (final Progress progress = new Progress(!showProgress ? null : new ProgressBarBuilder()
+				.setUnit("MB", Main.MB)
+				.showSpeed()
+				.setInitialMax(source instanceof SeekableByteChannel ? ((SeekableByteChannel) source).size() : -1)
+				.setTaskName("Splitting..."), listener, metrics))
+		{
+			while (true)
+			{
+				if (!ended)
+				{
+					final long time = System.nanoTime(), filled = buffer.position();
+					ended = fill(buffer);
+					metrics.record(JobMetrics.Stage.READ, time, buffer.position() - filled);
+				}
+				buffer.flip();
+				if (!buffer.hasRemaining())
+					break;
+				
+				// Finding the boundary is hashing too
+				final long start = metrics.chunkStarted();
+				final int length = chunker.cut(buffer, ended);
+				final ByteBuffer chunk = buffer.slice();
+				chunk.limit(length);
+				chunkDigest.update(chunk);
+				if (!merkle)
+				{
+					chunk.rewind();
+					totalDigest.update(chunk);
+				}
+				final byte[] checksum = chunkDigest.digest();
+				metrics.record(JobMetrics.Stage.HASH, start, length);
+				chunk.rewind();
+				
+				compressedSizes.add(storeChunk(chunk, checksum));
+				checksums.add(checksum);
+				lengths.add((long) length);
+				metrics.chunkFinished(filename, checksums.size(), start, length);
+				progress.stepBy(length);
+				
+				buffer.position(buffer.position() + length);
+				buffer.compact();
+			}
+		}
+		
+		if (checksums.isEmpty())
+			throw new IOException("Input was empty, there is nothing to split!");
+		
+		final long[] chunkLengths = new long[lengths.size()];
+		for (int i = 0; i < chunkLengths.length; i++)
+			chunkLengths[i] = lengths.get(i);
+		summary = new SplitSummary(chunkLengths, filename, algorithm, codec);
+		for (int index = 1; index <= checksums.size(); index++)
+		{
+			summary.setChecksum(index, checksums.get(index - 1));
+			if (summary.isCompressed())
+				summary.setCompressedSize(index, compressedSizes.get(index - 1));
+		}
+		if (merkle)
+			summary.setMerkleRoot(MerkleTree.root(algorithm, checksums.toArray(new byte[0][])));
+		else
+			summary.setTotalFileChecksum(totalDigest.digest());
+		return summary;
+	}
+	
+	/**
+	 * Write a chunk into the store unless it already holds it.
+	 * New chunks are written under a temporary name and moved into place, so a chunk in the store is always complete.
+	 * @param chunk The chunk's data.
+	 * @param checksum The checksum of the chunk's data.
+	 * @return The size of the chunk's file.
+	 * @throws IOException If the chunk could not be written.
+	 */
+	private long storeChunk(ByteBuffer chunk, byte[] checksum) throws IOException
+	{
+		final Path chunkPath = storePath.resolve(SplitSummary.storedChunkFilename(checksum, codec));
+		// An uncompressed chunk of the wrong size is damaged, so it is replaced
+		if (Files.exists(chunkPath) && (codec != Codec.NONE || Files.size(chunkPath) == chunk.remaining()))
+		{
+			reusedAmount++;
+			reusedSize += chunk.remaining();
+			return Files.size(chunkPath);
+		}
+		
+		final Path tempPath = storePath.resolve(chunkPath.getFileName() + ".tmp");
+		try (final FileChannel chunkChannel = FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			final WritableByteChannel outputChannel = codec == Codec.NONE ? chunkChannel : codec.compress(chunkChannel);
+			final int length = chunk.remaining();
+			long time = System.nanoTime();
+			while (chunk.hasRemaining())
+				outputChannel.write(chunk);
+			// Finish the compressed data before it is moved into place
+			if (outputChannel != chunkChannel)
+				outputChannel.close();
+			time = metrics.record(JobMetrics.Stage.WRITE, time, length);
+			chunkChannel.force(false);
+			metrics.record(JobMetrics.Stage.SYNC, time, length);
+		}
+		Files.move(tempPath, chunkPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		return Files.size(chunkPath);
+	}
+	
+	/**
+	 * Read from the source until the buffer is full or the source ends, since pipes return data in small pieces.
+	 * @param buffer The buffer to fill.
+	 * @return True if the source has ended.
+	 * @throws IOException If the source could not be read.
+	 */
+	private boolean fill(ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+			if (source.read(buffer) < 0)
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,51 @@
+package main;
+
+/**
+ * How a job handles a damaged or unreadable chunk, in place of asking the user.
+ * @author UFFR
+ *
+ */
+public enum ErrorPolicy
+{
+	/** Stops the job with a {@link ChunkException}. */
+	FAIL("fail"),
+	/** Carries on past the chunk, which is reported once the job is done. Splits cannot leave a chunk out, so they fail instead. */
+	SKIP("skip"),
+	/** Processes the chunk again after a delay, failing once the attempts run out. Chunks already streamed out in order cannot be redone, so they fail instead. */
+	RETRY("retry");
+	
+	private final String name;
+	private ErrorPolicy(String name)
+	{
+		this.name = name;
+	}
+	
+	/**
+	 * The name of the policy as used on the command line.
+	 * @return The policy's name.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * Get a policy from its command line name.
+	 * @param name The policy's name, case insensitive.
+	 * @return The matching policy.
+	 * @throws IllegalArgumentException If no policy has the name.
+	 */
+	public static ErrorPolicy fromName(String name)
+	{
+		for (ErrorPolicy policy : values())
+			if (policy.name.equalsIgnoreCase(name))
+				return policy;
+		throw new IllegalArgumentException("Unknown error policy: " + name);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,115 @@
+package main;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds content-defined chunk boundaries with FastCDC, a Gear rolling hash with normalized chunking.
+ * <p>
+ * A boundary is placed where the hash of the last bytes matches a mask, so inserting or removing data only moves the
+ * boundaries around the edit and every other chunk keeps its content. Before the average size a stricter mask is used and
+ * after it a looser one, pulling chunk sizes towards the average. No boundary is placed before the minimum size, and one is
+ * forced at the maximum size.
+ * <p>
+ * The Gear table is generated from a fixed seed and must never change, or chunks stored by earlier splits would no longer
+ * be found again.
+ * @author UFFR
+ *
+ */
+public class FastCdc
+{
+	private static final long[] GEAR = new long[256];
+	static
+	{
+		// SplitMix64, spelled out so the table stays the same regardless of the platform's random generators
+		long seed = 0x4A4653434443L;
+		for (int i = 0; i < GEAR.length; i++)
+		{
+			long z = (seed += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			GEAR[i] = z ^ (z >>> 31);
+		}
+	}
+	
+	private final int minSize, averageSize, maxSize;
+	// Each uses the highest bits, since the Gear hash's high bits depend on the most bytes
+	private final long strictMask, looseMask;
+	/**
+	 * Construct a chunker.
+	 * @param minSize The smallest chunk, except for the final one.
+	 * @param averageSize The size chunks are aimed at, rounded to the nearest power of two for the masks.
+	 * @param maxSize The largest chunk, which is also the buffer size required by {@link #cut(ByteBuffer, boolean)}.
+	 * @throws IllegalArgumentException If the sizes are not ascending or out of range.
+	 */
+	public FastCdc(int minSize, int averageSize, int maxSize)
+	{
+		if (minSize < 64 || averageSize <= minSize || maxSize <= averageSize)
+			throw new IllegalArgumentException("Content-defined chunk sizes must be ascending, with a minimum of at least 64 bytes!");
+		this.minSize = minSize;
+		this.averageSize = averageSize;
+		this.maxSize = maxSize;
+		
+		final int bits = 63 - Long.numberOfLeadingZeros(Math.round(averageSize * Math.sqrt(2)));
+		strictMask = mask(Math.min(bits + 2, 63));
+		looseMask = mask(Math.max(bits - 2, 1));
+	}
+	
+	/**
+	 * Find the length of the next chunk.
+	 * @param buffer The data, from its position to its limit, which must hold the maximum size unless the input has ended.
+	 * @param ended True if no more data follows the buffer's limit.
+	 * @return The length of the chunk starting at the buffer's position, 0 if the buffer is empty.
+	 * @throws IllegalArgumentException If the buffer holds less than the maximum size before the input has ended.
+	 */
+	public int cut(ByteBuffer buffer, boolean ended)
+	{
+		final int start = buffer.position(), available = buffer.remaining();
+		if (!ended && available < maxSize)
+			throw new IllegalArgumentException("Buffer must hold " + maxSize + " bytes until the input ends!");
+		if (available <= minSize)
+			return available;
+		
+		final int end = start + Math.min(available, maxSize), normal = start + Math.min(available, averageSize);
+		long hash = 0;
+		int i = start + minSize;
+		for (; i < normal; i++)
+		{
+			hash = (hash << 1) + GEAR[buffer.get(i) & 0xFF];
+			if ((hash & strictMask) == 0)
+				return i + 1 - start;
+		}
+		for (; i < end; i++)
+		{
+			hash = (hash << 1) + GEAR[buffer.get(i) & 0xFF];
+			if ((hash & looseMask) == 0)
+				return i + 1 - start;
+		}
+		return end - start;
+	}
+	
+	public int getMinSize()
+	{
+		return minSize;
+	}
+	
+	public int getAverageSize()
+	{
+		return averageSize;
+	}
+	
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+	
+	private static long mask(int bits)
+	{
+		return -1L << (64 - bits);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return Main.roundBin(minSize) + " / " + Main.roundBin(averageSize) + " / " + Main.roundBin(maxSize);
+	}
+}
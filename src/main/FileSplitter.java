@@ -0,0 +1,402 @@
+package main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Entry point for splitting, merging and verifying from other programs, without the console.
+ * <p>
+ * Every job is configured by {@link JobOptions}, reports to its {@link JobListener} and never prompts or exits, invalid
+ * options throw {@link IllegalArgumentException} and chunks that stay damaged under the error policy throw
+ * {@link ChunkException}. Jobs share no state, so any amount can run at once as long as they do not write to the same place.
+ * @author UFFR
+ *
+ */
+public final class FileSplitter
+{
+	private FileSplitter()
+	{
+	}
+	
+	/**
+	 * Split a file into fixed size chunks and write its summary next to them as {@code <name>.sum}.
+	 * @param sourceFile The file to split.
+	 * @param outputPath Path of the directory to write the chunks and summary into.
+	 * @param options The job's options.
+	 * @return The executed helper, holding the summary and statistics.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 * @throws IllegalArgumentException If the options cannot be combined.
+	 */
+	public static SplitHelper split(Path sourceFile, Path outputPath, JobOptions options) throws IOException
+	{
+		validate(options, false, false);
+		if (options.getChunker() != null)
+			throw new IllegalArgumentException("Content-defined chunks are split from a channel, see splitDeduplicated!");
+		
+		final String filename = sourceFile.getFileName().toString();
+		final SplitSummary summary = new SplitSummary(Files.size(sourceFile), options.getChunkSize(), filename, options.getAlgorithm(), options.getCodec());
+		summary.setParity(options.getParity());
+		summary.setBlockSize(options.getBlockSize());
+		final Path sumPath = outputPath.resolve(filename + ".sum");
+		// Earlier split to update, if any
+		final SplitSummary previous = options.isUpdate() && Files.exists(sumPath) ? SummaryFormat.read(sumPath) : null;
+		if (options.isUpdate() && previous == null)
+			options.getListener().notice("No earlier split found, writing every chunk.");
+		// The planner probes where the chunks go
+		Files.createDirectories(outputPath);
+		final JobOptions io = new IoPlanner(options, filename, summary.getTotalSize(), summary.getChunkSize(), summary.getCodec()).setTarget(outputPath).plan();
+		final int threads = workerThreads(io, summary.getCodec());
+		
+		final ProgressJournal journal = openJournal(options, outputPath.resolve(filename + ".split.journal"), summary);
+		boolean done = false;
+		try
+		{
+			final SplitHelper helper = new SplitHelper(sourceFile, outputPath, summary).setThreads(threads).setMode(io.getMode())
+					.setBufferPool(bufferPool(io, summary.getChunkSize(), defaultBufferCount(io, threads))).setMerkle(options.isMerkle())
+					.setJournal(journal).setPrevious(previous).setQueueDepth(options.getQueueDepth()).setListener(options.getListener())
+					.setErrorPolicy(options.getErrorPolicy()).setRetries(options.getAttempts(), options.getRetryDelay()).setShowProgress(options.isShowProgress())
+					.setMetrics(metrics(options, filename));
+			helper.execute();
+			if (summary.hasParity())
+			{
+				options.getListener().notice("Calculating " + summary.getParityAmount() + " parity chunks for " + summary.getParityGroups() + " groups...");
+				new ParityHelper(outputPath, summary).setThreads(options.getThreads() > 0 ? options.getThreads() : Runtime.getRuntime().availableProcessors()).setMetrics(helper.getMetrics()).encode(sourceFile);
+			}
+			// Parity chunks an earlier split had beyond this one's would otherwise be left behind
+			if (previous != null)
+				for (int parityIndex = summary.getParityAmount() + 1; parityIndex <= previous.getParityAmount(); parityIndex++)
+					Files.deleteIfExists(outputPath.resolve(previous.getParityFilename(parityIndex)));
+			writeSummary(summary, sumPath);
+			done = true;
+			return helper;
+		} finally
+		{
+			// Only discard progress once the summary is safely written
+			closeJournal(journal, done);
+		}
+	}
+	
+	/**
+	 * Split a stream into fixed size chunks until it ends and write its summary next to them as {@code <name>.sum}.
+	 * @param source The stream to split, left open.
+	 * @param name Name to store in the summary and name the chunks after.
+	 * @param outputPath Path of the directory to write the chunks and summary into.
+	 * @param options The job's options.
+	 * @return The executed helper, holding the summary.
+	 * @throws IOException If any I/O exception occurs during the process, or the stream is empty.
+	 * @throws IllegalArgumentException If the options cannot be combined.
+	 */
+	public static StreamSplitHelper splitStream(ReadableByteChannel source, String name, Path outputPath, JobOptions options) throws IOException
+	{
+		validate(options, true, false);
+		if (options.getChunker() != null)
+			throw new IllegalArgumentException("Content-defined chunks are split by splitDeduplicated!");
+		
+		// Only one chunk is written at a time, so a single buffer is needed
+		final StreamSplitHelper helper = new StreamSplitHelper(source, outputPath, name, options.getChunkSize(), options.getAlgorithm())
+				.setBufferPool(bufferPool(options, options.getChunkSize(), 1)).setCodec(options.getCodec()).setMerkle(options.isMerkle())
+				.setBlockSize(options.getBlockSize()).setListener(options.getListener()).setShowProgress(options.isShowProgress()).setMetrics(metrics(options, name));
+		writeSummary(helper.execute(), outputPath.resolve(name + ".sum"));
+		return helper;
+	}
+	
+	/**
+	 * Pack every file of a directory tree into fixed size chunks, as if they were one file, and write its summary with the
+	 * index of the files next to them as {@code <directory name>.sum}. Always stores a Merkle root, so unpacking checks the
+	 * whole pack from chunks hashed in parallel.
+	 * @param directory The directory to pack.
+	 * @param outputPath Path of the directory to write the chunks and summary into.
+	 * @param options The job's options.
+	 * @return The executed helper, holding the summary and its file index.
+	 * @throws IOException If any I/O exception occurs during the process, every file is empty or a file changed while packed.
+	 * @throws IllegalArgumentException If the options cannot be combined.
+	 */
+	public static StreamSplitHelper pack(Path directory, Path outputPath, JobOptions options) throws IOException
+	{
+		validate(options, true, false);
+		if (options.getChunker() != null)
+			throw new IllegalArgumentException("Packs are split into fixed size chunks, so they cannot be content-defined!");
+		
+		final List<PackedFile> files = PackedFile.list(directory);
+		if (files.isEmpty() || files.get(files.size() - 1).getOffset() + files.get(files.size() - 1).getLength() == 0)
+			throw new IOException("Directory [" + directory + "] has no data to pack!");
+		final String name = directory.toAbsolutePath().normalize().getFileName().toString();
+		final StreamSplitHelper helper;
+		final SplitSummary summary;
+		try (final TreeChannel source = new TreeChannel(directory, files))
+		{
+			helper = new StreamSplitHelper(source, outputPath, name, options.getChunkSize(), options.getAlgorithm())
+					.setBufferPool(bufferPool(options, options.getChunkSize(), 1)).setCodec(options.getCodec()).setMerkle(true)
+					.setBlockSize(options.getBlockSize()).setListener(options.getListener()).setShowProgress(options.isShowProgress()).setMetrics(metrics(options, name));
+			summary = helper.execute();
+		}
+		summary.setFiles(files);
+		writeSummary(summary, outputPath.resolve(name + ".sum"));
+		return helper;
+	}
+	
+	/**
+	 * Unpack every file of a packed directory tree, writing the files of each chunk as it is read so chunks are unpacked in
+	 * parallel and each is read once.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @param summary The summary of the pack.
+	 * @param outputPath Path of the directory to unpack the files into.
+	 * @param options The job's options, only the thread count, buffers, listener and progress apply.
+	 * @return The executed helper, noting any damaged files.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 * @throws IllegalArgumentException If the summary is not a pack.
+	 */
+	public static UnpackHelper unpack(Path inputPath, SplitSummary summary, Path outputPath, JobOptions options) throws IOException
+	{
+		if (!summary.isPacked())
+			throw new IllegalArgumentException("Split [" + summary.getFilename() + "] is not a packed directory, it is merged instead!");
+		final int threads = options.getThreads() > 0 ? options.getThreads() : Runtime.getRuntime().availableProcessors();
+		// One buffer per worker, each chunk is hashed as it is scattered
+		final UnpackHelper helper = new UnpackHelper(inputPath, outputPath, summary).setThreads(threads)
+				.setBufferPool(bufferPool(options, summary.getChunkSize(), threads)).setListener(options.getListener()).setShowProgress(options.isShowProgress())
+				.setMetrics(metrics(options, summary.getFilename()));
+		helper.execute();
+		return helper;
+	}
+	
+	/**
+	 * Split a file or stream into content-defined chunks with the options' chunker, reusing those already in the store, and
+	 * write its summary into the store as {@code <name>.sum}.
+	 * @param source The file or stream to split, left open.
+	 * @param name Name to store in the summary.
+	 * @param storePath Path of the chunk store.
+	 * @param options The job's options.
+	 * @return The executed helper, holding the summary and reuse statistics.
+	 * @throws IOException If any I/O exception occurs during the process, or the source is empty.
+	 * @throws IllegalArgumentException If no chunker is set, the algorithm is not cryptographic or the options cannot be combined.
+	 */
+	public static DedupSplitHelper splitDeduplicated(ReadableByteChannel source, String name, Path storePath, JobOptions options) throws IOException
+	{
+		validate(options, true, false);
+		if (options.getChunker() == null)
+			throw new IllegalArgumentException("Content-defined chunking requires a chunker!");
+		
+		final DedupSplitHelper helper = new DedupSplitHelper(source, storePath, name, options.getChunker(), options.getAlgorithm())
+				.setCodec(options.getCodec()).setMerkle(options.isMerkle()).setListener(options.getListener()).setShowProgress(options.isShowProgress())
+				.setMetrics(metrics(options, name));
+		writeSummary(helper.execute(), storePath.resolve(name + ".sum"));
+		return helper;
+	}
+	
+	/**
+	 * Merge the chunks of a split back into the original file.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @param outputPath Path of the directory to write the merged file into.
+	 * @param options The job's options.
+	 * @return The executed helper, noting any chunks that were skipped.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 * @throws ChunkException If a chunk stays damaged and the error policy does not skip it.
+	 */
+	public static MergeHelper merge(Path inputPath, Path outputPath, JobOptions options) throws IOException
+	{
+		final SplitSummary summary = SummaryFormat.read(inputPath);
+		summary.checkForErrors();
+		return merge(inputPath, summary, outputPath, null, options);
+	}
+	
+	/**
+	 * Merge the chunks of an already read summary into the original file or a stream.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @param summary The summary of the split.
+	 * @param outputPath Path of the directory to write the merged file into, or where the journal is kept when merging to a stream.
+	 * @param outputStream The stream to merge into in order, or null to write the file.
+	 * @param options The job's options.
+	 * @return The executed helper, noting any chunks that were skipped.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 * @throws ChunkException If a chunk stays damaged and the error policy does not skip it.
+	 * @throws IllegalArgumentException If the options cannot be combined.
+	 */
+	public static MergeHelper merge(Path inputPath, SplitSummary summary, Path outputPath, OutputStream outputStream, JobOptions options) throws IOException
+	{
+		final boolean toStream = outputStream != null;
+		validate(options, false, toStream);
+		final JobOptions io = new IoPlanner(options, summary.getFilename(), summary.getTotalSize(), summary.getChunkSize(), summary.getCodec())
+				.setTarget(outputPath).setStreams(false, toStream).plan();
+		// Merging into a stream is always in order
+		final int threads = toStream ? Math.max(io.getThreads(), 1) : workerThreads(io, summary.getCodec());
+		
+		final ProgressJournal journal = openJournal(options, outputPath.resolve(summary.getFilename() + ".merge.journal"), summary);
+		boolean done = false;
+		try
+		{
+			final MergeHelper helper = new MergeHelper(inputPath, outputPath, summary).setThreads(threads).setMode(io.getMode())
+					.setBufferPool(bufferPool(io, summary.getChunkSize(), defaultBufferCount(io, threads))).setJournal(journal)
+					.setQueueDepth(options.getQueueDepth()).setOutputStream(outputStream).setListener(options.getListener())
+					.setErrorPolicy(options.getErrorPolicy()).setRetries(options.getAttempts(), options.getRetryDelay()).setShowProgress(options.isShowProgress())
+					.setMetrics(metrics(options, summary.getFilename()));
+			helper.execute();
+			done = true;
+			return helper;
+		} finally
+		{
+			closeJournal(journal, done);
+		}
+	}
+	
+	/**
+	 * Check every chunk of a split concurrently without merging.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @param summary The summary of the split.
+	 * @param options The job's options, only the thread count, buffers, listener and progress apply.
+	 * @return The executed helper, holding each chunk's status.
+	 * @throws IOException If any chunk could not be read.
+	 */
+	public static VerifyHelper verify(Path inputPath, SplitSummary summary, JobOptions options) throws IOException
+	{
+		final int threads = options.getThreads() > 0 ? options.getThreads() : Runtime.getRuntime().availableProcessors();
+		// One buffer per worker, there is no whole-file checksum to take the usual extra one
+		final VerifyHelper helper = new VerifyHelper(inputPath, summary).setThreads(threads)
+				.setBufferPool(bufferPool(options, summary.getChunkSize(), threads)).setListener(options.getListener()).setShowProgress(options.isShowProgress())
+				.setMetrics(metrics(options, summary.getFilename()));
+		helper.execute();
+		return helper;
+	}
+	
+	/**
+	 * Check that the options can be combined for a job.
+	 * @param options The job's options.
+	 * @param fromStream True if the source is a stream rather than a file.
+	 * @param toStream True if merging into a stream rather than a file.
+	 * @throws IllegalArgumentException If the options cannot be combined.
+	 */
+	static void validate(JobOptions options, boolean fromStream, boolean toStream)
+	{
+		final TransferMode mode = options.getMode();
+		if (mode == TransferMode.PIPELINED && (options.getThreads() > 1 || options.isResume()))
+			throw new IllegalArgumentException("The pipelined I/O mode runs its own threads and cannot be resumed, so it cannot be used with multiple threads or resuming!");
+		if (options.getChunker() != null && (options.getThreads() > 1 || (mode != TransferMode.STREAM && mode != TransferMode.AUTO) || options.isResume()))
+			throw new IllegalArgumentException("Content-defined chunking is sequential and cannot be resumed, so it cannot be used with multiple threads, another I/O mode or resuming!");
+		if (options.isUpdate() && (options.getChunker() != null || fromStream))
+			throw new IllegalArgumentException("Updating requires a file to hash in place, and content-defined chunks are never rewritten, so it cannot be used with streams or content-defined chunking!");
+		if (options.getParity() > 0 && (options.getChunker() != null || fromStream))
+			throw new IllegalArgumentException("Parity is calculated from the source file at fixed offsets, so it cannot be used with streams or content-defined chunking!");
+		if (options.getBlockSize() > 0 && (options.getChunker() != null || options.getCodec() != Codec.NONE))
+			throw new IllegalArgumentException("Blocks are checksummed and patched at their offsets within the chunk files, so block checksums cannot be used with compression or content-defined chunking!");
+		if (toStream && (options.getThreads() > 1 || (mode != TransferMode.STREAM && mode != TransferMode.PIPELINED && mode != TransferMode.AUTO) || options.isResume()))
+			throw new IllegalArgumentException("Merging to a stream requires a single thread, the stream or pipelined I/O mode and no journal!");
+	}
+	
+	/**
+	 * The metrics a job records to.
+	 * @param options The job's options.
+	 * @param name Name of the job's file.
+	 * @return The options' metrics, or new ones for the job alone if none are set.
+	 */
+	private static JobMetrics metrics(JobOptions options, String name)
+	{
+		return options.getMetrics() != null ? options.getMetrics() : new JobMetrics(name);
+	}
+	
+	/**
+	 * The amount of worker threads, by default one per processor for compressed chunks so the codec runs in parallel.
+	 * @param options The job's options.
+	 * @param codec The codec the chunks are compressed with.
+	 * @return Amount of threads.
+	 */
+	private static int workerThreads(JobOptions options, Codec codec)
+	{
+		if (options.getThreads() > 0)
+			return options.getThreads();
+		return codec == Codec.NONE || options.getMode() == TransferMode.PIPELINED ? 1 : Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * The amount of buffers a split or merge needs, one per worker plus one for the whole-file checksum, or enough to fill the pipeline.
+	 * @param options The job's options.
+	 * @param threads The amount of worker threads.
+	 * @return Amount of buffers.
+	 */
+	private static int defaultBufferCount(JobOptions options, int threads)
+	{
+		return options.getMode() == TransferMode.PIPELINED ? Pipeline.bufferCount(options.getQueueDepth()) : threads + 1;
+	}
+	
+	/**
+	 * Creates the buffer pool from the options, falling back to defaults sized to the chunks.
+	 * @param options The job's options.
+	 * @param chunkSize The size of the chunks.
+	 * @param defaultCount The amount of buffers if not set.
+	 * @return The configured pool.
+	 */
+	private static BufferPool bufferPool(JobOptions options, long chunkSize, int defaultCount)
+	{
+		final long bufferSize = options.getBufferSize() > 0 ? options.getBufferSize() : Math.min(Main.BUFFER, chunkSize);
+		return new BufferPool((int) bufferSize, options.getBufferCount() > 0 ? options.getBufferCount() : defaultCount, options.isDirect());
+	}
+	
+	/**
+	 * The memory the buffers of a split or merge take at most, for limiting jobs running at once.
+	 * The planner only ever picks smaller buffers than the default, but may pick the pipelined mode's larger count.
+	 * @param options The job's options.
+	 * @param chunkSize The size of the chunks.
+	 * @param threads The amount of worker threads.
+	 * @return Size in bytes.
+	 */
+	static long bufferBytes(JobOptions options, long chunkSize, int threads)
+	{
+		final long bufferSize = options.getBufferSize() > 0 ? options.getBufferSize() : Math.min(Main.BUFFER, chunkSize);
+		if (options.getBufferCount() > 0)
+			return bufferSize * options.getBufferCount();
+		final int bufferCount = defaultBufferCount(options, threads);
+		return bufferSize * (options.getMode() == TransferMode.AUTO ? Math.max(bufferCount, Pipeline.bufferCount(options.getQueueDepth())) : bufferCount);
+	}
+	
+	/**
+	 * Opens the progress journal if resuming is enabled, noting any progress an earlier run left.
+	 * @param options The job's options.
+	 * @param journalPath Where the journal is kept.
+	 * @param summary The summary of the job.
+	 * @return The journal, or null if resuming is not enabled.
+	 * @throws IOException If the journal cannot be opened.
+	 */
+	private static ProgressJournal openJournal(JobOptions options, Path journalPath, SplitSummary summary) throws IOException
+	{
+		if (!options.isResume())
+			return null;
+		Files.createDirectories(journalPath.toAbsolutePath().getParent());
+		final ProgressJournal journal = new ProgressJournal(journalPath, summary);
+		if (journal.getCompletedAmount() > 0)
+			options.getListener().notice("Resuming, " + journal.getCompletedAmount() + " of " + summary.getChunkAmount() + " chunks already complete.");
+		return journal;
+	}
+	
+	/**
+	 * Deletes the journal once its job is done, otherwise only closes it so the job can be resumed.
+	 * @param journal The journal, or null if none is kept.
+	 * @param done True if the job completed.
+	 * @throws IOException If the journal cannot be closed or deleted.
+	 */
+	private static void closeJournal(ProgressJournal journal, boolean done) throws IOException
+	{
+		if (journal == null)
+			return;
+		if (done)
+			journal.delete();
+		else
+			journal.close();
+	}
+	
+	/**
+	 * Writes a summary under a temporary name and moves it into place, so an earlier summary is replaced in one step.
+	 * @param summary The summary to write.
+	 * @param sumPath Where the summary belongs.
+	 * @throws IOException If the summary could not be written.
+	 */
+	private static void writeSummary(SplitSummary summary, Path sumPath) throws IOException
+	{
+		final Path tempPath = sumPath.resolveSibling(sumPath.getFileName() + ".tmp");
+		Files.deleteIfExists(tempPath);
+		SummaryFormat.write(summary, tempPath);
+		Files.move(tempPath, sumPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
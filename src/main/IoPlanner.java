@@ -0,0 +1,286 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses the I/O settings a job leaves unset, from the file and chunk sizes, the free heap and the storage written to.
+ * <p>
+ * Explicit settings are always kept. Unset ones are chosen in this order:
+ * <ul>
+ * <li>Worker threads: one per processor for compressed chunks, as before. Uncompressed chunks of up to 1 MB, or any
+ * chunks on a network file system, get up to 4 workers if there are as many processors, since opening and closing every
+ * chunk's file takes longer than copying it there. Everything else stays sequential.</li>
+ * <li>{@link TransferMode#AUTO}: {@link TransferMode#PIPELINED} for sequential jobs of at least 64 MB that are not
+ * resumed, so reading overlaps with hashing on another processor, otherwise {@link TransferMode#STREAM}.</li>
+ * <li>Buffer size: the chunk size up to 8 MB, as before, but never more than the file, nor more than the target's
+ * storage needs to reach its full speed, nor so much that the buffers take more than a quarter of the free heap.</li>
+ * </ul>
+ * The storage is probed by writing a few megabytes with each of a few buffer sizes into a temporary file, only for jobs
+ * large enough for that to be negligible. Results are kept per file system, so a batch probes each one once.
+ * @author UFFR
+ *
+ */
+public class IoPlanner
+{
+	// Buffer sizes the probe compares, smallest first
+	private static final int[] PROBE_SIZES = {Main.KB * 64, Main.MB, Main.BUFFER};
+	// Bytes written with each size, after writing them once unmeasured so every size overwrites allocated space
+	private static final int PROBE_BYTES = Main.MB * 4;
+	// Smaller jobs are not worth the probe's writes
+	private static final long PROBE_THRESHOLD = Main.MB * 256L;
+	// Share of the best speed a smaller buffer must reach to be chosen
+	private static final double PROBE_TOLERANCE = 0.9;
+	// Smallest buffer memory pressure shrinks to
+	private static final int MIN_BUFFER = Main.KB * 64;
+	// Smallest sequential job the pipeline is worth starting its threads for
+	private static final long PIPELINE_THRESHOLD = Main.MB * 64L;
+	// Largest chunks whose file handling outweighs copying them
+	private static final long SMALL_CHUNK = Main.MB;
+	private static final int SMALL_CHUNK_THREADS = 4;
+	// File system types whose latency concurrent chunks hide
+	private static final String[] NETWORK_TYPES = {"nfs", "nfs4", "cifs", "smbfs", "smb3", "fuse.sshfs", "9p"};
+	// Best buffer size of every file system probed so far
+	private static final Map<FileStore, Integer> PROBED = new ConcurrentHashMap<FileStore, Integer>();
+	
+	private final JobOptions options;
+	private final String name;
+	private final long totalSize, chunkSize;
+	private final Codec codec;
+	private Path target;
+	private boolean fromStream, toStream;
+	/**
+	 * Construct a planner.
+	 * @param options The job's options, left unchanged.
+	 * @param name Name of the job's file, for the log.
+	 * @param totalSize The size of the file, or -1 if unknown.
+	 * @param chunkSize The size of the chunks, or the largest chunk's.
+	 * @param codec The codec the chunks are compressed with.
+	 */
+	public IoPlanner(JobOptions options, String name, long totalSize, long chunkSize, Codec codec)
+	{
+		this.options = options;
+		this.name = name;
+		this.totalSize = totalSize;
+		this.chunkSize = chunkSize;
+		this.codec = codec;
+	}
+	
+	/**
+	 * Set the directory the job writes into, whose storage is probed.
+	 * @param target The directory, or null to not probe.
+	 * @return This planner.
+	 */
+	public IoPlanner setTarget(Path target)
+	{
+		this.target = target;
+		return this;
+	}
+	
+	/**
+	 * Set whether the job reads from or writes to a stream, which is always done in order.
+	 * @param fromStream True if the source is a stream.
+	 * @param toStream True if merging into a stream.
+	 * @return This planner.
+	 */
+	public IoPlanner setStreams(boolean fromStream, boolean toStream)
+	{
+		this.fromStream = fromStream;
+		this.toStream = toStream;
+		return this;
+	}
+	
+	/**
+	 * Choose every setting the options leave unset, noting the choices to the options' listener.
+	 * @return A copy of the options with the thread count, mode, buffer size and buffer count set.
+	 */
+	public JobOptions plan()
+	{
+		final JobOptions plan = new JobOptions(options);
+		final List<String> reasons = new ArrayList<String>();
+		final boolean ordered = fromStream || toStream || options.getChunker() != null;
+		final FileStore store = store();
+		final boolean network = store != null && isNetwork(store);
+		
+		if (options.getThreads() == 0)
+		{
+			final int processors = Runtime.getRuntime().availableProcessors(), workers = Math.min(processors, SMALL_CHUNK_THREADS);
+			if (ordered || options.getMode() == TransferMode.PIPELINED || workers == 1)
+				plan.setThreads(1);
+			else if (codec != Codec.NONE)
+			{
+				plan.setThreads(processors);
+				reasons.add("compression runs on every processor");
+			} else if (chunkSize <= SMALL_CHUNK && (totalSize < 0 || totalSize > chunkSize * workers))
+			{
+				plan.setThreads(workers);
+				reasons.add("chunks of " + Main.roundBin(chunkSize) + " are dominated by opening their files");
+			} else if (network)
+			{
+				plan.setThreads(workers);
+				reasons.add("the " + store.type() + " file system's latency is hidden by concurrent chunks");
+			} else
+				plan.setThreads(1);
+		}
+		
+		if (options.getMode() == TransferMode.AUTO)
+		{
+			// Only uncompressed fixed size chunks of a file are pipelined, the rest are copied through memory as they are read.
+			// Hashing only overlaps with reading if it has a processor of its own.
+			if (plan.getThreads() == 1 && Runtime.getRuntime().availableProcessors() > 1 && !options.isResume() && !fromStream && options.getChunker() == null && codec == Codec.NONE
+					&& totalSize >= PIPELINE_THRESHOLD)
+			{
+				plan.setMode(TransferMode.PIPELINED);
+				reasons.add("reading overlaps with hashing in a sequential job of " + Main.roundBin(totalSize));
+			} else
+				plan.setMode(TransferMode.STREAM);
+		}
+		
+		final int count = options.getBufferCount() > 0 ? options.getBufferCount()
+				: plan.getMode() == TransferMode.PIPELINED ? Pipeline.bufferCount(plan.getQueueDepth()) : plan.getThreads() + 1;
+		plan.setBufferCount(count);
+		if (options.getBufferSize() == 0)
+		{
+			long bufferSize = Math.min(Main.BUFFER, chunkSize);
+			if (totalSize > 0 && totalSize < bufferSize)
+				bufferSize = Math.max(totalSize, Main.KB);
+			final int probed = probe(store);
+			if (probed > 0 && probed < bufferSize)
+			{
+				bufferSize = probed;
+				reasons.add("the target reaches its full speed with " + Main.roundBin(probed) + " writes");
+			}
+			// Leave the rest of the heap to everything else
+			final Runtime runtime = Runtime.getRuntime();
+			final long heap = (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) / 4;
+			if (bufferSize * count > heap && bufferSize > MIN_BUFFER)
+			{
+				while (bufferSize * count > heap && bufferSize > MIN_BUFFER)
+					bufferSize = Math.max(bufferSize / 2, MIN_BUFFER);
+				reasons.add(count + " buffers must fit into a quarter of the " + Main.roundBin(heap * 4) + " of free heap");
+			}
+			plan.setBufferSize(bufferSize);
+		}
+		
+		// Nothing was left to plan
+		if (options.getThreads() > 0 && options.getMode() != TransferMode.AUTO && options.getBufferSize() > 0 && options.getBufferCount() > 0)
+			return plan;
+		options.getListener().notice("Planned I/O for [" + name + "]: " + plan.getThreads() + " threads, " + plan.getMode() + " mode, " + count + " buffers of "
+				+ Main.roundBin(plan.getBufferSize()) + (reasons.isEmpty() ? "." : ", since " + String.join(", ", reasons) + '.'));
+		return plan;
+	}
+	
+	/**
+	 * The file system of the target, if there is one.
+	 * @return The file system, or null if there is no target or it cannot be found.
+	 */
+	private FileStore store()
+	{
+		if (target == null || toStream || !Files.isDirectory(target))
+			return null;
+		try
+		{
+			return Files.getFileStore(target);
+		} catch (IOException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Find the smallest buffer size the target's storage writes at full speed with, probing it once per file system.
+	 * @param store The target's file system, or null if there is none.
+	 * @return The buffer size, or 0 if the job is too small to probe for or the probe failed.
+	 */
+	private int probe(FileStore store)
+	{
+		if (store == null || totalSize < PROBE_THRESHOLD)
+			return 0;
+		return PROBED.computeIfAbsent(store, key ->
+		{
+			try
+			{
+				return probe(target);
+			} catch (IOException e)
+			{
+				options.getListener().notice("Could not probe the speed of [" + target + "]: " + e.getMessage());
+				return 0;
+			}
+		});
+	}
+	
+	/**
+	 * Write a temporary file with every probed buffer size, timing each.
+	 * @param directory The directory to write into.
+	 * @return The smallest buffer size reaching nearly the best speed.
+	 * @throws IOException If the file could not be written.
+	 */
+	private static int probe(Path directory) throws IOException
+	{
+		final Path probeFile = Files.createTempFile(directory, ".probe", ".tmp");
+		try (final FileChannel channel = FileChannel.open(probeFile, StandardOpenOption.WRITE))
+		{
+			// Random data, so compressing file systems cannot shortcut it
+			final byte[] data = new byte[PROBE_SIZES[PROBE_SIZES.length - 1]];
+			ThreadLocalRandom.current().nextBytes(data);
+			write(channel, ByteBuffer.wrap(data));
+			final double[] speeds = new double[PROBE_SIZES.length];
+			double best = 0;
+			for (int i = 0; i < PROBE_SIZES.length; i++)
+			{
+				final long start = System.nanoTime();
+				write(channel, ByteBuffer.wrap(data, 0, PROBE_SIZES[i]).slice());
+				speeds[i] = PROBE_BYTES / (double) Math.max(System.nanoTime() - start, 1);
+				best = Math.max(best, speeds[i]);
+			}
+			for (int i = 0; i < PROBE_SIZES.length; i++)
+				if (speeds[i] >= best * PROBE_TOLERANCE)
+					return PROBE_SIZES[i];
+			return PROBE_SIZES[PROBE_SIZES.length - 1];
+		} finally
+		{
+			Files.deleteIfExists(probeFile);
+		}
+	}
+	
+	/**
+	 * Write the probe's bytes from the start of the file through a buffer, forcing them to the storage.
+	 * @param channel The probe file.
+	 * @param buffer The buffer to write repeatedly.
+	 * @throws IOException If the file could not be written.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		long position = 0;
+		while (position < PROBE_BYTES)
+		{
+			buffer.clear().limit((int) Math.min(buffer.capacity(), PROBE_BYTES - position));
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+		}
+		channel.force(false);
+	}
+	
+	/**
+	 * Checks if a file system is reached over a network.
+	 * @param store The file system.
+	 * @return True if its type is a known network file system.
+	 */
+	private static boolean isNetwork(FileStore store)
+	{
+		for (String type : NETWORK_TYPES)
+			if (type.equalsIgnoreCase(store.type()))
+				return true;
+		return false;
+	}
+}
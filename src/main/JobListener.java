@@ -0,0 +1,52 @@
+package main;
+
+/**
+ * Receives the progress and problems of a job, in place of console output and prompts.
+ * Methods may be called from several worker threads at once, so implementations must be thread-safe.
+ * Every method does nothing by default and damaged chunks follow the job's error policy.
+ * @author UFFR
+ *
+ */
+public interface JobListener
+{
+	/** Listener that ignores everything. */
+	JobListener NONE = new JobListener()
+	{
+	};
+	
+	/**
+	 * Note bytes the job has processed.
+	 * @param bytes The amount of bytes processed since the last call.
+	 */
+	default void progressed(long bytes)
+	{
+	}
+	
+	/**
+	 * Note information about the job, such as progress resumed from a journal.
+	 * @param message The information.
+	 */
+	default void notice(String message)
+	{
+	}
+	
+	/**
+	 * Note a problem the job carries on past, such as a merged file whose checksum does not match.
+	 * @param message Description of the problem.
+	 */
+	default void warning(String message)
+	{
+	}
+	
+	/**
+	 * Decide how to handle a damaged or unreadable chunk.
+	 * @param index The chunk's index.
+	 * @param message Description of the problem.
+	 * @param policy The job's error policy.
+	 * @return The policy to apply to this chunk, the job's by default.
+	 */
+	default ErrorPolicy chunkFailed(int index, String message, ErrorPolicy policy)
+	{
+		return policy;
+	}
+}
@@ -0,0 +1,378 @@
+package main;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Timings and counters of a job, safe to record to from multiple threads.
+ * <p>
+ * Jobs always record their bytes, chunks and the time spent in each {@link Stage}, along with the buffer pool in use and
+ * the garbage collections since the metrics were created. Optionally, the metrics can be {@linkplain #register() registered}
+ * as an MBean to watch a running job over JMX, and written as JSON lines, one per chunk and one with the totals on
+ * {@link #close()}. Several jobs given the same metrics add up their totals, such as the files of a batch.
+ * @author UFFR
+ *
+ */
+public class JobMetrics implements JobMetricsMBean, Closeable
+{
+	/**
+	 * The steps each chunk goes through. Steps the I/O mode combines, such as transferring without copying,
+	 * count towards the one that covers the most of them.
+	 */
+	public enum Stage
+	{
+		READ("read"),
+		HASH("hash"),
+		WRITE("write"),
+		/** Forcing data to disk, done when journaling and for every chunk stored by content. */
+		SYNC("sync");
+		
+		private final String name;
+		private Stage(String name)
+		{
+			this.name = name;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return name;
+		}
+	}
+	
+	private static final AtomicInteger IDS = new AtomicInteger();
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	// Allocation counters are a HotSpot extension
+	private static final boolean ALLOCATIONS = THREADS instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+			&& ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+	// What the current thread had allocated when it started its chunk
+	private static final ThreadLocal<long[]> CHUNK_ALLOCATED = ThreadLocal.withInitial(() -> new long[1]);
+	
+	private final String name;
+	private final long startTime = System.nanoTime();
+	private final long[] startCollections = Main.garbageCollections();
+	private final LongAdder bytes = new LongAdder(), allocated = new LongAdder();
+	private final LongAdder[] stageNanos = new LongAdder[Stage.values().length], stageBytes = new LongAdder[Stage.values().length];
+	private final AtomicInteger chunks = new AtomicInteger();
+	private final AtomicLong maxChunkNanos = new AtomicLong();
+	private volatile BufferPool bufferPool;
+	private PrintStream jsonLines;
+	private ObjectName objectName;
+	/**
+	 * Start recording, the elapsed time and collections count from now.
+	 * @param name Name of the job, such as the file being split.
+	 */
+	public JobMetrics(String name)
+	{
+		this.name = name;
+		for (int i = 0; i < stageNanos.length; i++)
+		{
+			stageNanos[i] = new LongAdder();
+			stageBytes[i] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * Write a JSON object per line for every completed chunk, and one with the totals once closed.
+	 * @param jsonLines The stream to write to, left open, or null to not write any.
+	 * @return These metrics.
+	 */
+	public JobMetrics setJsonLines(PrintStream jsonLines)
+	{
+		this.jsonLines = jsonLines;
+		return this;
+	}
+	
+	/**
+	 * Register with the platform MBean server as {@code main:type=JobMetrics,name=<name>,id=<n>}, until closed.
+	 * @return These metrics.
+	 * @throws IllegalStateException If the MBean could not be registered.
+	 */
+	public synchronized JobMetrics register()
+	{
+		if (objectName != null)
+			return this;
+		try
+		{
+			objectName = new ObjectName("main:type=JobMetrics,name=" + ObjectName.quote(name) + ",id=" + IDS.incrementAndGet());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		} catch (JMException e)
+		{
+			objectName = null;
+			throw new IllegalStateException("Unable to register job metrics!", e);
+		}
+		return this;
+	}
+	
+	/**
+	 * Set the buffer pool the job takes its buffers from, reported by the buffer gauges.
+	 * @param bufferPool The pool in use.
+	 */
+	void setBufferPool(BufferPool bufferPool)
+	{
+		this.bufferPool = bufferPool;
+	}
+	
+	/**
+	 * Note bytes the job has processed.
+	 * @param amount The amount of bytes.
+	 */
+	void progressed(long amount)
+	{
+		bytes.add(amount);
+	}
+	
+	/**
+	 * Note time spent in a stage.
+	 * @param stage The stage.
+	 * @param start When the stage started, from {@link System#nanoTime()}.
+	 * @param amount The amount of bytes the stage handled.
+	 * @return The current time, to start timing the next stage from.
+	 */
+	long record(Stage stage, long start, long amount)
+	{
+		final long now = System.nanoTime();
+		stageNanos[stage.ordinal()].add(now - start);
+		stageBytes[stage.ordinal()].add(amount);
+		return now;
+	}
+	
+	/**
+	 * Start timing a chunk on the current thread.
+	 * @return The current time, to pass to {@link #chunkFinished(String, int, long, long)} from the same thread.
+	 */
+	long chunkStarted()
+	{
+		if (ALLOCATIONS)
+			CHUNK_ALLOCATED.get()[0] = allocatedByThread();
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Note a completed chunk, writing its JSON line if enabled.
+	 * @param file The file the chunk belongs to.
+	 * @param index The chunk's index.
+	 * @param start When the chunk started, from {@link #chunkStarted()}.
+	 * @param amount The chunk's size in bytes.
+	 */
+	void chunkFinished(String file, int index, long start, long amount)
+	{
+		final long nanos = System.nanoTime() - start, chunkAllocated = ALLOCATIONS ? allocatedByThread() - CHUNK_ALLOCATED.get()[0] : 0;
+		chunks.incrementAndGet();
+		maxChunkNanos.accumulateAndGet(nanos, Math::max);
+		allocated.add(chunkAllocated);
+		if (jsonLines != null)
+			jsonLines.println("{\"type\":\"chunk\",\"job\":" + quote(name) + ",\"file\":" + quote(file) + ",\"index\":" + index + ",\"bytes\":" + amount
+					+ ",\"nanos\":" + nanos + ",\"allocatedBytes\":" + chunkAllocated + ",\"time\":" + System.currentTimeMillis() + '}');
+	}
+	
+	/**
+	 * Time spent in a stage, totalled over every thread.
+	 * @param stage The stage.
+	 * @return Time in nanoseconds.
+	 */
+	public long getNanos(Stage stage)
+	{
+		return stageNanos[stage.ordinal()].sum();
+	}
+	
+	/**
+	 * Bytes a stage handled.
+	 * @param stage The stage.
+	 * @return Amount of bytes.
+	 */
+	public long getBytes(Stage stage)
+	{
+		return stageBytes[stage.ordinal()].sum();
+	}
+	
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+	
+	@Override
+	public long getBytes()
+	{
+		return bytes.sum();
+	}
+	
+	@Override
+	public long getElapsedMillis()
+	{
+		return (System.nanoTime() - startTime) / 1_000_000;
+	}
+	
+	@Override
+	public long getBytesPerSecond()
+	{
+		final long nanos = System.nanoTime() - startTime;
+		return nanos <= 0 ? 0 : (long) (getBytes() * 1e9 / nanos);
+	}
+	
+	@Override
+	public int getChunks()
+	{
+		return chunks.get();
+	}
+	
+	@Override
+	public long getMaxChunkMillis()
+	{
+		return maxChunkNanos.get() / 1_000_000;
+	}
+	
+	@Override
+	public long getReadMillis()
+	{
+		return getNanos(Stage.READ) / 1_000_000;
+	}
+	
+	@Override
+	public long getHashMillis()
+	{
+		return getNanos(Stage.HASH) / 1_000_000;
+	}
+	
+	@Override
+	public long getWriteMillis()
+	{
+		return getNanos(Stage.WRITE) / 1_000_000;
+	}
+	
+	@Override
+	public long getSyncMillis()
+	{
+		return getNanos(Stage.SYNC) / 1_000_000;
+	}
+	
+	@Override
+	public int getBuffersInUse()
+	{
+		final BufferPool pool = bufferPool;
+		return pool == null ? 0 : pool.getInUse();
+	}
+	
+	@Override
+	public int getBuffersAllocated()
+	{
+		final BufferPool pool = bufferPool;
+		return pool == null ? 0 : pool.getAllocated();
+	}
+	
+	@Override
+	public int getBuffersPeak()
+	{
+		final BufferPool pool = bufferPool;
+		return pool == null ? 0 : pool.getPeakInUse();
+	}
+	
+	@Override
+	public int getBufferCapacity()
+	{
+		final BufferPool pool = bufferPool;
+		return pool == null ? 0 : pool.getCapacity();
+	}
+	
+	@Override
+	public long getGarbageCollections()
+	{
+		return Main.garbageCollections()[0] - startCollections[0];
+	}
+	
+	@Override
+	public long getGarbageCollectionMillis()
+	{
+		return Main.garbageCollections()[1] - startCollections[1];
+	}
+	
+	@Override
+	public long getAllocatedBytes()
+	{
+		return allocated.sum();
+	}
+	
+	/**
+	 * Write the totals as a JSON line if enabled, and unregister the MBean if registered.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (jsonLines != null)
+		{
+			final StringBuilder builder = new StringBuilder("{\"type\":\"job\",\"job\":").append(quote(name))
+					.append(",\"bytes\":").append(getBytes())
+					.append(",\"elapsedMillis\":").append(getElapsedMillis())
+					.append(",\"bytesPerSecond\":").append(getBytesPerSecond())
+					.append(",\"chunks\":").append(getChunks())
+					.append(",\"maxChunkNanos\":").append(maxChunkNanos.get());
+			for (Stage stage : Stage.values())
+				builder.append(",\"").append(stage).append("Nanos\":").append(getNanos(stage)).append(",\"").append(stage).append("Bytes\":").append(getBytes(stage));
+			builder.append(",\"buffersPeak\":").append(getBuffersPeak())
+					.append(",\"buffersAllocated\":").append(getBuffersAllocated())
+					.append(",\"bufferCapacity\":").append(getBufferCapacity())
+					.append(",\"garbageCollections\":").append(getGarbageCollections())
+					.append(",\"garbageCollectionMillis\":").append(getGarbageCollectionMillis())
+					.append(",\"allocatedBytes\":").append(getAllocatedBytes())
+					.append(",\"time\":").append(System.currentTimeMillis()).append('}');
+			jsonLines.println(builder);
+			jsonLines.flush();
+		}
+		if (objectName != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e)
+			{
+				// Already gone
+			}
+			objectName = null;
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "read " + getReadMillis() + " ms, hash " + getHashMillis() + " ms, write " + getWriteMillis() + " ms, sync " + getSyncMillis() + " ms over "
+				+ getChunks() + " chunks, the slowest taking " + getMaxChunkMillis() + " ms" + (ALLOCATIONS ? ", allocating " + Main.roundBin(getAllocatedBytes()) : "");
+	}
+	
+	/**
+	 * The heap memory the current thread has allocated so far.
+	 * @return Amount of bytes.
+	 */
+	private static long allocatedByThread()
+	{
+		return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * Quote a string for JSON.
+	 * @param string The string to quote.
+	 * @return The quoted and escaped string.
+	 */
+	private static String quote(String string)
+	{
+		final StringBuilder builder = new StringBuilder(string.length() + 2).append('"');
+		for (char c : string.toCharArray())
+		{
+			if (c == '"' || c == '\\')
+				builder.append('\\').append(c);
+			else if (c < 0x20)
+				builder.append(String.format("\\u%04x", (int) c));
+			else
+				builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+}
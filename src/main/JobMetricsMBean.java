@@ -0,0 +1,52 @@
+package main;
+
+/**
+ * Management interface of {@link JobMetrics}, read by JMX clients such as JConsole while a job runs.
+ * Times are in milliseconds, totalled over every thread of the job.
+ * @author UFFR
+ *
+ */
+public interface JobMetricsMBean
+{
+	String getName();
+	
+	long getBytes();
+	
+	long getElapsedMillis();
+	
+	/**
+	 * Average throughput since the metrics were created.
+	 * @return Bytes per second.
+	 */
+	long getBytesPerSecond();
+	
+	int getChunks();
+	
+	long getMaxChunkMillis();
+	
+	long getReadMillis();
+	
+	long getHashMillis();
+	
+	long getWriteMillis();
+	
+	long getSyncMillis();
+	
+	int getBuffersInUse();
+	
+	int getBuffersAllocated();
+	
+	int getBuffersPeak();
+	
+	int getBufferCapacity();
+	
+	long getGarbageCollections();
+	
+	long getGarbageCollectionMillis();
+	
+	/**
+	 * Heap memory allocated by the threads while they processed chunks.
+	 * @return Bytes allocated, or 0 if the JVM does not measure it.
+	 */
+	long getAllocatedBytes();
+}
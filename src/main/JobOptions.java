@@ -0,0 +1,411 @@
+package main;
+
+/**
+ * Settings of a split, merge or verification run through {@link FileSplitter}, with the command line's defaults.
+ * Options that do not apply to a job are ignored by it.
+ * @author UFFR
+ *
+ */
+public class JobOptions
+{
+	private long chunkSize = 10 * Main.MB;
+	private ChecksumAlgorithm algorithm = ChecksumAlgorithm.SHA_256;
+	private Codec codec = Codec.NONE;
+	private boolean merkle;
+	private FastCdc chunker;
+	private int parity;
+	private long blockSize;
+	private int threads;
+	private TransferMode mode = TransferMode.AUTO;
+	private int queueDepth = 4;
+	private long bufferSize;
+	private int bufferCount;
+	private boolean direct;
+	private boolean resume;
+	private boolean update;
+	private ErrorPolicy errorPolicy = ErrorPolicy.FAIL;
+	private int attempts = 3;
+	private long retryDelay = 1000;
+	private boolean showProgress;
+	private JobListener listener = JobListener.NONE;
+	private JobMetrics metrics;
+	/**
+	 * Construct options with the defaults.
+	 */
+	public JobOptions()
+	{
+	}
+	
+	/**
+	 * Construct a copy of other options, to adjust for one job without affecting the rest.
+	 * @param options The options to copy.
+	 */
+	public JobOptions(JobOptions options)
+	{
+		chunkSize = options.chunkSize;
+		algorithm = options.algorithm;
+		codec = options.codec;
+		merkle = options.merkle;
+		chunker = options.chunker;
+		parity = options.parity;
+		blockSize = options.blockSize;
+		threads = options.threads;
+		mode = options.mode;
+		queueDepth = options.queueDepth;
+		bufferSize = options.bufferSize;
+		bufferCount = options.bufferCount;
+		direct = options.direct;
+		resume = options.resume;
+		update = options.update;
+		errorPolicy = options.errorPolicy;
+		attempts = options.attempts;
+		retryDelay = options.retryDelay;
+		showProgress = options.showProgress;
+		listener = options.listener;
+		metrics = options.metrics;
+	}
+	
+	/**
+	 * Set the size of each chunk when splitting.
+	 * @param chunkSize The size in bytes.
+	 * @return These options.
+	 */
+	public JobOptions setChunkSize(long chunkSize)
+	{
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be positive!");
+		this.chunkSize = chunkSize;
+		return this;
+	}
+	
+	public long getChunkSize()
+	{
+		return chunkSize;
+	}
+	
+	/**
+	 * Set the algorithm to checksum with when splitting, merging always uses the summary's.
+	 * @param algorithm The algorithm to use.
+	 * @return These options.
+	 */
+	public JobOptions setAlgorithm(ChecksumAlgorithm algorithm)
+	{
+		this.algorithm = algorithm;
+		return this;
+	}
+	
+	public ChecksumAlgorithm getAlgorithm()
+	{
+		return algorithm;
+	}
+	
+	/**
+	 * Set the codec every chunk is compressed with when splitting.
+	 * @param codec The codec to use.
+	 * @return These options.
+	 */
+	public JobOptions setCodec(Codec codec)
+	{
+		this.codec = codec;
+		return this;
+	}
+	
+	public Codec getCodec()
+	{
+		return codec;
+	}
+	
+	/**
+	 * Set whether a split stores a Merkle root of the chunk checksums instead of a sequential checksum.
+	 * @param merkle True to store a Merkle root.
+	 * @return These options.
+	 */
+	public JobOptions setMerkle(boolean merkle)
+	{
+		this.merkle = merkle;
+		return this;
+	}
+	
+	public boolean isMerkle()
+	{
+		return merkle;
+	}
+	
+	/**
+	 * Set the chunker to cut content-defined chunks with, splitting into a deduplicating chunk store.
+	 * @param chunker The chunker to use, or null for fixed size chunks.
+	 * @return These options.
+	 */
+	public JobOptions setChunker(FastCdc chunker)
+	{
+		this.chunker = chunker;
+		return this;
+	}
+	
+	public FastCdc getChunker()
+	{
+		return chunker;
+	}
+	
+	/**
+	 * Set how many parity chunks a split writes per group of up to {@code 256 - parity} chunks, from which merging rebuilds
+	 * as many missing or damaged chunks of the group.
+	 * @param parity The amount of parity chunks per group, between 0 and 128, 0 for none.
+	 * @return These options.
+	 */
+	public JobOptions setParity(int parity)
+	{
+		if (parity < 0 || parity > 128)
+			throw new IllegalArgumentException("Parity must be between 0 and 128 chunks!");
+		this.parity = parity;
+		return this;
+	}
+	
+	public int getParity()
+	{
+		return parity;
+	}
+	
+	/**
+	 * Set the size of the blocks a split checksums within every chunk, so damage can be narrowed down to them and patched.
+	 * @param blockSize The size in bytes, 0 for no block checksums.
+	 * @return These options.
+	 */
+	public JobOptions setBlockSize(long blockSize)
+	{
+		if (blockSize < 0)
+			throw new IllegalArgumentException("Block size cannot be negative!");
+		this.blockSize = blockSize;
+		return this;
+	}
+	
+	public long getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	/**
+	 * Set the amount of worker threads.
+	 * @param threads The amount of threads, or 0 for one per processor when verifying and as many as {@link IoPlanner} picks otherwise.
+	 * @return These options.
+	 */
+	public JobOptions setThreads(int threads)
+	{
+		if (threads < 0)
+			throw new IllegalArgumentException("Thread count cannot be negative!");
+		this.threads = threads;
+		return this;
+	}
+	
+	public int getThreads()
+	{
+		return threads;
+	}
+	
+	/**
+	 * Set how chunk data is moved.
+	 * @param mode The transfer mode to use, {@link TransferMode#AUTO} by default.
+	 * @return These options.
+	 */
+	public JobOptions setMode(TransferMode mode)
+	{
+		this.mode = mode;
+		return this;
+	}
+	
+	public TransferMode getMode()
+	{
+		return mode;
+	}
+	
+	/**
+	 * Set how many buffers each queue between the pipelined mode's stages holds.
+	 * @param queueDepth The amount of buffers, at least 1.
+	 * @return These options.
+	 */
+	public JobOptions setQueueDepth(int queueDepth)
+	{
+		if (queueDepth < 1)
+			throw new IllegalArgumentException("Queue depth must be positive!");
+		this.queueDepth = queueDepth;
+		return this;
+	}
+	
+	public int getQueueDepth()
+	{
+		return queueDepth;
+	}
+	
+	/**
+	 * Set the size of each pooled I/O buffer.
+	 * @param bufferSize The size in bytes, or 0 for the size {@link IoPlanner} picks, at most the chunk size up to 8 MB.
+	 * @return These options.
+	 */
+	public JobOptions setBufferSize(long bufferSize)
+	{
+		if (bufferSize < 0 || bufferSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Buffer size must be between 0 and 2^31-1 bytes!");
+		this.bufferSize = bufferSize;
+		return this;
+	}
+	
+	public long getBufferSize()
+	{
+		return bufferSize;
+	}
+	
+	/**
+	 * Set how many I/O buffers are pooled.
+	 * @param bufferCount The amount of buffers, or 0 for as many as the job needs.
+	 * @return These options.
+	 */
+	public JobOptions setBufferCount(int bufferCount)
+	{
+		if (bufferCount < 0)
+			throw new IllegalArgumentException("Buffer count cannot be negative!");
+		this.bufferCount = bufferCount;
+		return this;
+	}
+	
+	public int getBufferCount()
+	{
+		return bufferCount;
+	}
+	
+	/**
+	 * Set whether I/O buffers are allocated outside of the heap.
+	 * @param direct True for direct buffers.
+	 * @return These options.
+	 */
+	public JobOptions setDirect(boolean direct)
+	{
+		this.direct = direct;
+		return this;
+	}
+	
+	public boolean isDirect()
+	{
+		return direct;
+	}
+	
+	/**
+	 * Set whether completed chunks are journaled, so an interrupted job resumes where it stopped.
+	 * @param resume True to keep a journal.
+	 * @return These options.
+	 */
+	public JobOptions setResume(boolean resume)
+	{
+		this.resume = resume;
+		return this;
+	}
+	
+	public boolean isResume()
+	{
+		return resume;
+	}
+	
+	/**
+	 * Set whether a split only rewrites the chunks that changed since an earlier split in the same place.
+	 * @param update True to update.
+	 * @return These options.
+	 */
+	public JobOptions setUpdate(boolean update)
+	{
+		this.update = update;
+		return this;
+	}
+	
+	public boolean isUpdate()
+	{
+		return update;
+	}
+	
+	/**
+	 * Set how damaged or unreadable chunks are handled, unless the listener decides otherwise.
+	 * @param errorPolicy The policy to apply.
+	 * @return These options.
+	 */
+	public JobOptions setErrorPolicy(ErrorPolicy errorPolicy)
+	{
+		this.errorPolicy = errorPolicy;
+		return this;
+	}
+	
+	public ErrorPolicy getErrorPolicy()
+	{
+		return errorPolicy;
+	}
+	
+	/**
+	 * Set how often a chunk is attempted when retrying.
+	 * @param attempts The amount of attempts, at least 1.
+	 * @param retryDelay Milliseconds to wait before each retry, multiplied by the attempts so far.
+	 * @return These options.
+	 */
+	public JobOptions setRetries(int attempts, long retryDelay)
+	{
+		if (attempts < 1 || retryDelay < 0)
+			throw new IllegalArgumentException("Attempts must be positive and the delay cannot be negative!");
+		this.attempts = attempts;
+		this.retryDelay = retryDelay;
+		return this;
+	}
+	
+	public int getAttempts()
+	{
+		return attempts;
+	}
+	
+	public long getRetryDelay()
+	{
+		return retryDelay;
+	}
+	
+	/**
+	 * Set whether progress bars are drawn on the console, off by default for embedding.
+	 * @param showProgress True to draw progress bars.
+	 * @return These options.
+	 */
+	public JobOptions setShowProgress(boolean showProgress)
+	{
+		this.showProgress = showProgress;
+		return this;
+	}
+	
+	public boolean isShowProgress()
+	{
+		return showProgress;
+	}
+	
+	/**
+	 * Set the listener to report progress and problems to.
+	 * @param listener The listener to use.
+	 * @return These options.
+	 */
+	public JobOptions setListener(JobListener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+	
+	public JobListener getListener()
+	{
+		return listener;
+	}
+	
+	/**
+	 * Set the metrics to record the job's timings and counters to, shared by every job given these options.
+	 * @param metrics The metrics to record to, or null for each job to keep its own.
+	 * @return These options.
+	 */
+	public JobOptions setMetrics(JobMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+	
+	public JobMetrics getMetrics()
+	{
+		return metrics;
+	}
+}
@@ -0,0 +1,191 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Pure Java compressor and decompressor for the LZ4 block format, trading ratio for speed.
+ * Matches are found greedily through a single hash table of the last position of each 4 byte sequence.
+ * @author UFFR
+ *
+ */
+final class Lz4
+{
+	private static final int MIN_MATCH = 4, LAST_LITERALS = 5, MATCH_FIND_LIMIT = 12, MAX_DISTANCE = 0xFFFF;
+	static final int HASH_LOG = 12;
+	
+	private Lz4()
+	{
+	}
+	
+	/**
+	 * The largest a block can become, when nothing in it compresses.
+	 * @param length The uncompressed length.
+	 * @return The worst case compressed length.
+	 */
+	static int maxCompressedLength(int length)
+	{
+		return length + length / 255 + 16;
+	}
+	
+	/**
+	 * Compress a block.
+	 * @param src The data to compress.
+	 * @param length The amount of bytes to compress from the start of the data.
+	 * @param dst Receives the compressed block, must hold {@link #maxCompressedLength(int)} bytes.
+	 * @param table Scratch hash table of {@code 1 << HASH_LOG} entries, reused between blocks.
+	 * @return The compressed length.
+	 */
+	static int compress(byte[] src, int length, byte[] dst, int[] table)
+	{
+		int anchor = 0, ip = 0, op = 0;
+		if (length > MATCH_FIND_LIMIT)
+		{
+			Arrays.fill(table, -1);
+			final int matchLimit = length - LAST_LITERALS, inputLimit = length - MATCH_FIND_LIMIT;
+			while (ip < inputLimit)
+			{
+				final int sequence = readInt(src, ip), hash = hash(sequence);
+				int ref = table[hash];
+				table[hash] = ip;
+				if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence)
+				{
+					ip++;
+					continue;
+				}
+				
+				// Grow the match backwards into the pending literals, then forwards
+				while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1])
+				{
+					ip--;
+					ref--;
+				}
+				int matchLength = MIN_MATCH;
+				while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength])
+					matchLength++;
+				
+				op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+				ip += matchLength;
+				anchor = ip;
+			}
+		}
+		// The block always ends with literals
+		return writeSequence(src, anchor, length - anchor, dst, op, 0, 0);
+	}
+	
+	/**
+	 * Decompress a block.
+	 * @param src The compressed data.
+	 * @param offset Where the block starts in the compressed data.
+	 * @param length The compressed length.
+	 * @param dst Receives the decompressed data.
+	 * @param expectedLength The exact length the block decompresses to.
+	 * @throws IllegalArgumentException If the block is malformed.
+	 */
+	static void decompress(byte[] src, int offset, int length, byte[] dst, int expectedLength)
+	{
+		final int end = offset + length;
+		int ip = offset, op = 0;
+		try
+		{
+			while (true)
+			{
+				final int token = src[ip++] & 0xFF;
+				int literals = token >>> 4;
+				if (literals == 15)
+				{
+					int value;
+					do
+					{
+						value = src[ip++] & 0xFF;
+						literals += value;
+					} while (value == 255);
+				}
+				if (literals > end - ip || literals > expectedLength - op)
+					throw new IllegalArgumentException("LZ4 literals run past the block!");
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+				// Only the last sequence has no match
+				if (ip == end)
+					break;
+				
+				final int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+				ip += 2;
+				if (distance == 0 || distance > op)
+					throw new IllegalArgumentException("LZ4 match refers outside of the block!");
+				int matchLength = token & 0xF;
+				if (matchLength == 15)
+				{
+					int value;
+					do
+					{
+						value = src[ip++] & 0xFF;
+						matchLength += value;
+					} while (value == 255);
+				}
+				matchLength += MIN_MATCH;
+				if (matchLength > expectedLength - op)
+					throw new IllegalArgumentException("LZ4 match runs past the block!");
+				// Byte by byte, as matches may overlap what they produce
+				for (int i = 0; i < matchLength; i++, op++)
+					dst[op] = dst[op - distance];
+			}
+		} catch (ArrayIndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("LZ4 block is truncated!", e);
+		}
+		if (op != expectedLength)
+			throw new IllegalArgumentException("LZ4 block decompressed to " + op + " bytes instead of " + expectedLength + '!');
+	}
+	
+	/**
+	 * Write a sequence of literals followed by a match.
+	 * @param src The data being compressed.
+	 * @param literalStart Where the literals start in the data.
+	 * @param literals The amount of literals.
+	 * @param dst The compressed block.
+	 * @param op Where to write in the compressed block.
+	 * @param distance How far back the match is, unused for the last sequence.
+	 * @param matchLength The length of the match, 0 for the last sequence.
+	 * @return The position after the sequence.
+	 */
+	private static int writeSequence(byte[] src, int literalStart, int literals, byte[] dst, int op, int distance, int matchLength)
+	{
+		final int tokenPosition = op++;
+		int token = Math.min(literals, 15) << 4;
+		if (literals >= 15)
+			op = writeLength(dst, op, literals - 15);
+		System.arraycopy(src, literalStart, dst, op, literals);
+		op += literals;
+		
+		if (matchLength > 0)
+		{
+			dst[op++] = (byte) distance;
+			dst[op++] = (byte) (distance >>> 8);
+			final int extra = matchLength - MIN_MATCH;
+			token |= Math.min(extra, 15);
+			if (extra >= 15)
+				op = writeLength(dst, op, extra - 15);
+		}
+		dst[tokenPosition] = (byte) token;
+		return op;
+	}
+	
+	private static int writeLength(byte[] dst, int op, int remaining)
+	{
+		for (; remaining >= 255; remaining -= 255)
+			dst[op++] = (byte) 255;
+		dst[op++] = (byte) remaining;
+		return op;
+	}
+	
+	private static int readInt(byte[] src, int position)
+	{
+		return (src[position] & 0xFF) | (src[position + 1] & 0xFF) << 8 | (src[position + 2] & 0xFF) << 16 | src[position + 3] << 24;
+	}
+	
+	private static int hash(int sequence)
+	{
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+}
@@ -0,0 +1,113 @@
+package main;
+
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses the blocks written by {@link Lz4OutputStream}.
+ * @author UFFR
+ *
+ */
+class Lz4InputStream extends FilterInputStream
+{
+	private final DataInputStream dataStream;
+	private final byte[] block = new byte[Lz4OutputStream.BLOCK_SIZE], compressed = new byte[Lz4.maxCompressedLength(Lz4OutputStream.BLOCK_SIZE)];
+	private int position, length;
+	/**
+	 * Construct a stream.
+	 * @param in The stream of compressed blocks.
+	 */
+	Lz4InputStream(InputStream in)
+	{
+		super(in);
+		dataStream = new DataInputStream(in);
+	}
+	
+	@Override
+	public int read() throws IOException
+	{
+		if (position == length && !readBlock())
+			return -1;
+		return block[position++] & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+		if (position == length && !readBlock())
+			return -1;
+		final int step = Math.min(len, length - position);
+		System.arraycopy(block, position, b, off, step);
+		position += step;
+		return step;
+	}
+	
+	@Override
+	public int available()
+	{
+		return length - position;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = 0;
+		while (skipped < n && (position < length || readBlock()))
+		{
+			final int step = (int) Math.min(n - skipped, length - position);
+			position += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+	
+	/**
+	 * Read and decompress the next block.
+	 * @return True if a block was read, false at the end of the stream.
+	 * @throws IOException If the block is truncated or malformed.
+	 */
+	private boolean readBlock() throws IOException
+	{
+		// The end of the stream is only expected between blocks
+		final int first = in.read();
+		if (first < 0)
+			return false;
+		final int rawLength = first << 24 | dataStream.readUnsignedByte() << 16 | dataStream.readUnsignedShort();
+		final int compressedLength = dataStream.readInt();
+		if (rawLength <= 0 || rawLength > block.length || compressedLength < 0 || compressedLength > compressed.length)
+			throw new IOException("Malformed LZ4 block header!");
+		
+		if (compressedLength == 0)
+			dataStream.readFully(block, 0, rawLength);
+		else
+		{
+			dataStream.readFully(compressed, 0, compressedLength);
+			try
+			{
+				Lz4.decompress(compressed, 0, compressedLength, block, rawLength);
+			} catch (IllegalArgumentException e)
+			{
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+		position = 0;
+		length = rawLength;
+		return true;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
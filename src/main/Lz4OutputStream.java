@@ -0,0 +1,99 @@
+package main;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses everything written to it into a series of independent {@link Lz4} blocks.
+ * Each block is its uncompressed length (int) and compressed length (int), 0 if stored uncompressed, followed by its data.
+ * @author UFFR
+ *
+ */
+class Lz4OutputStream extends FilterOutputStream
+{
+	static final int BLOCK_SIZE = Main.KB * 64;
+	
+	private final byte[] block = new byte[BLOCK_SIZE], compressed = new byte[8 + Lz4.maxCompressedLength(BLOCK_SIZE)];
+	private final int[] table = new int[1 << Lz4.HASH_LOG];
+	private int length;
+	private boolean closed;
+	/**
+	 * Construct a stream.
+	 * @param out The stream to write the compressed blocks to.
+	 */
+	Lz4OutputStream(OutputStream out)
+	{
+		super(out);
+	}
+	
+	@Override
+	public void write(int b) throws IOException
+	{
+		block[length++] = (byte) b;
+		if (length == BLOCK_SIZE)
+			writeBlock();
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			final int step = Math.min(len, BLOCK_SIZE - length);
+			System.arraycopy(b, off, block, length, step);
+			length += step;
+			off += step;
+			len -= step;
+			if (length == BLOCK_SIZE)
+				writeBlock();
+		}
+	}
+	
+	/**
+	 * Compress and write out the pending block, storing it as is if it does not shrink.
+	 * @throws IOException If the block could not be written.
+	 */
+	private void writeBlock() throws IOException
+	{
+		if (length == 0)
+			return;
+		int compressedLength = Lz4.compress(block, length, compressed, table);
+		final boolean stored = compressedLength >= length;
+		if (stored)
+		{
+			System.arraycopy(block, 0, compressed, 8, length);
+			compressedLength = 0;
+		} else
+			System.arraycopy(compressed, 0, compressed, 8, compressedLength);
+		putInt(compressed, 0, length);
+		putInt(compressed, 4, compressedLength);
+		out.write(compressed, 0, 8 + (stored ? length : compressedLength));
+		length = 0;
+	}
+	
+	@Override
+	public void flush() throws IOException
+	{
+		writeBlock();
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+		closed = true;
+		flush();
+		out.close();
+	}
+	
+	private static void putInt(byte[] bytes, int position, int value)
+	{
+		bytes[position] = (byte) (value >>> 24);
+		bytes[position + 1] = (byte) (value >>> 16);
+		bytes[position + 2] = (byte) (value >>> 8);
+		bytes[position + 3] = (byte) value;
+	}
+}
@@ -1,7 +1,14 @@
 package main;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -9,7 +16,13 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -28,6 +41,8 @@ public class Main
 	private static final CommandLineParser PARSER = new DefaultParser();
 	private static final HelpFormatter HELP_FORMATTER = new HelpFormatter();
 	private static final String[] DEFAULT_SIZE_PARAM = {"10", "MB"};
+	// Path standing in for standard input or output
+	private static final String STANDARD_STREAM = "-";
 	static final short KB = 1024;
 	static final int MB = KB * 1024, GB = MB * 1024, BUFFER = MB * 8;
 	static
@@ -35,18 +50,41 @@ public class Main
 		// Initialize command line options
 		final OptionGroup group = new OptionGroup();
 		group.addOption(Option.builder("h").longOpt("help").desc("Print the help screen.").build());
-		group.addOption(Option.builder("p").longOpt("path").desc("Path of the file to split or the split summary.").required().hasArg().argName("input path").optionalArg(false).build());
-		OPTIONS.addOption(Option.builder("e").longOpt("export").desc("Path to export the split or merged file(s). Defaults to the input path.").hasArg().argName("export path").optionalArg(false).build());
+		group.addOption(Option.builder("p").longOpt("path").desc("Path of the file to split or the split summary, \"-\" to split standard input.").required().hasArg().argName("input path").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder("e").longOpt("export").desc("Path to export the split or merged file(s), \"-\" to merge to standard output. Defaults to the input path.").hasArg().argName("export path").optionalArg(false).build());
 		OPTIONS.addOption(Option.builder("s").longOpt("size").desc("Size of each chunk and its unit (KB - GB). Max size is the 2^31-1 bytes and defaults to 10 MB.").valueSeparator(':').hasArgs().argName("size:unit").numberOfArgs(2).optionalArg(false).build());
+		OPTIONS.addOption(Option.builder("n").longOpt("name").desc("Name to store in the summary and name the chunks after when splitting standard input. Defaults to \"stdin\".").hasArg().argName("name").optionalArg(false).build());
 		OPTIONS.addOption(Option.builder("m").longOpt("merge").desc("Merge chunks instead of splitting into them.").build());
+		OPTIONS.addOption(Option.builder().longOpt("verify").desc("Check the chunks of a split summary in parallel without merging, printing a tab separated report. Uses a thread per processor unless -t is set.").build());
+		OPTIONS.addOption(Option.builder("c").longOpt("checksum").desc("Checksum algorithm when splitting, one of \"sha-256\" (default), \"crc32c\", \"xxhash64\" or \"blake3\". Merging uses the one in the summary.").hasArg().argName("algorithm").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder("z").longOpt("compress").desc("Compress each chunk independently when splitting, with \"deflate\" or the faster \"lz4\". Chunk sizes count uncompressed bytes, and a thread per processor is used unless -t is set.").hasArg().argName("codec").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("cdc").desc("Cut chunks by content, between a minimum and maximum size around an average, and store them named by checksum in the export path. Chunks an earlier split already stored there are reused instead of written. Requires a cryptographic checksum.").valueSeparator(':').hasArgs().argName("min:avg:max:unit").numberOfArgs(4).optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("parity").desc("Write this many Reed-Solomon parity chunks per group of up to 256 minus as many chunks when splitting a file, up to 128. Merging rebuilds up to as many missing or damaged chunks of each group from them instead of stopping.").hasArg().argName("count").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("block-size").desc("Also checksum every block of this size and its unit (KB - GB) within each chunk when splitting, so verifying reports which byte ranges are damaged and they can be patched alone. Cannot be used with compression or --cdc.").valueSeparator(':').hasArgs().argName("size:unit").numberOfArgs(2).optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("extract-ranges").desc("Write the blocks covering these byte ranges of the split summary's chunks into a range file at the export path, as reported by --verify on a damaged copy, such as \"7:0-1048575,9:0-65535\".").hasArg().argName("ranges").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("patch").desc("Patch the blocks of a range file into the split summary's chunks, checking every block and patched chunk against the summary.").hasArg().argName("range file").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("extract").desc("Extract one file of a packed directory's summary into the export path, only reading and verifying the chunks it is in. Directories are packed by splitting them, and merging their summary unpacks every file.").hasArg().argName("file path").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("merkle").desc("Verify the whole file through a Merkle root of the chunk checksums, calculated in parallel, instead of a sequential checksum.").build());
+		OPTIONS.addOption(Option.builder("i").longOpt("io").desc("How chunk data is moved, either \"auto\" (default), which picks one of the others and the threads and buffers left unset for each file, \"stream\", \"zero-copy\", which hashes chunks separately, \"mapped\", which maps chunk regions into memory, or \"pipelined\", which reads, hashes and writes on separate threads.").hasArg().argName("mode").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder("b").longOpt("buffer").desc("Size of each I/O buffer and its unit (KB - GB). Defaults to the chunk size, up to 8 MB.").valueSeparator(':').hasArgs().argName("size:unit").numberOfArgs(2).optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("buffers").desc("Amount of I/O buffers to pool. Defaults to one per thread, plus one, or enough to fill the pipeline's queues.").hasArg().argName("count").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("queue-depth").desc("Amount of buffers each queue between the pipelined mode's stages holds. Defaults to 4.").hasArg().argName("count").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("direct").desc("Allocate I/O buffers outside of the heap.").build());
+		OPTIONS.addOption(Option.builder().longOpt("update").desc("Update an earlier split of the same file in the export path, only rewriting the chunks whose checksum changed and listing them.").build());
+		OPTIONS.addOption(Option.builder().longOpt("resume").desc("Keep a journal of completed chunks, resuming from it if an earlier run was interrupted.").build());
+		OPTIONS.addOption(Option.builder().longOpt("on-error").desc("How a chunk that is damaged or cannot be read is handled, either \"fail\", \"skip\", which merges past it, or \"retry\", which tries it up to 3 times. Without it, merging asks whether to continue past each one.").hasArg().argName("policy").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("batch").desc("Split or merge every file the input path names at once, after one confirmation. The input path is a directory, a glob pattern such as \"logs/*.txt\", or a manifest file listing one path per line prefixed with @. Each file runs on one thread, -t sets how many run at once and defaults to one per processor.").build());
+		OPTIONS.addOption(Option.builder().longOpt("max-open-files").desc("Amount of files a batch may have open at once. Defaults to 256.").hasArg().argName("count").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("max-memory").desc("Buffer memory a batch may hold at once and its unit (KB - GB). Defaults to 256 MB.").valueSeparator(':').hasArgs().argName("size:unit").numberOfArgs(2).optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("metrics").desc("Append a JSON line per chunk and one with the totals to a file, \"-\" for the console. Lines hold timings of each stage, throughput, buffer usage, garbage collections and allocations.").hasArg().argName("path").optionalArg(false).build());
+		OPTIONS.addOption(Option.builder().longOpt("jmx").desc("Expose the operation's metrics as an MBean while it runs, for JMX clients such as JConsole.").build());
+		OPTIONS.addOption(Option.builder("t").longOpt("threads").desc("Amount of worker threads to process chunks with. Chosen per file by the I/O planner if unset, which uses one per processor for compressed chunks, up to 4 for small chunks or network file systems, and 1 otherwise, processing chunks sequentially.").hasArg().argName("count").optionalArg(false).build());
 		OPTIONS.addOptionGroup(group);
 	}
 	// Define working variables
 	private static Path inputPath, outputPath;
 	public static void main(String[] args)
 	{
-		// Define for later definition
-		final long startTime;
 		// Resource and to handle exceptions
 		try (final Scanner scanner = new Scanner(System.in))
 		{
@@ -56,79 +94,123 @@ public class Main
 				HELP_FORMATTER.printHelp("Requires specified file path.", "FileSplitter " + VERSION, OPTIONS, "Report bugs to the GitHub at: https://github.com/UFFR/FileSplitter", true);
 				System.exit(0);
 			}
+			// Merged data owns standard output, so messages go to the error stream
+			final boolean toStdout = commandLine.hasOption('m') && STANDARD_STREAM.equals(commandLine.getOptionValue('e'));
+			final PrintStream console = toStdout ? System.err : System.out;
+			// Without a policy, merging asks about every damaged chunk
+			final boolean prompt = commandLine.hasOption('m') && !commandLine.hasOption("on-error");
+			final JobOptions options = jobOptions(commandLine).setShowProgress(true).setListener(new ConsoleListener(console, prompt ? scanner : null));
+			// Patterns are not paths, so batches find their own inputs
+			if (commandLine.hasOption("batch"))
+			{
+				batch(commandLine, options, scanner);
+				return;
+			}
+			// Reject invalid combinations before anything is confirmed
+			FileSplitter.validate(options, STANDARD_STREAM.equals(commandLine.getOptionValue('p')), toStdout);
 			// Get specified input path or use running path
 			inputPath = Paths.get(commandLine.getOptionValue('p', System.getProperty("user.dir")));
 			// Get specified output path or use input's parent (assumes a file)
 			outputPath = commandLine.hasOption('e') ? Paths.get(commandLine.getOptionValue('e')) : inputPath.toAbsolutePath().getParent();
-			// If in merge mode
-			if (commandLine.hasOption('m'))
+			// If in merge, verify or patching mode
+			if (commandLine.hasOption('m') || commandLine.hasOption("verify") || commandLine.hasOption("extract-ranges") || commandLine.hasOption("patch") || commandLine.hasOption("extract"))
 			{
 				// Read input and extract summary
-				final ObjectInputStream objectInputStream = new ObjectInputStream(Files.newInputStream(inputPath));
-				final SplitSummary summary = (SplitSummary) objectInputStream.readObject();
-				objectInputStream.close();
+				final SplitSummary summary = SummaryFormat.read(inputPath);
 				// Check for possible errors and report
 				summary.checkForErrors();
-				System.out.println("Output file will be: [" + summary.getFilename() + "].");
-				System.out.println("Reported total file size is: " + summary.getTotalSize() + " bytes.");
-				System.out.println("Reported chunk size is: " + summary.getChunkSize() + " bytes.");
-				System.out.println("Reported total chunk amount is: " + summary.getChunkAmount() + ".\nNo errors detected in summary file.");
+				if (commandLine.hasOption("verify"))
+				{
+					verify(options, summary);
+					return;
+				}
+				if (commandLine.hasOption("extract-ranges") || commandLine.hasOption("patch"))
+				{
+					patch(commandLine, options, summary);
+					return;
+				}
+				if (commandLine.hasOption("extract"))
+				{
+					extract(commandLine.getOptionValue("extract"), summary);
+					return;
+				}
+				if (summary.isPacked() && toStdout)
+					throw new IllegalArgumentException("A packed directory is unpacked into files, so it cannot be merged to standard output!");
+				console.println("Output file will be: [" + summary.getFilename() + "].");
+				console.println("Reported total file size is: " + summary.getTotalSize() + " bytes.");
+				console.println((summary.isContentDefined() ? "Reported chunks are content-defined, the largest is: " : "Reported chunk size is: ") + summary.getChunkSize() + " bytes.");
+				console.println("Reported total chunk amount is: " + summary.getChunkAmount() + '.');
+				console.println("Reported checksum algorithm is: " + summary.getAlgorithm() + (summary.hasMerkleRoot() ? ", verified through a Merkle root." : "."));
+				if (summary.isCompressed())
+					console.println("Reported chunks are compressed with " + summary.getCodec() + ", " + summary.getStoredSize() + " bytes in total.");
+				if (summary.hasParity())
+					console.println("Reported parity is " + summary.getParity() + " chunks for each of " + summary.getParityGroups() + " groups, rebuilding as many damaged chunks per group.");
+				if (summary.hasBlocks())
+					console.println("Reported blocks of " + summary.getBlockSize() + " bytes are checksummed within every chunk.");
+				if (summary.isPacked())
+					console.println("Reported packed directory holds " + summary.getFiles().size() + " files, unpacking into [" + outputPath.resolve(summary.getFilename()).toAbsolutePath() + "].");
+				console.println("No errors detected in summary file.");
 				// Display to user for confirmation
-				System.out.println("Recognized input path as [" + inputPath.toAbsolutePath() + "], output path as [" + outputPath.toAbsolutePath() + "]. Continue? (boolean)");
+				console.println("Recognized input path as [" + inputPath.toAbsolutePath() + "], output path as [" + (toStdout ? "standard output" : outputPath.toAbsolutePath()) + "]. Continue? (boolean)");
 				if (scanner.nextBoolean())
 				{
-					System.out.println("Beginning operation...");
-					// Set starting time
-					startTime = System.currentTimeMillis();
+					console.println("Beginning operation...");
+					// Start timing and counting
+					final JobMetrics metrics = startMetrics(commandLine, options, summary.getFilename(), console);
+					if (summary.isPacked())
+					{
+						unpack(options, summary, metrics);
+						return;
+					}
 					
 					// Begin merge process
-					new MergeHelper(inputPath, outputPath, summary, scanner).execute();
+					final MergeHelper helper = FileSplitter.merge(inputPath, summary, outputPath, toStdout ? System.out : null, options);
 					
-					// Completed successfully
-					System.out.println("\nDone!\n");
+					// Completed, possibly past damaged chunks
+					if (helper.getMismatchedChunks().length > 0)
+						console.println("Skipped " + helper.getMismatchedChunks().length + " damaged chunks, they should be resent: " + Arrays.toString(helper.getMismatchedChunks()));
+					console.println("\nDone!\n");
 					// Report operation time
-					System.out.println(timeFromMillis(System.currentTimeMillis() - startTime));
+					printReport(console, summary.getTotalSize(), metrics, helper.getMode(), helper.getBufferPool(), helper.getPipeline());
+					if (!helper.isIntact())
+						System.exit(3);
 				} else
-					cancel();
-			} else // If split mode
+					cancel(console, 0);
+			} else if (Files.isDirectory(inputPath))
+				pack(commandLine, options, scanner);
+			else if (commandLine.hasOption("cdc"))
+				splitDeduplicated(commandLine, options, scanner);
+			else if (STANDARD_STREAM.equals(commandLine.getOptionValue('p')))
+				splitStream(commandLine, options);
+			else // If split mode
 			{
-				// Get chunk size
-				final String[] size = commandLine.hasOption('s') ? commandLine.getOptionValues('s') : DEFAULT_SIZE_PARAM;
-				// Convert to usable numbers and get total file size
-				final long chunkSize = Long.parseLong(size[0]) * magnitudeFromName(size[1]), totalSize = Files.size(inputPath);
-				// Calculate total chunks
+				// Get total file size and calculate total chunks
+				final long chunkSize = options.getChunkSize(), totalSize = Files.size(inputPath);
 				final int totalChunks = chunkAmount(totalSize, chunkSize);
-				// In case of error or invalid input
-				if (chunkSize < 0)
-				{
-					System.err.println("Invalid chunk size inputted!");
-					System.exit(1);
-				}
 				// Display to user for confirmation
-				System.out.println("Recognized input path as [" + inputPath.toAbsolutePath() + "], output path as [" + outputPath.toAbsolutePath() + "], chunk size as ~" + roundBin(chunkSize) + ", making " + totalChunks + " total chunks. Continue? (boolean)");
+				System.out.println("Recognized input path as [" + inputPath.toAbsolutePath() + "], output path as [" + outputPath.toAbsolutePath() + "], chunk size as ~" + roundBin(chunkSize) + ", making " + totalChunks + " total chunks, checksummed with " + options.getAlgorithm()
+						+ (options.getCodec() == Codec.NONE ? "" : " and compressed with " + options.getCodec()) + ". Continue? (boolean)");
 				if (scanner.nextBoolean())
 				{
-					// Summary file path
-					final Path sumPath = outputPath.resolve(inputPath.getFileName() + ".sum");
 					System.out.println("Beginning operation...");
-					// Set starting time
-					startTime = System.currentTimeMillis();
-					// Initialize summary
-					final SplitSummary summary = new SplitSummary(totalSize, chunkSize, inputPath.getFileName().toString());
+					// Start timing and counting
+					final JobMetrics metrics = startMetrics(commandLine, options, inputPath.getFileName().toString(), System.out);
 					
-					// Begin split process
-					new SplitHelper(inputPath, outputPath, summary).execute();
+					// Begin split process, the summary is written with it
+					final SplitHelper helper = FileSplitter.split(inputPath, outputPath, options);
+					final SplitSummary summary = helper.getSummary(), previous = helper.getPrevious();
 					
 					// Completed successfully
-					System.out.println("Writing out summary...");
-					// Write summary to file
-					final ObjectOutputStream objectOutputStream = new ObjectOutputStream(Files.newOutputStream(sumPath, StandardOpenOption.CREATE_NEW));
-					objectOutputStream.writeObject(summary);
-					objectOutputStream.flush();
-					objectOutputStream.close();
+					if (previous != null)
+						System.out.println(helper.getChangedChunks().length + " of " + totalChunks + " chunks changed: " + Arrays.toString(helper.getChangedChunks())
+								+ (previous.getChunkAmount() > totalChunks ? ", chunks " + (totalChunks + 1) + " to " + previous.getChunkAmount() + " removed." : "."));
+					if (summary.isCompressed())
+						System.out.println("Compressed to " + roundBin(summary.getStoredSize()) + ", " + Math.round(100.0 * summary.getStoredSize() / totalSize) + "% of the original.");
+					if (summary.hasParity())
+						System.out.println("Wrote " + summary.getParityAmount() + " parity chunks, " + roundBin(summary.getParityAmount() * chunkSize) + " in total.");
 					System.out.println("\nDone!\n");
 					// Report operation time
-					System.out.println(timeFromMillis(System.currentTimeMillis() - startTime));
+					printReport(System.out, totalSize, metrics, helper.getMode(), helper.getBufferPool(), helper.getPipeline());
 				} else
 					cancel();
 			}
@@ -137,11 +219,21 @@ public class Main
 			// Simply print exception message
 			System.err.println(e.getMessage());
 			System.exit(1);
+		} catch (IllegalArgumentException e)
+		{
+			// Report invalid values, such as unparsable numbers
+			System.err.println("Invalid input: " + e.getMessage());
+			System.exit(1);
 		} catch (NoSuchFileException e)
 		{
 			// Report that a file can't be found
 			System.err.println("Unable to find file: " + e.getMessage());
 			System.exit(2);
+		} catch (ChunkException e)
+		{
+			// Report the chunk the error policy stopped at
+			System.err.println("Stopped at damaged chunk #" + e.getIndex() + ": " + e.getMessage());
+			System.exit(3);
 		} catch (Exception e)
 		{
 			// Any other exception
@@ -151,6 +243,355 @@ public class Main
 		}
 	}
 	
+	/**
+	 * Builds the job's options from the command line, the engine checks how they combine.
+	 * @param commandLine The parsed command line.
+	 * @return The options.
+	 */
+	private static JobOptions jobOptions(CommandLine commandLine)
+	{
+		final String[] size = commandLine.hasOption('s') ? commandLine.getOptionValues('s') : DEFAULT_SIZE_PARAM;
+		final JobOptions options = new JobOptions()
+				.setChunkSize(Long.parseLong(size[0]) * magnitudeFromName(size[1]))
+				.setAlgorithm(ChecksumAlgorithm.fromName(commandLine.getOptionValue('c', ChecksumAlgorithm.SHA_256.getName())))
+				.setCodec(Codec.fromName(commandLine.getOptionValue('z', Codec.NONE.getName())))
+				.setMerkle(commandLine.hasOption("merkle"))
+				.setParity(Integer.parseInt(commandLine.getOptionValue("parity", "0")))
+				.setMode(TransferMode.fromName(commandLine.getOptionValue('i', TransferMode.AUTO.getName())))
+				.setQueueDepth(Integer.parseInt(commandLine.getOptionValue("queue-depth", "4")))
+				.setBufferCount(Integer.parseInt(commandLine.getOptionValue("buffers", "0")))
+				.setDirect(commandLine.hasOption("direct"))
+				.setResume(commandLine.hasOption("resume"))
+				.setUpdate(commandLine.hasOption("update"))
+				.setErrorPolicy(ErrorPolicy.fromName(commandLine.getOptionValue("on-error", ErrorPolicy.FAIL.getName())));
+		// Unset means automatic, so an explicit count must be positive
+		if (commandLine.hasOption('t'))
+		{
+			final int threads = Integer.parseInt(commandLine.getOptionValue('t'));
+			if (threads < 1)
+				throw new IllegalArgumentException("Thread count must be positive!");
+			options.setThreads(threads);
+		}
+		if (commandLine.hasOption("block-size"))
+			options.setBlockSize(Long.parseLong(commandLine.getOptionValues("block-size")[0]) * magnitudeFromName(commandLine.getOptionValues("block-size")[1]));
+		if (commandLine.hasOption('b'))
+			options.setBufferSize(Long.parseLong(commandLine.getOptionValues('b')[0]) * magnitudeFromName(commandLine.getOptionValues('b')[1]));
+		if (commandLine.hasOption("cdc"))
+		{
+			final String[] sizes = commandLine.getOptionValues("cdc");
+			final int magnitude = magnitudeFromName(sizes[3]);
+			final long minSize = Long.parseLong(sizes[0]) * magnitude, averageSize = Long.parseLong(sizes[1]) * magnitude, maxSize = Long.parseLong(sizes[2]) * magnitude;
+			if (maxSize > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Content-defined chunks cannot exceed 2^31-1 bytes!");
+			options.setChunker(new FastCdc((int) minSize, (int) averageSize, (int) maxSize));
+		}
+		return options;
+	}
+	
+	/**
+	 * Splits or merges every file a directory, pattern or manifest names, confirming once for all of them.
+	 * Prints one line per file with its outcome and time, exiting with 3 if any chunk was damaged and 10 if any file failed otherwise.
+	 * @param commandLine The parsed command line.
+	 * @param options The options every file is processed with.
+	 * @param scanner The scanner to read the confirmation from.
+	 * @throws IOException If the inputs could not be found, or if interrupted.
+	 */
+	private static void batch(CommandLine commandLine, JobOptions options, Scanner scanner) throws IOException
+	{
+		final boolean merge = commandLine.hasOption('m');
+		final String input = commandLine.getOptionValue('p');
+		if (commandLine.hasOption("verify") || commandLine.hasOption("cdc") || STANDARD_STREAM.equals(input) || STANDARD_STREAM.equals(commandLine.getOptionValue('e')))
+			throw new IllegalArgumentException("Batches only split or merge files, so they cannot be used with --verify, --cdc or standard streams!");
+		// Each file runs on one thread, -t is how many run at once
+		FileSplitter.validate(new JobOptions(options).setThreads(1), false, false);
+		if (!commandLine.hasOption('e') && !Files.isDirectory(Paths.get(input)))
+			throw new IllegalArgumentException("Batches of a pattern or manifest require an export path!");
+		outputPath = Paths.get(commandLine.getOptionValue('e', input));
+		final List<Path> inputs = BatchHelper.findInputs(input, merge);
+		final BatchHelper helper = new BatchHelper(inputs, outputPath, merge, options)
+				.setThreads(options.getThreads() > 0 ? options.getThreads() : Runtime.getRuntime().availableProcessors())
+				.setMaxOpenFiles(Integer.parseInt(commandLine.getOptionValue("max-open-files", "256")));
+		if (commandLine.hasOption("max-memory"))
+			helper.setMaxInFlight(Long.parseLong(commandLine.getOptionValues("max-memory")[0]) * magnitudeFromName(commandLine.getOptionValues("max-memory")[1]));
+		
+		System.out.println("Found " + inputs.size() + " files to " + (merge ? "merge" : "split") + " into [" + outputPath.toAbsolutePath() + "]. Continue? (boolean)");
+		if (!scanner.nextBoolean())
+		{
+			cancel();
+			return;
+		}
+		System.out.println("Beginning operation...");
+		final JobMetrics metrics = startMetrics(commandLine, options, "batch", System.out);
+		helper.execute();
+		
+		// One line per file, then the totals
+		long totalSize = 0;
+		int failed = 0, damaged = 0;
+		// Each file's planner picks its own mode
+		final EnumSet<TransferMode> modes = EnumSet.noneOf(TransferMode.class);
+		System.out.println();
+		for (BatchHelper.Result result : helper.getResults())
+		{
+			if (result.getMode() != null)
+				modes.add(result.getMode());
+			final String status = result.getError() == null ? result.isIntact() ? "DONE" : "DAMAGED" : result.getError() instanceof ChunkException ? "DAMAGED" : "FAILED";
+			System.out.printf("%s\t%s\t%.3f s\t%s\n", status, roundBin(result.getSize()), result.getMillis() / 1000d, result.getInput());
+			if (result.getError() != null)
+				System.err.println(result.getInput() + ": " + result.getError());
+			if ("DAMAGED".equals(status))
+				damaged++;
+			else if ("FAILED".equals(status))
+				failed++;
+			else
+				totalSize += result.getSize();
+		}
+		System.out.println("\n" + (inputs.size() - failed - damaged) + " of " + inputs.size() + " files done, " + damaged + " damaged, " + failed + " failed.\n");
+		printReport(System.out, totalSize, metrics, modes.isEmpty() ? EnumSet.of(options.getMode()) : modes, null, null);
+		if (damaged > 0)
+			System.exit(3);
+		if (failed > 0)
+			System.exit(10);
+	}
+	
+	/**
+	 * Verifies every chunk of a summary without merging, printing the report to standard output.
+	 * Exits with 3 if any chunk needs to be resent.
+	 * @param options The job's options.
+	 * @param summary The summary to verify against.
+	 * @throws IOException If any chunk could not be read.
+	 */
+	private static void verify(JobOptions options, SplitSummary summary) throws IOException
+	{
+		final VerifyHelper helper = FileSplitter.verify(inputPath, summary, options);
+		helper.writeReport(System.out);
+		// Totals go to the error stream to keep the report parsable
+		System.err.printf("%s good, %s missing, %s wrong size, %s corrupt of %s chunks.\n", helper.countStatus(ChunkStatus.GOOD), helper.countStatus(ChunkStatus.MISSING),
+				helper.countStatus(ChunkStatus.WRONG_SIZE), helper.countStatus(ChunkStatus.CORRUPT), summary.getChunkAmount());
+		if (!helper.getDamagedRanges().isEmpty())
+			System.err.println("Damaged ranges to resend: " + helper.getDamagedRanges());
+		if (!helper.isIntact())
+			System.exit(3);
+	}
+	
+	/**
+	 * Extracts byte ranges of the chunks into a range file, or patches a range file into them.
+	 * Exits with 3 if any patched chunk is still damaged.
+	 * @param commandLine The parsed command line.
+	 * @param options The job's options.
+	 * @param summary The summary of the chunks.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private static void patch(CommandLine commandLine, JobOptions options, SplitSummary summary) throws IOException
+	{
+		if (commandLine.hasOption("extract-ranges"))
+		{
+			if (!commandLine.hasOption('e'))
+				throw new IllegalArgumentException("Extracting ranges requires the range file's path as the export path!");
+			final int blocks = RangePatch.extract(inputPath, summary, RangePatch.parseRanges(commandLine.getOptionValue("extract-ranges")), outputPath);
+			System.out.println("Wrote " + blocks + " blocks of " + roundBin(summary.getBlockSize()) + " to [" + outputPath.toAbsolutePath() + "].");
+			return;
+		}
+		final int[] damaged = RangePatch.apply(inputPath, summary, Paths.get(commandLine.getOptionValue("patch")), options.getListener());
+		if (damaged.length > 0)
+		{
+			System.out.println(damaged.length + " patched chunks are still damaged, they should be resent: " + Arrays.toString(damaged));
+			System.exit(3);
+		}
+		System.out.println("\nDone!\n");
+	}
+	
+	/**
+	 * Unpacks every file of a packed directory into a directory named after it in the export path.
+	 * Exits with 3 if any file is damaged.
+	 * @param options The job's options.
+	 * @param summary The summary of the pack.
+	 * @param metrics The operation's started metrics.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private static void unpack(JobOptions options, SplitSummary summary, JobMetrics metrics) throws IOException
+	{
+		final UnpackHelper helper = FileSplitter.unpack(inputPath, summary, outputPath.resolve(summary.getFilename()), options);
+		final List<PackedFile> damaged = helper.getDamagedFiles();
+		if (!damaged.isEmpty())
+		{
+			System.out.println(damaged.size() + " files are damaged, chunks " + Arrays.toString(helper.getMismatchedChunks()) + " should be resent:");
+			for (PackedFile file : damaged)
+				System.out.println('\t' + file.getPath());
+		}
+		System.out.println("\nDone!\n");
+		printReport(System.out, summary.getTotalSize(), metrics, TransferMode.STREAM, helper.getBufferPool(), null);
+		if (!helper.isIntact())
+			System.exit(3);
+	}
+	
+	/**
+	 * Extracts one file of a packed directory into the export path, or into a file named after it if the export path is a directory.
+	 * @param path The file's path within the pack.
+	 * @param summary The summary of the pack.
+	 * @throws IOException If any chunk the file is in could not be read or is damaged.
+	 */
+	private static void extract(String path, SplitSummary summary) throws IOException
+	{
+		if (!summary.isPacked())
+			throw new IllegalArgumentException("Split [" + summary.getFilename() + "] is not a packed directory, it has no files to extract!");
+		final Path outputFile = Files.isDirectory(outputPath) ? outputPath.resolve(path.substring(path.lastIndexOf('/') + 1)) : outputPath;
+		final PackedFile file = UnpackHelper.extract(inputPath, summary, path, outputFile);
+		final int first = file.getLength() == 0 ? 0 : file.getChunk(summary), last = file.getLength() == 0 ? 0 : summary.getChunkIndex(file.getOffset() + file.getLength() - 1);
+		System.out.println("Extracted " + file.getLength() + " bytes of [" + path + "] to [" + outputFile.toAbsolutePath() + "]"
+				+ (first == 0 ? "." : " from chunks " + first + " to " + last + " of " + summary.getChunkAmount() + '.'));
+	}
+	
+	/**
+	 * Packs every file of the directory at the input path into chunks, after confirmation.
+	 * @param commandLine The parsed command line.
+	 * @param options The job's options.
+	 * @param scanner The scanner to read the confirmation from.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private static void pack(CommandLine commandLine, JobOptions options, Scanner scanner) throws IOException
+	{
+		final String name = inputPath.toAbsolutePath().normalize().getFileName().toString();
+		System.out.println("Recognized input path as directory [" + inputPath.toAbsolutePath() + "] to pack, output path as [" + outputPath.toAbsolutePath() + "], chunk size as ~" + roundBin(options.getChunkSize())
+				+ ", checksummed with " + options.getAlgorithm() + (options.getCodec() == Codec.NONE ? "" : " and compressed with " + options.getCodec()) + ". Continue? (boolean)");
+		if (!scanner.nextBoolean())
+		{
+			cancel();
+			return;
+		}
+		final JobMetrics metrics = startMetrics(commandLine, options, name, System.out);
+		
+		final StreamSplitHelper helper = FileSplitter.pack(inputPath, outputPath, options);
+		final SplitSummary summary = helper.getSummary();
+		
+		System.out.println("Packed " + summary.getFiles().size() + " files, " + summary.getTotalSize() + " bytes, into " + summary.getChunkAmount() + " chunks.");
+		System.out.println("\nDone!\n");
+		printReport(System.out, summary.getTotalSize(), metrics, TransferMode.STREAM, helper.getBufferPool(), null);
+	}
+	
+	/**
+	 * Splits standard input until it ends, without asking for confirmation since the input carries the data.
+	 * The summary is named after the {@code -n} option and written once the input ends.
+	 * @param commandLine The parsed command line.
+	 * @param options The job's options.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private static void splitStream(CommandLine commandLine, JobOptions options) throws IOException
+	{
+		final String name = commandLine.getOptionValue('n', "stdin");
+		System.out.println("Splitting standard input as [" + name + "] into [" + outputPath.toAbsolutePath() + "], chunk size as ~" + roundBin(options.getChunkSize()) + ", checksummed with " + options.getAlgorithm() + '.');
+		final JobMetrics metrics = startMetrics(commandLine, options, name, System.out);
+		
+		final StreamSplitHelper helper = FileSplitter.splitStream(Channels.newChannel(System.in), name, outputPath, options);
+		final SplitSummary summary = helper.getSummary();
+		
+		System.out.println("Read " + summary.getTotalSize() + " bytes into " + summary.getChunkAmount() + " chunks.");
+		System.out.println("\nDone!\n");
+		printReport(System.out, summary.getTotalSize(), metrics, TransferMode.STREAM, helper.getBufferPool(), null);
+	}
+	
+	/**
+	 * Splits a file or standard input into content-defined chunks, reusing those already in the export path.
+	 * Only a file is confirmed first, since standard input carries the data.
+	 * @param commandLine The parsed command line.
+	 * @param options The job's options, with the chunker set.
+	 * @param scanner The scanner to read the confirmation from.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private static void splitDeduplicated(CommandLine commandLine, JobOptions options, Scanner scanner) throws IOException
+	{
+		final ChecksumAlgorithm algorithm = options.getAlgorithm();
+		final Codec codec = options.getCodec();
+		if (!algorithm.isCryptographic())
+			throw new IllegalArgumentException("Content-defined chunks are identified by their checksum, which " + algorithm + " is too weak for!");
+		final boolean fromStdin = STANDARD_STREAM.equals(commandLine.getOptionValue('p'));
+		final String name = fromStdin ? commandLine.getOptionValue('n', "stdin") : inputPath.getFileName().toString();
+		
+		System.out.println("Recognized input path as [" + (fromStdin ? "standard input" : inputPath.toAbsolutePath()) + "], chunk store as [" + outputPath.toAbsolutePath() + "], chunk sizes as " + options.getChunker()
+				+ ", checksummed with " + algorithm + (codec == Codec.NONE ? "" : " and compressed with " + codec) + (fromStdin ? "." : ". Continue? (boolean)"));
+		if (!fromStdin && !scanner.nextBoolean())
+		{
+			cancel();
+			return;
+		}
+		final JobMetrics metrics = startMetrics(commandLine, options, name, System.out);
+		
+		final DedupSplitHelper helper;
+		try (final ReadableByteChannel source = fromStdin ? Channels.newChannel(System.in) : FileChannel.open(inputPath, StandardOpenOption.READ))
+		{
+			helper = FileSplitter.splitDeduplicated(source, name, outputPath, options);
+		}
+		final SplitSummary summary = helper.getSummary();
+		
+		System.out.println("Cut " + summary.getTotalSize() + " bytes into " + summary.getChunkAmount() + " chunks, " + helper.getReusedAmount() + " already stored (" + roundBin(helper.getReusedSize())
+				+ " not written).");
+		System.out.println("\nDone!\n");
+		printReport(System.out, summary.getTotalSize(), metrics, TransferMode.STREAM, null, null);
+	}
+	
+	/**
+	 * Starts the metrics of an operation, writing them as JSON lines and registering them over JMX if asked to.
+	 * Either way, their totals are written and they are unregistered when the program exits.
+	 * @param commandLine The parsed command line.
+	 * @param options The options to record the operation's metrics through.
+	 * @param name Name of the operation, such as the file being split.
+	 * @param console The stream messages are printed to, used for JSON lines to "-".
+	 * @return The started metrics.
+	 * @throws IOException If the JSON lines file could not be opened.
+	 */
+	private static JobMetrics startMetrics(CommandLine commandLine, JobOptions options, String name, PrintStream console) throws IOException
+	{
+		final JobMetrics metrics = new JobMetrics(name);
+		options.setMetrics(metrics);
+		if (commandLine.hasOption("metrics"))
+		{
+			final String path = commandLine.getOptionValue("metrics");
+			// Appended to, so repeated runs build up a history to compare
+			metrics.setJsonLines(STANDARD_STREAM.equals(path) ? console
+					: new PrintStream(Files.newOutputStream(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.APPEND), false, "UTF-8"));
+		}
+		if (commandLine.hasOption("jmx"))
+			metrics.register();
+		if (commandLine.hasOption("metrics") || commandLine.hasOption("jmx"))
+			Runtime.getRuntime().addShutdownHook(new Thread(metrics::close));
+		return metrics;
+	}
+	
+	/**
+	 * Prints the time, speed and memory statistics of a completed operation.
+	 * @param out The stream to print to.
+	 * @param totalSize The amount of bytes processed.
+	 * @param metrics The operation's metrics.
+	 * @param mode The transfer mode used.
+	 * @param bufferPool The buffer pool used, or null if the operation has its own buffer.
+	 * @param pipeline The pipeline used, or null if not pipelined.
+	 */
+	private static void printReport(PrintStream out, long totalSize, JobMetrics metrics, TransferMode mode, BufferPool bufferPool, Pipeline pipeline)
+	{
+		printReport(out, totalSize, metrics, EnumSet.of(mode), bufferPool, pipeline);
+	}
+	
+	/**
+	 * Prints the time, speed and memory statistics of a completed operation whose jobs may have used different transfer modes.
+	 * @param out The stream to print to.
+	 * @param totalSize The amount of bytes processed.
+	 * @param metrics The operation's metrics.
+	 * @param modes The transfer modes used.
+	 * @param bufferPool The buffer pool used, or null if the operation has its own buffer.
+	 * @param pipeline The pipeline used, or null if not pipelined.
+	 */
+	private static void printReport(PrintStream out, long totalSize, JobMetrics metrics, Collection<TransferMode> modes, BufferPool bufferPool, Pipeline pipeline)
+	{
+		final long elapsed = metrics.getElapsedMillis();
+		out.println(timeFromMillis(elapsed));
+		out.println(throughput(totalSize, elapsed, modes));
+		out.println("Garbage collections: " + metrics.getGarbageCollections() + ", taking " + metrics.getGarbageCollectionMillis() + " ms.");
+		out.println("Stages: " + metrics + '.');
+		if (bufferPool != null)
+			out.println("Buffer pool: " + bufferPool + '.');
+		if (pipeline != null)
+			out.println("Pipeline: " + pipeline + '.');
+	}
+	
 	/**
 	 * Calculates the total amount of chunks to be produced.
 	 * @param totalSize The size of the source file.
@@ -231,6 +672,40 @@ public class Main
 		return builder.append('.').toString();
 	}
 	
+	/**
+	 * Constructs a readable string for the average speed of an operation.
+	 * @param bytes The amount of bytes processed.
+	 * @param timeIn The time in milliseconds.
+	 * @param mode The transfer mode used.
+	 * @return The readable string.
+	 */
+	public static String throughput(long bytes, long timeIn, TransferMode mode)
+	{
+		return throughput(bytes, timeIn, EnumSet.of(mode));
+	}
+	
+	/**
+	 * Constructs a readable string for the average speed of several jobs that may have used different transfer modes.
+	 * @param bytes The amount of bytes processed.
+	 * @param timeIn The time in milliseconds.
+	 * @param modes The transfer modes used.
+	 * @return The readable string, naming every mode.
+	 */
+	public static String throughput(long bytes, long timeIn, Collection<TransferMode> modes)
+	{
+		final double seconds = Math.max(timeIn, 1) / 1000d;
+		final StringBuilder builder = new StringBuilder();
+		int i = 0;
+		for (TransferMode mode : modes)
+		{
+			if (i > 0)
+				builder.append(i == modes.size() - 1 ? " and " : ", ");
+			builder.append(mode);
+			i++;
+		}
+		return String.format("Average throughput: %.2f MB/s using %s I/O.", bytes / seconds / MB, builder);
+	}
+	
 	/**
 	 * Estimates rounded file sizes.
 	 * @param bytes The size in binary bytes.
@@ -248,24 +723,151 @@ public class Main
 			return String.valueOf(bytes) + " B";
 	}
 	
+	/**
+	 * Waits for a concurrent task to complete and retrieves its result.
+	 * @param future The task to wait on.
+	 * @return The task's result.
+	 * @throws IOException If the task failed with an I/O exception or the wait was interrupted.
+	 */
+	static <T> T await(Future<T> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for worker!");
+		} catch (ExecutionException e)
+		{
+			// Rethrow the worker's own exception where possible
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+	
+	/**
+	 * Waits for every concurrent task to complete, stopping at the first failure.
+	 * @param futures The tasks to wait on.
+	 * @throws IOException If any task failed with an I/O exception or the wait was interrupted.
+	 */
+	static void awaitAll(Collection<? extends Future<?>> futures) throws IOException
+	{
+		for (Future<?> future : futures)
+			await(future);
+	}
+	
+	/**
+	 * Totals the collections performed by every garbage collector so far.
+	 * @return The amount of collections and the milliseconds spent in them.
+	 */
+	static long[] garbageCollections()
+	{
+		final long[] totals = new long[2];
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			// Either may be -1 if the collector does not report it
+			totals[0] += Math.max(bean.getCollectionCount(), 0);
+			totals[1] += Math.max(bean.getCollectionTime(), 0);
+		}
+		return totals;
+	}
+	
 	/**
 	 * Cancels the whole operation.
 	 */
 	static void cancel()
 	{
-		System.out.println("Cancelling execution...");
-		System.exit(0);
+		cancel(System.out, 0);
 	}
-
+	
+	/**
+	 * Cancels the whole operation, keeping standard output clean when merged data is written to it.
+	 * @param console The stream messages are printed to.
+	 * @param status The exit status, non-zero if the output was left incomplete.
+	 */
+	static void cancel(PrintStream console, int status)
+	{
+		console.println("Cancelling execution...");
+		System.exit(status);
+	}
+	
+	/**
+	 * Calculates the checksum of the start of a file by reading it in order.
+	 * @param path The file to hash.
+	 * @param length The amount of bytes to hash, stopping early if the file is shorter.
+	 * @param digest The digest to use, must be freshly reset.
+	 * @param bufferPool The pool to take the read buffer from.
+	 * @return The file's checksum.
+	 * @throws IOException If any exception occurs while reading.
+	 */
+	static byte[] digestFile(Path path, long length, MessageDigest digest, BufferPool bufferPool) throws IOException
+	{
+		final ByteBuffer buffer = bufferPool.acquire();
+		try
+		{
+			digestFile(path, length, digest, buffer);
+		} finally
+		{
+			bufferPool.release(buffer);
+		}
+		return digest.digest();
+	}
+	
+	/**
+	 * Feeds the start of a file into a digest by reading it in order.
+	 * @param path The file to hash.
+	 * @param length The amount of bytes to hash, stopping early if the file is shorter.
+	 * @param digest The digest to update.
+	 * @param buffer The buffer to read through.
+	 * @throws IOException If any exception occurs while reading.
+	 */
+	static void digestFile(Path path, long length, MessageDigest digest, ByteBuffer buffer) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			digestChannel(channel, length, digest, buffer);
+		}
+	}
+	
+	/**
+	 * Feeds the start of a channel into a digest by reading it in order.
+	 * @param channel The channel to hash, left open.
+	 * @param length The amount of bytes to hash, stopping early if the channel ends first.
+	 * @param digest The digest to update.
+	 * @param buffer The buffer to read through.
+	 * @throws IOException If any exception occurs while reading.
+	 */
+	static void digestChannel(ReadableByteChannel channel, long length, MessageDigest digest, ByteBuffer buffer) throws IOException
+	{
+		long remaining = length;
+		while (remaining > 0)
+		{
+			buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+			if (channel.read(buffer) < 0)
+				break;
+			buffer.flip();
+			remaining -= buffer.remaining();
+			digest.update(buffer);
+		}
+	}
+	
 	/**
 	 * Supplies the checksum digest for file verification.
-	 * @return A SHA-256 digest.
+	 * @param algorithm The algorithm of the digest.
+	 * @return A digest of the algorithm.
 	 */
-	static MessageDigest digestSupplier()
+	static MessageDigest digestSupplier(ChecksumAlgorithm algorithm)
 	{
 		try
 		{
-			return MessageDigest.getInstance("SHA-256");
+			return algorithm.newDigest();
 		} catch (NoSuchAlgorithmException e)
 		{
 			System.err.println(e);
@@ -274,4 +876,53 @@ public class Main
 		}
 	}
 	
+	/**
+	 * Reports a job's notices and warnings to the console, and asks whether to continue past damaged chunks if it has a scanner.
+	 */
+	private static class ConsoleListener implements JobListener
+	{
+		private final PrintStream console;
+		private final Scanner scanner;
+		/**
+		 * Construct a listener.
+		 * @param console The stream to print notices to.
+		 * @param scanner The scanner to read confirmations from, or null to apply the job's error policy.
+		 */
+		ConsoleListener(PrintStream console, Scanner scanner)
+		{
+			this.console = console;
+			this.scanner = scanner;
+		}
+		
+		@Override
+		public void notice(String message)
+		{
+			console.println(message);
+		}
+		
+		@Override
+		public void warning(String message)
+		{
+			System.err.println("WARNING: " + message);
+		}
+		
+		@Override
+		public synchronized ErrorPolicy chunkFailed(int index, String message, ErrorPolicy policy)
+		{
+			if (scanner == null)
+			{
+				// A failure is reported by the exception it stops the job with
+				if (policy != ErrorPolicy.FAIL)
+					System.err.println("WARNING: " + message);
+				return policy;
+			}
+			System.err.println("WARNING: " + message);
+			// Workers wait here one at a time, so every chunk gets its own answer
+			System.err.println("Continue anyway? (boolean)");
+			// The merged file is incomplete, which a consumer of standard output must not take for success
+			if (!scanner.nextBoolean())
+				cancel(console, 3);
+			return ErrorPolicy.SKIP;
+		}
+	}
 }
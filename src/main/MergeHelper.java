@@ -1,16 +1,32 @@
 package main;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import me.tongfei.progressbar.ProgressBar;
 import me.tongfei.progressbar.ProgressBarBuilder;
@@ -24,21 +40,223 @@ public class MergeHelper
 {
 	private final Path inputPath, outputPath;
 	private final SplitSummary summary;
-	private final Scanner scanner;
-	private final MessageDigest inputDigest = Main.digestSupplier(), outputDigest = Main.digestSupplier();
+	private final MessageDigest inputDigest, outputDigest;
+	private int threads = 1;
+	private TransferMode mode = TransferMode.STREAM;
+	private BufferPool bufferPool;
+	private ProgressJournal journal;
+	private OutputStream outputStream;
+	private int queueDepth = 4;
+	private Pipeline pipeline;
+	private JobListener listener = JobListener.NONE;
+	private JobMetrics metrics;
+	private ErrorPolicy errorPolicy = ErrorPolicy.FAIL;
+	private int attempts = 3;
+	private long retryDelay = 1000;
+	private boolean showProgress = true;
+	private Recovery recovery;
+	// Rebuilds damaged chunks while merging, null if the split has no parity
+	private ParityHelper parity;
+	// Chunks whose checksum did not match, with their calculated checksums
+	private final Map<Integer, byte[]> mismatches = new ConcurrentSkipListMap<Integer, byte[]>();
+	// Why chunks could not be read to their end, such as data that does not decompress
+	private final Map<Integer, IOException> readFailures = new ConcurrentHashMap<Integer, IOException>();
+	// Chunks skipped because they are missing, which are merged as empty
+	private final Set<Integer> missing = ConcurrentHashMap.newKeySet();
+	private volatile boolean wholeFileIntact = true, retried;
 	/**
 	 * Construct a helper
 	 * @param inputPath The path with the chunks.
 	 * @param outputPath The path for the source file.
 	 * @param summary The summary file to use.
-	 * @param scanner Console input scanner for confirmations.
 	 */
-	public MergeHelper(Path inputPath, Path outputPath, SplitSummary summary, Scanner scanner)
+	public MergeHelper(Path inputPath, Path outputPath, SplitSummary summary)
 	{
 		this.inputPath = inputPath;
 		this.outputPath = outputPath;
 		this.summary = summary;
-		this.scanner = scanner;
+		inputDigest = Main.digestSupplier(summary.getAlgorithm());
+		outputDigest = Main.digestSupplier(summary.getAlgorithm());
+		metrics = new JobMetrics(summary.getFilename());
+	}
+	
+	/**
+	 * Set the amount of worker threads to merge with.
+	 * @param threads The amount of threads, 1 uses the sequential process.
+	 * @return This helper.
+	 */
+	public MergeHelper setThreads(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be positive!");
+		this.threads = threads;
+		return this;
+	}
+	
+	/**
+	 * Set how chunk data is moved into the merged file.
+	 * {@link TransferMode#PIPELINED} runs its own threads, so it falls back to per-chunk workers with more threads or a journal.
+	 * @param mode The transfer mode to use.
+	 * @return This helper.
+	 */
+	public MergeHelper setMode(TransferMode mode)
+	{
+		this.mode = mode;
+		return this;
+	}
+	
+	public TransferMode getMode()
+	{
+		return mode;
+	}
+	
+	/**
+	 * Set the pool every copy loop takes its buffers from.
+	 * @param bufferPool The pool to use, or null for one sized to the chunks and thread count.
+	 * @return This helper.
+	 */
+	public MergeHelper setBufferPool(BufferPool bufferPool)
+	{
+		this.bufferPool = bufferPool;
+		return this;
+	}
+	
+	/**
+	 * Set the journal to record merged chunks to, making the merge resumable.
+	 * If the merged file already exists at its full size, chunks an earlier run merged intact are skipped.
+	 * @param journal The journal to use, or null to not keep one.
+	 * @return This helper.
+	 */
+	public MergeHelper setJournal(ProgressJournal journal)
+	{
+		this.journal = journal;
+		return this;
+	}
+	
+	/**
+	 * Merge into a stream, such as standard output, instead of a file in the output path.
+	 * Chunks are written in order as they are verified, so only the sequential and pipelined processes can be used.
+	 * @param outputStream The stream to merge into, closed once done, or null to merge into a file.
+	 * @return This helper.
+	 */
+	public MergeHelper setOutputStream(OutputStream outputStream)
+	{
+		this.outputStream = outputStream;
+		return this;
+	}
+	
+	/**
+	 * Set how many buffers each queue of the pipelined mode can hold.
+	 * @param queueDepth The queue depth.
+	 * @return This helper.
+	 */
+	public MergeHelper setQueueDepth(int queueDepth)
+	{
+		if (queueDepth < 1)
+			throw new IllegalArgumentException("Queue depth must be positive!");
+		this.queueDepth = queueDepth;
+		return this;
+	}
+	
+	/**
+	 * Set the listener to report progress and problems to, which can also decide how each damaged chunk is handled.
+	 * @param listener The listener to use.
+	 * @return This helper.
+	 */
+	public MergeHelper setListener(JobListener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+	
+	/**
+	 * Set the metrics to record timings and counters to, instead of the helper's own.
+	 * @param metrics The metrics to record to, may be shared with other jobs.
+	 * @return This helper.
+	 */
+	public MergeHelper setMetrics(JobMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+	
+	public JobMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Set how a chunk of the wrong size or checksum is handled.
+	 * Only chunks merged concurrently can be read again, chunks merged in order fail instead of retrying.
+	 * @param errorPolicy The policy to apply, unless the listener decides otherwise.
+	 * @return This helper.
+	 */
+	public MergeHelper setErrorPolicy(ErrorPolicy errorPolicy)
+	{
+		this.errorPolicy = errorPolicy;
+		return this;
+	}
+	
+	/**
+	 * Set how often a chunk is attempted when retrying.
+	 * @param attempts The amount of attempts, at least 1.
+	 * @param retryDelay Milliseconds to wait before each retry, multiplied by the attempts so far.
+	 * @return This helper.
+	 */
+	public MergeHelper setRetries(int attempts, long retryDelay)
+	{
+		if (attempts < 1 || retryDelay < 0)
+			throw new IllegalArgumentException("Attempts must be positive and the delay cannot be negative!");
+		this.attempts = attempts;
+		this.retryDelay = retryDelay;
+		return this;
+	}
+	
+	/**
+	 * Set whether progress is drawn on the console.
+	 * @param showProgress True to draw progress bars.
+	 * @return This helper.
+	 */
+	public MergeHelper setShowProgress(boolean showProgress)
+	{
+		this.showProgress = showProgress;
+		return this;
+	}
+	
+	/**
+	 * The pool the merge took its buffers from.
+	 * @return The pool, or null if not executed yet.
+	 */
+	public BufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+	
+	/**
+	 * The chunks that were skipped despite not matching their checksum or being missing.
+	 * @return The indices of the damaged chunks, in ascending order.
+	 */
+	public int[] getMismatchedChunks()
+	{
+		return mismatches.keySet().stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/**
+	 * Checks if the merged file matches the summary, once executed.
+	 * @return True if every chunk and the whole file matched, false if anything was skipped.
+	 */
+	public boolean isIntact()
+	{
+		return mismatches.isEmpty() && wholeFileIntact;
+	}
+	
+	/**
+	 * The pipeline of the last pipelined merge, for its stall times.
+	 * @return The pipeline, or null if the pipelined mode was not used.
+	 */
+	public Pipeline getPipeline()
+	{
+		return pipeline;
 	}
 	
 	/**
@@ -47,85 +265,695 @@ public class MergeHelper
 	 */
 	public void execute() throws IOException
 	{
-		final ProgressBarBuilder barBuilder = new ProgressBarBuilder()
+		// No builder means no bar is drawn
+		final ProgressBarBuilder barBuilder = !showProgress ? null : new ProgressBarBuilder()
 				.setUnit("MB", Main.MB)
 				.showSpeed()
 				.setInitialMax(summary.getTotalSize())
 				.setTaskName("Merging...");
+		recovery = new Recovery(listener, errorPolicy, attempts, retryDelay);
 		
-		try (final OutputStream fileStream = Files.newOutputStream(outputPath.resolve(summary.getFilename()), StandardOpenOption.CREATE_NEW);
-				final OutputStream outputStream = new DigestOutputStream(ProgressBar.wrap(fileStream, barBuilder), outputDigest);
-				final ProgressBar inputBar = barBuilder.setTaskName("Reading...").setInitialMax(summary.getChunkSize()).build())
+		final boolean pipelined = mode == TransferMode.PIPELINED && threads == 1 && journal == null;
+		// One buffer per worker, plus one for the whole-file checksum
+		if (bufferPool == null)
+			bufferPool = new BufferPool((int) Math.min(Main.BUFFER, summary.getChunkSize()), pipelined ? Pipeline.bufferCount(queueDepth) : threads + 1, false);
+		metrics.setBufferPool(bufferPool);
+		
+		// Rebuilt chunks are kept with the merged file until it is complete, or in the temporary directory when merging to a stream
+		if (summary.hasParity())
+			parity = new ParityHelper(inputPath.toAbsolutePath().getParent(), summary).setMetrics(metrics)
+					.setRebuildPath(outputStream == null ? outputPath : Paths.get(System.getProperty("java.io.tmpdir")));
+		try
+		{
+			if (pipelined)
+				executePipelined(barBuilder);
+			else if (threads > 1 || mode != TransferMode.STREAM || journal != null)
+			{
+				if (outputStream != null)
+					throw new IllegalStateException("Merging into a stream requires a single thread, the stream or pipelined I/O mode and no journal!");
+				executeParallel(barBuilder);
+			}
+			else
+				executeSequential(barBuilder);
+		} finally
+		{
+			if (parity != null)
+				parity.close();
+		}
+	}
+	
+	/**
+	 * Merge every chunk in order on the calling thread, into the output file or stream.
+	 * @param barBuilder The builder for the progress bar, or null to not draw one.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private void executeSequential(ProgressBarBuilder barBuilder) throws IOException
+	{
+		try (final OutputStream fileStream = outputStream == null ? Files.newOutputStream(outputPath.resolve(summary.getFilename()), StandardOpenOption.CREATE_NEW) : outputStream;
+				final OutputStream progressStream = barBuilder == null ? fileStream : ProgressBar.wrap(fileStream, barBuilder);
+				final WritableByteChannel outputChannel = Channels.newChannel(summary.hasMerkleRoot() ? progressStream : new DigestOutputStream(progressStream, outputDigest));
+				final Progress progress = new Progress(barBuilder == null ? null : barBuilder.setTaskName("Reading...").setInitialMax(summary.getChunkSize()), listener, metrics))
 		{
 			int index = 0;
 			long processed = 0;
 			
 			while (processed < summary.getTotalSize() && index++ < summary.getChunkAmount())
-				processed += readChunk(index, index == summary.getChunkAmount() ? Main.remainderBytes(summary.getTotalSize(), summary.getChunkSize()) : summary.getChunkSize(), outputStream, inputBar);
+			{
+				final long start = metrics.chunkStarted();
+				final long read = readChunk(index, summary.getChunkLength(index), outputChannel, progress);
+				metrics.chunkFinished(summary.getFilename(), index, start, read);
+				processed += read;
+			}
+			
+			if (summary.hasMerkleRoot())
+				checkMerkleRoot();
+			else
+				checkTotalChecksum(outputDigest.digest());
+		}
+	}
+	
+	/**
+	 * Merge all chunks concurrently, each worker writing its chunk at its own offset in the preallocated output.
+	 * The whole-file checksum is calculated by a dedicated sequential reader of the chunks running alongside the workers,
+	 * unless the summary has a Merkle root, which is checked from the chunk checksums instead.
+	 * Used for any thread count when a transfer mode other than {@link TransferMode#STREAM} or a journal is set.
+	 * @param barBuilder The builder for the shared progress bar, or null to not draw one.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private void executeParallel(ProgressBarBuilder barBuilder) throws IOException
+	{
+		// Sizes are confirmed up front, since the workers cannot stop to ask
+		for (int index = 1; index <= summary.getChunkAmount(); index++)
+			checkChunkSize(index);
+		
+		// One extra thread for the whole-file checksum so it never waits behind the chunk workers
+		final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+		try (final FileChannel output = FileChannel.open(outputPath.resolve(summary.getFilename()), StandardOpenOption.READ, StandardOpenOption.WRITE,
+				journal == null ? StandardOpenOption.CREATE_NEW : StandardOpenOption.CREATE);
+				final Progress progress = new Progress(barBuilder, listener, metrics))
+		{
+			// Earlier progress only counts if the output it was merged into is still whole
+			final boolean resuming = journal != null && output.size() == summary.getTotalSize();
+			// Extend to the final size so every chunk's region exists before any worker writes to it
+			if (output.size() > summary.getTotalSize())
+				output.truncate(summary.getTotalSize());
+			else if (output.size() < summary.getTotalSize())
+				output.write(ByteBuffer.allocate(1), summary.getTotalSize() - 1);
 			
-			final byte[] totalSum = outputDigest.digest();
-			if (!MessageDigest.isEqual(summary.getTotalFileChecksum(), totalSum))
+			final Future<byte[]> totalSum = summary.hasMerkleRoot() ? null : executor.submit(() -> digestChunks());
+			final List<Future<Long>> futures = new ArrayList<Future<Long>>(summary.getChunkAmount());
+			for (int i = 1; i <= summary.getChunkAmount(); i++)
+			{
+				final int index = i;
+				// Missing chunks leave their region empty
+				if (missing.contains(index))
+					continue;
+				// Keep chunks an earlier run merged intact
+				if (resuming && journal.isComplete(index) && MessageDigest.isEqual(summary.getChecksum(index), journal.getChecksum(index)))
+				{
+					progress.stepBy(summary.getChunkLength(index));
+					continue;
+				}
+				futures.add(executor.submit(() -> retryChunk(index, output, progress)));
+			}
+			
+			Main.awaitAll(futures);
+			
+			if (summary.hasMerkleRoot())
+				checkMerkleRoot();
+			else if (retried) // The checksum reader may have seen a chunk before it was read again, so the merged file is hashed instead
+				checkTotalChecksum(Main.digestFile(outputPath.resolve(summary.getFilename()), summary.getTotalSize(), outputDigest, bufferPool));
+			else
+				checkTotalChecksum(Main.await(totalSum));
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Merge with separate reader, hasher and writer threads, so reading the chunks overlaps with hashing and writing.
+	 * Like the parallel process, sizes are confirmed up front and mismatches are reported once done.
+	 * @param barBuilder The builder for the progress bar, or null to not draw one.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private void executePipelined(ProgressBarBuilder barBuilder) throws IOException
+	{
+		// Sizes are confirmed up front, since the stages cannot stop to ask
+		for (int index = 1; index <= summary.getChunkAmount(); index++)
+			checkChunkSize(index);
+		
+		pipeline = new Pipeline(bufferPool, queueDepth).setMetrics(metrics, summary.getFilename());
+		try (final WritableByteChannel output = outputStream == null
+					? FileChannel.open(outputPath.resolve(summary.getFilename()), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+					: Channels.newChannel(outputStream);
+				final ChunkReader reader = new ChunkReader();
+				final Progress progress = new Progress(barBuilder, listener, metrics))
+		{
+			final byte[] totalSum = pipeline.run(reader, inputDigest, summary.hasMerkleRoot() ? null : outputDigest, (index, chunkSum) ->
+			{
+				// Chunks are written in order as they are hashed, so they cannot be read again
+				if (!MessageDigest.isEqual(summary.getChecksum(index), chunkSum))
+				{
+					mismatches.put(index, chunkSum);
+					recovery.skip(index, mismatchMessage(index, chunkSum), readFailures.get(index));
+				}
+			}, (index, buffer) ->
+			{
+				while (buffer.hasRemaining())
+					output.write(buffer);
+			}, progress);
+			
+			if (summary.hasMerkleRoot())
+				checkMerkleRoot();
+			else
+				checkTotalChecksum(totalSum);
+		}
+	}
+	
+	/**
+	 * Reading stage of the pipelined merge, going through every chunk's file in order.
+	 * Short chunks are moved past early, the checksum reports them.
+	 */
+	private class ChunkReader implements Pipeline.Reader, Closeable
+	{
+		private int index = 1;
+		private long processed;
+		private ReadableByteChannel input;
+		
+		@Override
+		public int read(ByteBuffer buffer) throws IOException
+		{
+			while (index <= summary.getChunkAmount())
+			{
+				// Missing chunks were already skipped
+				if (input == null && missing.contains(index))
+				{
+					index++;
+					continue;
+				}
+				if (input == null)
+				{
+					checkChunk(index);
+					input = openChunk(index);
+					processed = 0;
+				}
+				// Stop at the end of the chunk
+				buffer.limit((int) Math.min(buffer.capacity(), summary.getChunkLength(index) - processed));
+				while (buffer.hasRemaining())
+					if (readData(index, input, buffer) < 0)
+						break;
+				if (buffer.position() > 0)
+				{
+					processed += buffer.position();
+					return index;
+				}
+				
+				// Chunk complete or cut short, move to the next
+				close();
+				index++;
+			}
+			return 0;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if (input != null)
+				input.close();
+			input = null;
+		}
+	}
+	
+	/**
+	 * Describe a chunk whose checksum does not match, with the damaged byte ranges if the summary keeps block checksums.
+	 * @param index The chunk's index.
+	 * @param chunkSum The calculated checksum of the chunk.
+	 * @return The description.
+	 */
+	private String mismatchMessage(int index, byte[] chunkSum)
+	{
+		final IOException failure = readFailures.get(index);
+		final String message = failure != null ? "Chunk #" + index + " could not be read to its end, chunk most likely corrupted! Cause: [" + failure.getMessage() + "]."
+				: "Checksum mismatch on chunk #" + index + ", chunk most likely corrupted! Expected: [" + summary.getHexChunksum(index) + "], but got: [" + Main.bytesToHex(chunkSum) + "].";
+		return summary.hasBlocks() ? message + damagedBytes(index) : message;
+	}
+	
+	/**
+	 * Read a chunk's data, taking data that cannot be decompressed or read as the end of the chunk, so its checksum
+	 * reports it like any other damage.
+	 * @param index The chunk's index.
+	 * @param input The chunk's data.
+	 * @param buffer The buffer to read into.
+	 * @return The amount of bytes read, or -1 if the chunk ended or could not be read any further.
+	 * @throws IOException If interrupted or the channel was closed.
+	 */
+	private int readData(int index, ReadableByteChannel input, ByteBuffer buffer) throws IOException
+	{
+		try
+		{
+			return input.read(buffer);
+		} catch (InterruptedIOException | ClosedChannelException e)
+		{
+			throw e;
+		} catch (IOException e)
+		{
+			readFailures.put(index, e);
+			return -1;
+		}
+	}
+	
+	/**
+	 * Read a mismatched chunk again by blocks to find which of its bytes are damaged.
+	 * @param index The chunk's index.
+	 * @return The damaged byte ranges with inclusive ends, or an empty string if the chunk could not be read again.
+	 */
+	private String damagedBytes(int index)
+	{
+		final BlockDigest digest = new BlockDigest(summary.getAlgorithm(), summary.getBlockSize());
+		try
+		{
+			// Not from the pool, whose buffers may all be queued in the pipeline
+			Main.digestFile(chunkPath(index), summary.getChunkLength(index), digest, ByteBuffer.allocate(Main.KB * 64));
+		} catch (IOException e)
+		{
+			return "";
+		}
+		digest.digest();
+		final List<long[]> ranges = BlockDigest.damagedRanges(summary, index, digest.getBlockChecksums());
+		// Changed again since it was merged
+		if (ranges.isEmpty())
+			return "";
+		final StringBuilder builder = new StringBuilder(" Damaged bytes: ");
+		for (long[] range : ranges)
+			builder.append(range[0]).append('-').append(range[1] - 1).append(", ");
+		builder.setLength(builder.length() - 2);
+		return builder.append('.').toString();
+	}
+	
+	/**
+	 * Merge a chunk concurrently, reading it again if it does not match and the error policy allows, safe to call from multiple threads.
+	 * @param index The chunk's index.
+	 * @param output The merged file's channel, only used for positional writes.
+	 * @param progress The shared progress to note to.
+	 * @return The amount of bytes read and merged by the last attempt.
+	 * @throws IOException If any exception occurs during the process, or the policy stops the merge.
+	 */
+	private long retryChunk(int index, FileChannel output, Progress progress) throws IOException
+	{
+		for (int attempt = 1; ; attempt++)
+		{
+			final long start = metrics.chunkStarted();
+			final long processed = readChunk(index, output, progress);
+			metrics.chunkFinished(summary.getFilename(), index, start, processed);
+			final byte[] chunkSum = mismatches.get(index);
+			final String problem = chunkSum == null ? null : mismatchMessage(index, chunkSum);
+			if (chunkSum != null && rebuild(index, problem))
+				attempt--;// Merging the rebuilt chunk is not another attempt
+			else if (chunkSum == null || !recovery.retry(index, problem, attempt, readFailures.get(index)))
+				return processed;
+			mismatches.remove(index);
+			readFailures.remove(index);
+			retried = true;
+		}
+	}
+	
+	/**
+	 * Calculate the whole-file checksum by reading every chunk in order.
+	 * @return The merged file's checksum.
+	 * @throws IOException If any exception occurs while reading.
+	 */
+	private byte[] digestChunks() throws IOException
+	{
+		final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+		final ByteBuffer buffer = bufferPool.acquire();
+		try
+		{
+			for (int index = 1; index <= summary.getChunkAmount(); index++)
+				try (final ReadableByteChannel inputChannel = openChunk(index))
+				{
+					Main.digestChannel(inputChannel, summary.getChunkLength(index), digest, buffer);
+				} catch (InterruptedIOException | ClosedChannelException e)
+				{
+					throw e;
+				} catch (IOException e)
+				{
+					// The chunk's worker reports it, and a skipped chunk leaves the checksum mismatched either way
+				}
+		} finally
+		{
+			bufferPool.release(buffer);
+		}
+		return digest.digest();
+	}
+	
+	/**
+	 * Merge an individual chunk into its position in the output, safe to call from multiple threads.
+	 * @param index The chunk's index.
+	 * @param output The merged file's channel, only used for positional writes.
+	 * @param progress The shared progress to note to.
+	 * @return The amount of bytes read and merged, should be the same as the chunk's size.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private long readChunk(int index, FileChannel output, Progress progress) throws IOException
+	{
+		// Compressed data has to pass through the heap
+		if (mode == TransferMode.ZERO_COPY && !summary.isCompressed())
+			return transferChunk(index, output, progress);
+		if (mode == TransferMode.MAPPED)
+			return mapChunk(index, output, progress);
+		
+		final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+		final long offset = summary.getChunkOffset(index), expectedSize = summary.getChunkLength(index);
+		final ByteBuffer buffer = bufferPool.acquire();
+		long processed = 0;
+		try (final ReadableByteChannel inputChannel = openChunk(index))
+		{
+			while (processed < expectedSize)
+			{
+				buffer.clear().limit((int) Math.min(buffer.capacity(), expectedSize - processed));
+				long time = System.nanoTime();
+				// Short or damaged chunks leave the rest of their region empty, the checksum reports them
+				if (readData(index, inputChannel, buffer) < 0)
+					break;
+				buffer.flip();
+				time = metrics.record(JobMetrics.Stage.READ, time, buffer.limit());
+				
+				digest.update(buffer);
+				time = metrics.record(JobMetrics.Stage.HASH, time, buffer.limit());
+				buffer.rewind();
+				while (buffer.hasRemaining())
+					output.write(buffer, offset + processed + buffer.position());
+				metrics.record(JobMetrics.Stage.WRITE, time, buffer.limit());
+				
+				progress.stepBy(buffer.limit());
+				processed += buffer.limit();
+			}
+		} finally
+		{
+			bufferPool.release(buffer);
+		}
+		
+		registerChunk(index, digest.digest(), output);
+		return processed;
+	}
+	
+	/**
+	 * Transfer an individual chunk into its position in the output without copying through the heap.
+	 * The chunk is hashed separately once transferred.
+	 * @param index The chunk's index.
+	 * @param output The merged file's channel, only used for positional transfers.
+	 * @param progress The shared progress to note to.
+	 * @return The amount of bytes transferred, should be the same as the chunk's size.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private long transferChunk(int index, FileChannel output, Progress progress) throws IOException
+	{
+		final long offset = summary.getChunkOffset(index), expectedSize = summary.getChunkLength(index);
+		final Path chunkPath = chunkPath(index);
+		long processed = 0;
+		try (final FileChannel inputChannel = FileChannel.open(chunkPath, StandardOpenOption.READ))
+		{
+			while (processed < expectedSize)
+			{
+				final long time = System.nanoTime();
+				final long transferred = output.transferFrom(inputChannel, offset + processed, expectedSize - processed);
+				// Short chunks leave the rest of their region empty, the checksum reports them
+				if (transferred <= 0)
+					break;
+				metrics.record(JobMetrics.Stage.WRITE, time, transferred);
+				
+				progress.stepBy(transferred);
+				processed += transferred;
+			}
+		}
+		
+		// Reading the chunk again counts as hashing
+		final long time = System.nanoTime();
+		byte[] chunkSum;
+		try
+		{
+			chunkSum = Main.digestFile(chunkPath, expectedSize, Main.digestSupplier(summary.getAlgorithm()), bufferPool);
+		} catch (InterruptedIOException | ClosedChannelException e)
+		{
+			throw e;
+		} catch (IOException e)
+		{
+			// Unreadable data is damaged like data that does not match, so it is rebuilt or handled by the policy
+			readFailures.put(index, e);
+			chunkSum = new byte[0];
+		}
+		metrics.record(JobMetrics.Stage.HASH, time, expectedSize);
+		registerChunk(index, chunkSum, output);
+		return processed;
+	}
+	
+	/**
+	 * Read an individual chunk directly into a memory mapped window of the output.
+	 * @param index The chunk's index.
+	 * @param output The merged file's channel, only used for mapping.
+	 * @param progress The shared progress to note to.
+	 * @return The amount of bytes read and merged, should be the same as the chunk's size.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private long mapChunk(int index, FileChannel output, Progress progress) throws IOException
+	{
+		final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+		final MappedByteBuffer window = output.map(MapMode.READ_WRITE, summary.getChunkOffset(index), summary.getChunkLength(index));
+		try (final ReadableByteChannel inputChannel = openChunk(index))
+		{
+			// Read and hash in buffer sized steps so each page is only faulted in once
+			while (window.hasRemaining())
 			{
-				System.err.println("WARNING: Final merged file checksum mismatch, most likely corrupted!");
-				System.err.println("Expected: [" + summary.getTotalFileChecksumHex() + "], but got: [" + Main.bytesToHex(totalSum) + "].");
+				final ByteBuffer slice = window.duplicate();
+				slice.limit(slice.position() + Math.min(bufferPool.getBufferSize(), window.remaining()));
+				// Reading straight into the window is also its write
+				long time = System.nanoTime();
+				// Short or damaged chunks leave the rest of their region empty, the checksum reports them
+				if (readData(index, inputChannel, slice) < 0)
+					break;
+				time = metrics.record(JobMetrics.Stage.READ, time, slice.position() - window.position());
+				
+				final ByteBuffer written = window.duplicate();
+				written.limit(slice.position());
+				digest.update(written);
+				metrics.record(JobMetrics.Stage.HASH, time, slice.position() - window.position());
+				
+				progress.stepBy(slice.position() - window.position());
+				window.position(slice.position());
 			}
 		}
+		
+		// Mapped writes are not covered by forcing the channel
+		if (journal != null)
+		{
+			final long time = System.nanoTime();
+			window.force();
+			metrics.record(JobMetrics.Stage.SYNC, time, window.position());
+		}
+		registerChunk(index, digest.digest(), output);
+		return window.position();
+	}
+	
+	/**
+	 * Note a merged chunk's checksum, journaling it if intact or keeping it as a mismatch if not.
+	 * @param index The chunk's index.
+	 * @param chunkSum The calculated checksum of the merged chunk.
+	 * @param output The merged file's channel, forced to disk before journaling.
+	 * @throws IOException If the output could not be forced or the journal could not be written.
+	 */
+	private void registerChunk(int index, byte[] chunkSum, FileChannel output) throws IOException
+	{
+		if (!MessageDigest.isEqual(summary.getChecksum(index), chunkSum))
+			mismatches.put(index, chunkSum);
+		else if (journal != null)
+		{
+			// Journaled chunks must be on disk before they are recorded
+			final long time = System.nanoTime();
+			output.force(false);
+			metrics.record(JobMetrics.Stage.SYNC, time, summary.getChunkLength(index));
+			journal.record(index, chunkSum);
+		}
+	}
+	
+	/**
+	 * Resolves the path of a chunk next to the summary file.
+	 * @param index The chunk's index.
+	 * @return The chunk's path.
+	 */
+	private Path chunkPath(int index)
+	{
+		if (parity != null && parity.isRebuilt(index))
+			return parity.getRebuiltPath(index);
+		return Paths.get(inputPath.getParent() == null ? "" : inputPath.getParent().toString(), summary.getChunkFilename(index));
+	}
+	
+	/**
+	 * Open a chunk for reading its original data, decompressing it if compressed.
+	 * @param index The chunk's index.
+	 * @return The chunk's data.
+	 * @throws IOException If the chunk could not be opened.
+	 */
+	private ReadableByteChannel openChunk(int index) throws IOException
+	{
+		if (parity != null)
+			return parity.openChunk(index);
+		return summary.getCodec().decompress(FileChannel.open(chunkPath(index), StandardOpenOption.READ));
+	}
+	
+	/**
+	 * Rebuild a damaged chunk from parity, if the split has any and enough of the chunk's group is intact.
+	 * @param index The chunk's index.
+	 * @param problem Description of the damage.
+	 * @return True if rebuilt, to be merged from its rebuilt copy, false if not.
+	 * @throws IOException If the rebuilt chunk could not be written.
+	 */
+	private boolean rebuild(int index, String problem) throws IOException
+	{
+		if (parity == null || parity.isRebuilt(index))
+			return false;
+		if (!parity.rebuild(index))
+		{
+			listener.warning(problem + " Too much of its parity group is damaged to rebuild it.");
+			return false;
+		}
+		listener.notice(problem + " Rebuilt it from parity.");
+		return true;
+	}
+	
+	/**
+	 * Hash a chunk before it is merged in order, rebuilding it from parity if it does not match.
+	 * Only done when the split has parity, since a chunk written in order cannot be taken back once it is found damaged.
+	 * @param index The chunk's index.
+	 * @throws IOException If the chunk could not be read or rebuilt.
+	 */
+	private void checkChunk(int index) throws IOException
+	{
+		if (parity != null && !parity.isIntact(index))
+			rebuild(index, "Chunk #" + index + " is damaged.");
+	}
+	
+	/**
+	 * Apply the error policy if a chunk's size is not what the summary expects, checking again when retrying in case it is still arriving.
+	 * Chunks of a split with parity are rebuilt instead, if missing or the wrong size. Missing chunks that are skipped are merged as empty.
+	 * @param index The chunk's index.
+	 * @return The actual size of the chunk, 0 if missing.
+	 * @throws IOException If the chunk's size could not be read, or the policy stops the merge.
+	 */
+	private long checkChunkSize(int index) throws IOException
+	{
+		for (int attempt = 1; ; attempt++)
+		{
+			final Path chunkPath = chunkPath(index);
+			// Rebuilt chunks are no longer compressed
+			final long expectedSize = parity != null && parity.isRebuilt(index) ? summary.getChunkLength(index) : summary.getStoredLength(index);
+			if (Files.notExists(chunkPath))
+			{
+				final String problem = "Chunk #" + index + " is missing!";
+				if (rebuild(index, problem))
+					attempt--;
+				else if (!recovery.retry(index, problem, attempt, null))
+				{
+					missing.add(index);
+					mismatches.put(index, new byte[0]);
+					return 0;
+				}
+				continue;
+			}
+			final long chunkSize = Files.size(chunkPath);
+			if (chunkSize == expectedSize)
+				return chunkSize;
+			final String problem = "Chunk #" + index + " has a size of " + chunkSize + " B instead of the expected " + expectedSize + " B!";
+			if (rebuild(index, problem))
+				attempt--;
+			else if (!recovery.retry(index, problem, attempt, null))
+				return chunkSize;
+		}
+	}
+	
+	/**
+	 * Warn the user if the merged file's checksum does not match the source's.
+	 * @param totalSum The calculated checksum of the merged file.
+	 */
+	private void checkTotalChecksum(byte[] totalSum)
+	{
+		if (!MessageDigest.isEqual(summary.getTotalFileChecksum(), totalSum))
+		{
+			wholeFileIntact = false;
+			listener.warning("Final merged file checksum mismatch, most likely corrupted! Expected: [" + summary.getTotalFileChecksumHex() + "], but got: [" + Main.bytesToHex(totalSum) + "].");
+		}
+	}
+	
+	/**
+	 * Warn the user if the Merkle root of the merged chunks' checksums does not match the summary's.
+	 */
+	private void checkMerkleRoot()
+	{
+		final byte[][] leaves = new byte[summary.getChunkAmount()][];
+		for (int index = 1; index <= leaves.length; index++)
+			leaves[index - 1] = mismatches.containsKey(index) ? mismatches.get(index) : summary.getChecksum(index);
+		final byte[] root = MerkleTree.root(summary.getAlgorithm(), leaves);
+		if (!MessageDigest.isEqual(summary.getMerkleRoot(), root))
+		{
+			wholeFileIntact = false;
+			listener.warning("Final merged file Merkle root mismatch, most likely corrupted! Expected: [" + summary.getMerkleRootHex() + "], but got: [" + Main.bytesToHex(root) + "].");
+		}
 	}
 	
 	/**
 	 * Merge an individual chunk.
 	 * @param index The chunk's index.
 	 * @param expectedSize The size the chunk should be.
-	 * @param destination The output merged file's stream.
-	 * @param bar The progress bar to note progress to.
+	 * @param destination The output merged file's channel.
+	 * @param progress The progress to note to.
 	 * @return The amount of bytes read and merged, should the the same as the size.
 	 * @throws IOException If any exception occurs during the process.
 	 */
-	@SuppressWarnings("resource")
-	public long readChunk(int index, long expectedSize, OutputStream destination, ProgressBar bar) throws IOException
+	public long readChunk(int index, long expectedSize, WritableByteChannel destination, Progress progress) throws IOException
 	{
 		// Reinitialize progress bar
-		bar.reset().maxHint(expectedSize).setExtraMessage(" Chunk: #" + index + '/' + summary.getChunkAmount());
-		bar.refresh();
-		final Path chunkPath = Paths.get(inputPath.getParent().toString(), summary.getFilename() + '.' + index + ".part");
-		final long chunkSize = Files.size(chunkPath);
-		// In case the size is unexpected, confirm with user
-		if (chunkSize != expectedSize)
-		{
-			System.err.printf("WARNING: Chunk #%s has a size of %s B instead of the expected %s B!\n", index, chunkSize, expectedSize).flush();
-			System.err.println("Continue anyway? (boolean)");
-			if (!scanner.nextBoolean())
-				Main.cancel();
-		}
+		progress.startChunk(expectedSize, " Chunk: #" + index + '/' + summary.getChunkAmount());
+		checkChunkSize(index);
+		// Already skipped, so there is nothing to merge
+		if (missing.contains(index))
+			return 0;
+		checkChunk(index);
 		
+		final ByteBuffer buffer = bufferPool.acquire();
 		long processed = 0;
-		try (final InputStream inputStream = new DigestInputStream(Files.newInputStream(chunkPath), inputDigest))
+		try (final ReadableByteChannel inputChannel = openChunk(index))
 		{
-//			System.out.println("Merging chunk #" + index + '/' + summary.getChunkAmount() + "...");
-			
 			while (processed < expectedSize)
 			{
-				final int bufferSize = (int) Math.min(Main.BUFFER, chunkSize - processed);
-				final byte[] buffer = new byte[bufferSize];
+				buffer.clear().limit((int) Math.min(buffer.capacity(), expectedSize - processed));
+				long time = System.nanoTime();
+				// Damaged data ends the chunk early, the checksum reports it
+				if (readData(index, inputChannel, buffer) < 0)
+					break;
+				buffer.flip();
+				time = metrics.record(JobMetrics.Stage.READ, time, buffer.limit());
 				
-				inputStream.read(buffer);
-				destination.write(buffer);
+				inputDigest.update(buffer);
+				time = metrics.record(JobMetrics.Stage.HASH, time, buffer.limit());
+				buffer.rewind();
+				while (buffer.hasRemaining())
+					destination.write(buffer);
+				metrics.record(JobMetrics.Stage.WRITE, time, buffer.limit());
 				
-				bar.stepBy(bufferSize).refresh();
-				
-				processed += bufferSize;
+				progress.stepBy(buffer.limit());
+				processed += buffer.limit();
 			}
+		} finally
+		{
+			bufferPool.release(buffer);
 		}
 		
-		// Confirm with user in case of checksum mismatch
+		// Already written out, so it can only be skipped
 		final byte[] chunkSum = inputDigest.digest();
-		if (!MessageDigest.isEqual(summary.getChecksum(chunkPath), chunkSum))
+		if (!MessageDigest.isEqual(summary.getChecksum(index), chunkSum))
 		{
-			System.err.println("WARNING: Checksum mismatch on chunk #" + index + ", chunk most likely corrupted!");
-			System.err.println("Expected: [" + summary.getHexChunksum(chunkPath) + "], but got: [" + Main.bytesToHex(chunkSum) + "].");
-			System.err.println("Continue anyway? (boolean)");
-			if (!scanner.nextBoolean())
-				Main.cancel();
+			mismatches.put(index, chunkSum);
+			recovery.skip(index, mismatchMessage(index, chunkSum), readFailures.get(index));
 		}
 //		System.out.println("Merged chunk #" + index + '/' + summary.getChunkAmount() + '.');
 		return processed;
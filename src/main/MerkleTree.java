@@ -0,0 +1,55 @@
+package main;
+
+import java.security.MessageDigest;
+
+/**
+ * Builds a Merkle root over the chunk checksums, so the whole file can be verified from checksums calculated in parallel.
+ * Leaves and nodes are hashed with distinct prefixes, and an unpaired node is carried up to the next level unchanged.
+ * @author UFFR
+ *
+ */
+public class MerkleTree
+{
+	private static final byte LEAF = 0, NODE = 1;
+	
+	private MerkleTree()
+	{
+	}
+	
+	/**
+	 * Calculate the root of a tree of checksums.
+	 * @param algorithm The algorithm to hash leaves and nodes with.
+	 * @param leaves The chunk checksums, in chunk order.
+	 * @return The root hash.
+	 */
+	public static byte[] root(ChecksumAlgorithm algorithm, byte[][] leaves)
+	{
+		if (leaves.length == 0)
+			throw new IllegalArgumentException("A Merkle tree requires at least one leaf!");
+		final MessageDigest digest = Main.digestSupplier(algorithm);
+		byte[][] level = new byte[leaves.length][];
+		for (int i = 0; i < leaves.length; i++)
+		{
+			digest.update(LEAF);
+			level[i] = digest.digest(leaves[i]);
+		}
+		// Combine pairs until only the root remains
+		while (level.length > 1)
+		{
+			final byte[][] parents = new byte[(level.length + 1) / 2][];
+			for (int i = 0; i < parents.length; i++)
+			{
+				if (i * 2 + 1 == level.length)
+				{
+					parents[i] = level[i * 2];
+					continue;
+				}
+				digest.update(NODE);
+				digest.update(level[i * 2]);
+				parents[i] = digest.digest(level[i * 2 + 1]);
+			}
+			level = parents;
+		}
+		return level[0];
+	}
+}
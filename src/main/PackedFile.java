@@ -0,0 +1,160 @@
+package main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A file packed with a directory tree into one split, found by its byte range within the concatenated files.
+ * @author UFFR
+ *
+ */
+public class PackedFile
+{
+	private final String path;
+	private final long offset, length, lastModified;
+	/**
+	 * Construct an entry.
+	 * @param path The file's path relative to the packed directory, separated by {@code /}.
+	 * @param offset Where the file starts within the packed data.
+	 * @param length The file's length.
+	 * @param lastModified When the file was last modified, in milliseconds since the epoch.
+	 */
+	public PackedFile(String path, long offset, long length, long lastModified)
+	{
+		if (offset < 0 || length < 0)
+			throw new IllegalArgumentException("File [" + path + "] cannot start at " + offset + " with a length of " + length + '!');
+		this.path = path;
+		this.offset = offset;
+		this.length = length;
+		this.lastModified = lastModified;
+	}
+	
+	/**
+	 * List every regular file of a directory tree in the order they are packed, sorted by path.
+	 * Symbolic links are skipped, so nothing outside of the tree is packed.
+	 * @param root The directory to pack.
+	 * @return The files, one after the other from offset 0.
+	 * @throws IOException If the tree could not be walked.
+	 */
+	public static List<PackedFile> list(Path root) throws IOException
+	{
+		final List<String> paths;
+		try (final Stream<Path> walk = Files.walk(root))
+		{
+			paths = walk.filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)).map(path -> relativePath(root, path)).sorted().collect(Collectors.toList());
+		}
+		final List<PackedFile> files = new ArrayList<PackedFile>(paths.size());
+		long offset = 0;
+		for (String path : paths)
+		{
+			final Path file = root.resolve(path);
+			final long length = Files.size(file);
+			files.add(new PackedFile(path, offset, length, Files.getLastModifiedTime(file).toMillis()));
+			offset += length;
+		}
+		return files;
+	}
+	
+	/**
+	 * Resolve the file within a directory to unpack it into, refusing paths that would leave it.
+	 * @param root The directory to unpack into.
+	 * @return The file's path.
+	 * @throws IOException If the path is absolute or climbs out of the directory.
+	 */
+	public Path resolve(Path root) throws IOException
+	{
+		final Path resolved = root.resolve(path.replace('/', root.getFileSystem().getSeparator().charAt(0))).normalize();
+		if (path.isEmpty() || path.startsWith("/") || !resolved.startsWith(root.normalize()) || resolved.equals(root.normalize()))
+			throw new IOException("Packed file [" + path + "] would be unpacked outside of [" + root + "]!");
+		return resolved;
+	}
+	
+	public String getPath()
+	{
+		return path;
+	}
+	
+	public long getOffset()
+	{
+		return offset;
+	}
+	
+	public long getLength()
+	{
+		return length;
+	}
+	
+	public long getLastModified()
+	{
+		return lastModified;
+	}
+	
+	/**
+	 * The chunk the file starts in.
+	 * @param summary The summary of the pack.
+	 * @return The chunk's index.
+	 * @throws IndexOutOfBoundsException If the file is empty and packed last, so it starts in no chunk.
+	 */
+	public int getChunk(SplitSummary summary)
+	{
+		return summary.getChunkIndex(offset);
+	}
+	
+	/**
+	 * Where the file starts within the chunk it starts in.
+	 * @param summary The summary of the pack.
+	 * @return The offset within the chunk.
+	 */
+	public long getChunkOffset(SplitSummary summary)
+	{
+		return offset - summary.getChunkOffset(getChunk(summary));
+	}
+	
+	/**
+	 * A file's path relative to a root, separated by {@code /} on every platform.
+	 * @param root The root.
+	 * @param path The file.
+	 * @return The relative path.
+	 */
+	private static String relativePath(Path root, Path path)
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (Path element : root.relativize(path))
+		{
+			if (builder.length() > 0)
+				builder.append('/');
+			builder.append(element);
+		}
+		return builder.toString();
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(path, offset, length, lastModified);
+	}
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof PackedFile))
+			return false;
+		final PackedFile other = (PackedFile) obj;
+		return Objects.equals(path, other.path) && offset == other.offset && length == other.length && lastModified == other.lastModified;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return path + " (" + length + " B at " + offset + ')';
+	}
+}
@@ -0,0 +1,497 @@
+package main;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class to write the parity chunks of a split, and to rebuild damaged chunks from them.
+ * <p>
+ * Every group of chunks is the data of a {@link ReedSolomon} code, with each chunk padded with zeros to the chunk size,
+ * and the group's parity chunks are its parity shards, always stored uncompressed. Any chunk of a group can be rebuilt
+ * from as many other intact chunks and parity chunks of the group as it has chunks. Parity is calculated from the source
+ * file rather than the written chunks, so it covers the original data even when the chunks are compressed.
+ * @author UFFR
+ *
+ */
+public class ParityHelper implements Closeable
+{
+	private final Path directory;
+	private final SplitSummary summary;
+	private Path rebuildPath;
+	private int threads = 1;
+	private JobMetrics metrics;
+	// One code per group size, groups differ by at most one chunk
+	private final Map<Integer, ReedSolomon> codes = new HashMap<Integer, ReedSolomon>();
+	// Chunks and parity chunks found damaged while rebuilding, never rebuilt from again
+	private final Set<Integer> damagedChunks = new HashSet<Integer>(), damagedParity = new HashSet<Integer>();
+	private final Map<Integer, Path> rebuilt = new ConcurrentHashMap<Integer, Path>();
+	/**
+	 * Construct a helper.
+	 * @param directory The directory with the chunks, where the parity chunks are written and read.
+	 * @param summary The summary of the split, its parity set.
+	 */
+	public ParityHelper(Path directory, SplitSummary summary)
+	{
+		if (!summary.hasParity())
+			throw new IllegalArgumentException("Summary of " + summary.getFilename() + " has no parity!");
+		this.directory = directory;
+		this.summary = summary;
+		rebuildPath = directory;
+		metrics = new JobMetrics(summary.getFilename());
+	}
+	
+	/**
+	 * Set the amount of worker threads to calculate parity with.
+	 * @param threads The amount of threads.
+	 * @return This helper.
+	 */
+	public ParityHelper setThreads(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be positive!");
+		this.threads = threads;
+		return this;
+	}
+	
+	/**
+	 * Set the directory rebuilt chunks are written to until closed.
+	 * @param rebuildPath The directory, the chunks' own by default.
+	 * @return This helper.
+	 */
+	public ParityHelper setRebuildPath(Path rebuildPath)
+	{
+		this.rebuildPath = rebuildPath;
+		return this;
+	}
+	
+	/**
+	 * Set the metrics to record reads and writes to, instead of the helper's own.
+	 * @param metrics The metrics to record to, may be shared with other jobs.
+	 * @return This helper.
+	 */
+	public ParityHelper setMetrics(JobMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+	
+	/**
+	 * Calculate and write every parity chunk from the source file, registering their checksums in the summary.
+	 * Each group's range is divided between the workers, so even a single group is calculated in parallel.
+	 * @param sourceFile The file the chunks were split from.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	public void encode(Path sourceFile) throws IOException
+	{
+		final long chunkSize = summary.getChunkSize();
+		// Every parity chunk is created at its full size, so the workers can write their ranges in place
+		for (int parityIndex = 1; parityIndex <= summary.getParityAmount(); parityIndex++)
+			try (final FileChannel channel = FileChannel.open(parityPath(parityIndex), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				channel.write(ByteBuffer.allocate(1), chunkSize - 1);
+			}
+		
+		final int groups = summary.getParityGroups();
+		final int ranges = Math.max(1, (threads + groups - 1) / groups);
+		final int slice = sliceSize(summary.getGroupChunks(0).length);
+		// Ranges are whole slices, so only the last one of a group is short
+		final long rangeSize = Main.chunkAmount(Main.chunkAmount(chunkSize, slice), ranges) * (long) slice;
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (final FileChannel source = FileChannel.open(sourceFile, StandardOpenOption.READ))
+		{
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int group = 0; group < groups; group++)
+				for (long from = 0; from < chunkSize; from += rangeSize)
+				{
+					final int g = group;
+					final long start = from, end = Math.min(from + rangeSize, chunkSize);
+					futures.add(executor.submit(() ->
+					{
+						encodeRange(source, g, start, end);
+						return null;
+					}));
+				}
+			Main.awaitAll(futures);
+			
+			// Parity chunks are only whole once every range is written
+			futures.clear();
+			for (int i = 1; i <= summary.getParityAmount(); i++)
+			{
+				final int parityIndex = i;
+				futures.add(executor.submit(() ->
+				{
+					final long time = System.nanoTime();
+					final ByteBuffer buffer = ByteBuffer.allocate(slice);
+					final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+					Main.digestFile(parityPath(parityIndex), chunkSize, digest, buffer);
+					summary.setParityChecksum(parityIndex, digest.digest());
+					metrics.record(JobMetrics.Stage.HASH, time, chunkSize);
+					return null;
+				}));
+			}
+			Main.awaitAll(futures);
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Calculate part of a group's parity chunks from the source file, safe to call from multiple threads.
+	 * @param source The source file's channel, only used for positional reads.
+	 * @param group The group.
+	 * @param from Offset within the chunks to start from.
+	 * @param to Offset within the chunks to stop at.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private void encodeRange(FileChannel source, int group, long from, long to) throws IOException
+	{
+		final int[] chunks = summary.getGroupChunks(group);
+		final ReedSolomon code = code(chunks.length);
+		final int slice = sliceSize(chunks.length);
+		final byte[][] data = new byte[chunks.length][slice], parity = new byte[summary.getParity()][slice];
+		final FileChannel[] outputs = new FileChannel[parity.length];
+		try
+		{
+			for (int r = 0; r < outputs.length; r++)
+				outputs[r] = FileChannel.open(parityPath(summary.getParityIndex(group, r)), StandardOpenOption.WRITE);
+			for (long position = from; position < to; position += slice)
+			{
+				final int length = (int) Math.min(slice, to - position);
+				long time = System.nanoTime();
+				long read = 0;
+				for (int c = 0; c < chunks.length; c++)
+				{
+					// The last chunk is padded with zeros
+					final int present = (int) Math.max(0, Math.min(length, summary.getChunkLength(chunks[c]) - position));
+					readFully(source, data[c], present, summary.getChunkOffset(chunks[c]) + position);
+					Arrays.fill(data[c], present, length, (byte) 0);
+					read += present;
+				}
+				time = metrics.record(JobMetrics.Stage.READ, time, read);
+				
+				code.encode(data, parity, length);
+				for (int r = 0; r < parity.length; r++)
+				{
+					final ByteBuffer buffer = ByteBuffer.wrap(parity[r], 0, length);
+					while (buffer.hasRemaining())
+						outputs[r].write(buffer, position + buffer.position());
+				}
+				metrics.record(JobMetrics.Stage.WRITE, time, (long) length * parity.length);
+			}
+		} finally
+		{
+			for (FileChannel output : outputs)
+				if (output != null)
+					output.close();
+		}
+	}
+	
+	/**
+	 * Checks if a chunk is intact, by its size and checksum.
+	 * @param index The chunk's index.
+	 * @return True if it matches the summary or was rebuilt, false if not.
+	 * @throws IOException If the chunk could not be read.
+	 */
+	public boolean isIntact(int index) throws IOException
+	{
+		if (rebuilt.containsKey(index))
+			return true;
+		if (!isPresent(index))
+			return false;
+		final long time = System.nanoTime();
+		final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+		try (final ReadableByteChannel input = openChunk(index))
+		{
+			Main.digestChannel(input, summary.getChunkLength(index), digest, ByteBuffer.allocate(sliceSize(1)));
+		} catch (IOException e)
+		{
+			// Compressed chunks that cannot be decompressed are as damaged as ones that do not match
+			return false;
+		}
+		metrics.record(JobMetrics.Stage.HASH, time, summary.getChunkLength(index));
+		return MessageDigest.isEqual(summary.getChecksum(index), digest.digest());
+	}
+	
+	/**
+	 * Checks if a chunk has been rebuilt, to be read from {@link #getRebuiltPath(int)} uncompressed.
+	 * @param index The chunk's index.
+	 * @return True if rebuilt, false if not.
+	 */
+	public boolean isRebuilt(int index)
+	{
+		return rebuilt.containsKey(index);
+	}
+	
+	/**
+	 * Gets where a rebuilt chunk's original data was written.
+	 * @param index The chunk's index.
+	 * @return The rebuilt chunk's path, or null if not rebuilt.
+	 */
+	public Path getRebuiltPath(int index)
+	{
+		return rebuilt.get(index);
+	}
+	
+	/**
+	 * Rebuild a damaged chunk's original data from the rest of its group, safe to call from multiple threads.
+	 * Chunks and parity chunks used are verified as they are read, and any found damaged are replaced by others of the group.
+	 * @param index The chunk's index.
+	 * @return True if rebuilt and matching its checksum, false if too much of its group is damaged.
+	 * @throws IOException If any I/O exception occurs while writing the rebuilt chunk.
+	 */
+	public synchronized boolean rebuild(int index) throws IOException
+	{
+		if (rebuilt.containsKey(index))
+			return true;
+		damagedChunks.add(index);
+		
+		final int group = summary.getParityGroup(index);
+		final int[] chunks = summary.getGroupChunks(group);
+		final ReedSolomon code = code(chunks.length);
+		final int target = (index - 1) / summary.getParityGroups(), slice = sliceSize(chunks.length);
+		final long chunkSize = summary.getChunkSize(), length = summary.getChunkLength(index);
+		final Path path = rebuildPath.resolve(summary.getChunkFilename(index) + ".rebuilt");
+		final byte[][] shards = new byte[chunks.length][slice];
+		final byte[] output = new byte[slice];
+		while (true)
+		{
+			// As many shards as the group has chunks, preferring chunks since they are more likely to be intact
+			final int[] rows = new int[chunks.length];
+			int found = 0;
+			for (int c = 0; c < chunks.length && found < rows.length; c++)
+				if (!damagedChunks.contains(chunks[c]) && isPresent(chunks[c]))
+					rows[found++] = c;
+			for (int r = 0; r < summary.getParity() && found < rows.length; r++)
+				if (!damagedParity.contains(summary.getParityIndex(group, r)) && isParityPresent(summary.getParityIndex(group, r)))
+					rows[found++] = chunks.length + r;
+			if (found < rows.length)
+			{
+				Files.deleteIfExists(path);
+				return false;
+			}
+			
+			final int[] coefficients = code.coefficients(rows, target);
+			final ReadableByteChannel[] inputs = new ReadableByteChannel[rows.length];
+			final MessageDigest[] digests = new MessageDigest[rows.length];
+			final MessageDigest outputDigest = Main.digestSupplier(summary.getAlgorithm());
+			boolean damaged = false;
+			try (final FileChannel outputChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				for (int s = 0; s < rows.length; s++)
+				{
+					inputs[s] = rows[s] < chunks.length ? openChunk(chunks[rows[s]]) : FileChannel.open(parityPath(summary.getParityIndex(group, rows[s] - chunks.length)), StandardOpenOption.READ);
+					digests[s] = Main.digestSupplier(summary.getAlgorithm());
+				}
+				
+				for (long position = 0; position < chunkSize && !damaged; position += slice)
+				{
+					final int sliceLength = (int) Math.min(slice, chunkSize - position);
+					long time = System.nanoTime();
+					for (int s = 0; s < rows.length; s++)
+					{
+						final long shardLength = rows[s] < chunks.length ? summary.getChunkLength(chunks[rows[s]]) : chunkSize;
+						final int present = (int) Math.max(0, Math.min(sliceLength, shardLength - position));
+						try
+						{
+							readFully(inputs[s], shards[s], present);
+						} catch (IOException e)
+						{
+							// Cut short or undecompressable, found out by its checksum below
+							markDamaged(group, chunks, rows[s]);
+							damaged = true;
+							break;
+						}
+						digests[s].update(shards[s], 0, present);
+						Arrays.fill(shards[s], present, sliceLength, (byte) 0);
+					}
+					if (damaged)
+						break;
+					time = metrics.record(JobMetrics.Stage.READ, time, (long) sliceLength * rows.length);
+					
+					ReedSolomon.combine(coefficients, shards, output, sliceLength);
+					final int written = (int) Math.max(0, Math.min(sliceLength, length - position));
+					outputDigest.update(output, 0, written);
+					final ByteBuffer buffer = ByteBuffer.wrap(output, 0, written);
+					while (buffer.hasRemaining())
+						outputChannel.write(buffer);
+					metrics.record(JobMetrics.Stage.WRITE, time, written);
+				}
+			} finally
+			{
+				for (ReadableByteChannel input : inputs)
+					if (input != null)
+						input.close();
+			}
+			
+			// Any shard that does not match spoiled the result, so try again without it
+			for (int s = 0; s < rows.length && !damaged; s++)
+			{
+				final byte[] expected = rows[s] < chunks.length ? summary.getChecksum(chunks[rows[s]]) : summary.getParityChecksum(summary.getParityIndex(group, rows[s] - chunks.length));
+				if (!MessageDigest.isEqual(expected, digests[s].digest()))
+				{
+					markDamaged(group, chunks, rows[s]);
+					damaged = true;
+				}
+			}
+			if (damaged)
+				continue;
+			if (!MessageDigest.isEqual(summary.getChecksum(index), outputDigest.digest()))
+			{
+				Files.deleteIfExists(path);
+				return false;
+			}
+			rebuilt.put(index, path);
+			return true;
+		}
+	}
+	
+	/**
+	 * Note a shard found damaged while rebuilding.
+	 * @param group The group being rebuilt.
+	 * @param chunks The group's chunks.
+	 * @param row The shard's row, chunks first and parity chunks after.
+	 */
+	private void markDamaged(int group, int[] chunks, int row)
+	{
+		if (row < chunks.length)
+			damagedChunks.add(chunks[row]);
+		else
+			damagedParity.add(summary.getParityIndex(group, row - chunks.length));
+	}
+	
+	/**
+	 * Delete every rebuilt chunk.
+	 * @throws IOException If a rebuilt chunk could not be deleted.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		for (Path path : rebuilt.values())
+			Files.deleteIfExists(path);
+		rebuilt.clear();
+	}
+	
+	/**
+	 * Checks if a chunk's file exists at the size the summary expects, or it was rebuilt.
+	 * @param index The chunk's index.
+	 * @return True if present, false if missing or the wrong size.
+	 * @throws IOException If the chunk's size could not be read.
+	 */
+	private boolean isPresent(int index) throws IOException
+	{
+		final Path path = chunkPath(index);
+		return rebuilt.containsKey(index) || Files.isRegularFile(path) && Files.size(path) == summary.getStoredLength(index);
+	}
+	
+	/**
+	 * Checks if a parity chunk's file exists at the chunk size.
+	 * @param parityIndex The parity chunk's index.
+	 * @return True if present, false if missing or the wrong size.
+	 * @throws IOException If the parity chunk's size could not be read.
+	 */
+	private boolean isParityPresent(int parityIndex) throws IOException
+	{
+		final Path path = parityPath(parityIndex);
+		return Files.isRegularFile(path) && Files.size(path) == summary.getChunkSize();
+	}
+	
+	/**
+	 * Open a chunk for reading its original data, from where it was rebuilt if it was, otherwise decompressing it if compressed.
+	 * @param index The chunk's index.
+	 * @return The chunk's data.
+	 * @throws IOException If the chunk could not be opened.
+	 */
+	ReadableByteChannel openChunk(int index) throws IOException
+	{
+		final Path path = rebuilt.get(index);
+		if (path != null)
+			return FileChannel.open(path, StandardOpenOption.READ);
+		return summary.getCodec().decompress(FileChannel.open(chunkPath(index), StandardOpenOption.READ));
+	}
+	
+	private Path chunkPath(int index)
+	{
+		return directory.resolve(summary.getChunkFilename(index));
+	}
+	
+	private Path parityPath(int parityIndex)
+	{
+		return directory.resolve(summary.getParityFilename(parityIndex));
+	}
+	
+	/**
+	 * Gets the code for groups of a size.
+	 * @param dataShards The amount of chunks in the group.
+	 * @return The shared code.
+	 */
+	private ReedSolomon code(int dataShards)
+	{
+		synchronized (codes)
+		{
+			return codes.computeIfAbsent(dataShards, k -> new ReedSolomon(k, summary.getParity()));
+		}
+	}
+	
+	/**
+	 * The amount of bytes of each shard processed at once, so a whole group stays within 32 MB.
+	 * @param dataShards The amount of chunks in the group.
+	 * @return The slice size in bytes.
+	 */
+	private int sliceSize(int dataShards)
+	{
+		final int slice = Math.max(Main.KB * 4, Math.min(Main.MB, Main.MB * 32 / (dataShards + summary.getParity())));
+		return (int) Math.min(slice, summary.getChunkSize());
+	}
+	
+	/**
+	 * Read exactly an amount of bytes from a position of a file.
+	 * @param channel The file's channel, only used for positional reads.
+	 * @param array The array to read into from the start.
+	 * @param length The amount of bytes.
+	 * @param position The position to read from.
+	 * @throws IOException If the file ends first or could not be read.
+	 */
+	private static void readFully(FileChannel channel, byte[] array, int length, long position) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(array, 0, length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException("Source file ended before its last chunk, it changed while splitting!");
+	}
+	
+	/**
+	 * Read exactly an amount of bytes from a channel.
+	 * @param channel The channel to read from.
+	 * @param array The array to read into from the start.
+	 * @param length The amount of bytes.
+	 * @throws IOException If the channel ends first or could not be read.
+	 */
+	private static void readFully(ReadableByteChannel channel, byte[] array, int length) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(array, 0, length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new EOFException("Chunk ended early!");
+	}
+}
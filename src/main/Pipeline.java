@@ -0,0 +1,322 @@
+package main;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Three stage engine overlapping reading, hashing and writing, each on its own thread.
+ * The stages hand pooled buffers to each other through bounded queues, so the disk keeps working while data is hashed.
+ * Every buffer holds data of a single chunk, tagged with its index, and the time each stage spends working and waiting is recorded.
+ * @author UFFR
+ *
+ */
+public class Pipeline
+{
+	/**
+	 * The first stage, producing data in order.
+	 */
+	@FunctionalInterface
+	public interface Reader
+	{
+		/**
+		 * Fill a buffer with the next data, never crossing from one chunk into the next.
+		 * @param buffer The cleared buffer to fill.
+		 * @return The index of the chunk the data belongs to, or 0 once there is nothing left to read.
+		 * @throws IOException If the data could not be read.
+		 */
+		int read(ByteBuffer buffer) throws IOException;
+	}
+	
+	/**
+	 * The last stage, consuming data in order.
+	 */
+	@FunctionalInterface
+	public interface Writer
+	{
+		/**
+		 * Write all of a buffer's data.
+		 * @param index The index of the chunk the data belongs to.
+		 * @param buffer The flipped buffer to write.
+		 * @throws IOException If the data could not be written.
+		 */
+		void write(int index, ByteBuffer buffer) throws IOException;
+	}
+	
+	/**
+	 * Receives each chunk's checksum from the hashing stage once all of its data has been hashed.
+	 */
+	@FunctionalInterface
+	public interface ChunkHashed
+	{
+		/**
+		 * Accept a chunk's checksum.
+		 * @param index The chunk's index.
+		 * @param checksum The chunk's checksum.
+		 * @throws IOException If the checksum could not be handled.
+		 */
+		void accept(int index, byte[] checksum) throws IOException;
+	}
+	
+	/**
+	 * A buffer of data travelling through the stages.
+	 */
+	private static class Block
+	{
+		// Marks the end of the data
+		static final Block END = new Block(0, null);
+		
+		final int index;
+		final ByteBuffer buffer;
+		Block(int index, ByteBuffer buffer)
+		{
+			this.index = index;
+			this.buffer = buffer;
+		}
+	}
+	
+	private final BufferPool bufferPool;
+	private final int depth;
+	private final AtomicLong readerStall = new AtomicLong(), hasherStall = new AtomicLong(), writerStall = new AtomicLong();
+	private JobMetrics metrics = new JobMetrics("pipeline");
+	private String file = "pipeline";
+	/**
+	 * Construct a pipeline.
+	 * @param bufferPool The pool the reader takes buffers from and the writer returns them to.
+	 * @param depth The amount of buffers each queue between two stages can hold.
+	 */
+	public Pipeline(BufferPool bufferPool, int depth)
+	{
+		if (depth < 1)
+			throw new IllegalArgumentException("Queue depth must be positive!");
+		this.bufferPool = bufferPool;
+		this.depth = depth;
+	}
+	
+	/**
+	 * Set the metrics the stages record their work to, with chunks completed as the hashing stage finishes them.
+	 * @param metrics The metrics to record to.
+	 * @param file The name of the file the chunks belong to.
+	 * @return This pipeline.
+	 */
+	public Pipeline setMetrics(JobMetrics metrics, String file)
+	{
+		this.metrics = metrics;
+		this.file = file;
+		return this;
+	}
+	
+	/**
+	 * Run all three stages until the reader runs out of data.
+	 * @param reader The reading stage.
+	 * @param chunkDigest The digest each chunk is hashed with.
+	 * @param totalDigest The digest all data is hashed with, or null to skip the whole-file checksum.
+	 * @param chunkHashed Receives each chunk's checksum, called from the hashing stage.
+	 * @param writer The writing stage.
+	 * @param progress The progress to note written bytes to.
+	 * @return The whole-file checksum, or null if no total digest was given.
+	 * @throws IOException If any stage failed or the pipeline was interrupted.
+	 */
+	public byte[] run(Reader reader, MessageDigest chunkDigest, MessageDigest totalDigest, ChunkHashed chunkHashed, Writer writer, Progress progress) throws IOException
+	{
+		final BlockingQueue<Block> hashQueue = new ArrayBlockingQueue<Block>(depth), writeQueue = new ArrayBlockingQueue<Block>(depth);
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		final CompletionService<Void> stages = new ExecutorCompletionService<Void>(executor);
+		try
+		{
+			stages.submit(() -> read(reader, hashQueue));
+			stages.submit(() -> hash(hashQueue, writeQueue, chunkDigest, totalDigest, chunkHashed));
+			stages.submit(() -> write(writeQueue, writer, progress));
+			// Wait on whichever finishes first, so a failed stage stops the others instead of leaving them blocked
+			for (int i = 0; i < 3; i++)
+				Main.await(stages.take());
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the pipeline!");
+		} finally
+		{
+			executor.shutdownNow();
+		}
+		return totalDigest == null ? null : totalDigest.digest();
+	}
+	
+	/**
+	 * The reading stage, filling pooled buffers and queueing them for hashing.
+	 * @param reader Supplies the data.
+	 * @param hashQueue The queue to the hashing stage.
+	 * @return Nothing.
+	 * @throws IOException If the data could not be read.
+	 * @throws InterruptedException If another stage failed.
+	 */
+	private Void read(Reader reader, BlockingQueue<Block> hashQueue) throws IOException, InterruptedException
+	{
+		while (true)
+		{
+			long start = System.nanoTime();
+			final ByteBuffer buffer = bufferPool.acquire();
+			readerStall.addAndGet(System.nanoTime() - start);
+			
+			start = System.nanoTime();
+			final int index = reader.read(buffer);
+			if (index == 0)
+			{
+				bufferPool.release(buffer);
+				break;
+			}
+			metrics.record(JobMetrics.Stage.READ, start, buffer.position());
+			buffer.flip();
+			
+			start = System.nanoTime();
+			hashQueue.put(new Block(index, buffer));
+			readerStall.addAndGet(System.nanoTime() - start);
+		}
+		hashQueue.put(Block.END);
+		return null;
+	}
+	
+	/**
+	 * The hashing stage, updating the digests and passing each buffer on to be written.
+	 * @param hashQueue The queue from the reading stage.
+	 * @param writeQueue The queue to the writing stage.
+	 * @param chunkDigest The digest each chunk is hashed with.
+	 * @param totalDigest The digest all data is hashed with, may be null.
+	 * @param chunkHashed Receives each chunk's checksum.
+	 * @return Nothing.
+	 * @throws IOException If a checksum could not be handled.
+	 * @throws InterruptedException If another stage failed.
+	 */
+	private Void hash(BlockingQueue<Block> hashQueue, BlockingQueue<Block> writeQueue, MessageDigest chunkDigest, MessageDigest totalDigest, ChunkHashed chunkHashed) throws IOException, InterruptedException
+	{
+		int current = 0;
+		long chunkStart = 0, chunkBytes = 0;
+		while (true)
+		{
+			long start = System.nanoTime();
+			final Block block = hashQueue.take();
+			hasherStall.addAndGet(System.nanoTime() - start);
+			
+			// A new chunk or the end completes the one before it
+			if (block.index != current && current != 0)
+			{
+				chunkHashed.accept(current, chunkDigest.digest());
+				metrics.chunkFinished(file, current, chunkStart, chunkBytes);
+			}
+			if (block == Block.END)
+				break;
+			if (block.index != current)
+			{
+				chunkStart = metrics.chunkStarted();
+				chunkBytes = 0;
+			}
+			current = block.index;
+			chunkBytes += block.buffer.remaining();
+			
+			start = System.nanoTime();
+			chunkDigest.update(block.buffer);
+			if (totalDigest != null)
+			{
+				block.buffer.rewind();
+				totalDigest.update(block.buffer);
+			}
+			metrics.record(JobMetrics.Stage.HASH, start, block.buffer.limit());
+			block.buffer.rewind();
+			
+			start = System.nanoTime();
+			writeQueue.put(block);
+			hasherStall.addAndGet(System.nanoTime() - start);
+		}
+		writeQueue.put(Block.END);
+		return null;
+	}
+	
+	/**
+	 * The writing stage, writing each buffer and returning it to the pool.
+	 * @param writeQueue The queue from the hashing stage.
+	 * @param writer Consumes the data.
+	 * @param progress The progress to note written bytes to.
+	 * @return Nothing.
+	 * @throws IOException If the data could not be written.
+	 * @throws InterruptedException If another stage failed.
+	 */
+	private Void write(BlockingQueue<Block> writeQueue, Writer writer, Progress progress) throws IOException, InterruptedException
+	{
+		while (true)
+		{
+			final long start = System.nanoTime();
+			final Block block = writeQueue.take();
+			writerStall.addAndGet(System.nanoTime() - start);
+			if (block == Block.END)
+				break;
+			
+			final int length = block.buffer.remaining();
+			try
+			{
+				final long writeStart = System.nanoTime();
+				writer.write(block.index, block.buffer);
+				metrics.record(JobMetrics.Stage.WRITE, writeStart, length);
+			} finally
+			{
+				bufferPool.release(block.buffer);
+			}
+			progress.stepBy(length);
+		}
+		return null;
+	}
+	
+	/**
+	 * The amount of buffers a pipeline needs to never wait on the pool, enough to fill both queues with one more in each stage.
+	 * @param depth The queue depth.
+	 * @return Amount of buffers.
+	 */
+	public static int bufferCount(int depth)
+	{
+		return depth * 2 + 3;
+	}
+	
+	public int getDepth()
+	{
+		return depth;
+	}
+	
+	/**
+	 * Time the reader spent waiting for a free buffer or room in the hashing queue.
+	 * @return Stall time in milliseconds.
+	 */
+	public long getReaderStall()
+	{
+		return readerStall.get() / 1_000_000;
+	}
+	
+	/**
+	 * Time the hasher spent waiting for data or room in the writing queue.
+	 * @return Stall time in milliseconds.
+	 */
+	public long getHasherStall()
+	{
+		return hasherStall.get() / 1_000_000;
+	}
+	
+	/**
+	 * Time the writer spent waiting for data.
+	 * @return Stall time in milliseconds.
+	 */
+	public long getWriterStall()
+	{
+		return writerStall.get() / 1_000_000;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "reader stalled " + getReaderStall() + " ms, hasher " + getHasherStall() + " ms, writer " + getWriterStall() + " ms with a queue depth of " + depth;
+	}
+}
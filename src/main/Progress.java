@@ -0,0 +1,72 @@
+package main;
+
+import me.tongfei.progressbar.ProgressBar;
+import me.tongfei.progressbar.ProgressBarBuilder;
+
+/**
+ * Progress of a job, drawn as a console progress bar if enabled and reported to the job's listener and metrics.
+ * Safe to step from multiple threads.
+ * @author UFFR
+ *
+ */
+class Progress implements AutoCloseable
+{
+	private final ProgressBar bar;
+	private final JobListener listener;
+	private final JobMetrics metrics;
+	/**
+	 * Start tracking progress.
+	 * @param builder The builder of the bar to draw, or null to not draw one.
+	 * @param listener The listener to report to.
+	 */
+	Progress(ProgressBarBuilder builder, JobListener listener)
+	{
+		this(builder, listener, null);
+	}
+	
+	/**
+	 * Start tracking progress, counting bytes towards metrics.
+	 * @param builder The builder of the bar to draw, or null to not draw one.
+	 * @param listener The listener to report to.
+	 * @param metrics The metrics to count bytes towards, or null to not count them.
+	 */
+	Progress(ProgressBarBuilder builder, JobListener listener, JobMetrics metrics)
+	{
+		bar = builder == null ? null : builder.build();
+		this.listener = listener;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Note processed bytes.
+	 * @param bytes The amount of bytes.
+	 */
+	void stepBy(long bytes)
+	{
+		if (bar != null)
+			bar.stepBy(bytes);
+		if (metrics != null)
+			metrics.progressed(bytes);
+		listener.progressed(bytes);
+	}
+	
+	/**
+	 * Restart the bar for the next chunk, for the sequential processes that draw one bar per chunk.
+	 * @param size The chunk's size.
+	 * @param message The chunk's description.
+	 */
+	void startChunk(long size, String message)
+	{
+		if (bar == null)
+			return;
+		bar.reset().maxHint(size).setExtraMessage(message);
+		bar.refresh();
+	}
+	
+	@Override
+	public void close()
+	{
+		if (bar != null)
+			bar.close();
+	}
+}
@@ -0,0 +1,168 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Persistent record of the chunks a split or merge has completed, so an interrupted run can be resumed.
+ * <p>
+ * The journal is a small header identifying the job, the magic {@code JFSJ}, version (short), checksum algorithm ID (byte),
+ * total size (long) and chunk size (long), followed by one record per completed chunk: its index (int) and checksum.
+ * Records are only appended once the chunk's data is on disk, and a record cut short by a crash is ignored.
+ * @author UFFR
+ *
+ */
+public class ProgressJournal implements Closeable
+{
+	private static final int MAGIC = 0x4A46534A;// "JFSJ"
+	private static final short VERSION = 1;
+	private static final int HEADER_LENGTH = 4 + 2 + 1 + 8 + 8;
+	
+	private final Path path;
+	private final FileChannel channel;
+	private final int digestLength;
+	private final BitSet completed = new BitSet();
+	private final byte[] checksums;
+	/**
+	 * Open a journal, loading its records if it exists or starting a new one if it does not.
+	 * @param path The journal file's path.
+	 * @param summary The summary of the job, which an existing journal must match.
+	 * @throws IOException If the journal cannot be read or written, or belongs to a different job.
+	 */
+	public ProgressJournal(Path path, SplitSummary summary) throws IOException
+	{
+		this.path = path;
+		digestLength = summary.getAlgorithm().getDigestLength();
+		checksums = new byte[summary.getChunkAmount() * digestLength];
+		
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(MAGIC).putShort(VERSION).put((byte) summary.getAlgorithm().getId()).putLong(summary.getTotalSize()).putLong(summary.getChunkSize());
+		header.flip();
+		
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try
+		{
+			if (channel.size() < HEADER_LENGTH)
+			{
+				// New, or cut short before the header was complete
+				channel.truncate(0);
+				while (header.hasRemaining())
+					channel.write(header, header.position());
+				channel.force(false);
+			} else
+				load(header, summary.getChunkAmount());
+			channel.position(channel.size());
+		} catch (IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Read every complete record of an existing journal.
+	 * @param expectedHeader The header the journal must start with.
+	 * @param chunkAmount The amount of chunks in the job.
+	 * @throws IOException If the journal cannot be read or belongs to a different job.
+	 */
+	private void load(ByteBuffer expectedHeader, int chunkAmount) throws IOException
+	{
+		final ByteBuffer contents = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+		while (contents.hasRemaining())
+			if (channel.read(contents, contents.position()) < 0)
+				break;
+		contents.flip();
+		
+		final ByteBuffer header = contents.duplicate();
+		header.limit(HEADER_LENGTH);
+		if (!header.equals(expectedHeader))
+			throw new IOException("Journal [" + path + "] belongs to a different job, delete it to start over.");
+		contents.position(HEADER_LENGTH);
+		
+		final int recordLength = 4 + digestLength;
+		while (contents.remaining() >= recordLength)
+		{
+			final int index = contents.getInt();
+			if (index < 1 || index > chunkAmount)
+				throw new IOException("Journal [" + path + "] is corrupted, delete it to start over.");
+			contents.get(checksums, (index - 1) * digestLength, digestLength);
+			completed.set(index);
+		}
+		// Drop a record cut short by a crash, so new records stay aligned
+		channel.truncate(contents.position());
+	}
+	
+	/**
+	 * Checks if a chunk was completed by an earlier run.
+	 * @param index The chunk's index.
+	 * @return True if completed, false if not.
+	 */
+	public synchronized boolean isComplete(int index)
+	{
+		return completed.get(index);
+	}
+	
+	/**
+	 * Retrieve the checksum recorded for a completed chunk.
+	 * @param index The chunk's index.
+	 * @return The checksum, or null if not completed.
+	 */
+	public synchronized byte[] getChecksum(int index)
+	{
+		if (!completed.get(index))
+			return null;
+		final byte[] checksum = new byte[digestLength];
+		System.arraycopy(checksums, (index - 1) * digestLength, checksum, 0, digestLength);
+		return checksum;
+	}
+	
+	/**
+	 * The amount of chunks completed so far.
+	 * @return Amount of chunks.
+	 */
+	public synchronized int getCompletedAmount()
+	{
+		return completed.cardinality();
+	}
+	
+	/**
+	 * Record a chunk as completed, safe to call from multiple threads.
+	 * The chunk's data must already be forced to disk.
+	 * @param index The chunk's index.
+	 * @param checksum The chunk's checksum.
+	 * @throws IOException If the record cannot be written.
+	 */
+	public synchronized void record(int index, byte[] checksum) throws IOException
+	{
+		final ByteBuffer record = ByteBuffer.allocate(4 + digestLength);
+		record.putInt(index).put(checksum, 0, digestLength).flip();
+		while (record.hasRemaining())
+			channel.write(record);
+		channel.force(false);
+		
+		System.arraycopy(checksum, 0, checksums, (index - 1) * digestLength, digestLength);
+		completed.set(index);
+	}
+	
+	/**
+	 * Close and delete the journal once the job has fully completed.
+	 * @throws IOException If the journal cannot be deleted.
+	 */
+	public void delete() throws IOException
+	{
+		close();
+		Files.deleteIfExists(path);
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
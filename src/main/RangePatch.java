@@ -0,0 +1,306 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Moves damaged byte ranges of chunks between copies of a split, so a copy can be repaired from a range file holding only
+ * the damaged blocks instead of whole chunks. Only splits keeping block checksums can be patched, since every block is
+ * checked against the summary both before it is put into a range file and before it is patched in.
+ * <p>
+ * A range file is the magic {@code JFSR}, the format version (short), the checksum algorithm's ID (byte), the block size
+ * (long), the file name (unsigned short length, UTF-8) and the whole-file checksum or Merkle root (an unsigned byte length
+ * and the bytes) identifying the split. Entries follow until the end of the file, one per block: the chunk's index (int),
+ * the block's offset within the chunk (long), its length (int) and its data.
+ * @author UFFR
+ *
+ */
+public class RangePatch
+{
+	static final int MAGIC = 0x4A465352;// "JFSR"
+	static final short VERSION = 1;
+	
+	private RangePatch()
+	{
+	}
+	
+	/**
+	 * Parse ranges of chunks, as reported by verification.
+	 * @param spec Comma separated ranges, each a chunk index, a colon and the first and last byte within the chunk
+	 * separated by a dash, such as {@code 7:0-1048575,9:4194304-5242879}.
+	 * @return Every range as its chunk index, first byte and the byte after its last.
+	 * @throws IllegalArgumentException If any range is malformed.
+	 */
+	public static List<long[]> parseRanges(String spec)
+	{
+		final List<long[]> ranges = new ArrayList<long[]>();
+		for (String range : spec.split(","))
+		{
+			final int colon = range.indexOf(':'), dash = range.indexOf('-', colon + 1);
+			if (colon < 0 || dash < 0)
+				throw new IllegalArgumentException("Range [" + range + "] is not of the form <chunk>:<first>-<last>!");
+			try
+			{
+				final long index = Integer.parseInt(range.substring(0, colon).trim());
+				final long first = Long.parseLong(range.substring(colon + 1, dash).trim()), last = Long.parseLong(range.substring(dash + 1).trim());
+				if (first < 0 || last < first)
+					throw new IllegalArgumentException("Range [" + range + "] ends before it starts!");
+				ranges.add(new long[] {index, first, last + 1});
+			} catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Range [" + range + "] is not of the form <chunk>:<first>-<last>!", e);
+			}
+		}
+		return ranges;
+	}
+	
+	/**
+	 * Write the blocks covering ranges of an intact copy's chunks into a range file.
+	 * @param summaryPath The path of the summary file, with the chunks next to it.
+	 * @param summary The summary of the split, keeping block checksums.
+	 * @param ranges The ranges to extract, as from {@link #parseRanges(String)}, widened to whole blocks.
+	 * @param outputFile The range file to write, must not exist.
+	 * @return The amount of blocks written.
+	 * @throws IOException If any I/O exception occurs during the process, or a block is damaged in this copy too.
+	 * @throws IllegalArgumentException If the summary keeps no block checksums or a range is outside its chunk.
+	 */
+	public static int extract(Path summaryPath, SplitSummary summary, List<long[]> ranges, Path outputFile) throws IOException
+	{
+		checkBlocks(summary);
+		final long blockSize = summary.getBlockSize();
+		// Blocks of each chunk to write, in order and without repeats
+		final Map<Integer, Set<Integer>> blocks = new TreeMap<Integer, Set<Integer>>();
+		for (long[] range : ranges)
+		{
+			final int index = (int) range[0];
+			if (index < 1 || index > summary.getChunkAmount())
+				throw new IllegalArgumentException("Chunk #" + index + " does not exist, the split has " + summary.getChunkAmount() + " chunks!");
+			if (range[2] > summary.getChunkLength(index))
+				throw new IllegalArgumentException("Range " + range[1] + '-' + (range[2] - 1) + " is outside of chunk #" + index + ", which is " + summary.getChunkLength(index) + " B long!");
+			final Set<Integer> chunkBlocks = blocks.computeIfAbsent(index, key -> new TreeSet<Integer>());
+			for (long block = range[1] / blockSize; block <= (range[2] - 1) / blockSize; block++)
+				chunkBlocks.add((int) block);
+		}
+		
+		int written = 0;
+		final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+		try (final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(outputFile, StandardOpenOption.CREATE_NEW), Main.KB * 64)))
+		{
+			writeHeader(outputStream, summary);
+			for (Map.Entry<Integer, Set<Integer>> entry : blocks.entrySet())
+			{
+				final int index = entry.getKey();
+				try (final FileChannel chunkChannel = FileChannel.open(chunkPath(summaryPath, summary, index), StandardOpenOption.READ))
+				{
+					for (int block : entry.getValue())
+					{
+						final long offset = block * blockSize;
+						final byte[] data = new byte[(int) Math.min(blockSize, summary.getChunkLength(index) - offset)];
+						final ByteBuffer buffer = ByteBuffer.wrap(data);
+						while (buffer.hasRemaining())
+							if (chunkChannel.read(buffer, offset + buffer.position()) < 0)
+								throw new IOException("Chunk #" + index + " is cut short in this copy too, block #" + block + " cannot be extracted!");
+						if (!MessageDigest.isEqual(summary.getBlockChecksum(index, block), digest.digest(data)))
+							throw new IOException("Block #" + block + " of chunk #" + index + " is damaged in this copy too!");
+						outputStream.writeInt(index);
+						outputStream.writeLong(offset);
+						outputStream.writeInt(data.length);
+						outputStream.write(data);
+						written++;
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e)
+		{
+			// A partial range file would only patch some of the damage
+			Files.deleteIfExists(outputFile);
+			throw e;
+		}
+		return written;
+	}
+	
+	/**
+	 * Patch the blocks of a range file into a copy's chunks, creating missing chunks and trimming chunks that are too long.
+	 * Every block is checked before it is written, and every patched chunk is checked whole afterwards.
+	 * @param summaryPath The path of the summary file, with the chunks next to it.
+	 * @param summary The summary of the split, keeping block checksums.
+	 * @param rangeFile The range file to apply.
+	 * @param listener The listener to report patched chunks and damaged blocks to.
+	 * @return The indices of the patched chunks still not matching their checksum, empty if every one is intact.
+	 * @throws IOException If any I/O exception occurs during the process, or the range file belongs to another split.
+	 * @throws IllegalArgumentException If the summary keeps no block checksums.
+	 */
+	public static int[] apply(Path summaryPath, SplitSummary summary, Path rangeFile, JobListener listener) throws IOException
+	{
+		checkBlocks(summary);
+		final long blockSize = summary.getBlockSize();
+		final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+		final Map<Integer, FileChannel> channels = new TreeMap<Integer, FileChannel>();
+		final Map<Integer, Integer> patched = new TreeMap<Integer, Integer>();
+		try (final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(rangeFile), Main.KB * 64)))
+		{
+			readHeader(inputStream, summary);
+			while (true)
+			{
+				final int index;
+				try
+				{
+					index = inputStream.readInt();
+				} catch (EOFException e)
+				{
+					break;
+				}
+				final long offset = inputStream.readLong();
+				final int length = inputStream.readInt();
+				if (index < 1 || index > summary.getChunkAmount() || offset < 0 || offset % blockSize != 0 || offset >= summary.getChunkLength(index)
+						|| length != Math.min(blockSize, summary.getChunkLength(index) - offset))
+					throw new IOException("Range file entry for chunk #" + index + " at " + offset + " does not match the split's blocks!");
+				final byte[] data = new byte[length];
+				inputStream.readFully(data);
+				
+				final int block = (int) (offset / blockSize);
+				if (!MessageDigest.isEqual(summary.getBlockChecksum(index, block), digest.digest(data)))
+				{
+					listener.warning("Block #" + block + " of chunk #" + index + " is damaged in the range file, skipping it.");
+					continue;
+				}
+				FileChannel chunkChannel = channels.get(index);
+				if (chunkChannel == null)
+				{
+					chunkChannel = FileChannel.open(chunkPath(summaryPath, summary, index), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+					channels.put(index, chunkChannel);
+				}
+				final ByteBuffer buffer = ByteBuffer.wrap(data);
+				while (buffer.hasRemaining())
+					chunkChannel.write(buffer, offset + buffer.position());
+				patched.merge(index, 1, Integer::sum);
+			}
+			
+			for (Map.Entry<Integer, FileChannel> entry : channels.entrySet())
+			{
+				final long length = summary.getChunkLength(entry.getKey());
+				if (entry.getValue().size() > length)
+					entry.getValue().truncate(length);
+				entry.getValue().force(false);
+			}
+		} finally
+		{
+			for (FileChannel chunkChannel : channels.values())
+				chunkChannel.close();
+		}
+		
+		// Blocks the range file did not hold may still be damaged
+		final List<Integer> damaged = new ArrayList<Integer>();
+		final ByteBuffer buffer = ByteBuffer.allocate(Main.KB * 64);
+		for (Map.Entry<Integer, Integer> entry : patched.entrySet())
+		{
+			final int index = entry.getKey();
+			Main.digestFile(chunkPath(summaryPath, summary, index), summary.getChunkLength(index), digest, buffer);
+			if (MessageDigest.isEqual(summary.getChecksum(index), digest.digest()))
+				listener.notice("Patched " + entry.getValue() + " blocks into chunk #" + index + ", it is intact.");
+			else
+			{
+				listener.warning("Patched " + entry.getValue() + " blocks into chunk #" + index + ", but it is still damaged!");
+				damaged.add(index);
+			}
+		}
+		return damaged.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/**
+	 * Check that a summary keeps block checksums small enough to patch by.
+	 * @param summary The summary of the split.
+	 * @throws IllegalArgumentException If it does not.
+	 */
+	private static void checkBlocks(SplitSummary summary)
+	{
+		if (!summary.hasBlocks())
+			throw new IllegalArgumentException("The split keeps no block checksums, so it can only be repaired by whole chunks!");
+		if (summary.getBlockSize() > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("The split's blocks are too large to patch by!");
+	}
+	
+	/**
+	 * Write the header identifying the split.
+	 * @param outputStream The stream to write to.
+	 * @param summary The summary of the split.
+	 * @throws IOException If the header could not be written.
+	 */
+	private static void writeHeader(DataOutputStream outputStream, SplitSummary summary) throws IOException
+	{
+		final byte[] filename = summary.getFilename().getBytes(StandardCharsets.UTF_8);
+		final byte[] identity = identity(summary);
+		outputStream.writeInt(MAGIC);
+		outputStream.writeShort(VERSION);
+		outputStream.writeByte(summary.getAlgorithm().getId());
+		outputStream.writeLong(summary.getBlockSize());
+		outputStream.writeShort(filename.length);
+		outputStream.write(filename);
+		outputStream.writeByte(identity.length);
+		outputStream.write(identity);
+	}
+	
+	/**
+	 * Read the header of a range file, checking that it belongs to the split.
+	 * @param inputStream The stream to read from.
+	 * @param summary The summary of the split.
+	 * @throws IOException If the header could not be read, or belongs to another split.
+	 */
+	private static void readHeader(DataInputStream inputStream, SplitSummary summary) throws IOException
+	{
+		if (inputStream.readInt() != MAGIC)
+			throw new IOException("Not a range file!");
+		final short version = inputStream.readShort();
+		if (version != VERSION)
+			throw new IOException("Unsupported range file version " + version + ", this program supports version " + VERSION + '.');
+		final int algorithm = inputStream.readUnsignedByte();
+		final long blockSize = inputStream.readLong();
+		final byte[] filename = new byte[inputStream.readUnsignedShort()];
+		inputStream.readFully(filename);
+		final byte[] identity = new byte[inputStream.readUnsignedByte()];
+		inputStream.readFully(identity);
+		if (algorithm != summary.getAlgorithm().getId() || blockSize != summary.getBlockSize()
+				|| !summary.getFilename().equals(new String(filename, StandardCharsets.UTF_8)) || !MessageDigest.isEqual(identity(summary), identity))
+			throw new IOException("Range file belongs to a different split of [" + new String(filename, StandardCharsets.UTF_8) + "]!");
+	}
+	
+	/**
+	 * The checksum identifying a split's whole file.
+	 * @param summary The summary of the split.
+	 * @return Its Merkle root if it has one, otherwise its whole-file checksum.
+	 */
+	private static byte[] identity(SplitSummary summary)
+	{
+		return summary.hasMerkleRoot() ? summary.getMerkleRoot() : summary.getTotalFileChecksum();
+	}
+	
+	/**
+	 * Resolves the path of a chunk next to the summary file.
+	 * @param summaryPath The path of the summary file.
+	 * @param summary The summary of the split.
+	 * @param index The chunk's index.
+	 * @return The chunk's path.
+	 */
+	private static Path chunkPath(Path summaryPath, SplitSummary summary, int index)
+	{
+		return Paths.get(summaryPath.getParent() == null ? "" : summaryPath.getParent().toString(), summary.getChunkFilename(index));
+	}
+}
@@ -0,0 +1,79 @@
+package main;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Applies a job's error policy to damaged chunks, letting the job's listener decide first.
+ * @author UFFR
+ *
+ */
+class Recovery
+{
+	private final JobListener listener;
+	private final ErrorPolicy policy;
+	private final int attempts;
+	private final long delay;
+	/**
+	 * Construct a recovery.
+	 * @param listener The listener to ask.
+	 * @param policy The job's error policy.
+	 * @param attempts The amount of times a chunk is attempted before failing when retrying.
+	 * @param delay Milliseconds to wait before each retry, multiplied by the attempts so far.
+	 */
+	Recovery(JobListener listener, ErrorPolicy policy, int attempts, long delay)
+	{
+		this.listener = listener;
+		this.policy = policy;
+		this.attempts = attempts;
+		this.delay = delay;
+	}
+	
+	/**
+	 * Handle a chunk that can be processed again.
+	 * @param index The chunk's index.
+	 * @param message Description of the problem.
+	 * @param attempt The attempt that failed, starting from 1.
+	 * @param cause The exception that damaged the chunk, or null if it was found damaged.
+	 * @return True to process the chunk again, false to skip it.
+	 * @throws ChunkException If the job should stop.
+	 * @throws InterruptedIOException If interrupted while waiting to retry.
+	 */
+	boolean retry(int index, String message, int attempt, Throwable cause) throws ChunkException, InterruptedIOException
+	{
+		switch (listener.chunkFailed(index, message, policy))
+		{
+			case SKIP:
+				return false;
+			case RETRY:
+				if (attempt < attempts)
+				{
+					try
+					{
+						Thread.sleep(delay * attempt);
+					} catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting to retry chunk #" + index + '!');
+					}
+					return true;
+				}
+				throw new ChunkException(index, message + " Gave up after " + attempt + " attempts.", cause);
+			case FAIL:
+			default:
+				throw new ChunkException(index, message, cause);
+		}
+	}
+	
+	/**
+	 * Handle a chunk that cannot be processed again, such as one already streamed out in order.
+	 * @param index The chunk's index.
+	 * @param message Description of the problem.
+	 * @param cause The exception that damaged the chunk, or null if it was found damaged.
+	 * @throws ChunkException If the job should stop, which retrying also does.
+	 */
+	void skip(int index, String message, Throwable cause) throws ChunkException
+	{
+		if (listener.chunkFailed(index, message, policy) != ErrorPolicy.SKIP)
+			throw new ChunkException(index, message, cause);
+	}
+}
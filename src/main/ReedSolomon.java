@@ -0,0 +1,187 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(256), rebuilding any data shards from any equal amount of surviving shards.
+ * <p>
+ * Parity shard {@code r} is the sum of every data shard {@code c} multiplied by the Cauchy matrix entry
+ * {@code 1 / ((k + r) ^ c)}. Every square submatrix of a Cauchy matrix is invertible, so any {@code k} of the
+ * {@code k + m} shards are enough to solve for the data. Multiplication goes through a table row per coefficient,
+ * keeping the inner loops to plain array lookups and exclusive ors.
+ * @author UFFR
+ *
+ */
+public class ReedSolomon
+{
+	// Reduction polynomial x^8 + x^4 + x^3 + x^2 + 1, for which 2 generates every non-zero element
+	private static final int POLYNOMIAL = 0x11D;
+	private static final byte[] EXP = new byte[510];
+	private static final int[] LOG = new int[256];
+	private static final byte[][] MUL = new byte[256][256];
+	static
+	{
+		int x = 1;
+		for (int i = 0; i < 255; i++)
+		{
+			EXP[i] = EXP[i + 255] = (byte) x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256)
+				x ^= POLYNOMIAL;
+		}
+		for (int a = 1; a < 256; a++)
+			for (int b = 1; b < 256; b++)
+				MUL[a][b] = EXP[LOG[a] + LOG[b]];
+	}
+	
+	private final int dataShards, parityShards;
+	// Coefficients of every parity shard, by parity row then data shard
+	private final int[][] parity;
+	/**
+	 * Construct a code.
+	 * @param dataShards The amount of data shards, at least 1.
+	 * @param parityShards The amount of parity shards, at least 1.
+	 * @throws IllegalArgumentException If there are more than 256 shards in total.
+	 */
+	public ReedSolomon(int dataShards, int parityShards)
+	{
+		if (dataShards < 1 || parityShards < 1)
+			throw new IllegalArgumentException("Reed-Solomon codes need at least one data and one parity shard!");
+		if (dataShards + parityShards > 256)
+			throw new IllegalArgumentException("Reed-Solomon codes over GF(256) hold at most 256 shards!");
+		this.dataShards = dataShards;
+		this.parityShards = parityShards;
+		parity = new int[parityShards][dataShards];
+		for (int r = 0; r < parityShards; r++)
+			for (int c = 0; c < dataShards; c++)
+				parity[r][c] = inverse((dataShards + r) ^ c);
+	}
+	
+	public int getDataShards()
+	{
+		return dataShards;
+	}
+	
+	public int getParityShards()
+	{
+		return parityShards;
+	}
+	
+	/**
+	 * Calculate the parity of a slice of the data shards.
+	 * @param data The data shards, at least {@code length} bytes each.
+	 * @param parityOut Receives the parity shards, at least {@code length} bytes each.
+	 * @param length The amount of bytes to encode.
+	 */
+	public void encode(byte[][] data, byte[][] parityOut, int length)
+	{
+		for (int r = 0; r < parityShards; r++)
+		{
+			Arrays.fill(parityOut[r], 0, length, (byte) 0);
+			for (int c = 0; c < dataShards; c++)
+				multiplyAdd(parity[r][c], data[c], parityOut[r], length);
+		}
+	}
+	
+	/**
+	 * Find the coefficients rebuilding one data shard from others.
+	 * @param rows The shards to rebuild from, exactly as many as there are data shards. Data shards are numbered from
+	 * 0, parity shards follow them.
+	 * @param target The data shard to rebuild.
+	 * @return The coefficient of each of the given shards, in the same order.
+	 * @throws IllegalArgumentException If the shards are not distinct or not enough.
+	 */
+	public int[] coefficients(int[] rows, int target)
+	{
+		if (rows.length != dataShards)
+			throw new IllegalArgumentException("Rebuilding takes exactly " + dataShards + " shards, not " + rows.length + '!');
+		if (target < 0 || target >= dataShards)
+			throw new IllegalArgumentException("Shard #" + target + " is not a data shard!");
+		
+		// The rows of the encoding matrix the given shards were made with, next to the identity
+		final int[][] matrix = new int[dataShards][dataShards * 2];
+		for (int i = 0; i < dataShards; i++)
+		{
+			if (rows[i] < dataShards)
+				matrix[i][rows[i]] = 1;
+			else
+				System.arraycopy(parity[rows[i] - dataShards], 0, matrix[i], 0, dataShards);
+			matrix[i][dataShards + i] = 1;
+		}
+		
+		// Gauss-Jordan elimination, leaving the inverse on the right
+		for (int column = 0; column < dataShards; column++)
+		{
+			int pivot = column;
+			while (pivot < dataShards && matrix[pivot][column] == 0)
+				pivot++;
+			if (pivot == dataShards)
+				throw new IllegalArgumentException("Shards " + Arrays.toString(rows) + " are not distinct!");
+			final int[] swap = matrix[pivot];
+			matrix[pivot] = matrix[column];
+			matrix[column] = swap;
+			
+			final int scale = inverse(matrix[column][column]);
+			for (int j = 0; j < dataShards * 2; j++)
+				matrix[column][j] = multiply(matrix[column][j], scale);
+			for (int i = 0; i < dataShards; i++)
+			{
+				final int factor = matrix[i][column];
+				if (i == column || factor == 0)
+					continue;
+				for (int j = 0; j < dataShards * 2; j++)
+					matrix[i][j] ^= multiply(factor, matrix[column][j]);
+			}
+		}
+		return Arrays.copyOfRange(matrix[target], dataShards, dataShards * 2);
+	}
+	
+	/**
+	 * Combine a slice of shards by the coefficients from {@link #coefficients(int[], int)}.
+	 * @param coefficients The coefficient of each shard.
+	 * @param shards The shards, in the same order, at least {@code length} bytes each.
+	 * @param output Receives the rebuilt shard, at least {@code length} bytes.
+	 * @param length The amount of bytes to rebuild.
+	 */
+	public static void combine(int[] coefficients, byte[][] shards, byte[] output, int length)
+	{
+		Arrays.fill(output, 0, length, (byte) 0);
+		for (int i = 0; i < coefficients.length; i++)
+			multiplyAdd(coefficients[i], shards[i], output, length);
+	}
+	
+	/**
+	 * Add a shard multiplied by a coefficient to another.
+	 * @param coefficient The coefficient.
+	 * @param input The shard to multiply.
+	 * @param output The shard to add to.
+	 * @param length The amount of bytes.
+	 */
+	private static void multiplyAdd(int coefficient, byte[] input, byte[] output, int length)
+	{
+		if (coefficient == 0)
+			return;
+		if (coefficient == 1)
+		{
+			for (int i = 0; i < length; i++)
+				output[i] ^= input[i];
+			return;
+		}
+		final byte[] table = MUL[coefficient];
+		for (int i = 0; i < length; i++)
+			output[i] ^= table[input[i] & 0xFF];
+	}
+	
+	private static int multiply(int a, int b)
+	{
+		return MUL[a][b] & 0xFF;
+	}
+	
+	private static int inverse(int a)
+	{
+		if (a == 0)
+			throw new ArithmeticException("Zero has no inverse!");
+		return EXP[255 - LOG[a]] & 0xFF;
+	}
+}
@@ -0,0 +1,349 @@
+package main;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only channel over the original file of a split, reading straight from its chunks without merging them.
+ * <p>
+ * Any position is mapped to its chunk and the position within it, so a small range of a large split only touches the
+ * chunks holding it. The most recently used chunks are kept open, and with verification enabled every chunk is checked
+ * against its checksum the first time it is read from. Compressed chunks cannot be positioned within, so they are
+ * decompressed from their start again whenever an earlier position is read.
+ * @author UFFR
+ *
+ */
+public class SplitChannel implements SeekableByteChannel
+{
+	private final Path inputPath;
+	private final SplitSummary summary;
+	// Iterates from the least recently used
+	private final LinkedHashMap<Integer, OpenChunk> openChunks = new LinkedHashMap<Integer, OpenChunk>(16, 0.75f, true);
+	private final BitSet verified = new BitSet();
+	private int cacheSize = 8;
+	private boolean verify;
+	private long position;
+	private boolean open = true;
+	private ByteBuffer scratch;
+	/**
+	 * Construct a channel.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @param summary The summary of the split.
+	 */
+	public SplitChannel(Path inputPath, SplitSummary summary)
+	{
+		this.inputPath = inputPath;
+		this.summary = summary;
+	}
+	
+	/**
+	 * Open a channel over the split a summary file describes.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @return The channel, positioned at the start.
+	 * @throws IOException If the summary could not be read.
+	 */
+	public static SplitChannel open(Path inputPath) throws IOException
+	{
+		return new SplitChannel(inputPath, SummaryFormat.read(inputPath));
+	}
+	
+	/**
+	 * Set how many chunks are kept open at once, closing the least recently used beyond it.
+	 * @param cacheSize The amount of chunks, at least 1.
+	 * @return This channel.
+	 */
+	public synchronized SplitChannel setCacheSize(int cacheSize)
+	{
+		if (cacheSize < 1)
+			throw new IllegalArgumentException("Cache size must be positive!");
+		this.cacheSize = cacheSize;
+		return this;
+	}
+	
+	/**
+	 * Set whether every chunk is hashed and checked against the summary the first time it is read from.
+	 * @param verify True to verify chunks.
+	 * @return This channel.
+	 */
+	public synchronized SplitChannel setVerify(boolean verify)
+	{
+		this.verify = verify;
+		return this;
+	}
+	
+	/**
+	 * The summary of the split being read.
+	 * @return The summary.
+	 */
+	public SplitSummary getSummary()
+	{
+		return summary;
+	}
+	
+	/**
+	 * Read from the current position, continuing into the following chunks until the buffer is full or the file ends.
+	 * @param dst The buffer to read into.
+	 * @return The amount of bytes read, or -1 if the position is at or past the end.
+	 * @throws IOException If a chunk could not be read, is shorter than expected or fails verification.
+	 */
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException
+	{
+		ensureOpen();
+		if (position >= summary.getTotalSize())
+			return -1;
+		
+		int read = 0;
+		while (dst.hasRemaining() && position < summary.getTotalSize())
+		{
+			final int index = summary.getChunkIndex(position);
+			final long chunkPosition = position - summary.getChunkOffset(index);
+			final int length = (int) Math.min(dst.remaining(), summary.getChunkLength(index) - chunkPosition);
+			
+			// Never read past the end of the chunk
+			final int limit = dst.limit();
+			dst.limit(dst.position() + length);
+			final int chunkRead;
+			try
+			{
+				chunkRead = chunk(index).read(dst, chunkPosition);
+			} finally
+			{
+				dst.limit(limit);
+			}
+			if (chunkRead < 0)
+				throw new EOFException("Chunk #" + index + " ended before its expected length!");
+			
+			position += chunkRead;
+			read += chunkRead;
+		}
+		return read;
+	}
+	
+	@Override
+	public int write(ByteBuffer src)
+	{
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public synchronized long position() throws IOException
+	{
+		ensureOpen();
+		return position;
+	}
+	
+	@Override
+	public synchronized SplitChannel position(long newPosition) throws IOException
+	{
+		ensureOpen();
+		if (newPosition < 0)
+			throw new IllegalArgumentException("Position cannot be negative!");
+		position = newPosition;
+		return this;
+	}
+	
+	@Override
+	public long size() throws IOException
+	{
+		ensureOpen();
+		return summary.getTotalSize();
+	}
+	
+	@Override
+	public SplitChannel truncate(long size)
+	{
+		throw new NonWritableChannelException();
+	}
+	
+	@Override
+	public synchronized boolean isOpen()
+	{
+		return open;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (!open)
+			return;
+		open = false;
+		IOException exception = null;
+		for (OpenChunk chunk : openChunks.values())
+		{
+			try
+			{
+				chunk.close();
+			} catch (IOException e)
+			{
+				if (exception == null)
+					exception = e;
+				else
+					exception.addSuppressed(e);
+			}
+		}
+		openChunks.clear();
+		if (exception != null)
+			throw exception;
+	}
+	
+	/**
+	 * Get an open chunk, opening and verifying it if it is not cached and evicting the least recently used.
+	 * @param index The chunk's index.
+	 * @return The open chunk.
+	 * @throws IOException If the chunk could not be opened or fails verification.
+	 */
+	private OpenChunk chunk(int index) throws IOException
+	{
+		final OpenChunk cached = openChunks.get(index);
+		if (cached != null)
+			return cached;
+		
+		final Path chunkPath = chunkPath(index);
+		if (verify && !verified.get(index))
+		{
+			verifyChunk(index, chunkPath);
+			verified.set(index);
+		}
+		final OpenChunk chunk = new OpenChunk(index, chunkPath);
+		openChunks.put(index, chunk);
+		
+		final Iterator<Map.Entry<Integer, OpenChunk>> iterator = openChunks.entrySet().iterator();
+		while (openChunks.size() > cacheSize)
+		{
+			final OpenChunk eldest = iterator.next().getValue();
+			iterator.remove();
+			eldest.close();
+		}
+		return chunk;
+	}
+	
+	/**
+	 * Check a chunk's stored size and checksum against the summary.
+	 * @param index The chunk's index.
+	 * @param chunkPath The chunk's path.
+	 * @throws IOException If the chunk could not be read, or does not match.
+	 */
+	private void verifyChunk(int index, Path chunkPath) throws IOException
+	{
+		if (Files.size(chunkPath) != summary.getStoredLength(index))
+			throw new IOException("Chunk #" + index + " has a size of " + Files.size(chunkPath) + " B instead of the expected " + summary.getStoredLength(index) + " B!");
+		
+		final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+		try (final ReadableByteChannel inputChannel = summary.getCodec().decompress(FileChannel.open(chunkPath, StandardOpenOption.READ)))
+		{
+			Main.digestChannel(inputChannel, summary.getChunkLength(index), digest, scratch());
+		}
+		if (!MessageDigest.isEqual(digest.digest(), summary.getChecksum(index)))
+			throw new IOException("Chunk #" + index + " does not match its checksum, it should be resent!");
+	}
+	
+	/**
+	 * Resolves the path of a chunk next to the summary file.
+	 * @param index The chunk's index.
+	 * @return The chunk's path.
+	 */
+	private Path chunkPath(int index)
+	{
+		return Paths.get(inputPath.getParent() == null ? "" : inputPath.getParent().toString(), summary.getChunkFilename(index));
+	}
+	
+	/**
+	 * The buffer used for hashing and skipping through compressed chunks, allocated on first use.
+	 * @return The buffer.
+	 */
+	private ByteBuffer scratch()
+	{
+		if (scratch == null)
+			scratch = ByteBuffer.allocate((int) Math.min(Main.BUFFER, summary.getChunkSize()));
+		return scratch;
+	}
+	
+	private void ensureOpen() throws ClosedChannelException
+	{
+		if (!open)
+			throw new ClosedChannelException();
+	}
+	
+	/**
+	 * A chunk's open file, read positionally if stored as is, or as a stream tracking its position if compressed.
+	 */
+	private class OpenChunk implements Closeable
+	{
+		private final int index;
+		private final Path chunkPath;
+		private final FileChannel file;
+		private ReadableByteChannel stream;
+		private long streamPosition;
+		
+		OpenChunk(int index, Path chunkPath) throws IOException
+		{
+			this.index = index;
+			this.chunkPath = chunkPath;
+			file = summary.isCompressed() ? null : FileChannel.open(chunkPath, StandardOpenOption.READ);
+		}
+		
+		/**
+		 * Read from a position within the chunk's original data.
+		 * @param dst The buffer to read into, limited to the chunk's end.
+		 * @param chunkPosition The position within the chunk.
+		 * @return The amount of bytes read, or -1 if the chunk's data ended.
+		 * @throws IOException If the chunk could not be read.
+		 */
+		int read(ByteBuffer dst, long chunkPosition) throws IOException
+		{
+			if (file != null)
+				return file.read(dst, chunkPosition);
+			
+			// Restart to go backwards, skip to go forwards
+			if (stream == null || chunkPosition < streamPosition)
+			{
+				close();
+				stream = summary.getCodec().decompress(FileChannel.open(chunkPath, StandardOpenOption.READ));
+				streamPosition = 0;
+			}
+			final ByteBuffer skipBuffer = scratch();
+			while (streamPosition < chunkPosition)
+			{
+				skipBuffer.clear().limit((int) Math.min(skipBuffer.capacity(), chunkPosition - streamPosition));
+				final int skipped = stream.read(skipBuffer);
+				if (skipped < 0)
+					throw new EOFException("Chunk #" + index + " ended before its expected length!");
+				streamPosition += skipped;
+			}
+			
+			final int read = stream.read(dst);
+			if (read > 0)
+				streamPosition += read;
+			return read;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if (file != null)
+				file.close();
+			if (stream != null)
+			{
+				stream.close();
+				stream = null;
+			}
+		}
+	}
+}
@@ -1,14 +1,29 @@
 package main;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.security.DigestInputStream;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import me.tongfei.progressbar.ProgressBar;
 import me.tongfei.progressbar.ProgressBarBuilder;
@@ -22,18 +37,241 @@ public class SplitHelper
 {
 	private final Path sourceFile, outputPath;
 	private final SplitSummary summary;
-	private final MessageDigest inputDigest = Main.digestSupplier(), outputDigest = Main.digestSupplier();
+	private final MessageDigest inputDigest, outputDigest;
+	private int threads = 1;
+	private TransferMode mode = TransferMode.STREAM;
+	private BufferPool bufferPool;
+	private boolean merkle;
+	private ProgressJournal journal;
+	private SplitSummary previous;
+	// Chunks rewritten because they differ from the previous split
+	private final BitSet changed = new BitSet();
+	private int queueDepth = 4;
+	private Pipeline pipeline;
+	private JobListener listener = JobListener.NONE;
+	private JobMetrics metrics;
+	private ErrorPolicy errorPolicy = ErrorPolicy.FAIL;
+	private int attempts = 3;
+	private long retryDelay = 1000;
+	private boolean showProgress = true;
 	/**
 	 * Construct a helper.
 	 * @param sourceFile The source file to split.
 	 * @param outputPath Path to export the split chunks.
-	 * @param summary The summary file to use.
+	 * @param summary The summary file to use, its block size set if block checksums are kept.
 	 */
 	public SplitHelper(Path sourceFile, Path outputPath, SplitSummary summary)
 	{
 		this.sourceFile = sourceFile;
 		this.outputPath = outputPath;
 		this.summary = summary;
+		inputDigest = Main.digestSupplier(summary.getAlgorithm());
+		outputDigest = BlockDigest.forChunks(summary);
+		metrics = new JobMetrics(summary.getFilename());
+	}
+	
+	/**
+	 * Set the amount of worker threads to split with.
+	 * @param threads The amount of threads, 1 uses the sequential process.
+	 * @return This helper.
+	 */
+	public SplitHelper setThreads(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be positive!");
+		this.threads = threads;
+		return this;
+	}
+	
+	/**
+	 * Set how chunk data is moved out of the source.
+	 * {@link TransferMode#PIPELINED} runs its own threads, so it falls back to per-chunk workers with more threads or a journal.
+	 * @param mode The transfer mode to use.
+	 * @return This helper.
+	 */
+	public SplitHelper setMode(TransferMode mode)
+	{
+		this.mode = mode;
+		return this;
+	}
+	
+	public TransferMode getMode()
+	{
+		return mode;
+	}
+	
+	/**
+	 * Set the pool every copy loop takes its buffers from.
+	 * @param bufferPool The pool to use, or null for one sized to the chunks and thread count.
+	 * @return This helper.
+	 */
+	public SplitHelper setBufferPool(BufferPool bufferPool)
+	{
+		this.bufferPool = bufferPool;
+		return this;
+	}
+	
+	/**
+	 * Set whether the whole file is summarized by a Merkle root of the chunk checksums instead of a sequential checksum.
+	 * @param merkle True to store a Merkle root.
+	 * @return This helper.
+	 */
+	public SplitHelper setMerkle(boolean merkle)
+	{
+		this.merkle = merkle;
+		return this;
+	}
+	
+	/**
+	 * Set the journal to record completed chunks to, making the split resumable.
+	 * Chunks an earlier run completed are skipped, and any other existing chunk is overwritten.
+	 * @param journal The journal to use, or null to not keep one.
+	 * @return This helper.
+	 */
+	public SplitHelper setJournal(ProgressJournal journal)
+	{
+		this.journal = journal;
+		return this;
+	}
+	
+	/**
+	 * Set the summary of an earlier split of the same file into the same path, making the split incremental.
+	 * Every chunk is hashed first and only rewritten if its checksum differs from the earlier one or its file is missing,
+	 * and chunks past the end of the new source are deleted.
+	 * @param previous The earlier summary, or null to write every chunk.
+	 * @return This helper.
+	 * @throws IllegalArgumentException If the earlier split used a different chunk size, checksum algorithm or codec, or was content-defined.
+	 */
+	public SplitHelper setPrevious(SplitSummary previous)
+	{
+		if (previous != null && (previous.isContentDefined() || previous.getChunkSize() != summary.getChunkSize()
+				|| previous.getAlgorithm() != summary.getAlgorithm() || previous.getCodec() != summary.getCodec()))
+			throw new IllegalArgumentException("The earlier split must have the same chunk size, checksum algorithm and codec to be updated!");
+		this.previous = previous;
+		return this;
+	}
+	
+	/**
+	 * The summary of the earlier split being updated.
+	 * @return The earlier summary, or null if every chunk is written.
+	 */
+	public SplitSummary getPrevious()
+	{
+		return previous;
+	}
+	
+	/**
+	 * The chunks an incremental split rewrote, including chunks the earlier split did not have.
+	 * @return The indices of the changed chunks, in ascending order.
+	 */
+	public synchronized int[] getChangedChunks()
+	{
+		return changed.stream().toArray();
+	}
+	
+	/**
+	 * Set how many buffers each queue of the pipelined mode can hold.
+	 * @param queueDepth The queue depth.
+	 * @return This helper.
+	 */
+	public SplitHelper setQueueDepth(int queueDepth)
+	{
+		if (queueDepth < 1)
+			throw new IllegalArgumentException("Queue depth must be positive!");
+		this.queueDepth = queueDepth;
+		return this;
+	}
+	
+	/**
+	 * Set the listener to report progress and problems to.
+	 * @param listener The listener to use.
+	 * @return This helper.
+	 */
+	public SplitHelper setListener(JobListener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+	
+	/**
+	 * Set the metrics to record timings and counters to, instead of the helper's own.
+	 * @param metrics The metrics to record to, may be shared with other jobs.
+	 * @return This helper.
+	 */
+	public SplitHelper setMetrics(JobMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+	
+	public JobMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Set how a chunk that fails to be written is handled.
+	 * Only chunks written concurrently can be retried, and no chunk can be skipped.
+	 * @param errorPolicy The policy to apply, unless the listener decides otherwise.
+	 * @return This helper.
+	 */
+	public SplitHelper setErrorPolicy(ErrorPolicy errorPolicy)
+	{
+		this.errorPolicy = errorPolicy;
+		return this;
+	}
+	
+	/**
+	 * Set how often a chunk is attempted when retrying.
+	 * @param attempts The amount of attempts, at least 1.
+	 * @param retryDelay Milliseconds to wait before each retry, multiplied by the attempts so far.
+	 * @return This helper.
+	 */
+	public SplitHelper setRetries(int attempts, long retryDelay)
+	{
+		if (attempts < 1 || retryDelay < 0)
+			throw new IllegalArgumentException("Attempts must be positive and the delay cannot be negative!");
+		this.attempts = attempts;
+		this.retryDelay = retryDelay;
+		return this;
+	}
+	
+	/**
+	 * Set whether progress is drawn on the console.
+	 * @param showProgress True to draw progress bars.
+	 * @return This helper.
+	 */
+	public SplitHelper setShowProgress(boolean showProgress)
+	{
+		this.showProgress = showProgress;
+		return this;
+	}
+	
+	/**
+	 * The summary being filled by the split.
+	 * @return The summary.
+	 */
+	public SplitSummary getSummary()
+	{
+		return summary;
+	}
+	
+	/**
+	 * The pool the split took its buffers from.
+	 * @return The pool, or null if not executed yet.
+	 */
+	public BufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+	
+	/**
+	 * The pipeline of the last pipelined split, for its stall times.
+	 * @return The pipeline, or null if the pipelined mode was not used.
+	 */
+	public Pipeline getPipeline()
+	{
+		return pipeline;
 	}
 	
 	/**
@@ -46,7 +284,8 @@ public class SplitHelper
 		if (summary.getChunkAmount() <= 0)
 			throw new IllegalStateException("Illegal chunk amount detected!");
 		
-		final ProgressBarBuilder barBuilder = new ProgressBarBuilder()
+		// No builder means no bar is drawn
+		final ProgressBarBuilder barBuilder = !showProgress ? null : new ProgressBarBuilder()
 				.setUnit("MB", Main.MB)
 				.showSpeed()
 				.setInitialMax(summary.getTotalSize())
@@ -54,64 +293,585 @@ public class SplitHelper
 		
 		// Create parent directories if they don't exist
 		Files.createDirectories(outputPath);
+		final boolean pipelined = mode == TransferMode.PIPELINED && threads == 1 && journal == null && previous == null;
+		// One buffer per worker, plus one for the whole-file checksum
+		if (bufferPool == null)
+			bufferPool = new BufferPool((int) Math.min(Main.BUFFER, summary.getChunkSize()), pipelined ? Pipeline.bufferCount(queueDepth) : threads + 1, false);
+		metrics.setBufferPool(bufferPool);
+		
+		if (pipelined)
+		{
+			executePipelined(barBuilder);
+			return;
+		}
+		
+		if (threads > 1 || mode != TransferMode.STREAM || journal != null || previous != null || summary.isCompressed())
+		{
+			executeParallel(barBuilder);
+			return;
+		}
 		
 		try (final InputStream fileStream = Files.newInputStream(sourceFile);
-				final InputStream inputStream = new DigestInputStream(ProgressBar.wrap(fileStream, barBuilder), inputDigest);
-				final ProgressBar outputBar = barBuilder.setTaskName("Writing...").setInitialMax(summary.getChunkSize()).build())
+				final InputStream progressStream = barBuilder == null ? fileStream : ProgressBar.wrap(fileStream, barBuilder);
+				final ReadableByteChannel inputChannel = Channels.newChannel(merkle ? progressStream : new DigestInputStream(progressStream, inputDigest));
+				final Progress progress = new Progress(barBuilder == null ? null : barBuilder.setTaskName("Writing...").setInitialMax(summary.getChunkSize()), listener, metrics))
 		{
 			final long sourceSize = Files.size(sourceFile);
 			long read = 0;
 			int index = 1;
 			
 			while (read < sourceSize)
-				read += writeChunk(index++, Math.min(summary.getChunkSize(), sourceSize - read), inputStream, outputBar); // Should always be the same as the chunk size, but done for shorter code.
+			{
+				final long start = metrics.chunkStarted();
+				final long written = writeChunk(index, Math.min(summary.getChunkSize(), sourceSize - read), inputChannel, progress); // Should always be the same as the chunk size, but done for shorter code.
+				metrics.chunkFinished(summary.getFilename(), index++, start, written);
+				read += written;
+			}
 			
 			// Register source file checksum
-			summary.setTotalFileChecksum(inputDigest.digest());
+			if (merkle)
+				summary.setMerkleRoot(merkleRoot());
+			else
+				summary.setTotalFileChecksum(inputDigest.digest());
+		}
+	}
+	
+	/**
+	 * Split all chunks concurrently, each worker reading its own byte range of the source.
+	 * Used for any thread count when a transfer mode other than {@link TransferMode#STREAM}, a journal, an earlier split or compression is set.
+	 * The whole-file checksum is calculated by a dedicated sequential reader running alongside the workers,
+	 * unless a Merkle root is stored instead.
+	 * @param barBuilder The builder for the shared progress bar, or null to not draw one.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private void executeParallel(ProgressBarBuilder barBuilder) throws IOException
+	{
+		// One extra thread for the whole-file checksum so it never waits behind the chunk workers
+		final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+		final Recovery recovery = new Recovery(listener, errorPolicy, attempts, retryDelay);
+		try (final FileChannel source = FileChannel.open(sourceFile, StandardOpenOption.READ);
+				final Progress progress = new Progress(barBuilder, listener, metrics))
+		{
+			final Future<byte[]> totalSum = merkle ? null : executor.submit(() -> Main.digestFile(sourceFile, summary.getTotalSize(), Main.digestSupplier(summary.getAlgorithm()), bufferPool));
+			final List<Future<Long>> futures = new ArrayList<Future<Long>>(summary.getChunkAmount());
+			for (int i = 1; i <= summary.getChunkAmount(); i++)
+			{
+				final int index = i;
+				// Keep chunks an earlier run completed
+				if (isJournaled(index))
+				{
+					summary.setChecksum(index, journal.getChecksum(index));
+					progress.stepBy(summary.getChunkLength(index));
+					// The journal only holds whole chunk checksums
+					if (summary.hasBlocks())
+						futures.add(executor.submit(() ->
+						{
+							digestRange(index, source);
+							return 0L;
+						}));
+					continue;
+				}
+				futures.add(executor.submit(() -> retryChunk(index, source, progress, recovery)));
+			}
+			
+			Main.awaitAll(futures);
+			if (previous != null)
+				deleteStaleChunks();
+			// Register source file checksum
+			if (merkle)
+				summary.setMerkleRoot(merkleRoot());
+			else
+				summary.setTotalFileChecksum(Main.await(totalSum));
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Split with separate reader, hasher and writer threads, so reading the source overlaps with hashing and writing.
+	 * @param barBuilder The builder for the progress bar, or null to not draw one.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	private void executePipelined(ProgressBarBuilder barBuilder) throws IOException
+	{
+		pipeline = new Pipeline(bufferPool, queueDepth).setMetrics(metrics, summary.getFilename());
+		try (final FileChannel source = FileChannel.open(sourceFile, StandardOpenOption.READ);
+				final ChunkWriter writer = new ChunkWriter();
+				final Progress progress = new Progress(barBuilder, listener, metrics))
+		{
+			final Pipeline.Reader reader = new Pipeline.Reader()
+			{
+				private long position;
+				
+				@Override
+				public int read(ByteBuffer buffer) throws IOException
+				{
+					if (position >= summary.getTotalSize())
+						return 0;
+					final int index = (int) (position / summary.getChunkSize()) + 1;
+					// Stop at the end of the chunk
+					buffer.limit((int) Math.min(buffer.capacity(), summary.getChunkOffset(index) + summary.getChunkLength(index) - position));
+					while (buffer.hasRemaining())
+						if (source.read(buffer, position + buffer.position()) < 0)
+							throw new EOFException("Source file ended before chunk #" + index + " was complete!");
+					position += buffer.position();
+					return index;
+				}
+			};
+			
+			final byte[] totalSum = pipeline.run(reader, outputDigest, merkle ? null : inputDigest, (index, checksum) ->
+			{
+				summary.setChecksum(index, checksum);
+				registerBlocks(index, outputDigest);
+			}, writer, progress);
+			// Register source file checksum
+			if (merkle)
+				summary.setMerkleRoot(merkleRoot());
+			else
+				summary.setTotalFileChecksum(totalSum);
+		}
+	}
+	
+	/**
+	 * Writing stage of the pipelined split, moving on to the next chunk's file whenever the index changes.
+	 */
+	private class ChunkWriter implements Pipeline.Writer, Closeable
+	{
+		private int current;
+		private FileChannel channel;
+		private WritableByteChannel output;
+		
+		@Override
+		public void write(int index, ByteBuffer buffer) throws IOException
+		{
+			if (index != current)
+			{
+				close();
+				channel = openChunk(outputPath.resolve(summary.getChunkFilename(index)));
+				output = summary.isCompressed() ? summary.getCodec().compress(channel) : channel;
+				current = index;
+			}
+			while (buffer.hasRemaining())
+				output.write(buffer);
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if (channel == null)
+				return;
+			try
+			{
+				output.close();
+				if (summary.isCompressed())
+					summary.setCompressedSize(current, channel.size());
+			} finally
+			{
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+	
+	/**
+	 * Checks if a chunk was completed by an earlier run and is still intact on disk.
+	 * @param index The chunk's index.
+	 * @return True if the chunk can be skipped, false if it needs to be written.
+	 * @throws IOException If the chunk's size could not be read.
+	 */
+	private boolean isJournaled(int index) throws IOException
+	{
+		if (journal == null || !journal.isComplete(index))
+			return false;
+		final Path chunkPath = outputPath.resolve(summary.getChunkFilename(index));
+		if (!Files.exists(chunkPath))
+			return false;
+		// A compressed chunk's size is only known from its file
+		if (summary.isCompressed())
+		{
+			summary.setCompressedSize(index, Files.size(chunkPath));
+			return true;
+		}
+		return Files.size(chunkPath) == summary.getChunkLength(index);
+	}
+	
+	/**
+	 * Write a chunk concurrently, writing it again if it fails and the error policy allows, safe to call from multiple threads.
+	 * @param index The chunk's index.
+	 * @param source The source file's channel, only used for positional reads.
+	 * @param progress The shared progress to note to.
+	 * @param recovery The error policy to apply.
+	 * @return The amount of bytes written, should be the same as the chunk's size.
+	 * @throws IOException If the chunk could not be written and the policy stops the split.
+	 */
+	private long retryChunk(int index, FileChannel source, Progress progress, Recovery recovery) throws IOException
+	{
+		for (int attempt = 1; ; attempt++)
+		{
+			try
+			{
+				final long start = metrics.chunkStarted();
+				final long written = previous == null ? writeChunk(index, source, progress) : updateChunk(index, source, progress);
+				metrics.chunkFinished(summary.getFilename(), index, start, written);
+				return written;
+			} catch (ClosedByInterruptException | FileAlreadyExistsException e)
+			{
+				// Retrying cannot help, and an existing chunk is not this split's to delete
+				throw e;
+			} catch (IOException e)
+			{
+				final String message = "Chunk #" + index + " could not be written: " + e;
+				// A split cannot leave a chunk out
+				if (!recovery.retry(index, message, attempt, e))
+					throw new ChunkException(index, message, e);
+				// Start over without the partial chunk
+				Files.deleteIfExists(outputPath.resolve(summary.getChunkFilename(index)));
+			}
+		}
+	}
+	
+	/**
+	 * Write a chunk of an incremental split only if it differs from the earlier split, safe to call from multiple threads.
+	 * @param index The chunk's index.
+	 * @param source The source file's channel, only used for positional reads.
+	 * @param progress The shared progress to note to.
+	 * @return The chunk's size.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private long updateChunk(int index, FileChannel source, Progress progress) throws IOException
+	{
+		final long size = summary.getChunkLength(index);
+		final Path chunkPath = outputPath.resolve(summary.getChunkFilename(index));
+		// Only chunks whose file is still whole are worth hashing
+		if (index <= previous.getChunkAmount() && previous.getChunkLength(index) == size && Files.exists(chunkPath) && Files.size(chunkPath) == previous.getStoredLength(index))
+		{
+			final byte[] checksum = digestRange(index, source);
+			if (MessageDigest.isEqual(checksum, previous.getChecksum(index)))
+			{
+				registerChunk(index, checksum);
+				progress.stepBy(size);
+				return size;
+			}
+		}
+		
+		synchronized (this)
+		{
+			changed.set(index);
+		}
+		return writeChunk(index, source, progress);
+	}
+	
+	/**
+	 * Hash a chunk's byte range of the source without writing it, registering its block checksums if kept.
+	 * @param index The chunk's index.
+	 * @param source The source file's channel, only used for positional reads.
+	 * @return The chunk's checksum.
+	 * @throws IOException If the source could not be read.
+	 */
+	private byte[] digestRange(int index, FileChannel source) throws IOException
+	{
+		final MessageDigest digest = BlockDigest.forChunks(summary);
+		final long offset = summary.getChunkOffset(index), size = summary.getChunkLength(index);
+		final ByteBuffer buffer = bufferPool.acquire();
+		try
+		{
+			for (long processed = 0; processed < size; processed += buffer.limit())
+			{
+				buffer.clear().limit((int) Math.min(buffer.capacity(), size - processed));
+				long time = System.nanoTime();
+				while (buffer.hasRemaining())
+					if (source.read(buffer, offset + processed + buffer.position()) < 0)
+						throw new EOFException("Source file ended before chunk #" + index + " was complete!");
+				buffer.flip();
+				time = metrics.record(JobMetrics.Stage.READ, time, buffer.limit());
+				digest.update(buffer);
+				metrics.record(JobMetrics.Stage.HASH, time, buffer.limit());
+			}
+		} finally
+		{
+			bufferPool.release(buffer);
+		}
+		final byte[] checksum = digest.digest();
+		registerBlocks(index, digest);
+		return checksum;
+	}
+	
+	/**
+	 * Delete the chunks of the earlier split that are past the end of the new source.
+	 * @throws IOException If a chunk could not be deleted.
+	 */
+	private void deleteStaleChunks() throws IOException
+	{
+		for (int index = summary.getChunkAmount() + 1; index <= previous.getChunkAmount(); index++)
+			Files.deleteIfExists(outputPath.resolve(previous.getChunkFilename(index)));
+	}
+	
+	/**
+	 * Open a chunk's file for writing, replacing leftovers of an interrupted run if journaled, or an outdated chunk if incremental.
+	 * @param chunkPath The chunk's path.
+	 * @return The chunk's channel.
+	 * @throws IOException If the chunk cannot be opened, or already exists while neither journaled nor incremental.
+	 */
+	private FileChannel openChunk(Path chunkPath) throws IOException
+	{
+		return journal == null && previous == null ? FileChannel.open(chunkPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+				: FileChannel.open(chunkPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+	
+	/**
+	 * Finish writing a chunk, completing any compressed data and forcing it to disk if journaled.
+	 * @param chunkChannel The chunk file's channel.
+	 * @param outputChannel The channel the data was written through, the chunk's own or a compressing one.
+	 * @param size The chunk's size.
+	 * @throws IOException If the chunk could not be finished.
+	 */
+	private void finishChunk(FileChannel chunkChannel, WritableByteChannel outputChannel, long size) throws IOException
+	{
+		long time = System.nanoTime();
+		if (outputChannel != chunkChannel)
+		{
+			outputChannel.close();
+			time = metrics.record(JobMetrics.Stage.WRITE, time, 0);
+		}
+		// Journaled chunks must be on disk before they are recorded
+		if (journal != null)
+		{
+			chunkChannel.force(false);
+			metrics.record(JobMetrics.Stage.SYNC, time, size);
+		}
+	}
+	
+	/**
+	 * Register a completed chunk's checksum and compressed size, recording it to the journal if there is one.
+	 * @param index The chunk's index.
+	 * @param checksum The chunk's checksum.
+	 * @throws IOException If the journal could not be written.
+	 */
+	private void registerChunk(int index, byte[] checksum) throws IOException
+	{
+		summary.setChecksum(index, checksum);
+		if (summary.isCompressed())
+			summary.setCompressedSize(index, Files.size(outputPath.resolve(summary.getChunkFilename(index))));
+		if (journal != null)
+			journal.record(index, checksum);
+	}
+	
+	/**
+	 * Register the block checksums of a chunk, if kept, once its digest is complete.
+	 * @param index The chunk's index.
+	 * @param digest The digest the chunk was hashed with.
+	 */
+	private void registerBlocks(int index, MessageDigest digest)
+	{
+		if (digest instanceof BlockDigest)
+			summary.setBlockChecksums(index, ((BlockDigest) digest).getBlockChecksums());
+	}
+	
+	/**
+	 * Calculate the Merkle root of every registered chunk checksum.
+	 * @return The root hash.
+	 */
+	private byte[] merkleRoot()
+	{
+		final byte[][] leaves = new byte[summary.getChunkAmount()][];
+		for (int index = 1; index <= leaves.length; index++)
+			leaves[index - 1] = summary.getChecksum(index);
+		return MerkleTree.root(summary.getAlgorithm(), leaves);
+	}
+	
+	/**
+	 * Write an individual chunk from its position in the source, safe to call from multiple threads.
+	 * @param index The chunk's index.
+	 * @param source The source file's channel, only used for positional reads.
+	 * @param progress The shared progress to note to.
+	 * @return The amount of bytes written, should be the same as the chunk's size.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private long writeChunk(int index, FileChannel source, Progress progress) throws IOException
+	{
+		// Compressed data has to pass through the heap
+		if (mode == TransferMode.ZERO_COPY && !summary.isCompressed())
+			return transferChunk(index, source, progress);
+		if (mode == TransferMode.MAPPED)
+			return mapChunk(index, source, progress);
+		
+		final MessageDigest digest = BlockDigest.forChunks(summary);
+		final long offset = summary.getChunkOffset(index), size = summary.getChunkLength(index);
+		final Path chunkPath = outputPath.resolve(summary.getChunkFilename(index));
+		final ByteBuffer buffer = bufferPool.acquire();
+		long processed = 0;
+		try (final FileChannel chunkChannel = openChunk(chunkPath);
+				final WritableByteChannel outputChannel = summary.isCompressed() ? summary.getCodec().compress(chunkChannel) : chunkChannel)
+		{
+			while (processed < size)
+			{
+				buffer.clear().limit((int) Math.min(buffer.capacity(), size - processed));
+				long time = System.nanoTime();
+				if (source.read(buffer, offset + processed) < 0)
+					throw new EOFException("Source file ended before chunk #" + index + " was complete!");
+				buffer.flip();
+				time = metrics.record(JobMetrics.Stage.READ, time, buffer.limit());
+				
+				digest.update(buffer);
+				time = metrics.record(JobMetrics.Stage.HASH, time, buffer.limit());
+				buffer.rewind();
+				while (buffer.hasRemaining())
+					outputChannel.write(buffer);
+				metrics.record(JobMetrics.Stage.WRITE, time, buffer.limit());
+				
+				progress.stepBy(buffer.limit());
+				processed += buffer.limit();
+			}
+			finishChunk(chunkChannel, outputChannel, size);
+		} finally
+		{
+			bufferPool.release(buffer);
 		}
+		
+		// Add to registry
+		final byte[] checksum = digest.digest();
+		registerBlocks(index, digest);
+		registerChunk(index, checksum);
+		return processed;
+	}
+	
+	/**
+	 * Transfer an individual chunk from its position in the source without copying through the heap.
+	 * The chunk is hashed separately once written.
+	 * @param index The chunk's index.
+	 * @param source The source file's channel, only used for positional transfers.
+	 * @param progress The shared progress to note to.
+	 * @return The amount of bytes written, should be the same as the chunk's size.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private long transferChunk(int index, FileChannel source, Progress progress) throws IOException
+	{
+		final long offset = summary.getChunkOffset(index), size = summary.getChunkLength(index);
+		final Path chunkPath = outputPath.resolve(summary.getChunkFilename(index));
+		long processed = 0;
+		try (final FileChannel outputChannel = openChunk(chunkPath))
+		{
+			while (processed < size)
+			{
+				final long time = System.nanoTime();
+				final long transferred = source.transferTo(offset + processed, size - processed, outputChannel);
+				if (transferred <= 0)
+					throw new EOFException("Source file ended before chunk #" + index + " was complete!");
+				metrics.record(JobMetrics.Stage.WRITE, time, transferred);
+				
+				progress.stepBy(transferred);
+				processed += transferred;
+			}
+			// Journaled chunks must be on disk before they are recorded
+			if (journal != null)
+			{
+				final long time = System.nanoTime();
+				outputChannel.force(false);
+				metrics.record(JobMetrics.Stage.SYNC, time, size);
+			}
+		}
+		
+		// Add to registry, reading the chunk back counts as hashing
+		final long time = System.nanoTime();
+		final MessageDigest digest = BlockDigest.forChunks(summary);
+		final byte[] checksum = Main.digestFile(chunkPath, size, digest, bufferPool);
+		metrics.record(JobMetrics.Stage.HASH, time, size);
+		registerBlocks(index, digest);
+		registerChunk(index, checksum);
+		return processed;
+	}
+	
+	/**
+	 * Write an individual chunk directly from a memory mapped window of the source.
+	 * @param index The chunk's index.
+	 * @param source The source file's channel, only used for mapping.
+	 * @param progress The shared progress to note to.
+	 * @return The amount of bytes written, should be the same as the chunk's size.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private long mapChunk(int index, FileChannel source, Progress progress) throws IOException
+	{
+		final MessageDigest digest = BlockDigest.forChunks(summary);
+		final long size = summary.getChunkLength(index);
+		final Path chunkPath = outputPath.resolve(summary.getChunkFilename(index));
+		final MappedByteBuffer window = source.map(MapMode.READ_ONLY, summary.getChunkOffset(index), size);
+		try (final FileChannel chunkChannel = openChunk(chunkPath);
+				final WritableByteChannel outputChannel = summary.isCompressed() ? summary.getCodec().compress(chunkChannel) : chunkChannel)
+		{
+			// Hash and write in buffer sized steps so each page is only faulted in once
+			while (window.hasRemaining())
+			{
+				final int step = Math.min(bufferPool.getBufferSize(), window.remaining());
+				final ByteBuffer slice = window.duplicate();
+				slice.limit(slice.position() + step);
+				
+				// Page faults are counted as hashing, since the digest touches the pages first
+				long time = System.nanoTime();
+				digest.update(slice.duplicate());
+				time = metrics.record(JobMetrics.Stage.HASH, time, step);
+				while (slice.hasRemaining())
+					outputChannel.write(slice);
+				metrics.record(JobMetrics.Stage.WRITE, time, step);
+				
+				window.position(slice.position());
+				progress.stepBy(step);
+			}
+			finishChunk(chunkChannel, outputChannel, size);
+		}
+		
+		// Add to registry
+		final byte[] checksum = digest.digest();
+		registerBlocks(index, digest);
+		registerChunk(index, checksum);
+		return size;
 	}
 	
 	/**
 	 * Write an individual chunk.
 	 * @param index The chunk's index.
 	 * @param size Size of the chunk.
-	 * @param source The source file's stream.
-	 * @param bar The progress bar to note progress to.
+	 * @param source The source file's channel.
+	 * @param progress The progress to note to.
 	 * @return The amount of bytes written, should be the same as the specified size.
 	 * @throws IOException If any exception occurs during the process.
 	 */
-	@SuppressWarnings("resource")
-	private long writeChunk(int index, long size, InputStream source, ProgressBar bar) throws IOException
+	private long writeChunk(int index, long size, ReadableByteChannel source, Progress progress) throws IOException
 	{
 		// Reinitialize progress bar
-		bar.reset().maxHint(size).setExtraMessage(" Chunk #: " + index + '/' + summary.getChunkAmount());
-		bar.refresh();
-		final Path chunkPath = outputPath.resolve(sourceFile + "." + index + ".part");
+		progress.startChunk(size, " Chunk #: " + index + '/' + summary.getChunkAmount());
+		final Path chunkPath = outputPath.resolve(summary.getChunkFilename(index));
+		final ByteBuffer buffer = bufferPool.acquire();
 		long processed = 0;
-		try (final OutputStream outputStream = new DigestOutputStream(Files.newOutputStream(chunkPath, StandardOpenOption.CREATE_NEW), outputDigest))
+		try (final FileChannel outputChannel = openChunk(chunkPath))
 		{
-			// Note to user
-//			System.out.println("Writing chunk #" + index + '/' + summary.getChunkAmount() + "...");
-			
 			while (processed < size)
 			{
-				final int bufferSize = (int) Math.min(Main.BUFFER, size - processed);
-				final byte[] buffer = new byte[bufferSize];
+				buffer.clear().limit((int) Math.min(buffer.capacity(), size - processed));
+				long time = System.nanoTime();
+				if (source.read(buffer) < 0)
+					throw new EOFException("Source file ended before chunk #" + index + " was complete!");
+				buffer.flip();
+				time = metrics.record(JobMetrics.Stage.READ, time, buffer.limit());
 				
-				source.read(buffer);
-				outputStream.write(buffer);
+				outputDigest.update(buffer);
+				time = metrics.record(JobMetrics.Stage.HASH, time, buffer.limit());
+				buffer.rewind();
+				while (buffer.hasRemaining())
+					outputChannel.write(buffer);
+				metrics.record(JobMetrics.Stage.WRITE, time, buffer.limit());
 				
-				bar.stepBy(bufferSize).refresh();
-				
-				processed += bufferSize;
+				progress.stepBy(buffer.limit());
+				processed += buffer.limit();
 			}
-			// Ensure all bytes are written
-			outputStream.flush();
+		} finally
+		{
+			bufferPool.release(buffer);
 		}
 		
-		// Add to registry and note to user
-		summary.addChunkPath(chunkPath, outputDigest.digest());
-//		System.out.println("Wrote chunk #" + index + '/' + summary.getChunkAmount() + '.');
+		// Add to registry
+		summary.setChecksum(index, outputDigest.digest());
+		registerBlocks(index, outputDigest);
 		return processed;
 	}
 	
@@ -3,18 +3,20 @@ package main;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * Class to assist in merging by verifying chunk and full file checksums.
+ * Written to disk with {@link SummaryFormat}, Java serialization is only kept to read older summaries.
  * @author UFFR
  *
  */
@@ -25,68 +27,157 @@ public class SplitSummary implements Serializable
 	 */
 	private static final long serialVersionUID = 98569882255195051L;
 	
-	private transient Map<Path, byte[]> checksumMap = new HashMap<Path, byte[]>();
+	// Every chunk's checksum back to back, addressed by chunk index
+	private transient byte[] checksums;
+	private transient BitSet registered;
+	// Size of every compressed chunk's file, addressed by chunk index, null when not compressed
+	private transient long[] compressedSizes;
+	// End of every content-defined chunk within the source, addressed by chunk index, null when chunks have a fixed size
+	private transient long[] chunkEnds;
+	// Parity chunks per group, 0 when there are none
+	private transient int parity;
+	// Every parity chunk's checksum back to back, addressed by parity index
+	private transient byte[] parityChecksums;
+	private transient BitSet parityRegistered;
+	// Size of the blocks checksummed within every chunk, 0 when only whole chunks are
+	private transient long blockSize;
+	// Every block's checksum back to back, chunk after chunk
+	private transient byte[] blockChecksums;
+	private transient BitSet blocksRegistered;
+	// Files of a packed directory tree in pack order, null when a single file was split
+	private transient List<PackedFile> files;
+	private transient Map<String, PackedFile> filesByPath;
 	
 	private final long totalSize, chunkSize;
 	private final String filename;
 	private final int chunkAmount;
-	private byte[] totalFileChecksum = new byte[0];
+	private byte[] totalFileChecksum = new byte[0], merkleRoot = new byte[0];
+	// Absent from summaries written before it was selectable
+	private final ChecksumAlgorithm algorithm;
+	// Absent from summaries written before compression
+	private final Codec codec;
 	/**
-	 * Construct a new summary.
+	 * Construct a new summary checksummed with SHA-256.
 	 * @param totalSize Size of the source file.
 	 * @param chunkSize Size of the chunks.
 	 * @param filename Name of the source file.
 	 */
 	public SplitSummary(long totalSize, long chunkSize, String filename)
+	{
+		this(totalSize, chunkSize, filename, ChecksumAlgorithm.SHA_256);
+	}
+	
+	/**
+	 * Construct a new summary.
+	 * @param totalSize Size of the source file.
+	 * @param chunkSize Size of the chunks.
+	 * @param filename Name of the source file.
+	 * @param algorithm The algorithm the checksums are calculated with.
+	 */
+	public SplitSummary(long totalSize, long chunkSize, String filename, ChecksumAlgorithm algorithm)
+	{
+		this(totalSize, chunkSize, filename, algorithm, Codec.NONE);
+	}
+	
+	/**
+	 * Construct a new summary of compressed chunks.
+	 * @param totalSize Size of the source file.
+	 * @param chunkSize Size of the chunks before compression.
+	 * @param filename Name of the source file.
+	 * @param algorithm The algorithm the checksums of the uncompressed data are calculated with.
+	 * @param codec The codec every chunk is compressed with.
+	 */
+	public SplitSummary(long totalSize, long chunkSize, String filename, ChecksumAlgorithm algorithm, Codec codec)
 	{
 		this.totalSize = totalSize;
 		this.chunkSize = chunkSize;
 		this.filename = filename;
+		this.algorithm = algorithm;
+		this.codec = codec;
 		
 		chunkAmount = Main.chunkAmount(totalSize, chunkSize);
+		initChecksums();
+	}
+	
+	/**
+	 * Construct a new summary of content-defined chunks, which vary in length and are named by their checksum.
+	 * @param chunkLengths The length of every chunk before compression, in chunk order.
+	 * @param filename Name of the source file.
+	 * @param algorithm The algorithm the checksums of the uncompressed data are calculated with.
+	 * @param codec The codec every chunk is compressed with.
+	 */
+	public SplitSummary(long[] chunkLengths, String filename, ChecksumAlgorithm algorithm, Codec codec)
+	{
+		this.filename = filename;
+		this.algorithm = algorithm;
+		this.codec = codec;
+		
+		chunkAmount = chunkLengths.length;
+		chunkEnds = new long[chunkAmount + 1];
+		long largest = 0;
+		for (int index = 1; index <= chunkAmount; index++)
+		{
+			if (chunkLengths[index - 1] <= 0)
+				throw new IllegalArgumentException("Chunk #" + index + " has a length of " + chunkLengths[index - 1] + " bytes!");
+			chunkEnds[index] = chunkEnds[index - 1] + chunkLengths[index - 1];
+			largest = Math.max(largest, chunkLengths[index - 1]);
+		}
+		totalSize = chunkEnds[chunkAmount];
+		// The largest chunk stands in for the size, so buffers sized from it fit every chunk
+		chunkSize = largest;
+		initChecksums();
 	}
 	
 	private void writeObject(ObjectOutputStream outputStream) throws IOException
 	{
 		outputStream.defaultWriteObject();
-		outputStream.writeObject(checksumMap.keySet().stream().collect(Collectors.toMap(SplitSummary::pathToArray, checksumMap::get)));
+		// Same layout as older versions, keyed by the chunk's path elements
+		final Map<String[], byte[]> savedMap = new HashMap<String[], byte[]>();
+		for (int index = registered.nextSetBit(1); index >= 0; index = registered.nextSetBit(index + 1))
+			savedMap.put(new String[] {getChunkFilename(index)}, getChecksum(index));
+		outputStream.writeObject(savedMap);
 	}
 	
+	@SuppressWarnings("unchecked")
 	private void readObject(ObjectInputStream inputStream) throws ClassNotFoundException, IOException
 	{
 		inputStream.defaultReadObject();
+		initChecksums();
 		final Map<String[], byte[]> savedMap = ((Map<String[], byte[]>) inputStream.readObject());
-		checksumMap = new HashMap<Path, byte[]>(savedMap.keySet().stream().collect(Collectors.toMap(SplitSummary::pathGetter, savedMap::get)));
+		for (Map.Entry<String[], byte[]> entry : savedMap.entrySet())
+			setChecksum(chunkIndex(entry.getKey()[entry.getKey().length - 1]), entry.getValue());
+	}
+	
+	/**
+	 * Allocate the empty checksum table.
+	 */
+	private void initChecksums()
+	{
+		final long tableSize = (long) chunkAmount * getAlgorithm().getDigestLength();
+		// Compressed sizes are written as a table of longs
+		if (chunkAmount < 0 || tableSize > Integer.MAX_VALUE || ((isCompressed() || chunkEnds != null) && chunkAmount * 8L + 1 > Integer.MAX_VALUE))
+			throw new IllegalArgumentException("Too many chunks to hold the checksums of!");
+		checksums = new byte[(int) tableSize];
+		registered = new BitSet(chunkAmount + 1);
+		if (isCompressed())
+			compressedSizes = new long[chunkAmount + 1];
 	}
 	
 	/**
 	 * Checks a summary for any errors.
 	 * @throws IllegalStateException If any error is detected.
 	 */
-	public void checkForErrors() throws Exception
+	public void checkForErrors()
 	{
 		if (totalSize <= 0)
 			throw new IllegalStateException("Source file size noted as negative or zero, this should not be possible!");
 		if (chunkSize <= 0)
 			throw new IllegalStateException("Chunk size noted as negative or zero, this should not be possible!");
-		if (chunkAmount != (int) Math.ceil((double) totalSize / chunkSize))
+		if (!isContentDefined() && chunkAmount != (int) Math.ceil((double) totalSize / chunkSize))
 			throw new IllegalStateException("Chunk amount does not match calculated expectation, this should not be possible!");
 		
-		for (Path path : checksumMap.keySet())
-		{
-			if (!path.getFileName().toString().startsWith(filename) || !path.getFileName().toString().endsWith(".part"))
-				throw new IllegalStateException("Registry contains paths with non-conforming naming conventions, this should not be possible!");
-			if (!Files.exists(path))
-				throw new IllegalStateException("Registry contains missing paths!");
-		}
-		
-		for (byte[] sum : checksumMap.values())
-		{
-			if (sum == null)
-				throw new IllegalStateException("Registry contains one or more null checksums, this should not be possible!");
-			else if (sum.length != 32)
-				throw new IllegalStateException("Registry contains unconventional checksum(s) of bit length, this should not be possible!");
-		}
+		if (registered.cardinality() != chunkAmount)
+			throw new IllegalStateException("Registry is missing chunk checksums, this should not be possible!");
 	}
 	
 	public long getTotalSize()
@@ -105,43 +196,559 @@ public class SplitSummary implements Serializable
 	}
 	
 	/**
-	 * Add a chunk to the registry.
-	 * @param path The relative path to add to the registry.
+	 * The algorithm every checksum in the summary was calculated with.
+	 * @return The algorithm, SHA-256 for summaries predating the choice.
+	 */
+	public ChecksumAlgorithm getAlgorithm()
+	{
+		return algorithm == null ? ChecksumAlgorithm.SHA_256 : algorithm;
+	}
+	
+	/**
+	 * The codec every chunk is compressed with.
+	 * @return The codec, none for summaries predating compression.
+	 */
+	public Codec getCodec()
+	{
+		return codec == null ? Codec.NONE : codec;
+	}
+	
+	/**
+	 * Checks if the chunks are compressed rather than exact byte ranges of the source.
+	 * @return True if compressed, false if not.
+	 */
+	public boolean isCompressed()
+	{
+		return getCodec() != Codec.NONE;
+	}
+	
+	/**
+	 * Checks if the chunks were cut by content, varying in length and named by their checksum so they can be shared between splits.
+	 * @return True if content-defined, false if every chunk but the last has the chunk size.
+	 */
+	public boolean isContentDefined()
+	{
+		return chunkEnds != null;
+	}
+	
+	/**
+	 * Gets the size of a chunk's file once compressed.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The compressed size in bytes, 0 if not registered yet.
+	 */
+	public synchronized long getCompressedSize(int index)
+	{
+		checkIndex(index);
+		return compressedSizes == null ? getChunkLength(index) : compressedSizes[index];
+	}
+	
+	/**
+	 * Register the size of a chunk's file once compressed, safe to call from multiple threads.
+	 * @param index The chunk's index, starting from 1.
+	 * @param size The compressed size in bytes.
+	 * @throws IllegalStateException If the chunks are not compressed.
+	 */
+	public synchronized void setCompressedSize(int index, long size)
+	{
+		checkIndex(index);
+		if (compressedSizes == null)
+			throw new IllegalStateException("Chunks are not compressed!");
+		compressedSizes[index] = size;
+	}
+	
+	/**
+	 * Gets the size a chunk's file should be on disk.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The compressed size if compressed, the chunk's length if not.
+	 */
+	public long getStoredLength(int index)
+	{
+		return isCompressed() ? getCompressedSize(index) : getChunkLength(index);
+	}
+	
+	/**
+	 * The total size of every chunk's file.
+	 * @return The size in bytes.
+	 */
+	public synchronized long getStoredSize()
+	{
+		if (!isCompressed())
+			return totalSize;
+		long storedSize = 0;
+		for (int index = 1; index <= chunkAmount; index++)
+			storedSize += compressedSizes[index];
+		return storedSize;
+	}
+	
+	/**
+	 * Gets the position of a chunk within the source file.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The offset in bytes of the chunk's first byte.
+	 */
+	public long getChunkOffset(int index)
+	{
+		if (isContentDefined())
+		{
+			checkIndex(index);
+			return chunkEnds[index - 1];
+		}
+		return (index - 1) * chunkSize;
+	}
+	
+	/**
+	 * Gets the size of a specific chunk, accounting for the final chunk's remainder.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The size of the chunk in bytes.
+	 */
+	public long getChunkLength(int index)
+	{
+		if (isContentDefined())
+		{
+			checkIndex(index);
+			return chunkEnds[index] - chunkEnds[index - 1];
+		}
+		return index == chunkAmount ? Main.remainderBytes(totalSize, chunkSize) : chunkSize;
+	}
+	
+	/**
+	 * Finds the chunk holding a position of the source file.
+	 * @param position The offset in bytes within the source file.
+	 * @return The chunk's index, starting from 1.
+	 * @throws IndexOutOfBoundsException If the position is outside of the source file.
+	 */
+	public int getChunkIndex(long position)
+	{
+		if (position < 0 || position >= totalSize)
+			throw new IndexOutOfBoundsException("Position " + position + " is outside of the " + totalSize + " byte source!");
+		if (!isContentDefined())
+			return (int) (position / chunkSize) + 1;
+		// The first chunk ending past the position
+		final int found = Arrays.binarySearch(chunkEnds, 1, chunkAmount + 1, position);
+		return found >= 0 ? found + 1 : -found - 1;
+	}
+	
+	/**
+	 * Gets the file name a chunk is written to.
+	 * Content-defined chunks are named by their checksum, so it must be registered.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The chunk's file name, without any parent directories.
+	 */
+	public String getChunkFilename(int index)
+	{
+		return isContentDefined() ? storedChunkFilename(getChecksum(index), getCodec()) : chunkFilename(filename, index);
+	}
+	
+	/**
+	 * Gets the file name a chunk of a source file is written to, for when there is no summary yet.
+	 * @param filename Name of the source file.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The chunk's file name, without any parent directories.
+	 */
+	static String chunkFilename(String filename, int index)
+	{
+		return filename + '.' + index + ".part";
+	}
+	
+	/**
+	 * Gets the file name a content-defined chunk is stored under, shared by every split that contains the same data.
+	 * @param checksum The checksum of the chunk's uncompressed data.
+	 * @param codec The codec the chunk is compressed with, so differently compressed copies do not collide.
+	 * @return The chunk's file name, without any parent directories.
+	 */
+	static String storedChunkFilename(byte[] checksum, Codec codec)
+	{
+		return Main.bytesToHex(checksum) + (codec == Codec.NONE ? "" : "." + codec) + ".chunk";
+	}
+	
+	/**
+	 * Add parity chunks, letting that many damaged chunks of every group be rebuilt.
+	 * Chunks are dealt into groups in turn, as few as keep every group within the 256 shards a Reed-Solomon code over GF(256) allows.
+	 * @param parity The amount of parity chunks per group, 0 for none.
+	 * @throws IllegalArgumentException If the amount is negative or above 128.
+	 * @throws IllegalStateException If the chunks are content-defined, since parity needs fixed offsets.
+	 */
+	public synchronized void setParity(int parity)
+	{
+		if (parity < 0 || parity > 128)
+			throw new IllegalArgumentException("Parity must be between 0 and 128 chunks per group, not " + parity + '!');
+		if (parity > 0 && isContentDefined())
+			throw new IllegalStateException("Content-defined chunks cannot have parity!");
+		this.parity = parity;
+		parityChecksums = new byte[getParityAmount() * getAlgorithm().getDigestLength()];
+		parityRegistered = new BitSet(getParityAmount() + 1);
+	}
+	
+	/**
+	 * The amount of parity chunks per group.
+	 * @return The amount, 0 if the split has no parity.
+	 */
+	public int getParity()
+	{
+		return parity;
+	}
+	
+	public boolean hasParity()
+	{
+		return parity > 0;
+	}
+	
+	/**
+	 * The amount of groups the chunks are dealt into, each with its own parity.
+	 * @return The amount of groups, 0 if the split has no parity.
+	 */
+	public int getParityGroups()
+	{
+		return parity == 0 ? 0 : Main.chunkAmount(chunkAmount, 256 - parity);
+	}
+	
+	/**
+	 * The total amount of parity chunks.
+	 * @return The amount of parity chunks over every group.
+	 */
+	public int getParityAmount()
+	{
+		return parity * getParityGroups();
+	}
+	
+	/**
+	 * Finds the group a chunk belongs to.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The group, starting from 0.
+	 */
+	public int getParityGroup(int index)
+	{
+		checkIndex(index);
+		return (index - 1) % getParityGroups();
+	}
+	
+	/**
+	 * Gets the chunks of a group, which are its data shards in order.
+	 * @param group The group, starting from 0.
+	 * @return The indices of its chunks.
+	 */
+	public int[] getGroupChunks(int group)
+	{
+		final int groups = getParityGroups();
+		final int[] chunks = new int[(chunkAmount - group + groups - 1) / groups];
+		for (int i = 0; i < chunks.length; i++)
+			chunks[i] = group + 1 + i * groups;
+		return chunks;
+	}
+	
+	/**
+	 * Gets the index of one of a group's parity chunks.
+	 * @param group The group, starting from 0.
+	 * @param shard The parity chunk within the group, starting from 0.
+	 * @return The parity chunk's index, starting from 1.
+	 */
+	public int getParityIndex(int group, int shard)
+	{
+		return group * parity + shard + 1;
+	}
+	
+	/**
+	 * Gets the file name a parity chunk is written to.
+	 * @param parityIndex The parity chunk's index, starting from 1.
+	 * @return The parity chunk's file name, without any parent directories.
+	 */
+	public String getParityFilename(int parityIndex)
+	{
+		return filename + '.' + parityIndex + ".parity";
+	}
+	
+	/**
+	 * Register a parity chunk's checksum, safe to call from multiple threads.
+	 * @param parityIndex The parity chunk's index, starting from 1.
+	 * @param checksum The checksum of the parity chunk.
+	 */
+	public synchronized void setParityChecksum(int parityIndex, byte[] checksum)
+	{
+		checkParityIndex(parityIndex);
+		final int length = getAlgorithm().getDigestLength();
+		if (checksum == null || checksum.length != length)
+			throw new IllegalArgumentException("Checksum must be " + length + " bytes for " + getAlgorithm() + '!');
+		System.arraycopy(checksum, 0, parityChecksums, (parityIndex - 1) * length, length);
+		parityRegistered.set(parityIndex);
+	}
+	
+	/**
+	 * Retrieve a parity chunk's checksum.
+	 * @param parityIndex The parity chunk's index, starting from 1.
+	 * @return The checksum, or null if not registered.
+	 */
+	public synchronized byte[] getParityChecksum(int parityIndex)
+	{
+		checkParityIndex(parityIndex);
+		if (!parityRegistered.get(parityIndex))
+			return null;
+		final int length = getAlgorithm().getDigestLength();
+		return Arrays.copyOfRange(parityChecksums, (parityIndex - 1) * length, parityIndex * length);
+	}
+	
+	/**
+	 * Fill the parity checksum table from a buffer, as laid out by {@link SummaryFormat}.
+	 * @param buffer The buffer positioned at the table, advanced past it.
+	 */
+	synchronized void readParityTable(ByteBuffer buffer)
+	{
+		buffer.get(parityChecksums);
+		parityRegistered.set(1, getParityAmount() + 1);
+	}
+	
+	/**
+	 * Write the parity checksum table, as laid out by {@link SummaryFormat}.
+	 * @param outputStream The stream to write to.
+	 * @throws IOException If any I/O exception occurs while writing.
+	 * @throws IllegalStateException If any parity chunk's checksum is missing.
+	 */
+	synchronized void writeParityTable(OutputStream outputStream) throws IOException
+	{
+		final int missing = parityRegistered.nextClearBit(1);
+		if (missing <= getParityAmount())
+			throw new IllegalStateException("Parity chunk #" + missing + " has no checksum registered!");
+		outputStream.write(parityChecksums);
+	}
+	
+	/**
+	 * Keep a checksum of every block within each chunk, so damage can be narrowed down to the blocks it is in.
+	 * @param blockSize The size of every block but a chunk's last, 0 for none.
+	 * @throws IllegalArgumentException If the size is negative, or there would be too many blocks to hold the checksums of.
+	 * @throws IllegalStateException If the chunks are content-defined, since blocks are counted from fixed chunk sizes.
+	 */
+	public synchronized void setBlockSize(long blockSize)
+	{
+		if (blockSize < 0)
+			throw new IllegalArgumentException("Block size cannot be negative!");
+		if (blockSize > 0 && isContentDefined())
+			throw new IllegalStateException("Content-defined chunks cannot have block checksums!");
+		this.blockSize = blockSize;
+		final long tableSize = blockSize == 0 ? 0 : ((long) (chunkAmount - 1) * getBlockAmount(1) + getBlockAmount(chunkAmount)) * getAlgorithm().getDigestLength();
+		if (tableSize > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many blocks to hold the checksums of, use larger blocks!");
+		blockChecksums = new byte[(int) tableSize];
+		blocksRegistered = new BitSet(chunkAmount + 1);
+	}
+	
+	/**
+	 * The size of the blocks checksummed within every chunk.
+	 * @return The size in bytes, 0 if only whole chunks are checksummed.
+	 */
+	public long getBlockSize()
+	{
+		return blockSize;
+	}
+	
+	public boolean hasBlocks()
+	{
+		return blockSize > 0;
+	}
+	
+	/**
+	 * The amount of blocks within a chunk.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The amount of blocks, the last may be short.
+	 */
+	public int getBlockAmount(int index)
+	{
+		return Main.chunkAmount(getChunkLength(index), blockSize);
+	}
+	
+	/**
+	 * Register the checksums of every block of a chunk, safe to call from multiple threads.
+	 * @param index The chunk's index, starting from 1.
+	 * @param checksums The block checksums back to back in block order, as from {@link BlockDigest#getBlockChecksums()}.
+	 */
+	public synchronized void setBlockChecksums(int index, byte[] checksums)
+	{
+		checkIndex(index);
+		final int length = getBlockAmount(index) * getAlgorithm().getDigestLength();
+		if (checksums == null || checksums.length != length)
+			throw new IllegalArgumentException("Chunk #" + index + " needs " + length + " bytes of block checksums!");
+		System.arraycopy(checksums, 0, blockChecksums, blockTableOffset(index), length);
+		blocksRegistered.set(index);
+	}
+	
+	/**
+	 * Retrieve the checksum of a block within a chunk.
+	 * @param index The chunk's index, starting from 1.
+	 * @param block The block within the chunk, starting from 0.
+	 * @return The checksum, or null if the chunk's blocks are not registered.
+	 */
+	public synchronized byte[] getBlockChecksum(int index, int block)
+	{
+		checkIndex(index);
+		if (block < 0 || block >= getBlockAmount(index))
+			throw new IndexOutOfBoundsException("Block #" + block + " does not exist in chunk #" + index + '!');
+		if (!blocksRegistered.get(index))
+			return null;
+		final int length = getAlgorithm().getDigestLength(), offset = blockTableOffset(index) + block * length;
+		return Arrays.copyOfRange(blockChecksums, offset, offset + length);
+	}
+	
+	/**
+	 * Gets where a chunk's block checksums start in the table, every chunk before it having the full amount of blocks.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The offset in bytes.
+	 */
+	private int blockTableOffset(int index)
+	{
+		return (index - 1) * getBlockAmount(1) * getAlgorithm().getDigestLength();
+	}
+	
+	/**
+	 * Fill the block checksum table from a buffer, as laid out by {@link SummaryFormat}.
+	 * @param buffer The buffer positioned at the table, advanced past it.
+	 */
+	synchronized void readBlockTable(ByteBuffer buffer)
+	{
+		buffer.get(blockChecksums);
+		blocksRegistered.set(1, chunkAmount + 1);
+	}
+	
+	/**
+	 * The size of the block checksum table.
+	 * @return The size in bytes.
+	 */
+	int getBlockTableSize()
+	{
+		return blockChecksums == null ? 0 : blockChecksums.length;
+	}
+	
+	/**
+	 * Write the block checksum table, as laid out by {@link SummaryFormat}.
+	 * @param outputStream The stream to write to.
+	 * @throws IOException If any I/O exception occurs while writing.
+	 * @throws IllegalStateException If any chunk's block checksums are missing.
+	 */
+	synchronized void writeBlockTable(OutputStream outputStream) throws IOException
+	{
+		final int missing = blocksRegistered.nextClearBit(1);
+		if (missing <= chunkAmount)
+			throw new IllegalStateException("Chunk #" + missing + " has no block checksums registered!");
+		outputStream.write(blockChecksums);
+	}
+	
+	/**
+	 * Set the files of a packed directory tree, making the split a pack that is unpacked instead of merged.
+	 * @param files Every packed file in pack order, each starting where the one before it ends.
+	 * @throws IllegalArgumentException If the files do not follow each other or do not add up to the total size.
+	 */
+	public synchronized void setFiles(List<PackedFile> files)
+	{
+		final Map<String, PackedFile> byPath = new HashMap<String, PackedFile>(files.size() * 2);
+		long offset = 0;
+		for (PackedFile file : files)
+		{
+			if (file.getOffset() != offset)
+				throw new IllegalArgumentException("Packed file [" + file.getPath() + "] starts at " + file.getOffset() + " instead of " + offset + '!');
+			if (byPath.put(file.getPath(), file) != null)
+				throw new IllegalArgumentException("Packed file [" + file.getPath() + "] is listed twice!");
+			offset += file.getLength();
+		}
+		if (offset != totalSize)
+			throw new IllegalArgumentException("Packed files add up to " + offset + " bytes instead of " + totalSize + '!');
+		this.files = Collections.unmodifiableList(files);
+		filesByPath = byPath;
+	}
+	
+	/**
+	 * Checks if the split is a packed directory tree.
+	 * @return True if it has a file index.
+	 */
+	public boolean isPacked()
+	{
+		return files != null;
+	}
+	
+	/**
+	 * The files of a packed directory tree.
+	 * @return Every packed file in pack order, empty if the split is not a pack.
+	 */
+	public List<PackedFile> getFiles()
+	{
+		return files == null ? Collections.emptyList() : files;
+	}
+	
+	/**
+	 * Find a packed file by its path.
+	 * @param path The file's path relative to the packed directory, separated by {@code /}.
+	 * @return The file, or null if the pack has no such file.
+	 */
+	public PackedFile getFile(String path)
+	{
+		return filesByPath == null ? null : filesByPath.get(path);
+	}
+	
+	/**
+	 * Register a chunk's checksum, safe to call from multiple threads.
+	 * @param index The chunk's index, starting from 1.
 	 * @param checksum The checksum of the chunk.
 	 */
-	public void addChunkPath(Path path, byte[] checksum)
+	public synchronized void setChecksum(int index, byte[] checksum)
 	{
-		checksumMap.put(path, checksum);
+		checkIndex(index);
+		final int length = getAlgorithm().getDigestLength();
+		if (checksum == null || checksum.length != length)
+			throw new IllegalArgumentException("Checksum must be " + length + " bytes for " + getAlgorithm() + '!');
+		System.arraycopy(checksum, 0, checksums, (index - 1) * length, length);
+		registered.set(index);
 	}
 	
 	/**
 	 * Retrieve a chunk's checksum.
-	 * @param path The chunk's relative path.
-	 * @return The checksum, if exists.
+	 * @param index The chunk's index, starting from 1.
+	 * @return The checksum, or null if not registered.
 	 */
-	public byte[] getChecksum(Path path)
+	public synchronized byte[] getChecksum(int index)
 	{
-		return checksumMap.get(path);
+		if (!hasChecksum(index))
+			return null;
+		final int length = getAlgorithm().getDigestLength();
+		return Arrays.copyOfRange(checksums, (index - 1) * length, index * length);
 	}
 	
 	/**
 	 * Retrieve a chunk's checksum in hexadecimal.
-	 * @param path The chunk's relative path.
+	 * @param index The chunk's index, starting from 1.
 	 * @return The checksum in hexadecimal, if exists.
 	 */
-	public String getHexChunksum(Path path)
+	public String getHexChunksum(int index)
 	{
-		return Main.bytesToHex(getChecksum(path));
+		return Main.bytesToHex(getChecksum(index));
 	}
 	
 	/**
-	 * Checks if the path exists in the registry.
-	 * @param path The path to test.
-	 * @return True if it exists, false if not.
+	 * Checks if a chunk's checksum is registered.
+	 * @param index The chunk's index, starting from 1.
+	 * @return True if it is registered, false if not.
 	 */
-	public boolean hasPath(Path path)
+	public synchronized boolean hasChecksum(int index)
 	{
-		return checksumMap.containsKey(path);
+		return index >= 1 && index <= chunkAmount && registered.get(index);
+	}
+	
+	/**
+	 * Fill the whole checksum table from a buffer, as laid out by {@link SummaryFormat}.
+	 * @param buffer The buffer positioned at the table, advanced past it.
+	 */
+	synchronized void readChecksumTable(ByteBuffer buffer)
+	{
+		buffer.get(checksums);
+		registered.set(1, chunkAmount + 1);
+	}
+	
+	/**
+	 * Write the whole checksum table, as laid out by {@link SummaryFormat}.
+	 * @param outputStream The stream to write to.
+	 * @throws IOException If any I/O exception occurs while writing.
+	 * @throws IllegalStateException If any chunk's checksum is missing.
+	 */
+	synchronized void writeChecksumTable(OutputStream outputStream) throws IOException
+	{
+		final int missing = registered.nextClearBit(1);
+		if (missing <= chunkAmount)
+			throw new IllegalStateException("Chunk #" + missing + " has no checksum registered!");
+		outputStream.write(checksums);
 	}
 	
 	/**
@@ -171,6 +778,42 @@ public class SplitSummary implements Serializable
 		this.totalFileChecksum = totalFileChecksum == null ? new byte[0] : totalFileChecksum;
 	}
 	
+	/**
+	 * Gets the Merkle root of the chunk checksums, if the split stored one.
+	 * @return The raw byte root, empty if absent.
+	 */
+	public byte[] getMerkleRoot()
+	{
+		return merkleRoot == null ? new byte[0] : merkleRoot.clone();
+	}
+	
+	/**
+	 * Gets the Merkle root of the chunk checksums in hexadecimal.
+	 * @return The hexadecimal root, empty if absent.
+	 */
+	public String getMerkleRootHex()
+	{
+		return Main.bytesToHex(getMerkleRoot());
+	}
+	
+	/**
+	 * Checks if the whole file is verified through a Merkle root instead of a sequential checksum.
+	 * @return True if a root is stored, false if not.
+	 */
+	public boolean hasMerkleRoot()
+	{
+		return merkleRoot != null && merkleRoot.length > 0;
+	}
+	
+	/**
+	 * Sets the Merkle root of the chunk checksums.
+	 * @param merkleRoot The root to set, does not permit null.
+	 */
+	public void setMerkleRoot(byte[] merkleRoot)
+	{
+		this.merkleRoot = merkleRoot == null ? new byte[0] : merkleRoot;
+	}
+	
 	/**
 	 * The filename of the source file.
 	 * @return String filename.
@@ -186,10 +829,17 @@ public class SplitSummary implements Serializable
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + Arrays.hashCode(totalFileChecksum);
-		result = prime * result + Objects.hash(checksumMap, chunkAmount, chunkSize, filename, totalSize);
+		result = prime * result + Arrays.hashCode(getMerkleRoot());
+		result = prime * result + Arrays.hashCode(checksums);
+		result = prime * result + Arrays.hashCode(compressedSizes);
+		result = prime * result + Arrays.hashCode(chunkEnds);
+		result = prime * result + Arrays.hashCode(parityChecksums);
+		result = prime * result + Arrays.hashCode(blockChecksums);
+		result = prime * result + Objects.hashCode(files);
+		result = prime * result + Objects.hash(registered, chunkAmount, chunkSize, filename, totalSize, getAlgorithm(), getCodec());
 		return result;
 	}
-
+	
 	@Override
 	public boolean equals(Object obj)
 	{
@@ -198,32 +848,47 @@ public class SplitSummary implements Serializable
 		if (!(obj instanceof SplitSummary))
 			return false;
 		final SplitSummary other = (SplitSummary) obj;
-		return Objects.equals(checksumMap, other.checksumMap) && chunkAmount == other.chunkAmount
+		return Arrays.equals(checksums, other.checksums) && Objects.equals(registered, other.registered) && chunkAmount == other.chunkAmount
 				&& chunkSize == other.chunkSize && Objects.equals(filename, other.filename)
-				&& Arrays.equals(totalFileChecksum, other.totalFileChecksum) && totalSize == other.totalSize;
+				&& Arrays.equals(totalFileChecksum, other.totalFileChecksum) && totalSize == other.totalSize
+				&& getAlgorithm() == other.getAlgorithm() && Arrays.equals(getMerkleRoot(), other.getMerkleRoot())
+				&& getCodec() == other.getCodec() && Arrays.equals(compressedSizes, other.compressedSizes)
+				&& Arrays.equals(chunkEnds, other.chunkEnds) && parity == other.parity
+				&& Arrays.equals(parityChecksums, other.parityChecksums) && blockSize == other.blockSize
+				&& Arrays.equals(blockChecksums, other.blockChecksums) && Objects.equals(files, other.files);
 	}
-
+	
 	/**
-	 * Converts all path elements to a string array for serialization.
-	 * @param path The path to convert.
-	 * @return A string array representing the path.
+	 * Ensure an index refers to a chunk of this summary.
+	 * @param index The chunk's index.
+	 * @throws IndexOutOfBoundsException If there is no such chunk.
 	 */
-	private static String[] pathToArray(Path path)
+	private void checkIndex(int index)
 	{
-		final String[] names = new String[path.getNameCount()];
-		for (int i = 0; i < path.getNameCount(); i++)
-			names[i] = path.getName(i).toString();
-		return names;
+		if (index < 1 || index > chunkAmount)
+			throw new IndexOutOfBoundsException("Chunk #" + index + " does not exist, there are " + chunkAmount + " chunks!");
 	}
 	
 	/**
-	 * Converts a string array to a path for deserialization.
-	 * @param path The string array representing a path.
-	 * @return The path represented by the array.
+	 * Ensure an index refers to a parity chunk of this summary.
+	 * @param parityIndex The parity chunk's index.
+	 * @throws IndexOutOfBoundsException If there is no such parity chunk.
 	 */
-	private static Path pathGetter(String[] path)
+	private void checkParityIndex(int parityIndex)
 	{
-		return path.length > 1 ? Paths.get(path[0], Arrays.copyOfRange(path, 1, path.length)) : Paths.get(path[0]);
+		if (parityIndex < 1 || parityIndex > getParityAmount())
+			throw new IndexOutOfBoundsException("Parity chunk #" + parityIndex + " does not exist, there are " + getParityAmount() + " parity chunks!");
 	}
 	
+	/**
+	 * Parses the index out of a chunk's file name.
+	 * @param chunkFilename The file name, as made by {@link #getChunkFilename(int)}.
+	 * @return The chunk's index.
+	 */
+	private static int chunkIndex(String chunkFilename)
+	{
+		final String name = chunkFilename.substring(0, chunkFilename.length() - ".part".length());
+		return Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+	}
+
 }
@@ -0,0 +1,289 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.tongfei.progressbar.ProgressBarBuilder;
+
+/**
+ * Class to split a stream of unknown length, such as standard input, into chunks.
+ * The total size and chunk amount are counted as the stream is read and only put into the summary at its end.
+ * @author UFFR
+ *
+ */
+public class StreamSplitHelper
+{
+	private final ReadableByteChannel source;
+	private final Path outputPath;
+	private final String filename;
+	private final long chunkSize;
+	private final ChecksumAlgorithm algorithm;
+	private Codec codec = Codec.NONE;
+	private BufferPool bufferPool;
+	private boolean merkle;
+	private long blockSize;
+	private JobListener listener = JobListener.NONE;
+	private JobMetrics metrics;
+	private boolean showProgress = true;
+	private SplitSummary summary;
+	/**
+	 * Construct a helper.
+	 * @param source The stream to split, read until its end.
+	 * @param outputPath Path to export the split chunks.
+	 * @param filename Name to store in the summary and name the chunks after.
+	 * @param chunkSize Size of the chunks.
+	 * @param algorithm The algorithm to checksum with.
+	 */
+	public StreamSplitHelper(ReadableByteChannel source, Path outputPath, String filename, long chunkSize, ChecksumAlgorithm algorithm)
+	{
+		this.source = source;
+		this.outputPath = outputPath;
+		this.filename = filename;
+		this.chunkSize = chunkSize;
+		this.algorithm = algorithm;
+		metrics = new JobMetrics(filename);
+	}
+	
+	/**
+	 * Set the pool the copy loop takes its buffer from.
+	 * @param bufferPool The pool to use, or null for one sized to the chunks.
+	 * @return This helper.
+	 */
+	public StreamSplitHelper setBufferPool(BufferPool bufferPool)
+	{
+		this.bufferPool = bufferPool;
+		return this;
+	}
+	
+	/**
+	 * Set the codec every chunk is compressed with.
+	 * @param codec The codec to use.
+	 * @return This helper.
+	 */
+	public StreamSplitHelper setCodec(Codec codec)
+	{
+		this.codec = codec;
+		return this;
+	}
+	
+	/**
+	 * Set whether the whole file is verified through a Merkle root of the chunk checksums instead of a sequential checksum.
+	 * @param merkle True to store a Merkle root.
+	 * @return This helper.
+	 */
+	public StreamSplitHelper setMerkle(boolean merkle)
+	{
+		this.merkle = merkle;
+		return this;
+	}
+	
+	/**
+	 * Set the size of the blocks checksummed within every chunk.
+	 * @param blockSize The size in bytes, 0 for no block checksums.
+	 * @return This helper.
+	 */
+	public StreamSplitHelper setBlockSize(long blockSize)
+	{
+		this.blockSize = blockSize;
+		return this;
+	}
+	
+	/**
+	 * Set the listener to report progress to.
+	 * @param listener The listener to use.
+	 * @return This helper.
+	 */
+	public StreamSplitHelper setListener(JobListener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+	
+	/**
+	 * Set the metrics to record timings and counters to, instead of the helper's own.
+	 * @param metrics The metrics to record to, may be shared with other jobs.
+	 * @return This helper.
+	 */
+	public StreamSplitHelper setMetrics(JobMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+	
+	public JobMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Set whether progress is drawn on the console.
+	 * @param showProgress True to draw a progress bar.
+	 * @return This helper.
+	 */
+	public StreamSplitHelper setShowProgress(boolean showProgress)
+	{
+		this.showProgress = showProgress;
+		return this;
+	}
+	
+	/**
+	 * The pool the split took its buffer from.
+	 * @return The pool, or null if not executed yet.
+	 */
+	public BufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+	
+	/**
+	 * The summary of the split, once executed.
+	 * @return The summary, or null if not executed yet.
+	 */
+	public SplitSummary getSummary()
+	{
+		return summary;
+	}
+	
+	/**
+	 * Begin the split process, reading the stream until its end.
+	 * @return The finished summary.
+	 * @throws IOException If any I/O exception occurs during the process, or the stream is empty.
+	 */
+	public SplitSummary execute() throws IOException
+	{
+		Files.createDirectories(outputPath);
+		if (bufferPool == null)
+			bufferPool = new BufferPool((int) Math.min(Main.BUFFER, chunkSize), 1, false);
+		metrics.setBufferPool(bufferPool);
+		
+		final MessageDigest totalDigest = Main.digestSupplier(algorithm);
+		final MessageDigest chunkDigest = blockSize > 0 ? new BlockDigest(algorithm, blockSize) : Main.digestSupplier(algorithm);
+		final List<byte[]> checksums = new ArrayList<byte[]>(), blockChecksums = new ArrayList<byte[]>();
+		final List<Long> compressedSizes = new ArrayList<Long>();
+		final ByteBuffer buffer = bufferPool.acquire();
+		long totalSize = 0;
+		// Length is unknown, so the bar has no maximum
+		try (final Progress progress = new Progress(!showProgress ? null : new ProgressBarBuilder()
+				.setUnit("MB", Main.MB)
+				.showSpeed()
+				.setInitialMax(-1)
+				.setTaskName("Splitting..."), listener, metrics))
+		{
+			while (true)
+			{
+				// Only start a chunk once there is data for it
+				buffer.clear().limit((int) Math.min(buffer.capacity(), chunkSize));
+				final long start = metrics.chunkStarted();
+				if (fill(buffer) == 0)
+					break;
+				
+				final int index = checksums.size() + 1;
+				final long processed = writeChunk(index, buffer, totalDigest, chunkDigest, progress, compressedSizes);
+				checksums.add(chunkDigest.digest());
+				if (blockSize > 0)
+					blockChecksums.add(((BlockDigest) chunkDigest).getBlockChecksums());
+				metrics.chunkFinished(filename, index, start, processed);
+				totalSize += processed;
+				// A short chunk can only be the last
+				if (processed < chunkSize)
+					break;
+			}
+		} finally
+		{
+			bufferPool.release(buffer);
+		}
+		
+		if (totalSize == 0)
+			throw new IOException("Input stream was empty, there is nothing to split!");
+		
+		// Everything is known now, so finalize the summary
+		summary = new SplitSummary(totalSize, chunkSize, filename, algorithm, codec);
+		summary.setBlockSize(blockSize);
+		for (int index = 1; index <= checksums.size(); index++)
+		{
+			summary.setChecksum(index, checksums.get(index - 1));
+			if (summary.isCompressed())
+				summary.setCompressedSize(index, compressedSizes.get(index - 1));
+			if (summary.hasBlocks())
+				summary.setBlockChecksums(index, blockChecksums.get(index - 1));
+		}
+		if (merkle)
+			summary.setMerkleRoot(MerkleTree.root(algorithm, checksums.toArray(new byte[0][])));
+		else
+			summary.setTotalFileChecksum(totalDigest.digest());
+		return summary;
+	}
+	
+	/**
+	 * Write a chunk from the stream, starting with data already read into the buffer.
+	 * @param index The chunk's index.
+	 * @param buffer The buffer, filled with the chunk's first bytes.
+	 * @param totalDigest The whole-file digest to update, unless storing a Merkle root.
+	 * @param chunkDigest The chunk digest to update.
+	 * @param progress The progress to note to.
+	 * @param compressedSizes Receives the size of the chunk's file.
+	 * @return The amount of bytes written, the chunk size unless the stream ended.
+	 * @throws IOException If any exception occurs during the process.
+	 */
+	private long writeChunk(int index, ByteBuffer buffer, MessageDigest totalDigest, MessageDigest chunkDigest, Progress progress, List<Long> compressedSizes) throws IOException
+	{
+		long processed = 0;
+		try (final FileChannel chunkChannel = FileChannel.open(outputPath.resolve(SplitSummary.chunkFilename(filename, index)), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
+		{
+			final WritableByteChannel outputChannel = codec == Codec.NONE ? chunkChannel : codec.compress(chunkChannel);
+			do
+			{
+				buffer.flip();
+				long time = System.nanoTime();
+				chunkDigest.update(buffer);
+				if (!merkle)
+				{
+					buffer.rewind();
+					totalDigest.update(buffer);
+				}
+				time = metrics.record(JobMetrics.Stage.HASH, time, buffer.limit());
+				buffer.rewind();
+				while (buffer.hasRemaining())
+					outputChannel.write(buffer);
+				metrics.record(JobMetrics.Stage.WRITE, time, buffer.limit());
+				
+				progress.stepBy(buffer.limit());
+				processed += buffer.limit();
+				
+				buffer.clear().limit((int) Math.min(buffer.capacity(), chunkSize - processed));
+			} while (processed < chunkSize && fill(buffer) > 0);
+			
+			// Finish the compressed data before measuring it
+			if (outputChannel != chunkChannel)
+				outputChannel.close();
+			compressedSizes.add(chunkChannel.size());
+		}
+		return processed;
+	}
+	
+	/**
+	 * Read from the stream until the buffer is full or the stream ends, since pipes return data in small pieces.
+	 * @param buffer The buffer to fill.
+	 * @return The amount of bytes read, 0 if the stream has ended.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private int fill(ByteBuffer buffer) throws IOException
+	{
+		final int start = buffer.position();
+		final long time = System.nanoTime();
+		while (buffer.hasRemaining())
+			if (source.read(buffer) < 0)
+				break;
+		metrics.record(JobMetrics.Stage.READ, time, buffer.position() - start);
+		return buffer.position() - start;
+	}
+}
@@ -0,0 +1,375 @@
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the compact binary {@code .sum} format, and still reads summaries written with Java serialization.
+ * <p>
+ * Every value is big-endian. The fixed header is the magic {@code JFSS}, the format version (short), the checksum
+ * algorithm's ID (byte), flags (byte), total size (long), chunk size (long), chunk amount (int) and checksum length (int).
+ * It is followed by the file name (unsigned short length, UTF-8), the whole-file checksum and the Merkle root (each an
+ * unsigned byte length and the bytes), then a flat table of every chunk's checksum in chunk order.
+ * Any remaining bytes are sections, each a tag (int), a length (int) and its payload. Readers skip tags they do not
+ * know, unless the tag's highest bit is set, which marks sections that change how the chunks must be read.
+ * <p>
+ * Sections:
+ * <ul>
+ * <li>{@link #SECTION_CODEC}, required: the codec's ID (byte), then every chunk's compressed size (long) in chunk order.</li>
+ * <li>{@link #SECTION_CHUNK_LENGTHS}, required: every content-defined chunk's length (long) in chunk order. The header's
+ * chunk size is then the largest chunk's length.</li>
+ * <li>{@link #SECTION_PARITY}, optional: the parity chunks per group (int), then every parity chunk's checksum in parity
+ * order. Readers without it merge the same, only without rebuilding damaged chunks.</li>
+ * <li>{@link #SECTION_BLOCKS}, optional: the block size (long), then the checksum of every block of every chunk, in
+ * chunk order and block order within each chunk.</li>
+ * <li>{@link #SECTION_FILES}, required: the amount of packed files (int), then every file's path (unsigned short length,
+ * UTF-8), length (long) and modification time (long) in pack order. Each file starts where the one before it ends, and
+ * the header's file name is the packed directory's.</li>
+ * </ul>
+ * @author UFFR
+ *
+ */
+public class SummaryFormat
+{
+	static final int MAGIC = 0x4A465353;// "JFSS"
+	static final short VERSION = 1;
+	static final int SECTION_CODEC = 0x80000001;
+	static final int SECTION_CHUNK_LENGTHS = 0x80000002;
+	static final int SECTION_PARITY = 0x00000003;
+	static final int SECTION_BLOCKS = 0x00000004;
+	static final int SECTION_FILES = 0x80000005;
+	// Sections that cannot be skipped
+	private static final int REQUIRED = 0x80000000;
+	// First bytes of a Java serialization stream
+	private static final short SERIALIZATION_MAGIC = (short) 0xACED;
+	
+	private SummaryFormat()
+	{
+	}
+	
+	/**
+	 * Write a summary in the binary format.
+	 * @param summary The summary to write, all chunks must be registered.
+	 * @param path The path to write to, must not exist.
+	 * @throws IOException If any I/O exception occurs while writing.
+	 */
+	public static void write(SplitSummary summary, Path path) throws IOException
+	{
+		final ChecksumAlgorithm algorithm = summary.getAlgorithm();
+		final byte[] filename = summary.getFilename().getBytes(StandardCharsets.UTF_8);
+		
+		try (final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE_NEW), Main.KB * 64)))
+		{
+			outputStream.writeInt(MAGIC);
+			outputStream.writeShort(VERSION);
+			outputStream.writeByte(algorithm.getId());
+			outputStream.writeByte(0);
+			outputStream.writeLong(summary.getTotalSize());
+			outputStream.writeLong(summary.getChunkSize());
+			outputStream.writeInt(summary.getChunkAmount());
+			outputStream.writeInt(algorithm.getDigestLength());
+			outputStream.writeShort(filename.length);
+			outputStream.write(filename);
+			writeBytes(outputStream, summary.getTotalFileChecksum());
+			writeBytes(outputStream, summary.getMerkleRoot());
+			summary.writeChecksumTable(outputStream);
+			
+			if (summary.isCompressed())
+			{
+				outputStream.writeInt(SECTION_CODEC);
+				outputStream.writeInt(1 + summary.getChunkAmount() * 8);
+				outputStream.writeByte(summary.getCodec().getId());
+				for (int index = 1; index <= summary.getChunkAmount(); index++)
+					outputStream.writeLong(summary.getCompressedSize(index));
+			}
+			if (summary.isContentDefined())
+			{
+				outputStream.writeInt(SECTION_CHUNK_LENGTHS);
+				outputStream.writeInt(summary.getChunkAmount() * 8);
+				for (int index = 1; index <= summary.getChunkAmount(); index++)
+					outputStream.writeLong(summary.getChunkLength(index));
+			}
+			if (summary.hasParity())
+			{
+				outputStream.writeInt(SECTION_PARITY);
+				outputStream.writeInt(4 + summary.getParityAmount() * algorithm.getDigestLength());
+				outputStream.writeInt(summary.getParity());
+				summary.writeParityTable(outputStream);
+			}
+			if (summary.hasBlocks())
+			{
+				outputStream.writeInt(SECTION_BLOCKS);
+				outputStream.writeInt(8 + summary.getBlockTableSize());
+				outputStream.writeLong(summary.getBlockSize());
+				summary.writeBlockTable(outputStream);
+			}
+			if (summary.isPacked())
+				writeFiles(outputStream, summary.getFiles());
+		}
+	}
+	
+	/**
+	 * Read a summary in either the binary format or the legacy serialized format.
+	 * @param path The summary file's path.
+	 * @return The read summary.
+	 * @throws IOException If any I/O exception occurs while reading, or the file is not a summary.
+	 */
+	public static SplitSummary read(Path path) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			// Everything is read through a single mapping
+			final ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() >= 2 && buffer.getShort(0) == SERIALIZATION_MAGIC)
+				return readLegacy(path);
+			if (buffer.remaining() < 4 || buffer.getInt() != MAGIC)
+				throw new IOException("Not a summary file: " + path);
+			final short version = buffer.getShort();
+			if (version != VERSION)
+				throw new IOException("Unsupported summary version " + version + ", this program supports version " + VERSION + '.');
+			
+			final ChecksumAlgorithm algorithm;
+			final long totalSize, chunkSize;
+			final int chunkAmount, digestLength;
+			final byte[] filename, totalFileChecksum, merkleRoot;
+			try
+			{
+				final byte algorithmId = buffer.get();
+				try
+				{
+					algorithm = ChecksumAlgorithm.fromId(algorithmId);
+				} catch (IllegalArgumentException e)
+				{
+					throw new IOException("Summary has an unknown checksum algorithm ID " + algorithmId + ", it may need a newer version of this program!", e);
+				}
+				buffer.get();// Flags, none defined yet
+				totalSize = buffer.getLong();
+				chunkSize = buffer.getLong();
+				chunkAmount = buffer.getInt();
+				digestLength = buffer.getInt();
+				if (totalSize < 0 || chunkSize <= 0 || chunkAmount < 0)
+					throw new IOException("Summary sizes are invalid, " + totalSize + " B in " + chunkAmount + " chunks of " + chunkSize + " B!");
+				if (digestLength != algorithm.getDigestLength())
+					throw new IOException("Summary checksum length does not match its algorithm!");
+				filename = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(filename);
+				totalFileChecksum = readBytes(buffer);
+				merkleRoot = readBytes(buffer);
+			} catch (BufferUnderflowException e)
+			{
+				throw new IOException("Summary header is truncated: " + path, e);
+			}
+			
+			final ByteBuffer table = buffer.slice();
+			if (table.remaining() < (long) chunkAmount * digestLength)
+				throw new IOException("Summary checksum table is truncated!");
+			buffer.position(buffer.position() + chunkAmount * digestLength);
+			
+			// Sections come after the table but can change how the summary is built
+			ByteBuffer codecSection = null, lengthSection = null, paritySection = null, blockSection = null, fileSection = null;
+			while (buffer.remaining() >= 8)
+			{
+				final int tag = buffer.getInt(), length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining())
+					throw new IOException("Summary section is truncated!");
+				if (tag == SECTION_CODEC)
+					codecSection = buffer.slice().limit(length);
+				else if (tag == SECTION_CHUNK_LENGTHS)
+					lengthSection = buffer.slice().limit(length);
+				else if (tag == SECTION_PARITY)
+					paritySection = buffer.slice().limit(length);
+				else if (tag == SECTION_BLOCKS)
+					blockSection = buffer.slice().limit(length);
+				else if (tag == SECTION_FILES)
+					fileSection = buffer.slice().limit(length);
+				else if ((tag & REQUIRED) != 0)
+					throw new IOException("Summary requires a newer version of this program to read!");
+				buffer.position(buffer.position() + length);
+			}
+			
+			if (codecSection != null && !codecSection.hasRemaining())
+				throw new IOException("Summary codec is truncated!");
+			final Codec codec;
+			try
+			{
+				codec = codecSection == null ? Codec.NONE : Codec.fromId(codecSection.get());
+			} catch (IllegalArgumentException e)
+			{
+				throw new IOException("Summary has an unknown codec ID " + codecSection.get(0) + ", it may need a newer version of this program!", e);
+			}
+			final SplitSummary summary;
+			try
+			{
+				if (lengthSection == null)
+					summary = new SplitSummary(totalSize, chunkSize, new String(filename, StandardCharsets.UTF_8), algorithm, codec);
+				else
+				{
+					if (lengthSection.remaining() < chunkAmount * 8L)
+						throw new IOException("Summary chunk lengths are truncated!");
+					final long[] chunkLengths = new long[chunkAmount];
+					for (int i = 0; i < chunkAmount; i++)
+						chunkLengths[i] = lengthSection.getLong();
+					summary = new SplitSummary(chunkLengths, new String(filename, StandardCharsets.UTF_8), algorithm, codec);
+					if (summary.getTotalSize() != totalSize)
+						throw new IOException("Summary chunk lengths do not add up to its total size!");
+				}
+			} catch (IllegalArgumentException e)
+			{
+				throw new IOException("Summary sizes are invalid: " + e.getMessage(), e);
+			}
+			if (summary.getChunkAmount() != chunkAmount)
+				throw new IOException("Summary chunk amount does not match its sizes!");
+			summary.setTotalFileChecksum(totalFileChecksum);
+			summary.setMerkleRoot(merkleRoot);
+			summary.readChecksumTable(table);
+			if (codecSection != null)
+			{
+				if (codecSection.remaining() < chunkAmount * 8L)
+					throw new IOException("Summary compressed sizes are truncated!");
+				for (int index = 1; index <= chunkAmount; index++)
+					summary.setCompressedSize(index, codecSection.getLong());
+			}
+			if (paritySection != null)
+			{
+				if (paritySection.remaining() < 4)
+					throw new IOException("Summary parity is truncated!");
+				try
+				{
+					summary.setParity(paritySection.getInt());
+				} catch (IllegalArgumentException | IllegalStateException e)
+				{
+					throw new IOException("Summary parity is invalid!", e);
+				}
+				if (paritySection.remaining() < (long) summary.getParityAmount() * digestLength)
+					throw new IOException("Summary parity checksums are truncated!");
+				summary.readParityTable(paritySection);
+			}
+			if (blockSection != null)
+			{
+				if (blockSection.remaining() < 8)
+					throw new IOException("Summary block checksums are truncated!");
+				try
+				{
+					summary.setBlockSize(blockSection.getLong());
+				} catch (IllegalArgumentException | IllegalStateException e)
+				{
+					throw new IOException("Summary block size is invalid!", e);
+				}
+				if (blockSection.remaining() < summary.getBlockTableSize())
+					throw new IOException("Summary block checksums are truncated!");
+				summary.readBlockTable(blockSection);
+			}
+			if (fileSection != null)
+				summary.setFiles(readFiles(fileSection, summary.getTotalSize()));
+			return summary;
+		}
+	}
+	
+	/**
+	 * Write the file index of a pack as its section.
+	 * @param outputStream The stream to write to.
+	 * @param files Every packed file in pack order.
+	 * @throws IOException If any I/O exception occurs while writing.
+	 */
+	private static void writeFiles(DataOutputStream outputStream, List<PackedFile> files) throws IOException
+	{
+		final byte[][] paths = new byte[files.size()][];
+		long length = 4;
+		for (int i = 0; i < paths.length; i++)
+		{
+			paths[i] = files.get(i).getPath().getBytes(StandardCharsets.UTF_8);
+			if (paths[i].length > 0xFFFF)
+				throw new IOException("Packed file path is too long: " + files.get(i).getPath());
+			length += 2 + paths[i].length + 16;
+		}
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Too many packed files to index in one summary!");
+		
+		outputStream.writeInt(SECTION_FILES);
+		outputStream.writeInt((int) length);
+		outputStream.writeInt(files.size());
+		for (int i = 0; i < paths.length; i++)
+		{
+			outputStream.writeShort(paths[i].length);
+			outputStream.write(paths[i]);
+			outputStream.writeLong(files.get(i).getLength());
+			outputStream.writeLong(files.get(i).getLastModified());
+		}
+	}
+	
+	/**
+	 * Read the file index of a pack from its section.
+	 * @param section The section's payload.
+	 * @param totalSize The pack's total size, which the files must add up to.
+	 * @return Every packed file in pack order.
+	 * @throws IOException If the section is truncated or the files do not add up.
+	 */
+	private static List<PackedFile> readFiles(ByteBuffer section, long totalSize) throws IOException
+	{
+		try
+		{
+			final int count = section.getInt();
+			final List<PackedFile> files = new ArrayList<PackedFile>(Math.min(count, section.remaining() / 18));
+			long offset = 0;
+			for (int i = 0; i < count; i++)
+			{
+				final byte[] path = new byte[section.getShort() & 0xFFFF];
+				section.get(path);
+				final long length = section.getLong();
+				files.add(new PackedFile(new String(path, StandardCharsets.UTF_8), offset, length, section.getLong()));
+				offset += length;
+			}
+			if (offset != totalSize)
+				throw new IOException("Summary packed files do not add up to its total size!");
+			return files;
+		} catch (BufferUnderflowException e)
+		{
+			throw new IOException("Summary packed files are truncated!", e);
+		} catch (IllegalArgumentException e)
+		{
+			throw new IOException("Summary packed files are invalid!", e);
+		}
+	}
+	
+	/**
+	 * Read a summary written with Java serialization.
+	 * @param path The summary file's path.
+	 * @return The read summary.
+	 * @throws IOException If any I/O exception occurs while reading.
+	 */
+	private static SplitSummary readLegacy(Path path) throws IOException
+	{
+		try (final ObjectInputStream objectInputStream = new ObjectInputStream(Files.newInputStream(path)))
+		{
+			return (SplitSummary) objectInputStream.readObject();
+		} catch (ClassNotFoundException | ClassCastException e)
+		{
+			throw new IOException("Not a summary file: " + path, e);
+		}
+	}
+	
+	private static void writeBytes(DataOutputStream outputStream, byte[] bytes) throws IOException
+	{
+		outputStream.writeByte(bytes.length);
+		outputStream.write(bytes);
+	}
+	
+	private static byte[] readBytes(ByteBuffer buffer)
+	{
+		final byte[] bytes = new byte[buffer.get() & 0xFF];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,55 @@
+package main;
+
+/**
+ * The strategies available to move chunk data between the source or merged file and the chunks.
+ * @author UFFR
+ *
+ */
+public enum TransferMode
+{
+	/** Copies through a buffer on the heap, hashing as it goes. */
+	STREAM("stream"),
+	/** Lets the kernel move the data between channels directly, hashing each chunk separately afterwards. */
+	ZERO_COPY("zero-copy"),
+	/** Maps each chunk's region of the source or merged file into memory, copying and hashing directly from the mapping. */
+	MAPPED("mapped"),
+	/** Reads, hashes and writes on three threads connected by queues, overlapping disk access with hashing. */
+	PIPELINED("pipelined"),
+	/** Lets {@link IoPlanner} pick one of the others for each job, from its sizes and settings. */
+	AUTO("auto");
+	
+	private final String name;
+	private TransferMode(String name)
+	{
+		this.name = name;
+	}
+	
+	/**
+	 * The name of the mode as used on the command line.
+	 * @return The mode's name.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * Get a mode from its command line name.
+	 * @param name The mode's name, case insensitive.
+	 * @return The matching mode.
+	 * @throws IllegalArgumentException If no mode has the name.
+	 */
+	public static TransferMode fromName(String name)
+	{
+		for (TransferMode mode : values())
+			if (mode.name.equalsIgnoreCase(name))
+				return mode;
+		throw new IllegalArgumentException("Unknown I/O mode: " + name);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,104 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Channel reading the files of a directory tree one after the other, as the single stream a pack is split from.
+ * <p>
+ * Only one file is open at a time. Every file must still have the length it was listed with, since the pack's index is
+ * built from the listing before any data is read.
+ * @author UFFR
+ *
+ */
+public class TreeChannel implements ReadableByteChannel
+{
+	private final Path root;
+	private final List<PackedFile> files;
+	// Index of the next file to open
+	private int next;
+	private FileChannel current;
+	private long remaining;
+	private boolean open = true;
+	/**
+	 * Construct a channel.
+	 * @param root The directory the files are in.
+	 * @param files The files to read, in pack order, as listed by {@link PackedFile#list(Path)}.
+	 */
+	public TreeChannel(Path root, List<PackedFile> files)
+	{
+		this.root = root;
+		this.files = files;
+	}
+	
+	/**
+	 * Read from the current file, moving on to the next once it ends.
+	 * @param dst The buffer to read into.
+	 * @return The amount of bytes read, or -1 if every file was read.
+	 * @throws IOException If a file could not be read, or its length changed since it was listed.
+	 */
+	@Override
+	public int read(ByteBuffer dst) throws IOException
+	{
+		if (!open)
+			throw new ClosedChannelException();
+		while (current == null || remaining == 0)
+		{
+			closeCurrent();
+			if (next == files.size())
+				return -1;
+			final PackedFile file = files.get(next++);
+			// Empty files take no space in the pack
+			if (file.getLength() == 0)
+				continue;
+			current = FileChannel.open(root.resolve(file.getPath()), StandardOpenOption.READ);
+			remaining = file.getLength();
+		}
+		
+		final ByteBuffer slice = dst.duplicate();
+		slice.limit(slice.position() + (int) Math.min(slice.remaining(), remaining));
+		final int read = current.read(slice);
+		if (read < 0)
+			throw new IOException("Packed file [" + files.get(next - 1).getPath() + "] shrank while it was read!");
+		dst.position(slice.position());
+		remaining -= read;
+		return read;
+	}
+	
+	@Override
+	public boolean isOpen()
+	{
+		return open;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		open = false;
+		if (current != null)
+			current.close();
+		current = null;
+	}
+	
+	/**
+	 * Close the file that was read to its listed length, checking that it did not grow.
+	 * @throws IOException If the file could not be closed, or is longer than listed.
+	 */
+	private void closeCurrent() throws IOException
+	{
+		if (current == null)
+			return;
+		try (final FileChannel file = current)
+		{
+			current = null;
+			if (file.size() != files.get(next - 1).getLength())
+				throw new IOException("Packed file [" + files.get(next - 1).getPath() + "] grew while it was read!");
+		}
+	}
+}
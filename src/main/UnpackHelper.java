@@ -0,0 +1,395 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.tongfei.progressbar.ProgressBarBuilder;
+
+/**
+ * Class to unpack the files of a packed directory tree from its chunks.
+ * <p>
+ * Every chunk is read once, on any worker, and the parts of the files it holds are written straight to their positions in
+ * them, so chunks are unpacked in any order. Damaged chunks are unpacked past and the files they hold reported, and a single
+ * file can be extracted alone, only reading the chunks it is in.
+ * @author UFFR
+ *
+ */
+public class UnpackHelper
+{
+	private final Path inputPath, outputPath;
+	private final SplitSummary summary;
+	private final List<PackedFile> files;
+	// End of every file within the pack, to find the file at a position
+	private final long[] ends;
+	private final Path[] targets;
+	private int threads = 1;
+	private BufferPool bufferPool;
+	private JobListener listener = JobListener.NONE;
+	private JobMetrics metrics;
+	private boolean showProgress = true;
+	// Actual checksums of the chunks that did not match, addressed by index
+	private final Map<Integer, byte[]> mismatches = new ConcurrentSkipListMap<Integer, byte[]>();
+	private boolean wholePackIntact = true;
+	/**
+	 * Construct a helper.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @param outputPath Path of the directory to unpack the files into.
+	 * @param summary The summary of the pack.
+	 */
+	public UnpackHelper(Path inputPath, Path outputPath, SplitSummary summary)
+	{
+		this.inputPath = inputPath;
+		this.outputPath = outputPath;
+		this.summary = summary;
+		files = summary.getFiles();
+		ends = new long[files.size()];
+		for (int i = 0; i < ends.length; i++)
+			ends[i] = files.get(i).getOffset() + files.get(i).getLength();
+		targets = new Path[files.size()];
+		metrics = new JobMetrics(summary.getFilename());
+	}
+	
+	/**
+	 * Set the amount of worker threads to unpack chunks with.
+	 * @param threads The amount of threads.
+	 * @return This helper.
+	 */
+	public UnpackHelper setThreads(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be positive!");
+		this.threads = threads;
+		return this;
+	}
+	
+	/**
+	 * Set the pool the workers take their buffers from.
+	 * @param bufferPool The pool to use, or null for one sized to the chunks and thread count.
+	 * @return This helper.
+	 */
+	public UnpackHelper setBufferPool(BufferPool bufferPool)
+	{
+		this.bufferPool = bufferPool;
+		return this;
+	}
+	
+	public BufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+	
+	/**
+	 * Set the listener to report progress and damaged chunks to.
+	 * @param listener The listener to use.
+	 * @return This helper.
+	 */
+	public UnpackHelper setListener(JobListener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+	
+	/**
+	 * Set the metrics to record timings and counters to, instead of the helper's own.
+	 * @param metrics The metrics to record to, may be shared with other jobs.
+	 * @return This helper.
+	 */
+	public UnpackHelper setMetrics(JobMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+	
+	public JobMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Set whether progress is drawn on the console.
+	 * @param showProgress True to draw a progress bar.
+	 * @return This helper.
+	 */
+	public UnpackHelper setShowProgress(boolean showProgress)
+	{
+		this.showProgress = showProgress;
+		return this;
+	}
+	
+	/**
+	 * Begin unpacking, creating every file and then unpacking every chunk concurrently.
+	 * @throws IOException If any I/O exception occurs during the process, or a file would be unpacked outside of the output path.
+	 */
+	public void execute() throws IOException
+	{
+		if (bufferPool == null)
+			bufferPool = new BufferPool((int) Math.min(Main.BUFFER, summary.getChunkSize()), threads, false);
+		metrics.setBufferPool(bufferPool);
+		
+		// Refuse the whole pack before writing anything if any file would leave the output path
+		for (int i = 0; i < files.size(); i++)
+			targets[i] = files.get(i).resolve(outputPath);
+		// Chunks write into the files in any order, so every file exists and is empty first
+		for (int i = 0; i < files.size(); i++)
+		{
+			Files.createDirectories(targets[i].getParent());
+			FileChannel.open(targets[i], StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING).close();
+		}
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (final Progress progress = new Progress(!showProgress ? null : new ProgressBarBuilder()
+				.setUnit("MB", Main.MB)
+				.showSpeed()
+				.setInitialMax(summary.getTotalSize())
+				.setTaskName("Unpacking..."), listener, metrics))
+		{
+			final List<Future<Long>> futures = new ArrayList<Future<Long>>(summary.getChunkAmount());
+			for (int i = 1; i <= summary.getChunkAmount(); i++)
+			{
+				final int index = i;
+				futures.add(executor.submit(() -> unpackChunk(index, progress)));
+			}
+			Main.awaitAll(futures);
+		} finally
+		{
+			executor.shutdownNow();
+		}
+		
+		for (int i = 0; i < files.size(); i++)
+			Files.setLastModifiedTime(targets[i], FileTime.fromMillis(files.get(i).getLastModified()));
+		if (summary.hasMerkleRoot())
+			checkMerkleRoot();
+	}
+	
+	/**
+	 * Unpack an individual chunk into the files it holds, safe to call from multiple threads.
+	 * A chunk that cannot be read is warned about and counted as damaged.
+	 * @param index The chunk's index.
+	 * @param progress The shared progress to note to.
+	 * @return The amount of bytes read and unpacked, should be the same as the chunk's size.
+	 * @throws IOException If a file could not be written.
+	 */
+	private long unpackChunk(int index, Progress progress) throws IOException
+	{
+		final long start = metrics.chunkStarted();
+		final MessageDigest digest = Main.digestSupplier(summary.getAlgorithm());
+		final long chunkOffset = summary.getChunkOffset(index), expectedSize = summary.getChunkLength(index);
+		final ByteBuffer buffer = bufferPool.acquire();
+		int fileIndex = fileAt(chunkOffset);
+		FileChannel output = null;
+		long processed = 0;
+		try (final ReadableByteChannel inputChannel = openChunk(index))
+		{
+			while (processed < expectedSize)
+			{
+				buffer.clear().limit((int) Math.min(buffer.capacity(), expectedSize - processed));
+				long time = System.nanoTime();
+				// Short chunks leave the rest of their files empty, the checksum reports them
+				if (inputChannel.read(buffer) < 0)
+					break;
+				buffer.flip();
+				time = metrics.record(JobMetrics.Stage.READ, time, buffer.limit());
+				
+				digest.update(buffer);
+				time = metrics.record(JobMetrics.Stage.HASH, time, buffer.limit());
+				buffer.rewind();
+				// Scatter the bytes to the files they belong to
+				while (buffer.hasRemaining())
+				{
+					final long position = chunkOffset + processed + buffer.position();
+					while (ends[fileIndex] <= position)
+					{
+						fileIndex++;
+						if (output != null)
+							output.close();
+						output = null;
+					}
+					if (output == null)
+						output = FileChannel.open(targets[fileIndex], StandardOpenOption.WRITE);
+					final ByteBuffer slice = buffer.duplicate();
+					slice.limit(slice.position() + (int) Math.min(slice.remaining(), ends[fileIndex] - position));
+					final long filePosition = position - files.get(fileIndex).getOffset() - slice.position();
+					while (slice.hasRemaining())
+						output.write(slice, filePosition + slice.position());
+					buffer.position(slice.position());
+				}
+				metrics.record(JobMetrics.Stage.WRITE, time, buffer.limit());
+				
+				progress.stepBy(buffer.limit());
+				processed += buffer.limit();
+			}
+		} catch (NoSuchFileException e)
+		{
+			listener.warning("Chunk #" + index + " is missing, its files cannot be unpacked!");
+			mismatches.put(index, new byte[0]);
+			return 0;
+		} finally
+		{
+			if (output != null)
+				output.close();
+			bufferPool.release(buffer);
+		}
+		
+		final byte[] checksum = digest.digest();
+		if (!MessageDigest.isEqual(summary.getChecksum(index), checksum))
+		{
+			listener.warning("Chunk #" + index + " does not match its checksum, the files in it are damaged!");
+			mismatches.put(index, checksum);
+		}
+		metrics.chunkFinished(summary.getFilename(), index, start, processed);
+		return processed;
+	}
+	
+	/**
+	 * Opens a chunk for reading its original data, decompressing it if compressed.
+	 * @param index The chunk's index.
+	 * @return The chunk's data.
+	 * @throws IOException If the chunk could not be opened.
+	 */
+	private ReadableByteChannel openChunk(int index) throws IOException
+	{
+		final Path chunkPath = Paths.get(inputPath.getParent() == null ? "" : inputPath.getParent().toString(), summary.getChunkFilename(index));
+		return summary.getCodec().decompress(FileChannel.open(chunkPath, StandardOpenOption.READ));
+	}
+	
+	/**
+	 * Find the file holding a position of the pack.
+	 * @param position The position.
+	 * @return Index of the first file ending after the position.
+	 */
+	private int fileAt(long position)
+	{
+		int low = 0, high = ends.length - 1;
+		while (low < high)
+		{
+			final int middle = (low + high) >>> 1;
+			if (ends[middle] <= position)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+	
+	/**
+	 * Warn the user if the Merkle root of the unpacked chunks' checksums does not match the summary's.
+	 */
+	private void checkMerkleRoot()
+	{
+		final byte[][] leaves = new byte[summary.getChunkAmount()][];
+		for (int index = 1; index <= leaves.length; index++)
+			leaves[index - 1] = mismatches.containsKey(index) ? mismatches.get(index) : summary.getChecksum(index);
+		final byte[] root = MerkleTree.root(summary.getAlgorithm(), leaves);
+		if (!MessageDigest.isEqual(summary.getMerkleRoot(), root))
+		{
+			wholePackIntact = false;
+			listener.warning("Unpacked Merkle root mismatch, the summary is most likely corrupted! Expected: [" + summary.getMerkleRootHex() + "], but got: [" + Main.bytesToHex(root) + "].");
+		}
+	}
+	
+	/**
+	 * The chunks that did not match their checksum or were missing.
+	 * @return The indices of the damaged chunks, in ascending order.
+	 */
+	public int[] getMismatchedChunks()
+	{
+		return mismatches.keySet().stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/**
+	 * The files holding any part of a damaged chunk.
+	 * @return The damaged files in pack order, empty if every chunk matched.
+	 */
+	public List<PackedFile> getDamagedFiles()
+	{
+		final List<PackedFile> damaged = new ArrayList<PackedFile>();
+		for (int index : mismatches.keySet())
+		{
+			final long chunkEnd = summary.getChunkOffset(index) + summary.getChunkLength(index);
+			for (int i = fileAt(summary.getChunkOffset(index)); i < files.size() && files.get(i).getOffset() < chunkEnd; i++)
+				if (files.get(i).getLength() > 0 && (damaged.isEmpty() || damaged.get(damaged.size() - 1) != files.get(i)))
+					damaged.add(files.get(i));
+		}
+		return damaged;
+	}
+	
+	/**
+	 * Checks if the unpacked files match the summary, once executed.
+	 * @return True if every chunk and the Merkle root matched.
+	 */
+	public boolean isIntact()
+	{
+		return mismatches.isEmpty() && wholePackIntact;
+	}
+	
+	/**
+	 * Extract a single file of a pack, only reading and verifying the chunks it is in.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @param summary The summary of the pack.
+	 * @param path The file's path within the pack, separated by {@code /}.
+	 * @param outputFile Where to write the file, replacing any file there.
+	 * @return The extracted file's entry.
+	 * @throws NoSuchFileException If the pack has no such file.
+	 * @throws ChunkException If a chunk the file is in fails verification, leaving no partial file.
+	 * @throws IOException If a chunk the file is in is missing or could not be read, leaving no partial file.
+	 */
+	public static PackedFile extract(Path inputPath, SplitSummary summary, String path, Path outputFile) throws IOException
+	{
+		final PackedFile file = summary.getFile(path);
+		if (file == null)
+			throw new NoSuchFileException(path, null, "not packed in [" + summary.getFilename() + ']');
+		
+		try (final SplitChannel inputChannel = new SplitChannel(inputPath, summary).setVerify(true);
+				final FileChannel outputChannel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(Math.min(Main.BUFFER, file.getLength()), 1));
+			inputChannel.position(file.getOffset());
+			long remaining = file.getLength();
+			while (remaining > 0)
+			{
+				// One chunk at a time, so a failure names its chunk
+				final long position = file.getOffset() + file.getLength() - remaining;
+				final int index = summary.getChunkIndex(position);
+				buffer.clear().limit((int) Math.min(Math.min(buffer.capacity(), remaining), summary.getChunkOffset(index) + summary.getChunkLength(index) - position));
+				try
+				{
+					if (inputChannel.read(buffer) < 0)
+						throw new IOException("Pack ended before the end of [" + path + "]!");
+				} catch (NoSuchFileException e)
+				{
+					throw e;
+				} catch (IOException e)
+				{
+					throw new ChunkException(index, e.getMessage(), e);
+				}
+				buffer.flip();
+				remaining -= buffer.remaining();
+				while (buffer.hasRemaining())
+					outputChannel.write(buffer);
+			}
+		} catch (IOException | RuntimeException e)
+		{
+			// A partial file would pass for the packed one
+			Files.deleteIfExists(outputFile);
+			throw e;
+		}
+		Files.setLastModifiedTime(outputFile, FileTime.fromMillis(file.getLastModified()));
+		return file;
+	}
+}
@@ -0,0 +1,314 @@
+package main;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.tongfei.progressbar.ProgressBarBuilder;
+
+/**
+ * Class to check every chunk against the summary without merging them.
+ * @author UFFR
+ *
+ */
+public class VerifyHelper
+{
+	private final Path inputPath;
+	private final SplitSummary summary;
+	private int threads = 1;
+	private BufferPool bufferPool;
+	private JobListener listener = JobListener.NONE;
+	private JobMetrics metrics;
+	private boolean showProgress = true;
+	// Results per chunk, addressed by index
+	private final ChunkStatus[] statuses;
+	private final long[] sizes;
+	private final byte[][] checksums;
+	private final List<List<long[]>> damaged;
+	/**
+	 * Construct a helper.
+	 * @param inputPath The path of the summary file, with the chunks next to it.
+	 * @param summary The summary file to use.
+	 */
+	public VerifyHelper(Path inputPath, SplitSummary summary)
+	{
+		this.inputPath = inputPath;
+		this.summary = summary;
+		statuses = new ChunkStatus[summary.getChunkAmount() + 1];
+		sizes = new long[summary.getChunkAmount() + 1];
+		checksums = new byte[summary.getChunkAmount() + 1][];
+		damaged = new ArrayList<List<long[]>>(summary.getChunkAmount() + 1);
+		for (int index = 0; index <= summary.getChunkAmount(); index++)
+			damaged.add(new ArrayList<long[]>());
+		metrics = new JobMetrics(summary.getFilename());
+	}
+	
+	/**
+	 * Set the amount of worker threads to hash chunks with.
+	 * @param threads The amount of threads.
+	 * @return This helper.
+	 */
+	public VerifyHelper setThreads(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("Thread count must be positive!");
+		this.threads = threads;
+		return this;
+	}
+	
+	/**
+	 * Set the pool the workers take their buffers from.
+	 * @param bufferPool The pool to use, or null for one sized to the chunks and thread count.
+	 * @return This helper.
+	 */
+	public VerifyHelper setBufferPool(BufferPool bufferPool)
+	{
+		this.bufferPool = bufferPool;
+		return this;
+	}
+	
+	/**
+	 * Set the listener to report progress to.
+	 * @param listener The listener to use.
+	 * @return This helper.
+	 */
+	public VerifyHelper setListener(JobListener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+	
+	/**
+	 * Set the metrics to record timings and counters to, instead of the helper's own.
+	 * @param metrics The metrics to record to, may be shared with other jobs.
+	 * @return This helper.
+	 */
+	public VerifyHelper setMetrics(JobMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+	
+	public JobMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Set whether progress is drawn on the console.
+	 * @param showProgress True to draw a progress bar.
+	 * @return This helper.
+	 */
+	public VerifyHelper setShowProgress(boolean showProgress)
+	{
+		this.showProgress = showProgress;
+		return this;
+	}
+	
+	/**
+	 * Begin verifying, hashing every chunk concurrently and writing nothing.
+	 * @throws IOException If any I/O exception occurs during the process.
+	 */
+	public void execute() throws IOException
+	{
+		if (bufferPool == null)
+			bufferPool = new BufferPool((int) Math.min(Main.BUFFER, summary.getChunkSize()), threads, false);
+		metrics.setBufferPool(bufferPool);
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (final Progress progress = new Progress(!showProgress ? null : new ProgressBarBuilder()
+				.setUnit("MB", Main.MB)
+				.showSpeed()
+				.setInitialMax(summary.getTotalSize())
+				.setTaskName("Verifying..."), listener, metrics))
+		{
+			final List<Future<ChunkStatus>> futures = new ArrayList<Future<ChunkStatus>>(summary.getChunkAmount());
+			for (int i = 1; i <= summary.getChunkAmount(); i++)
+			{
+				final int index = i;
+				futures.add(executor.submit(() -> verifyChunk(index, progress)));
+			}
+			Main.awaitAll(futures);
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Verify an individual chunk, safe to call from multiple threads.
+	 * @param index The chunk's index.
+	 * @param progress The shared progress to note to.
+	 * @return The chunk's status.
+	 * @throws IOException If the chunk exists but could not be read.
+	 */
+	private ChunkStatus verifyChunk(int index, Progress progress) throws IOException
+	{
+		final Path chunkPath = chunkPath(index);
+		final ChunkStatus status;
+		final MessageDigest digest = BlockDigest.forChunks(summary);
+		if (!Files.exists(chunkPath))
+			status = ChunkStatus.MISSING;
+		else if ((sizes[index] = Files.size(chunkPath)) != summary.getStoredLength(index))
+		{
+			status = ChunkStatus.WRONG_SIZE;
+			// Block checksums are only kept for uncompressed chunks, so whatever is there can still be compared
+			if (summary.hasBlocks())
+				Main.digestFile(chunkPath, summary.getChunkLength(index), digest, bufferPool);
+		} else
+		{
+			checksums[index] = digestChunk(chunkPath, index, digest);
+			status = MessageDigest.isEqual(summary.getChecksum(index), checksums[index]) ? ChunkStatus.GOOD : ChunkStatus.CORRUPT;
+		}
+		if (status != ChunkStatus.GOOD && summary.hasBlocks())
+			locateDamage(index, status, digest);
+		statuses[index] = status;
+		progress.stepBy(summary.getChunkLength(index));
+		return status;
+	}
+	
+	/**
+	 * Find the byte ranges of a damaged chunk that need resending, from the block checksums of what is there.
+	 * @param index The chunk's index.
+	 * @param status The chunk's status.
+	 * @param digest The block digest the chunk's data was hashed with, if it exists.
+	 */
+	private void locateDamage(int index, ChunkStatus status, MessageDigest digest)
+	{
+		final List<long[]> ranges = damaged.get(index);
+		if (status == ChunkStatus.MISSING)
+		{
+			ranges.add(new long[] {0, summary.getChunkLength(index)});
+			return;
+		}
+		ranges.addAll(BlockDigest.damagedRanges(summary, index, ((BlockDigest) digest).getBlockChecksums()));
+		// A chunk with only excess data still needs a patch to trim it, so its last block is resent
+		if (ranges.isEmpty())
+		{
+			final long length = summary.getChunkLength(index);
+			ranges.add(new long[] {(summary.getBlockAmount(index) - 1) * summary.getBlockSize(), length});
+		}
+	}
+	
+	/**
+	 * Calculate the checksum of a chunk's original data, decompressing it if compressed.
+	 * @param chunkPath The chunk's path.
+	 * @param index The chunk's index.
+	 * @param digest The digest to hash with.
+	 * @return The checksum.
+	 * @throws IOException If the chunk could not be read or decompressed.
+	 */
+	private byte[] digestChunk(Path chunkPath, int index, MessageDigest digest) throws IOException
+	{
+		if (!summary.isCompressed())
+			return Main.digestFile(chunkPath, summary.getChunkLength(index), digest, bufferPool);
+		
+		final ByteBuffer buffer = bufferPool.acquire();
+		try (final ReadableByteChannel inputChannel = summary.getCodec().decompress(FileChannel.open(chunkPath, StandardOpenOption.READ)))
+		{
+			Main.digestChannel(inputChannel, summary.getChunkLength(index), digest, buffer);
+		} catch (IOException e)
+		{
+			// Data that cannot be decompressed is corrupt, not a failure of the verification
+			return new byte[0];
+		} finally
+		{
+			bufferPool.release(buffer);
+		}
+		return digest.digest();
+	}
+	
+	/**
+	 * Resolves the path of a chunk next to the summary file.
+	 * @param index The chunk's index.
+	 * @return The chunk's path.
+	 */
+	private Path chunkPath(int index)
+	{
+		return Paths.get(inputPath.getParent() == null ? "" : inputPath.getParent().toString(), summary.getChunkFilename(index));
+	}
+	
+	/**
+	 * Gets the status of a verified chunk.
+	 * @param index The chunk's index.
+	 * @return The chunk's status, or null if not verified yet.
+	 */
+	public ChunkStatus getStatus(int index)
+	{
+		return statuses[index];
+	}
+	
+	/**
+	 * Count the chunks with a status.
+	 * @param status The status to count.
+	 * @return Amount of chunks.
+	 */
+	public int countStatus(ChunkStatus status)
+	{
+		int count = 0;
+		for (int index = 1; index <= summary.getChunkAmount(); index++)
+			if (statuses[index] == status)
+				count++;
+		return count;
+	}
+	
+	/**
+	 * The byte ranges of the damaged chunks that need resending, in the form {@link RangePatch#parseRanges(String)} reads.
+	 * @return The ranges of every damaged chunk, empty if all are good or the summary keeps no block checksums.
+	 */
+	public String getDamagedRanges()
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (int index = 1; index <= summary.getChunkAmount(); index++)
+		{
+			final String ranges = BlockDigest.formatRanges(index, damaged.get(index));
+			if (ranges.isEmpty())
+				continue;
+			if (builder.length() > 0)
+				builder.append(',');
+			builder.append(ranges);
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Checks if every chunk verified as good.
+	 * @return True if all are good, false if any needs resending.
+	 */
+	public boolean isIntact()
+	{
+		return countStatus(ChunkStatus.GOOD) == summary.getChunkAmount();
+	}
+	
+	/**
+	 * Write the report, one tab separated line per chunk of its index, status, file name, expected and actual size
+	 * of its file, expected and actual checksum of its original data and its damaged byte ranges, if the summary keeps
+	 * block checksums. Unknown values are written as {@code -}.
+	 * @param out The stream to write to.
+	 */
+	public void writeReport(PrintStream out)
+	{
+		out.println("#index\tstatus\tfile\texpected_size\tactual_size\texpected_checksum\tactual_checksum\tdamaged_ranges");
+		for (int index = 1; index <= summary.getChunkAmount(); index++)
+		{
+			final ChunkStatus status = statuses[index];
+			out.println(index + "\t" + status + '\t' + summary.getChunkFilename(index)
+					+ '\t' + summary.getStoredLength(index) + '\t' + (status == ChunkStatus.MISSING ? "-" : String.valueOf(sizes[index]))
+					+ '\t' + summary.getHexChunksum(index) + '\t' + (checksums[index] == null || checksums[index].length == 0 ? "-" : Main.bytesToHex(checksums[index]))
+					+ '\t' + (damaged.get(index).isEmpty() ? "-" : BlockDigest.formatRanges(index, damaged.get(index))));
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,144 @@
+package main;
+
+import java.security.MessageDigest;
+
+/**
+ * Streaming xxHash64 with a seed of 0, output big-endian as in its canonical form.
+ * @author UFFR
+ *
+ */
+class XXHash64Digest extends MessageDigest
+{
+	private static final long PRIME_1 = 0x9E3779B185EBCA87L, PRIME_2 = 0xC2B2AE3D27D4EB4FL, PRIME_3 = 0x165667B19E3779F9L,
+			PRIME_4 = 0x85EBCA77C2B2AE63L, PRIME_5 = 0x27D4EB2F165667C5L;
+	// Partial stripe carried over between updates
+	private final byte[] stripe = new byte[32];
+	private int stripeLength;
+	private long v1, v2, v3, v4, totalLength;
+	XXHash64Digest()
+	{
+		super("xxHash64");
+		engineReset();
+	}
+	
+	@Override
+	protected int engineGetDigestLength()
+	{
+		return 8;
+	}
+	
+	@Override
+	protected void engineUpdate(byte input)
+	{
+		engineUpdate(new byte[] {input}, 0, 1);
+	}
+	
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len)
+	{
+		totalLength += len;
+		int position = offset;
+		final int end = offset + len;
+		// Complete a carried over stripe first
+		if (stripeLength > 0)
+		{
+			final int take = Math.min(32 - stripeLength, len);
+			System.arraycopy(input, position, stripe, stripeLength, take);
+			stripeLength += take;
+			position += take;
+			if (stripeLength < 32)
+				return;
+			consumeStripe(stripe, 0);
+			stripeLength = 0;
+		}
+		for (; position + 32 <= end; position += 32)
+			consumeStripe(input, position);
+		System.arraycopy(input, position, stripe, 0, end - position);
+		stripeLength = end - position;
+	}
+	
+	@Override
+	protected byte[] engineDigest()
+	{
+		long hash;
+		if (totalLength >= 32)
+		{
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else
+			hash = PRIME_5;
+		hash += totalLength;
+		
+		int position = 0;
+		for (; position + 8 <= stripeLength; position += 8)
+		{
+			hash ^= round(0, readLong(stripe, position));
+			hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+		}
+		if (position + 4 <= stripeLength)
+		{
+			hash ^= (readInt(stripe, position) & 0xFFFFFFFFL) * PRIME_1;
+			hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+			position += 4;
+		}
+		for (; position < stripeLength; position++)
+		{
+			hash ^= (stripe[position] & 0xFF) * PRIME_5;
+			hash = Long.rotateLeft(hash, 11) * PRIME_1;
+		}
+		
+		hash ^= hash >>> 33;
+		hash *= PRIME_2;
+		hash ^= hash >>> 29;
+		hash *= PRIME_3;
+		hash ^= hash >>> 32;
+		
+		engineReset();
+		final byte[] result = new byte[8];
+		for (int i = 0; i < 8; i++)
+			result[i] = (byte) (hash >>> (56 - i * 8));
+		return result;
+	}
+	
+	@Override
+	protected void engineReset()
+	{
+		v1 = PRIME_1 + PRIME_2;
+		v2 = PRIME_2;
+		v3 = 0;
+		v4 = -PRIME_1;
+		totalLength = 0;
+		stripeLength = 0;
+	}
+	
+	private void consumeStripe(byte[] input, int offset)
+	{
+		v1 = round(v1, readLong(input, offset));
+		v2 = round(v2, readLong(input, offset + 8));
+		v3 = round(v3, readLong(input, offset + 16));
+		v4 = round(v4, readLong(input, offset + 24));
+	}
+	
+	private static long round(long accumulator, long input)
+	{
+		return Long.rotateLeft(accumulator + input * PRIME_2, 31) * PRIME_1;
+	}
+	
+	private static long mergeRound(long accumulator, long value)
+	{
+		return (accumulator ^ round(0, value)) * PRIME_1 + PRIME_4;
+	}
+	
+	private static long readLong(byte[] bytes, int offset)
+	{
+		return (readInt(bytes, offset) & 0xFFFFFFFFL) | ((long) readInt(bytes, offset + 4) << 32);
+	}
+	
+	private static int readInt(byte[] bytes, int offset)
+	{
+		return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+	}
+}